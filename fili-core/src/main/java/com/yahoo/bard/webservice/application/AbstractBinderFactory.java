@@ -16,6 +16,7 @@ import com.yahoo.bard.webservice.application.healthchecks.DataSourceMetadataLoad
 import com.yahoo.bard.webservice.application.healthchecks.DruidDimensionsLoaderHealthCheck;
 import com.yahoo.bard.webservice.application.healthchecks.LookupHealthCheck;
 import com.yahoo.bard.webservice.application.healthchecks.VersionHealthCheck;
+import com.yahoo.bard.webservice.async.broadcastchannels.BatchingBroadcastChannel;
 import com.yahoo.bard.webservice.async.broadcastchannels.BroadcastChannel;
 import com.yahoo.bard.webservice.async.broadcastchannels.SimpleBroadcastChannel;
 import com.yahoo.bard.webservice.async.jobs.jobrows.DefaultJobField;
@@ -65,6 +66,8 @@ import com.yahoo.bard.webservice.druid.client.DruidServiceConfig;
 import com.yahoo.bard.webservice.druid.client.DruidWebService;
 import com.yahoo.bard.webservice.druid.client.impl.AsyncDruidWebServiceImpl;
 import com.yahoo.bard.webservice.druid.client.impl.HeaderNestingJsonBuilderStrategy;
+import com.yahoo.bard.webservice.druid.client.impl.LoadBalancingDruidWebService;
+import com.yahoo.bard.webservice.druid.client.impl.RetryingDruidWebService;
 import com.yahoo.bard.webservice.druid.model.builders.DefaultDruidHavingBuilder;
 import com.yahoo.bard.webservice.druid.model.builders.DruidFilterBuilder;
 import com.yahoo.bard.webservice.druid.model.builders.DruidHavingBuilder;
@@ -213,6 +216,9 @@ public abstract class AbstractBinderFactory implements BinderFactory {
             0
     );
 
+    public static final String BROADCAST_BATCHING_ENABLED_KEY =
+            SYSTEM_CONFIG.getPackageVariableName("broadcast_batching_enabled");
+
     public static final String SYSTEM_CONFIG_TIMEZONE_KEY = "timezone";
 
     private ObjectMappersSuite objectMappers;
@@ -565,9 +571,24 @@ public abstract class AbstractBinderFactory implements BinderFactory {
      * successfully stored in the PreResponseStore .
      *
      * @return A BroadcastChannel that allows Bard to talk to other Bard processes, by default returns the
-     * {@link SimpleBroadcastChannel}, which uses a {@link PublishSubject} to allow cross-thread communication
+     * {@link SimpleBroadcastChannel}, which uses a {@link PublishSubject} to allow cross-thread communication. If
+     * broadcast batching is enabled, returns a {@link BatchingBroadcastChannel} over the channel built by
+     * {@link #buildBroadcastBatchChannel()} instead.
      */
     protected BroadcastChannel<String> buildBroadcastChannel() {
+        if (SYSTEM_CONFIG.getBooleanProperty(BROADCAST_BATCHING_ENABLED_KEY, false)) {
+            return new BatchingBroadcastChannel<>(buildBroadcastBatchChannel());
+        }
+        return new SimpleBroadcastChannel<>(PublishSubject.create());
+    }
+
+    /**
+     * Builds the BroadcastChannel carrying batches of tickets between Bard processes when broadcast batching is
+     * enabled.
+     *
+     * @return A BroadcastChannel of batches of tickets, by default a {@link SimpleBroadcastChannel}
+     */
+    protected BroadcastChannel<List<String>> buildBroadcastBatchChannel() {
         return new SimpleBroadcastChannel<>(PublishSubject.create());
     }
 
@@ -1220,7 +1241,7 @@ public abstract class AbstractBinderFactory implements BinderFactory {
      */
     protected DruidWebService buildDruidWebService(DruidServiceConfig druidServiceConfig, ObjectMapper mapper) {
         Supplier<Map<String, String>> supplier = buildDruidWebServiceHeaderSupplier();
-        return DRUID_UNCOVERED_INTERVAL_LIMIT > 0
+        AsyncDruidWebServiceImpl druidWebService = DRUID_UNCOVERED_INTERVAL_LIMIT > 0
                 ? new AsyncDruidWebServiceImpl(
                         druidServiceConfig,
                         mapper,
@@ -1230,6 +1251,13 @@ public abstract class AbstractBinderFactory implements BinderFactory {
                         )
                 )
                 : new AsyncDruidWebServiceImpl(druidServiceConfig, mapper, supplier);
+        if (AsyncDruidWebServiceImpl.PREWARM_CONNECTIONS > 0) {
+            druidWebService.prewarmConnections(AsyncDruidWebServiceImpl.PREWARM_CONNECTIONS);
+        }
+        // Each node gets a retry budget of its own
+        return RetryingDruidWebService.DEFAULT_MAX_RETRIES > 0 ?
+                new RetryingDruidWebService(druidWebService) :
+                druidWebService;
     }
 
     /**
@@ -1261,14 +1289,29 @@ public abstract class AbstractBinderFactory implements BinderFactory {
     /**
      * Create a DruidWebService for the UI connection.
      * <p>
-     * Provided so subclasses can implement alternative druid web service implementations for the UI connection
+     * Provided so subclasses can implement alternative druid web service implementations for the UI connection.
+     * When individual brokers are configured, queries are spread over them instead of going to the broker vip.
      *
      * @param mapper shared instance of {@link com.fasterxml.jackson.databind.ObjectMapper}
      *
      * @return A DruidWebService
      */
     protected DruidWebService buildDruidWebService(ObjectMapper mapper) {
-        return buildDruidWebService(DruidClientConfigHelper.getServiceConfig(), mapper);
+        List<DruidServiceConfig> brokerConfigs = DruidClientConfigHelper.getBrokerServiceConfigs();
+        if (brokerConfigs.isEmpty()) {
+            return buildDruidWebService(DruidClientConfigHelper.getServiceConfig(), mapper);
+        }
+        return new LoadBalancingDruidWebService(
+                new DruidServiceConfig(
+                        "Brokers",
+                        brokerConfigs.stream().map(DruidServiceConfig::getUrl).collect(Collectors.joining(",")),
+                        DruidClientConfigHelper.getDruidTimeout(),
+                        DruidClientConfigHelper.getDruidPriority()
+                ),
+                brokerConfigs.stream()
+                        .map(brokerConfig -> buildDruidWebService(brokerConfig, mapper))
+                        .collect(Collectors.toList())
+        );
     }
 
     /**
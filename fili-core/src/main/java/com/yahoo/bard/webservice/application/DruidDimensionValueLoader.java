@@ -6,8 +6,10 @@ import com.yahoo.bard.webservice.config.SystemConfig;
 import com.yahoo.bard.webservice.config.SystemConfigProvider;
 import com.yahoo.bard.webservice.data.dimension.Dimension;
 import com.yahoo.bard.webservice.data.dimension.DimensionDictionary;
+import com.yahoo.bard.webservice.data.dimension.DimensionField;
 import com.yahoo.bard.webservice.data.dimension.DimensionRow;
 import com.yahoo.bard.webservice.data.time.AllGranularity;
+import com.yahoo.bard.webservice.druid.client.DruidClientConfigHelper;
 import com.yahoo.bard.webservice.druid.client.DruidWebService;
 import com.yahoo.bard.webservice.druid.client.FailureCallback;
 import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
@@ -21,22 +23,41 @@ import com.yahoo.bard.webservice.table.PhysicalTableDictionary;
 import com.yahoo.bard.webservice.table.resolver.DataSourceConstraint;
 import com.yahoo.bard.webservice.web.handlers.RequestContext;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.JsonNode;
+
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
 import org.joda.time.Period;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
  * The DruidDimensionRowProvider sends requests to the druid search query interface to get a list of dimension
  * values to add to the dimension cache.
+ * <p>
+ * The values returned for a dimension by all of its datasources are collected first. Once every query for the
+ * dimension has answered, the values the dimension doesn't have yet are found with a single bulk lookup and added
+ * with a single {@link Dimension#addAllDimensionRows(Set)} call. At most
+ * {@code druid_dim_loader_max_concurrent_dimensions} dimensions (4 by default) are queried and updated at a time. A
+ * dimension whose queries haven't answered within the druid timeout gives its turn up to the next one.
  */
 public class DruidDimensionValueLoader implements DimensionValueLoader {
     private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
 
     public static final String DRUID_DIM_LOADER_DIMENSIONS =
             SYSTEM_CONFIG.getPackageVariableName("druid_dim_loader_dimensions");
@@ -46,6 +67,9 @@ public class DruidDimensionValueLoader implements DimensionValueLoader {
     public static final String DRUID_DIM_LOADER_LOOKBACK_PERIOD =
             SYSTEM_CONFIG.getPackageVariableName("druid_dim_loader_lookback_period");
 
+    public static final String DRUID_DIM_LOADER_MAX_CONCURRENT_DIMENSIONS =
+            SYSTEM_CONFIG.getPackageVariableName("druid_dim_loader_max_concurrent_dimensions");
+
     private static final Integer ROW_LIMIT = SYSTEM_CONFIG.getIntProperty(DRUID_DIM_LOADER_ROW_LIMIT, 1000);
 
     private static final Period LOOKBACK = new Period(SYSTEM_CONFIG.getStringProperty(
@@ -56,9 +80,15 @@ public class DruidDimensionValueLoader implements DimensionValueLoader {
     private static final String ANY_MATCH_PATTERN = ".*";
     private static final SearchQuerySpec SEARCH_QUERY_SPEC = new RegexSearchQuerySpec(ANY_MATCH_PATTERN);
 
+    private static final Timer LOAD_CYCLE_TIME = REGISTRY.timer("dimensions.druid.load.cycle");
+    private static final Timer DIMENSION_LOAD_TIME = REGISTRY.timer("dimensions.druid.load.dimension");
+    private static final Meter NEW_ROWS = REGISTRY.meter("dimensions.druid.load.rows.new");
+
     private final DruidWebService druidWebService;
     private final LinkedHashSet<Dimension> dimensions;
     private final LinkedHashSet<DataSource> dataSources;
+    private final Semaphore dimensionPermits;
+    private final Set<DimensionLoad> loadsInFlight = ConcurrentHashMap.newKeySet();
 
     private HttpErrorCallback errorCallback;
     private FailureCallback failureCallback;
@@ -110,6 +140,9 @@ public class DruidDimensionValueLoader implements DimensionValueLoader {
                 .collect(Collectors.toCollection(LinkedHashSet::new));
 
         this.druidWebService = druidWebService;
+        this.dimensionPermits = new Semaphore(
+                SYSTEM_CONFIG.getIntProperty(DRUID_DIM_LOADER_MAX_CONCURRENT_DIMENSIONS, 4)
+        );
     }
 
     @Override
@@ -132,11 +165,161 @@ public class DruidDimensionValueLoader implements DimensionValueLoader {
         return dataSources;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Blocks while the most dimensions allowed are being loaded, and times the cycle until every dimension that was
+     * started is updated, including when the cycle is cut short.
+     */
+    @Override
+    public void load() {
+        Timer.Context cycle = LOAD_CYCLE_TIME.time();
+        // One more than the dimensions started, until every dimension has been started or the cycle is cut short
+        AtomicInteger pendingDimensions = new AtomicInteger(1);
+        Runnable dimensionLoaded = () -> {
+            if (pendingDimensions.decrementAndGet() == 0) {
+                cycle.stop();
+            }
+        };
+        try {
+            for (Dimension dimension : getDimensions()) {
+                LOG.trace("Querying values for dimension: {}", dimension);
+                acquirePermit();
+                pendingDimensions.incrementAndGet();
+                loadDimension(dimension, dimensionLoaded);
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while loading dimension values", e);
+            Thread.currentThread().interrupt();
+        } finally {
+            dimensionLoaded.run();
+        }
+    }
+
+    /**
+     * Waits for a permit to load a dimension. Each time no permit frees up within the druid timeout, the permits of
+     * the dimensions whose queries have been in flight for longer than the timeout are released, since their
+     * callbacks may never run.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void acquirePermit() throws InterruptedException {
+        Integer druidTimeout = druidWebService.getTimeout();
+        long timeoutMillis = druidTimeout == null ? DruidClientConfigHelper.getDruidTimeout() : druidTimeout;
+        while (!dimensionPermits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            long staleBefore = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            for (DimensionLoad load : loadsInFlight) {
+                if (load.getStartNanos() - staleBefore <= 0) {
+                    LOG.warn(
+                            "Values for dimension {} were not loaded within {} ms, releasing its permit",
+                            load.getDimension().getApiName(),
+                            timeoutMillis
+                    );
+                    load.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Queries a dimension holding a permit, which is released once the dimension is updated or its queries failed.
+     * If the queries can't all be sent, the permit is released right away.
+     *
+     * @param dimension  The dimension to load values for
+     * @param dimensionLoaded  Run once the dimension is updated, or every query for it failed
+     */
+    private void loadDimension(Dimension dimension, Runnable dimensionLoaded) {
+        DimensionLoad load = new DimensionLoad(dimension, dimensionLoaded);
+        loadsInFlight.add(load);
+        boolean sent = false;
+        try {
+            queryDimension(dimension, load);
+            sent = true;
+        } finally {
+            if (!sent) {
+                // Queries that were sent still answer, but the permit can't wait for the ones that weren't
+                load.run();
+            }
+        }
+    }
+
+    @Override
+    public void queryDimension(Dimension dimension) {
+        queryDimension(dimension, () -> { });
+    }
+
     @Override
     public void query(Dimension dimension, DataSource dataSource) {
         // Success callback will update the dimension cache
         SuccessCallback success = buildDruidDimensionsSuccessCallback(dimension);
+        postSearchQuery(dimension, dataSource, success, errorCallback, failureCallback);
+    }
+
+    /**
+     * Queries the values of a dimension from every datasource that has it, and adds the new values to the dimension
+     * once every query has answered.
+     *
+     * @param dimension  The dimension to load values for
+     * @param onLoaded  Run once the dimension is updated, or every query for it failed
+     */
+    private void queryDimension(Dimension dimension, Runnable onLoaded) {
+        List<DataSource> dimensionDataSources = getDataSources().stream()
+                .filter(dataSource -> dimensionExistsInDataSource(dimension, dataSource))
+                .collect(Collectors.toList());
+        if (dimensionDataSources.isEmpty()) {
+            onLoaded.run();
+            return;
+        }
+        DimensionValues values = new DimensionValues(dimension, dimensionDataSources.size(), onLoaded);
+        dimensionDataSources.forEach(dataSource -> query(dimension, dataSource, values));
+    }
+
+    /**
+     * Queries the values of a dimension from a datasource, collecting them into the values found for the dimension.
+     *
+     * @param dimension  The dimension to load values for
+     * @param dataSource  The datasource to query values from
+     * @param values  The values found for the dimension so far
+     */
+    private void query(Dimension dimension, DataSource dataSource, DimensionValues values) {
+        // Success callback will collect the values, and update the dimension cache after the last query
+        SuccessCallback success = rootNode -> {
+            collectValues(rootNode, values.getValues());
+            queryAnswered(values, true);
+        };
+        HttpErrorCallback error = (statusCode, reasonPhrase, responseBody) -> {
+            try {
+                errorCallback.invoke(statusCode, reasonPhrase, responseBody);
+            } finally {
+                queryAnswered(values, false);
+            }
+        };
+        FailureCallback failure = throwable -> {
+            try {
+                failureCallback.invoke(throwable);
+            } finally {
+                queryAnswered(values, false);
+            }
+        };
+        postSearchQuery(dimension, dataSource, success, error, failure);
+    }
 
+    /**
+     * Sends a search query for all the values of a dimension in a datasource.
+     *
+     * @param dimension  The dimension to load values for
+     * @param dataSource  The datasource to query values from
+     * @param success  The callback handling the values
+     * @param error  The callback handling http errors
+     * @param failure  The callback handling exceptions
+     */
+    private void postSearchQuery(
+            Dimension dimension,
+            DataSource dataSource,
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure
+    ) {
         Interval interval = new Interval(LOOKBACK, DateTime.now());
 
         DruidSearchQuery druidSearchQuery = new DruidSearchQuery(
@@ -154,8 +337,8 @@ public class DruidDimensionValueLoader implements DimensionValueLoader {
         druidWebService.postDruidQuery(
                 requestContext,
                 success,
-                errorCallback,
-                failureCallback,
+                error,
+                failure,
                 druidSearchQuery
         );
     }
@@ -169,17 +352,176 @@ public class DruidDimensionValueLoader implements DimensionValueLoader {
      */
     private SuccessCallback buildDruidDimensionsSuccessCallback(Dimension dimension) {
         return rootNode -> {
-            rootNode.forEach(intervalNode -> {
-                intervalNode.get("result").forEach(dim -> {
-                    String value = dim.get("value").asText();
-                    if (dimension.findDimensionRowByKeyValue(value) == null) {
-                        DimensionRow dimRow = dimension.createEmptyDimensionRow(value);
-                        updateDimensionWithValue(dimension, dimRow);
-                    }
-                });
-            });
+            Set<String> values = new LinkedHashSet<>();
+            collectValues(rootNode, values);
+            updateDimensionWithValues(dimension, values);
+        };
+    }
+
+    /**
+     * Collects the dimension values of a druid search query response.
+     *
+     * @param rootNode  The response
+     * @param values  The values collected so far
+     */
+    private static void collectValues(JsonNode rootNode, Set<String> values) {
+        rootNode.forEach(intervalNode -> intervalNode.get("result").forEach(
+                dim -> values.add(dim.get("value").asText())
+        ));
+    }
+
+    /**
+     * Records the answer of a query, and once every query for the dimension has answered, updates the dimension with
+     * the values found if any query succeeded.
+     *
+     * @param values  The values found for the dimension
+     * @param succeeded  Whether the query succeeded
+     */
+    private void queryAnswered(DimensionValues values, boolean succeeded) {
+        if (!values.queryAnswered(succeeded)) {
+            return;
+        }
+        try {
+            if (values.anySucceeded()) {
+                updateDimensionWithValues(values.getDimension(), values.getValues());
+            }
+        } finally {
+            values.getOnLoaded().run();
+        }
+    }
 
+    /**
+     * Adds the values a dimension doesn't have yet to it as empty rows, and marks the dimension as updated.
+     *
+     * @param dimension  The dimension to update
+     * @param values  The values found for the dimension
+     */
+    private void updateDimensionWithValues(Dimension dimension, Set<String> values) {
+        try (Timer.Context ignored = DIMENSION_LOAD_TIME.time()) {
+            Set<String> existing = dimension.findExistingKeyValues(values);
+            Set<DimensionRow> newRows = values.stream()
+                    .filter(value -> !existing.contains(value))
+                    .map(value -> buildEmptyDimensionRow(dimension, value))
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+            if (!newRows.isEmpty()) {
+                dimension.addAllDimensionRows(newRows);
+            }
+            NEW_ROWS.mark(newRows.size());
             updateDimension(dimension);
-        };
+        }
+    }
+
+    /**
+     * Builds a row with a key value and every other field empty.
+     *
+     * @param dimension  The dimension of the row
+     * @param value  The key value of the row
+     *
+     * @return the row
+     */
+    private static DimensionRow buildEmptyDimensionRow(Dimension dimension, String value) {
+        Map<DimensionField, String> fieldValues = new HashMap<>();
+        for (DimensionField dimensionField : dimension.getDimensionFields()) {
+            fieldValues.put(dimensionField, "");
+        }
+        fieldValues.put(dimension.getKey(), value);
+        return new DimensionRow(dimension.getKey(), fieldValues);
+    }
+
+    /**
+     * A dimension being loaded while holding a permit, which is released the first time the load is run.
+     */
+    private class DimensionLoad implements Runnable {
+        private final Dimension dimension;
+        private final Runnable dimensionLoaded;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        /**
+         * Constructor.
+         *
+         * @param dimension  The dimension being loaded
+         * @param dimensionLoaded  Run once the dimension is loaded
+         */
+        DimensionLoad(Dimension dimension, Runnable dimensionLoaded) {
+            this.dimension = dimension;
+            this.dimensionLoaded = dimensionLoaded;
+        }
+
+        public Dimension getDimension() {
+            return dimension;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        @Override
+        public void run() {
+            if (released.compareAndSet(false, true)) {
+                loadsInFlight.remove(this);
+                dimensionPermits.release();
+                dimensionLoaded.run();
+            }
+        }
+    }
+
+    /**
+     * The values found for a dimension by its queries, and the number of queries still to answer.
+     */
+    static class DimensionValues {
+        private final Dimension dimension;
+        private final Set<String> values = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger pendingQueries;
+        private final AtomicBoolean anySucceeded = new AtomicBoolean(false);
+        private final Runnable onLoaded;
+
+        /**
+         * Constructor.
+         *
+         * @param dimension  The dimension the values are found for
+         * @param queries  The number of queries sent for the dimension
+         * @param onLoaded  Run once the dimension is updated, or every query for it failed
+         */
+        DimensionValues(Dimension dimension, int queries, Runnable onLoaded) {
+            this.dimension = dimension;
+            this.pendingQueries = new AtomicInteger(queries);
+            this.onLoaded = onLoaded;
+        }
+
+        public Dimension getDimension() {
+            return dimension;
+        }
+
+        public Set<String> getValues() {
+            return values;
+        }
+
+        public Runnable getOnLoaded() {
+            return onLoaded;
+        }
+
+        /**
+         * Whether any query for the dimension succeeded.
+         *
+         * @return true if a query succeeded
+         */
+        boolean anySucceeded() {
+            return anySucceeded.get();
+        }
+
+        /**
+         * Records the answer of a query.
+         *
+         * @param succeeded  Whether the query succeeded
+         *
+         * @return true if it was the last query to answer
+         */
+        boolean queryAnswered(boolean succeeded) {
+            if (succeeded) {
+                anySucceeded.set(true);
+            }
+            return pendingQueries.decrementAndGet() == 0;
+        }
     }
 }
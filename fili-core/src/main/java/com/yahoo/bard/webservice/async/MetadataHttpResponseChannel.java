@@ -4,6 +4,7 @@ package com.yahoo.bard.webservice.async;
 
 import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.RESPONSE_WORKFLOW_TIMER;
 
+import com.yahoo.bard.webservice.async.workflows.AsyncWorkRejectedException;
 import com.yahoo.bard.webservice.logging.RequestLog;
 import com.yahoo.bard.webservice.web.ErrorMessageFormat;
 import com.yahoo.bard.webservice.web.handlers.RequestHandlerUtils;
@@ -48,6 +49,18 @@ public class MetadataHttpResponseChannel implements Observer<String> {
         if (error instanceof ResponseException) {
             ResponseException responseException = (ResponseException) error;
             send(buildErrorResponse(responseException), asyncResponse);
+        } else if (error instanceof AsyncWorkRejectedException) {
+            LOG.warn(error.getMessage());
+            send(
+                    RequestHandlerUtils.makeErrorResponse(
+                            Response.Status.SERVICE_UNAVAILABLE.getStatusCode(),
+                            ErrorUtils.getReason(error),
+                            ErrorMessageFormat.ASYNC_STAGE_SATURATED.format(),
+                            null,
+                            writer
+                    ),
+                    asyncResponse
+            );
         } else {
             LOG.error(ErrorMessageFormat.FAILED_TO_PUBLISH_ERROR.getMessageFormat(), error);
             throw new RuntimeException(ErrorMessageFormat.FAILED_TO_PUBLISH_ERROR.getMessageFormat(), error);
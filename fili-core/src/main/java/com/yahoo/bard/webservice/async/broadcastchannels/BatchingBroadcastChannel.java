@@ -0,0 +1,233 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.async.broadcastchannels;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
+import rx.subscriptions.Subscriptions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A BroadcastChannel that batches the messages published over a short window into a single message on an underlying
+ * channel, and routes each message it receives only to the local waiters for it.
+ * <p>
+ * Messages published within the same window are sent as one list, with duplicates removed, so a burst of completed
+ * jobs costs every Bard box one message to handle rather than one per job. On the receiving side, a single
+ * subscription to the underlying channel feeds an index of waiters keyed by message, so a waiter registered through
+ * {@link #getNotification(Object)} is only woken for its own message instead of filtering every message.
+ * <p>
+ * Any BroadcastChannel of lists may carry the batches, e.g. a {@link RedisBroadcastChannel} across boxes, or a
+ * {@link SimpleBroadcastChannel} within a single box.
+ *
+ * @param <T>  The type of message that the BatchingBroadcastChannel publishes
+ */
+public class BatchingBroadcastChannel<T> implements BroadcastChannel<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingBroadcastChannel.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+
+    public static final String BATCH_WINDOW_MILLIS_KEY =
+            SYSTEM_CONFIG.getPackageVariableName("broadcast_batch_window_millis");
+    public static final String MAX_BATCH_SIZE_KEY = SYSTEM_CONFIG.getPackageVariableName("broadcast_batch_max_size");
+
+    public static final long DEFAULT_BATCH_WINDOW_MILLIS = 50;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+    private static final Histogram BATCH_SIZE = REGISTRY.histogram("broadcast.batch.size");
+    private static final Histogram FAN_OUT = REGISTRY.histogram("broadcast.fanout");
+    private static final Timer BATCH_DELAY = REGISTRY.timer("broadcast.batch.delay");
+
+    private final BroadcastChannel<List<T>> batches;
+    private final Subject<T, T> pending;
+    private final Subject<T, T> notifications;
+    private final Map<T, Set<Subscriber<? super T>>> waiters = new ConcurrentHashMap<>();
+    private final Subscription received;
+    private final ReadWriteLock isClosedLock;
+    private volatile boolean isClosed;
+    private final AtomicLong firstPendingNanos = new AtomicLong();
+
+    /**
+     * Constructor, batching over the configured window (50 milliseconds and 1000 messages by default).
+     *
+     * @param batches  The channel carrying batches of messages between Bard boxes
+     */
+    public BatchingBroadcastChannel(BroadcastChannel<List<T>> batches) {
+        this(
+                batches,
+                SYSTEM_CONFIG.getLongProperty(BATCH_WINDOW_MILLIS_KEY, DEFAULT_BATCH_WINDOW_MILLIS),
+                SYSTEM_CONFIG.getIntProperty(MAX_BATCH_SIZE_KEY, DEFAULT_MAX_BATCH_SIZE),
+                Schedulers.computation()
+        );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param batches  The channel carrying batches of messages between Bard boxes
+     * @param windowMillis  How long messages are collected before their batch is published
+     * @param maxBatchSize  The most messages in a batch, a full batch is published before its window ends
+     * @param scheduler  The scheduler timing the windows
+     */
+    public BatchingBroadcastChannel(
+            BroadcastChannel<List<T>> batches,
+            long windowMillis,
+            int maxBatchSize,
+            Scheduler scheduler
+    ) {
+        this.batches = batches;
+        this.pending = PublishSubject.<T>create().toSerialized();
+        this.notifications = PublishSubject.<T>create().toSerialized();
+        this.isClosedLock = new ReentrantReadWriteLock();
+        this.isClosed = false;
+
+        pending.buffer(windowMillis, TimeUnit.MILLISECONDS, maxBatchSize, scheduler)
+                .filter(batch -> !batch.isEmpty())
+                .subscribe(this::publishBatch, error -> LOG.error("Unable to batch broadcast messages", error));
+        received = batches.getNotifications().subscribe(
+                this::receiveBatch,
+                error -> LOG.error("Unable to receive broadcast messages", error),
+                notifications::onCompleted
+        );
+    }
+
+    @Override
+    public void publish(T message) throws UnsupportedOperationException {
+        isClosedLock.readLock().lock();
+        try {
+            if (isClosed) {
+                throw new UnsupportedOperationException(PUBLISH_ON_CLOSED_ERROR_MESSAGE);
+            }
+            firstPendingNanos.compareAndSet(0, System.nanoTime());
+            pending.onNext(message);
+        } finally {
+            isClosedLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Observable<T> getNotifications() {
+        return notifications;
+    }
+
+    /**
+     * Returns an Observable that emits the message the next time it is broadcast, and then completes.
+     * <p>
+     * The waiter is registered in the local index when the Observable is subscribed to, and removed when it is
+     * notified or unsubscribes.
+     *
+     * @param message  The message to wait for
+     *
+     * @return An Observable that emits the message once it has been broadcast
+     */
+    @Override
+    public Observable<T> getNotification(T message) {
+        return Observable.create(subscriber -> {
+            waiters.compute(message, (ignored, messageWaiters) -> {
+                Set<Subscriber<? super T>> updated = messageWaiters == null ?
+                        new CopyOnWriteArraySet<>() :
+                        messageWaiters;
+                updated.add(subscriber);
+                return updated;
+            });
+            subscriber.add(Subscriptions.create(() -> removeWaiter(message, subscriber)));
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        isClosedLock.writeLock().lock();
+        try {
+            if (!isClosed) {
+                isClosed = true;
+                // Completing the pending messages publishes what is left of the current batch
+                pending.onCompleted();
+                received.unsubscribe();
+                batches.close();
+                notifications.onCompleted();
+                waiters.values().forEach(messageWaiters -> messageWaiters.forEach(Subscriber::onCompleted));
+                waiters.clear();
+            }
+        } finally {
+            isClosedLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Publishes a batch of messages to the other Bard boxes, without duplicates.
+     *
+     * @param batch  The messages published during the last window
+     */
+    private void publishBatch(List<T> batch) {
+        long firstPending = firstPendingNanos.getAndSet(0);
+        if (firstPending != 0) {
+            BATCH_DELAY.update(System.nanoTime() - firstPending, TimeUnit.NANOSECONDS);
+        }
+        List<T> coalesced = new ArrayList<>(new LinkedHashSet<>(batch));
+        BATCH_SIZE.update(coalesced.size());
+        try {
+            batches.publish(coalesced);
+        } catch (RuntimeException e) {
+            LOG.error("Unable to publish a batch of {} broadcast messages", coalesced.size(), e);
+        }
+    }
+
+    /**
+     * Hands each message of a batch to the subscribers of all notifications, and to the local waiters for it.
+     *
+     * @param batch  A batch of messages published by a Bard box
+     */
+    private void receiveBatch(List<T> batch) {
+        for (T message : batch) {
+            notifications.onNext(message);
+            Set<Subscriber<? super T>> messageWaiters = waiters.remove(message);
+            FAN_OUT.update(messageWaiters == null ? 0 : messageWaiters.size());
+            if (messageWaiters != null) {
+                for (Subscriber<? super T> waiter : messageWaiters) {
+                    waiter.onNext(message);
+                    waiter.onCompleted();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a waiter from the local index.
+     *
+     * @param message  The message the waiter is waiting for
+     * @param waiter  The waiter
+     */
+    private void removeWaiter(T message, Subscriber<? super T> waiter) {
+        waiters.computeIfPresent(message, (ignored, messageWaiters) -> {
+            messageWaiters.remove(waiter);
+            return messageWaiters.isEmpty() ? null : messageWaiters;
+        });
+    }
+}
@@ -36,4 +36,16 @@ public interface BroadcastChannel<T> extends Closeable {
      * @return An unbounded stream of notifications from Bard instances
      */
     Observable<T> getNotifications();
+
+    /**
+     * Returns an Observable that emits the given message the next time it is broadcast by a Bard instance in the
+     * cluster, and then completes.
+     *
+     * @param message  The message to wait for
+     *
+     * @return An Observable that emits the message once it has been broadcast
+     */
+    default Observable<T> getNotification(T message) {
+        return getNotifications().filter(message::equals).take(1);
+    }
 }
@@ -0,0 +1,67 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.async.jobs.stores;
+
+import com.yahoo.bard.webservice.application.LoadTask;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically deletes the finished jobs of a {@link LuceneJobStore} that have outlived their time to live.
+ */
+public class JobStoreCompactionTask extends LoadTask<Boolean> {
+    private static final Logger LOG = LoggerFactory.getLogger(JobStoreCompactionTask.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    public static final String COMPACTION_TIMER_DURATION =
+            SYSTEM_CONFIG.getPackageVariableName("job_store_compaction_timer_duration");
+    public static final String COMPACTION_TIMER_DELAY =
+            SYSTEM_CONFIG.getPackageVariableName("job_store_compaction_timer_delay");
+    public static final String FINISHED_JOB_TTL =
+            SYSTEM_CONFIG.getPackageVariableName("job_store_finished_job_ttl");
+
+    private final LuceneJobStore jobStore;
+    private final Duration timeToLive;
+
+    /**
+     * Constructor.
+     *
+     * @param jobStore  The store to compact
+     * @param timeToLive  How long finished jobs are kept after their last update
+     */
+    public JobStoreCompactionTask(LuceneJobStore jobStore, Duration timeToLive) {
+        super(
+                JobStoreCompactionTask.class.getSimpleName(),
+                SYSTEM_CONFIG.getLongProperty(COMPACTION_TIMER_DELAY, 0),
+                SYSTEM_CONFIG.getLongProperty(COMPACTION_TIMER_DURATION, TimeUnit.HOURS.toMillis(1))
+        );
+        this.jobStore = jobStore;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Constructor, keeping finished jobs for the configured time to live (7 days by default).
+     *
+     * @param jobStore  The store to compact
+     */
+    public JobStoreCompactionTask(LuceneJobStore jobStore) {
+        this(jobStore, new Duration(SYSTEM_CONFIG.getLongProperty(FINISHED_JOB_TTL, TimeUnit.DAYS.toMillis(7))));
+    }
+
+    @Override
+    public void run() {
+        try {
+            int deleted = jobStore.compact(timeToLive);
+            LOG.info("Removed {} finished jobs older than {}", deleted, timeToLive);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Unable to compact the job store", e);
+        }
+    }
+}
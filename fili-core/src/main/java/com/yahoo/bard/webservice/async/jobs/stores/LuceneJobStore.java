@@ -0,0 +1,625 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.async.jobs.stores;
+
+import static com.yahoo.bard.webservice.web.ErrorMessageFormat.FILTER_JOBFIELD_UNDEFINED;
+import static com.yahoo.bard.webservice.web.ErrorMessageFormat.FILTER_OPERATOR_INVALID;
+
+import com.yahoo.bard.webservice.async.jobs.jobrows.DefaultJobField;
+import com.yahoo.bard.webservice.async.jobs.jobrows.DefaultJobStatus;
+import com.yahoo.bard.webservice.async.jobs.jobrows.JobField;
+import com.yahoo.bard.webservice.async.jobs.jobrows.JobRow;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.web.DefaultFilterOperation;
+import com.yahoo.bard.webservice.web.FilterOperation;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rx.Observable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An ApiJobStore backed by an on-disk Lucene index.
+ * <p>
+ * Every field of a JobRow is indexed as an exact term, so filtered listings (e.g. all the pending jobs of a user) are
+ * answered from the index instead of by scanning every job. The creation and update dates are additionally indexed as
+ * epoch millis, which lets rows be listed in creation order and lets finished jobs be compacted away once they are
+ * older than a time to live.
+ * <p>
+ * Saves are acknowledged once they are visible to searches: a background thread reopens the searcher near real time,
+ * so that concurrent saves share one reopen. The index is committed to disk on a timer and when the store is closed,
+ * so saves acknowledged in the last commit interval before a crash may be lost.
+ * <p>
+ * As in the {@link HashJobStore}, filtering on a field that some row doesn't have is an error.
+ */
+public class LuceneJobStore implements ApiJobStore, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LuceneJobStore.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * How often the saved jobs are committed to disk, in milliseconds.
+     */
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = SYSTEM_CONFIG.getLongProperty(
+            SYSTEM_CONFIG.getPackageVariableName("lucene_job_store_commit_interval_millis"),
+            1000
+    );
+
+    /**
+     * The most time the searcher is reopened after when nobody waits for a save, in seconds.
+     */
+    private static final double MAX_STALE_SECONDS = 1.0;
+
+    /**
+     * The least time between two reopens of the searcher, which the saves made meanwhile wait for, in seconds.
+     */
+    private static final double MIN_STALE_SECONDS = 0.01;
+
+    /**
+     * The number of rows read from the index at a time by a listing.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Statuses of jobs that will not change any more, and are therefore eligible for compaction.
+     */
+    public static final Set<String> DEFAULT_FINISHED_STATUSES = Collections.unmodifiableSet(
+            Arrays.stream(DefaultJobStatus.values())
+                    .filter(status -> status != DefaultJobStatus.PENDING)
+                    .map(DefaultJobStatus::getName)
+                    .collect(Collectors.toSet())
+    );
+
+    private static final String ID_FIELD = "__id";
+    private static final String PRESENT_FIELDS = "__fields";
+    private static final String CREATED_MILLIS = "__createdMillis";
+    private static final String UPDATED_MILLIS = "__updatedMillis";
+
+    private static final Sort CREATION_ORDER = new Sort(
+            new SortField(CREATED_MILLIS, SortField.Type.LONG),
+            SortField.FIELD_DOC
+    );
+
+    private final JobField idField;
+    private final Map<String, JobField> jobFields;
+    private final Set<String> finishedStatuses;
+    private final Directory directory;
+    private final IndexWriter indexWriter;
+    private final SearcherManager searcherManager;
+    private final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+    private final ScheduledExecutorService committer;
+
+    /**
+     * Opens (or creates) a job store in the given directory.
+     *
+     * @param indexPath  The directory holding the index
+     * @param idField  The field that holds the id of a job
+     * @param jobFields  All the fields a JobRow in this store may have
+     * @param finishedStatuses  The values of the status field of jobs that may be compacted
+     *
+     * @throws IOException if the index can't be opened
+     */
+    public LuceneJobStore(
+            Path indexPath,
+            JobField idField,
+            Collection<? extends JobField> jobFields,
+            Set<String> finishedStatuses
+    ) throws IOException {
+        this(indexPath, idField, jobFields, finishedStatuses, DEFAULT_COMMIT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens (or creates) a job store in the given directory.
+     *
+     * @param indexPath  The directory holding the index
+     * @param idField  The field that holds the id of a job
+     * @param jobFields  All the fields a JobRow in this store may have
+     * @param finishedStatuses  The values of the status field of jobs that may be compacted
+     * @param commitIntervalMillis  How often the saved jobs are committed to disk
+     *
+     * @throws IOException if the index can't be opened
+     */
+    public LuceneJobStore(
+            Path indexPath,
+            JobField idField,
+            Collection<? extends JobField> jobFields,
+            Set<String> finishedStatuses,
+            long commitIntervalMillis
+    ) throws IOException {
+        this.idField = idField;
+        this.jobFields = jobFields.stream()
+                .collect(Collectors.toMap(JobField::getName, Function.identity(), (a, b) -> a, LinkedHashMap::new));
+        this.finishedStatuses = finishedStatuses;
+        this.directory = new MMapDirectory(indexPath);
+        this.indexWriter = new IndexWriter(
+                directory,
+                new IndexWriterConfig(new KeywordAnalyzer()).setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND)
+        );
+        // Make sure a fresh index has a commit point so it can be searched right away
+        indexWriter.commit();
+        this.searcherManager = new SearcherManager(indexWriter, null);
+        this.reopenThread = new ControlledRealTimeReopenThread<>(
+                indexWriter,
+                searcherManager,
+                MAX_STALE_SECONDS,
+                MIN_STALE_SECONDS
+        );
+        reopenThread.setName("LuceneJobStore reopen " + indexPath);
+        reopenThread.setDaemon(true);
+        reopenThread.start();
+        this.committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LuceneJobStore commit " + indexPath);
+            thread.setDaemon(true);
+            return thread;
+        });
+        committer.scheduleWithFixedDelay(
+                this::commit,
+                commitIntervalMillis,
+                commitIntervalMillis,
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Opens (or creates) a job store in the given directory holding rows made of {@link DefaultJobField}s.
+     *
+     * @param indexPath  The directory holding the index
+     *
+     * @throws IOException if the index can't be opened
+     */
+    public LuceneJobStore(Path indexPath) throws IOException {
+        this(indexPath, DefaultJobField.JOB_TICKET, Arrays.asList(DefaultJobField.values()), DEFAULT_FINISHED_STATUSES);
+    }
+
+    @Override
+    public Observable<JobRow> get(String id) {
+        return Observable.defer(() -> search(new TermQuery(new Term(ID_FIELD, id)), 1));
+    }
+
+    @Override
+    public Observable<JobRow> save(JobRow metadata) {
+        try {
+            long generation = indexWriter.updateDocument(new Term(ID_FIELD, metadata.getId()), toDocument(metadata));
+            reopenThread.waitForGeneration(generation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error("Interrupted while saving job {}", metadata.getId(), e);
+            return Observable.error(new ApiJobStoreException(e, metadata));
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Unable to save job {}", metadata.getId(), e);
+            return Observable.error(new ApiJobStoreException(e, metadata));
+        }
+        return Observable.just(metadata);
+    }
+
+    @Override
+    public Observable<JobRow> getAllRows() {
+        return Observable.defer(() -> search(new MatchAllDocsQuery(), Integer.MAX_VALUE));
+    }
+
+    @Override
+    public Observable<JobRow> getFilteredRows(Set<JobRowFilter> jobRowFilters) throws IllegalArgumentException {
+        return Observable.defer(() -> {
+            BooleanQuery.Builder query = new BooleanQuery.Builder()
+                    .add(new MatchAllDocsQuery(), BooleanClause.Occur.FILTER);
+            for (JobRowFilter filter : jobRowFilters) {
+                addFilter(query, filter);
+            }
+            try {
+                checkFieldsPresent(jobRowFilters);
+            } catch (IOException e) {
+                LOG.error("Unable to search the job store", e);
+                return Observable.error(e);
+            }
+            return search(query.build(), Integer.MAX_VALUE);
+        });
+    }
+
+    /**
+     * Deletes the finished jobs that were last updated more than the given time to live before now.
+     *
+     * @param timeToLive  How long a finished job is kept after its last update
+     *
+     * @return the number of jobs deleted
+     *
+     * @throws IOException if the index can't be updated
+     */
+    public int compact(Duration timeToLive) throws IOException {
+        return compact(DateTime.now().minus(timeToLive));
+    }
+
+    /**
+     * Deletes the finished jobs that were last updated before the given instant.
+     *
+     * @param updatedBefore  Finished jobs last updated strictly before this instant are deleted
+     *
+     * @return the number of jobs deleted
+     *
+     * @throws IOException if the index can't be updated
+     */
+    public int compact(DateTime updatedBefore) throws IOException {
+        Query expired = new BooleanQuery.Builder()
+                .add(
+                        LongPoint.newRangeQuery(UPDATED_MILLIS, Long.MIN_VALUE, updatedBefore.getMillis() - 1),
+                        BooleanClause.Occur.FILTER
+                )
+                .add(termsQuery(DefaultJobField.STATUS.getName(), finishedStatuses), BooleanClause.Occur.FILTER)
+                .build();
+
+        IndexSearcher searcher = searcherManager.acquire();
+        int count;
+        try {
+            count = searcher.count(expired);
+        } finally {
+            searcherManager.release(searcher);
+        }
+        if (count > 0) {
+            long generation = indexWriter.deleteDocuments(expired);
+            try {
+                reopenThread.waitForGeneration(generation);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        LOG.debug("Compacted {} finished jobs last updated before {}", count, updatedBefore);
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        committer.shutdownNow();
+        reopenThread.close();
+        searcherManager.close();
+        // Closing the writer commits the saves made since the last commit
+        indexWriter.close();
+        directory.close();
+    }
+
+    /**
+     * Commits the saved jobs to disk, if any were saved since the last commit.
+     */
+    private void commit() {
+        try {
+            if (indexWriter.hasUncommittedChanges()) {
+                indexWriter.commit();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Unable to commit the job store", e);
+        }
+    }
+
+    /**
+     * Runs a query against the latest searchable state of the index.
+     * <p>
+     * The rows are read a page at a time as they are consumed, from the same point in time of the index.
+     *
+     * @param query  The query to run
+     * @param limit  The maximum number of rows to return
+     *
+     * @return the matching rows in creation order, or an error if the index couldn't be searched
+     */
+    private Observable<JobRow> search(Query query, int limit) {
+        return Observable.using(
+                () -> {
+                    try {
+                        return searcherManager.acquire();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                },
+                searcher -> Observable.from(() -> new PagedRows(searcher, query, limit)),
+                searcher -> {
+                    try {
+                        searcherManager.release(searcher);
+                    } catch (IOException e) {
+                        LOG.warn("Unable to release a job store searcher", e);
+                    }
+                },
+                true
+        ).doOnError(e -> LOG.error("Unable to search the job store", e));
+    }
+
+    /**
+     * Checks that every row has the fields the filters are on, like the {@link HashJobStore} does.
+     *
+     * @param jobRowFilters  The filters
+     *
+     * @throws IOException if the index couldn't be searched
+     * @throws IllegalArgumentException if a row doesn't have the field of a filter
+     */
+    private void checkFieldsPresent(Set<JobRowFilter> jobRowFilters) throws IOException, IllegalArgumentException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            for (JobRowFilter filter : jobRowFilters) {
+                JobField filterJobField = filter.getJobField();
+                Query present = new TermQuery(new Term(PRESENT_FIELDS, filterJobField.getName()));
+                Query missing = new BooleanQuery.Builder()
+                        .add(new MatchAllDocsQuery(), BooleanClause.Occur.FILTER)
+                        .add(present, BooleanClause.Occur.MUST_NOT)
+                        .build();
+                ScoreDoc[] hits = searcher.search(missing, 1).scoreDocs;
+                if (hits.length > 0) {
+                    Set<JobField> actualJobFields = fromDocument(searcher.doc(hits[0].doc)).keySet();
+                    LOG.debug(FILTER_JOBFIELD_UNDEFINED.logFormat(filterJobField, actualJobFields));
+                    throw new IllegalArgumentException(
+                            FILTER_JOBFIELD_UNDEFINED.format(filterJobField, actualJobFields)
+                    );
+                }
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * The rows matching a query, read from the index a page at a time with search-after cursors.
+     */
+    private class PagedRows implements Iterator<JobRow> {
+
+        private final IndexSearcher searcher;
+        private final Query query;
+        private int remaining;
+        private ScoreDoc[] page = new ScoreDoc[0];
+        private int next;
+        private boolean exhausted;
+
+        /**
+         * Constructor.
+         *
+         * @param searcher  The searcher to read the rows with
+         * @param query  The query the rows match
+         * @param limit  The maximum number of rows to read
+         */
+        PagedRows(IndexSearcher searcher, Query query, int limit) {
+            this.searcher = searcher;
+            this.query = query;
+            this.remaining = limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next < page.length) {
+                return true;
+            }
+            if (exhausted || remaining <= 0) {
+                return false;
+            }
+            try {
+                ScoreDoc after = page.length == 0 ? null : page[page.length - 1];
+                int pageSize = Math.min(PAGE_SIZE, remaining);
+                page = searcher.searchAfter(after, query, pageSize, CREATION_ORDER).scoreDocs;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            next = 0;
+            exhausted = page.length < Math.min(PAGE_SIZE, remaining);
+            remaining -= page.length;
+            return page.length > 0;
+        }
+
+        @Override
+        public JobRow next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                return fromDocument(searcher.doc(page[next++].doc));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Adds the clauses that express a filter to a query.
+     *
+     * @param query  The query being built
+     * @param jobRowFilter  The filter to express
+     *
+     * @throws IllegalArgumentException if the filter is on an unknown field or uses an unsupported operation
+     */
+    private void addFilter(BooleanQuery.Builder query, JobRowFilter jobRowFilter) throws IllegalArgumentException {
+        JobField filterJobField = jobRowFilter.getJobField();
+        FilterOperation filterOperation = jobRowFilter.getOperation();
+        Set<String> filterValues = jobRowFilter.getValues();
+        String fieldName = filterJobField.getName();
+
+        if (!jobFields.containsKey(fieldName)) {
+            LOG.debug(FILTER_JOBFIELD_UNDEFINED.logFormat(filterJobField, jobFields.values()));
+            throw new IllegalArgumentException(FILTER_JOBFIELD_UNDEFINED.format(filterJobField, jobFields.values()));
+        }
+        if (!(filterOperation instanceof DefaultFilterOperation)) {
+            LOG.debug("Only default filter operations permitted in this class; " +
+                    FILTER_OPERATOR_INVALID.logFormat(filterOperation));
+            throw new IllegalArgumentException("Only default filter operations permitted in this class; " +
+                    FILTER_OPERATOR_INVALID.format(filterOperation));
+        }
+
+        DefaultFilterOperation defaultFilterOperation = (DefaultFilterOperation) filterOperation;
+        switch (defaultFilterOperation) {
+            case notin:
+                query.add(termsQuery(fieldName, filterValues), BooleanClause.Occur.MUST_NOT);
+                return;
+            case startswith:
+                query.add(
+                        anyOf(filterValues.stream().map(value -> new PrefixQuery(new Term(fieldName, value)))),
+                        BooleanClause.Occur.FILTER
+                );
+                return;
+            case contains:
+                query.add(
+                        anyOf(filterValues.stream().map(value -> containsQuery(fieldName, value))),
+                        BooleanClause.Occur.FILTER
+                );
+                return;
+            case in: // the fall-through is intentional because in is a synonym for eq
+            case eq:
+                query.add(termsQuery(fieldName, filterValues), BooleanClause.Occur.FILTER);
+                return;
+            default:
+                LOG.debug(FILTER_OPERATOR_INVALID.logFormat(defaultFilterOperation));
+                throw new IllegalArgumentException(FILTER_OPERATOR_INVALID.format(defaultFilterOperation));
+        }
+    }
+
+    /**
+     * Builds a query matching rows whose field has any of the values.
+     *
+     * @param fieldName  The field to match on
+     * @param values  The values to match
+     *
+     * @return the query
+     */
+    private static Query termsQuery(String fieldName, Collection<String> values) {
+        return new TermInSetQuery(
+                fieldName,
+                values.stream().map(BytesRef::new).collect(Collectors.toList())
+        );
+    }
+
+    /**
+     * Builds a query matching rows whose field contains the value.
+     *
+     * @param fieldName  The field to match on
+     * @param value  The text the field must contain
+     *
+     * @return the query
+     */
+    private static Query containsQuery(String fieldName, String value) {
+        StringBuilder pattern = new StringBuilder().append(WildcardQuery.WILDCARD_STRING);
+        for (char c : value.toCharArray()) {
+            if (c == WildcardQuery.WILDCARD_STRING || c == WildcardQuery.WILDCARD_CHAR
+                    || c == WildcardQuery.WILDCARD_ESCAPE) {
+                pattern.append(WildcardQuery.WILDCARD_ESCAPE);
+            }
+            pattern.append(c);
+        }
+        return new WildcardQuery(new Term(fieldName, pattern.append(WildcardQuery.WILDCARD_STRING).toString()));
+    }
+
+    /**
+     * Combines queries into one matching a row if any of them match.
+     *
+     * @param queries  The queries to combine
+     *
+     * @return the combined query
+     */
+    private static Query anyOf(Stream<? extends Query> queries) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        queries.forEach(query -> builder.add(query, BooleanClause.Occur.SHOULD));
+        return builder.build();
+    }
+
+    /**
+     * Builds the document indexing a row.
+     *
+     * @param jobRow  The row to index
+     *
+     * @return the document
+     */
+    private Document toDocument(JobRow jobRow) {
+        Document document = new Document();
+        document.add(new StringField(ID_FIELD, jobRow.getId(), Field.Store.NO));
+        jobRow.forEach((field, value) -> {
+            if (value == null) {
+                return;
+            }
+            document.add(new StringField(field.getName(), value, Field.Store.YES));
+            document.add(new StringField(PRESENT_FIELDS, field.getName(), Field.Store.NO));
+        });
+
+        long createdMillis = parseMillis(jobRow.get(DefaultJobField.DATE_CREATED), Long.MAX_VALUE);
+        document.add(new LongPoint(CREATED_MILLIS, createdMillis));
+        document.add(new NumericDocValuesField(CREATED_MILLIS, createdMillis));
+        long updatedMillis = parseMillis(jobRow.get(DefaultJobField.DATE_UPDATED), createdMillis);
+        document.add(new LongPoint(UPDATED_MILLIS, updatedMillis));
+        return document;
+    }
+
+    /**
+     * Rebuilds a row from its document.
+     *
+     * @param document  The document of the row
+     *
+     * @return the row
+     */
+    private JobRow fromDocument(Document document) {
+        Map<JobField, String> fieldValues = new LinkedHashMap<>();
+        for (IndexableField field : document.getFields()) {
+            JobField jobField = jobFields.get(field.name());
+            if (jobField != null) {
+                fieldValues.put(jobField, field.stringValue());
+            }
+        }
+        return new JobRow(idField, fieldValues);
+    }
+
+    /**
+     * Reads the epoch millis of a date field.
+     *
+     * @param date  The value of the date field, may be null
+     * @param defaultMillis  The value to use if the field is missing or isn't a date
+     *
+     * @return the millis of the date
+     */
+    private static long parseMillis(String date, long defaultMillis) {
+        if (date == null) {
+            return defaultMillis;
+        }
+        try {
+            return DateTime.parse(date).getMillis();
+        } catch (IllegalArgumentException e) {
+            LOG.debug("Unable to parse job date {}", date);
+            return defaultMillis;
+        }
+    }
+}
@@ -0,0 +1,695 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.async.preresponses.stores;
+
+import static com.yahoo.bard.webservice.data.PreResponseSerializationProxy.RESPONSE_CONTEXT_KEY;
+import static com.yahoo.bard.webservice.data.PreResponseSerializationProxy.RESULT_SET_KEY;
+import static com.yahoo.bard.webservice.data.ResultSerializationProxy.DIMENSION_VALUES_KEY;
+import static com.yahoo.bard.webservice.data.ResultSerializationProxy.METRIC_VALUES_KEY;
+import static com.yahoo.bard.webservice.data.ResultSerializationProxy.TIMESTAMP_KEY;
+import static com.yahoo.bard.webservice.data.ResultSetSerializationProxy.DEFAULT_CLASS_TYPE;
+import static com.yahoo.bard.webservice.data.ResultSetSerializationProxy.RESULTS_KEY;
+import static com.yahoo.bard.webservice.data.ResultSetSerializationProxy.SCHEMA_KEY;
+import static com.yahoo.bard.webservice.data.ResultSetSerializationProxy.SCHEMA_METRIC_COLUMNS_TYPE;
+
+import com.yahoo.bard.webservice.data.DeserializationException;
+import com.yahoo.bard.webservice.data.PreResponseDeserializer;
+import com.yahoo.bard.webservice.data.Result;
+import com.yahoo.bard.webservice.data.ResultSerializationProxy;
+import com.yahoo.bard.webservice.data.ResultSet;
+import com.yahoo.bard.webservice.data.ResultSetSchema;
+import com.yahoo.bard.webservice.data.ResultSetSerializationProxy;
+import com.yahoo.bard.webservice.data.dimension.Dimension;
+import com.yahoo.bard.webservice.data.dimension.DimensionColumn;
+import com.yahoo.bard.webservice.data.dimension.DimensionRow;
+import com.yahoo.bard.webservice.data.metric.MetricColumn;
+import com.yahoo.bard.webservice.data.metric.MetricColumnWithValueType;
+import com.yahoo.bard.webservice.table.Column;
+import com.yahoo.bard.webservice.util.SinglePagePagination;
+import com.yahoo.bard.webservice.web.ErrorMessageFormat;
+import com.yahoo.bard.webservice.web.PageNotFoundException;
+import com.yahoo.bard.webservice.web.PreResponse;
+import com.yahoo.bard.webservice.web.responseprocessors.ResponseContext;
+import com.yahoo.bard.webservice.web.responseprocessors.ResponseContextKeys;
+import com.yahoo.bard.webservice.web.util.PaginationParameters;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.CountingOutputStream;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rx.Observable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A PreResponseStore that keeps each PreResponse on local disk as a header and a sequence of gzipped chunks of rows.
+ * <p>
+ * The header holds the schema, the response context, the number of rows and a row offset index. Each chunk is a
+ * sequence of independently gzipped blocks of rows, and the index holds the byte offset of every block, so a page of
+ * results is read by seeking to the block holding its first row, and only the rows of the page are rebuilt. Rows are
+ * written in the same format as {@link ResultSerializationProxy}, and are rebuilt the way a
+ * {@link PreResponseDeserializer} rebuilds them.
+ * <p>
+ * The headers and deserialized schemas of recently read tickets are cached, along with the dimension rows their
+ * results have resolved, so paging through a result doesn't pay for them on every page.
+ * <p>
+ * Each ticket is stored in its own directory. Every save writes its chunks into a new directory under the ticket's
+ * directory, and then atomically replaces the ticket's header with one pointing at them, so a result is visible only
+ * once it has been completely written, and a result being saved again stays readable throughout.
+ */
+public class ChunkedFilePreResponseStore implements PagedPreResponseStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedFilePreResponseStore.class);
+
+    public static final int DEFAULT_ROWS_PER_CHUNK = 10000;
+    public static final int DEFAULT_ROWS_PER_BLOCK = 100;
+    public static final int DEFAULT_CACHED_RESULTS = 100;
+    public static final int MAX_CACHED_DIMENSION_ROWS = 10000;
+
+    private static final String HEADER_FILE = "header.json";
+    private static final String CHUNK_FILE_FORMAT = "chunk-%06d.json.gz";
+    private static final String TEMPORARY_PREFIX = ".tmp-";
+    private static final String CHUNK_DIRECTORY_PREFIX = "chunks-";
+    private static final String CHUNK_DIRECTORY_KEY = "chunkDirectory";
+    private static final String ROW_COUNT_KEY = "rowCount";
+    private static final String ROWS_PER_CHUNK_KEY = "rowsPerChunk";
+    private static final String ROWS_PER_BLOCK_KEY = "rowsPerBlock";
+    private static final String BLOCK_OFFSETS_KEY = "blockOffsets";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final PreResponseDeserializer preResponseDeserializer;
+    private final int rowsPerChunk;
+    private final int rowsPerBlock;
+    private final ObjectMapper mapper;
+    private final ObjectWriter rowWriter;
+    private final Cache<String, StoredResult> storedResults;
+
+    /**
+     * Constructor.
+     *
+     * @param directory  The directory the results are stored in, created if it doesn't exist
+     * @param preResponseDeserializer  Rebuilds schemas, rows and response contexts when results are read
+     * @param rowsPerChunk  The number of rows in each chunk file
+     * @param rowsPerBlock  The number of rows in each independently compressed block of a chunk
+     * @param cachedResults  The number of recently read tickets whose headers and dimension rows are cached
+     *
+     * @throws IOException if the directory can't be created
+     */
+    public ChunkedFilePreResponseStore(
+            Path directory,
+            PreResponseDeserializer preResponseDeserializer,
+            int rowsPerChunk,
+            int rowsPerBlock,
+            int cachedResults
+    ) throws IOException {
+        if (rowsPerChunk < 1 || rowsPerBlock < 1) {
+            throw new IllegalArgumentException(
+                    String.format("Chunks (%d) and blocks (%d) must hold at least one row", rowsPerChunk, rowsPerBlock)
+            );
+        }
+        this.directory = Files.createDirectories(directory);
+        this.preResponseDeserializer = preResponseDeserializer;
+        this.rowsPerChunk = rowsPerChunk;
+        this.rowsPerBlock = rowsPerBlock;
+        this.mapper = preResponseDeserializer.getNonResponseContextMapper();
+        this.rowWriter = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.storedResults = CacheBuilder.newBuilder().maximumSize(cachedResults).build();
+    }
+
+    /**
+     * Constructor, using the default block size and cache size.
+     *
+     * @param directory  The directory the results are stored in, created if it doesn't exist
+     * @param preResponseDeserializer  Rebuilds schemas, rows and response contexts when results are read
+     * @param rowsPerChunk  The number of rows in each chunk file
+     *
+     * @throws IOException if the directory can't be created
+     */
+    public ChunkedFilePreResponseStore(
+            Path directory,
+            PreResponseDeserializer preResponseDeserializer,
+            int rowsPerChunk
+    ) throws IOException {
+        this(
+                directory,
+                preResponseDeserializer,
+                rowsPerChunk,
+                Math.min(rowsPerChunk, DEFAULT_ROWS_PER_BLOCK),
+                DEFAULT_CACHED_RESULTS
+        );
+    }
+
+    /**
+     * Constructor, storing {@link #DEFAULT_ROWS_PER_CHUNK} rows in each chunk.
+     *
+     * @param directory  The directory the results are stored in, created if it doesn't exist
+     * @param preResponseDeserializer  Rebuilds schemas, rows and response contexts when results are read
+     *
+     * @throws IOException if the directory can't be created
+     */
+    public ChunkedFilePreResponseStore(Path directory, PreResponseDeserializer preResponseDeserializer)
+            throws IOException {
+        this(directory, preResponseDeserializer, DEFAULT_ROWS_PER_CHUNK);
+    }
+
+    @Override
+    public Observable<PreResponse> get(String ticket) {
+        return Observable.defer(() -> {
+            try {
+                StoredResult stored = getStoredResult(ticket);
+                if (stored == null) {
+                    return Observable.empty();
+                }
+                ResultSet rows = new ResultSet(stored.schema, readRows(stored, 0, stored.rowCount));
+                return Observable.just(new PreResponse(rows, readResponseContext(stored)));
+            } catch (IOException e) {
+                LOG.error("Unable to read the results of ticket {}", ticket, e);
+                return Observable.error(e);
+            }
+        });
+    }
+
+    @Override
+    public Observable<PreResponse> getPage(String ticket, PaginationParameters paginationParameters) {
+        return Observable.defer(() -> {
+            try {
+                StoredResult stored = getStoredResult(ticket);
+                if (stored == null) {
+                    return Observable.empty();
+                }
+                int rowCount = stored.rowCount;
+                int perPage = paginationParameters.getPerPage();
+                int page = paginationParameters.getPage(rowCount);
+                int lastPage = (rowCount > perPage) ? (rowCount - 1) / perPage + 1 : 1;
+                if (page > lastPage) {
+                    throw new PageNotFoundException(page, perPage, lastPage);
+                }
+
+                int from = (int) Math.min((long) (page - 1) * perPage, rowCount);
+                int to = (int) Math.min((long) from + perPage, rowCount);
+                List<Result> rows = readRows(stored, from, to);
+
+                ResponseContext responseContext = readResponseContext(stored);
+                responseContext.put(
+                        ResponseContextKeys.PAGINATION_CONTEXT_KEY.getName(),
+                        new SinglePagePagination<>(rows, new PaginationParameters(perPage, page), rowCount)
+                );
+                return Observable.just(new PreResponse(new ResultSet(stored.schema, rows), responseContext));
+            } catch (IOException e) {
+                LOG.error("Unable to read the results of ticket {}", ticket, e);
+                return Observable.error(e);
+            }
+        });
+    }
+
+    @Override
+    public Observable<String> save(String ticket, PreResponse preResponse) {
+        Path chunkDirectory = null;
+        Path temporaryHeader = null;
+        try {
+            Path ticketDirectory = Files.createDirectories(getTicketDirectory(ticket));
+            chunkDirectory = Files.createTempDirectory(ticketDirectory, CHUNK_DIRECTORY_PREFIX);
+            temporaryHeader = Files.createTempFile(ticketDirectory, TEMPORARY_PREFIX, HEADER_FILE);
+            mapper.writeValue(temporaryHeader.toFile(), write(chunkDirectory, preResponse));
+
+            JsonNode previousHeader = readHeader(ticketDirectory);
+            Files.move(temporaryHeader, ticketDirectory.resolve(HEADER_FILE), StandardCopyOption.ATOMIC_MOVE);
+            storedResults.invalidate(ticket);
+            if (previousHeader != null) {
+                deleteQuietly(ticketDirectory.resolve(previousHeader.get(CHUNK_DIRECTORY_KEY).asText()));
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Unable to save the results of ticket {}", ticket, e);
+            deleteQuietly(chunkDirectory);
+            deleteQuietly(temporaryHeader);
+            return Observable.error(e);
+        }
+        return Observable.just(ticket);
+    }
+
+    /**
+     * Writes the rows of a PreResponse as compressed chunks, and builds the header describing them.
+     *
+     * @param chunkDirectory  The directory to write the chunks into
+     * @param preResponse  The PreResponse to write
+     *
+     * @return the header
+     *
+     * @throws IOException if the chunks can't be written
+     */
+    private Map<String, Object> write(Path chunkDirectory, PreResponse preResponse) throws IOException {
+        ResultSet resultSet = preResponse.getResultSet();
+        Set<String> unknownMetricTypes = resultSet.getSchema().getColumns(MetricColumn.class).stream()
+                .map(Column::getName)
+                .collect(Collectors.toSet());
+        Map<String, String> metricTypes = new HashMap<>();
+        List<List<Long>> blockOffsets = new ArrayList<>();
+
+        for (int chunk = 0; chunk * rowsPerChunk < resultSet.size(); chunk++) {
+            int chunkEnd = Math.min((chunk + 1) * rowsPerChunk, resultSet.size());
+            List<Long> chunkOffsets = new ArrayList<>();
+            blockOffsets.add(chunkOffsets);
+            try (CountingOutputStream out = new CountingOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(chunkDirectory.resolve(chunkName(chunk))))
+            )) {
+                for (int block = chunk * rowsPerChunk; block < chunkEnd; block += rowsPerBlock) {
+                    chunkOffsets.add(out.getCount());
+                    GZIPOutputStream compressed = new GZIPOutputStream(out, BUFFER_SIZE);
+                    JsonGenerator generator = mapper.getFactory()
+                            .createGenerator(compressed)
+                            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                    for (Result row : resultSet.subList(block, Math.min(block + rowsPerBlock, chunkEnd))) {
+                        ResultSerializationProxy proxy = new ResultSerializationProxy(row);
+                        rowWriter.writeValue(generator, proxy);
+                        if (!unknownMetricTypes.isEmpty()) {
+                            Map<String, String> rowTypes = proxy.getMetricValuesType();
+                            unknownMetricTypes.removeIf(name -> {
+                                String type = rowTypes.get(name);
+                                if (type == null) {
+                                    return false;
+                                }
+                                metricTypes.put(name, type);
+                                return true;
+                            });
+                        }
+                    }
+                    generator.close();
+                    // Ends this gzip member without closing the chunk file, so the next block starts a new member
+                    compressed.finish();
+                }
+            }
+        }
+        unknownMetricTypes.forEach(name -> metricTypes.put(name, DEFAULT_CLASS_TYPE));
+
+        Map<String, Object> schema = new ResultSetSerializationProxy(
+                new ResultSet(resultSet.getSchema(), Collections.emptyList())
+        ).getSerializedSchema();
+        schema.put(SCHEMA_METRIC_COLUMNS_TYPE, metricTypes);
+
+        Map<String, Object> header = new LinkedHashMap<>();
+        header.put(CHUNK_DIRECTORY_KEY, chunkDirectory.getFileName().toString());
+        header.put(ROW_COUNT_KEY, resultSet.size());
+        header.put(ROWS_PER_CHUNK_KEY, rowsPerChunk);
+        header.put(ROWS_PER_BLOCK_KEY, rowsPerBlock);
+        header.put(BLOCK_OFFSETS_KEY, blockOffsets);
+        header.put(SCHEMA_KEY, schema);
+        header.put(
+                RESPONSE_CONTEXT_KEY,
+                preResponseDeserializer.getResponseContextMapper().writeValueAsString(preResponse.getResponseContext())
+        );
+        return header;
+    }
+
+    /**
+     * Reads and rebuilds the rows in a range. Only the blocks overlapping the range are decompressed, and only the
+     * rows in the range are rebuilt.
+     *
+     * @param stored  The stored result to read from
+     * @param from  The index of the first row to read
+     * @param to  The index after the last row to read
+     *
+     * @return the rows
+     *
+     * @throws IOException if a chunk can't be read
+     */
+    private List<Result> readRows(StoredResult stored, int from, int to) throws IOException {
+        List<Result> rows = new ArrayList<>(Math.max(0, to - from));
+        try {
+            new RowIterator(stored, from, to).forEachRemaining(rows::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return rows;
+    }
+
+    /**
+     * Rebuilds a row written by {@link #write(Path, PreResponse)}, in the same way as a
+     * {@link PreResponseDeserializer} rebuilds the rows of a serialized PreResponse.
+     * <p>
+     * A dimension value that no longer has a row in its dimension is given an empty row, the way the
+     * {@link com.yahoo.bard.webservice.data.DruidResponseParser} builds rows for values it can't find.
+     *
+     * @param stored  The stored result the row belongs to
+     * @param serializedResult  The serialized row
+     *
+     * @return the row
+     */
+    private Result readResult(StoredResult stored, JsonNode serializedResult) {
+        JsonNode dimensionValues = serializedResult.get(DIMENSION_VALUES_KEY);
+        Map<DimensionColumn, DimensionRow> dimensionRows = new HashMap<>();
+        for (DimensionColumn column : stored.dimensionColumns) {
+            Dimension dimension = column.getDimension();
+            dimensionRows.put(
+                    column,
+                    stored.getDimensionRow(dimension, dimensionValues.get(dimension.getApiName()).asText())
+            );
+        }
+
+        JsonNode metricValues = serializedResult.get(METRIC_VALUES_KEY);
+        Map<MetricColumn, Object> metrics = new HashMap<>();
+        for (MetricColumnWithValueType column : stored.metricColumns) {
+            JsonNode value = metricValues.get(column.getName());
+            if (value == null) {
+                String msg = ErrorMessageFormat.METRIC_VALUE_PARSING_ERROR.format("parse");
+                LOG.error(msg);
+                throw new DeserializationException(msg);
+            }
+            try {
+                metrics.put(column, mapper.readValue(value.toString(), column.getClassType()));
+            } catch (IOException e) {
+                String msg = ErrorMessageFormat.METRIC_VALUE_PARSING_ERROR.format("map");
+                LOG.error(msg, e);
+                throw new DeserializationException(msg, e);
+            }
+        }
+
+        return new Result(dimensionRows, metrics, DateTime.parse(serializedResult.get(TIMESTAMP_KEY).asText()));
+    }
+
+    /**
+     * Reads the response context of a stored result. Every call builds a new context, so callers may change it.
+     *
+     * @param stored  The stored result
+     *
+     * @return the response context
+     *
+     * @throws IOException if the response context can't be read
+     */
+    private ResponseContext readResponseContext(StoredResult stored) throws IOException {
+        return preResponseDeserializer.getResponseContextMapper().readValue(
+                stored.header.get(RESPONSE_CONTEXT_KEY).asText(),
+                ResponseContext.class
+        );
+    }
+
+    /**
+     * Rebuilds the schema held in a header. The schema is written the way a serialized PreResponse holds it, so it is
+     * read back by deserializing an empty PreResponse around it.
+     *
+     * @param header  The header of a ticket
+     *
+     * @return the schema
+     *
+     * @throws IOException if the schema can't be read
+     */
+    private ResultSetSchema readSchema(JsonNode header) throws IOException {
+        ObjectNode emptyPreResponse = mapper.createObjectNode();
+        ObjectNode emptyResultSet = emptyPreResponse.putObject(RESULT_SET_KEY);
+        emptyResultSet.set(SCHEMA_KEY, header.get(SCHEMA_KEY));
+        emptyResultSet.putArray(RESULTS_KEY);
+        emptyPreResponse.set(RESPONSE_CONTEXT_KEY, header.get(RESPONSE_CONTEXT_KEY));
+        return preResponseDeserializer.deserialize(mapper.writeValueAsString(emptyPreResponse))
+                .getResultSet()
+                .getSchema();
+    }
+
+    /**
+     * Gets the header and schema of a ticket, from the cache if it was read recently.
+     *
+     * @param ticket  The ticket
+     *
+     * @return the stored result, or null if the ticket isn't stored
+     *
+     * @throws IOException if the header exists but can't be read
+     */
+    private StoredResult getStoredResult(String ticket) throws IOException {
+        StoredResult stored = storedResults.getIfPresent(ticket);
+        if (stored != null) {
+            return stored;
+        }
+        Path ticketDirectory = getTicketDirectory(ticket);
+        JsonNode header = readHeader(ticketDirectory);
+        if (header == null) {
+            return null;
+        }
+        stored = new StoredResult(
+                ticketDirectory,
+                header,
+                readSchema(header)
+        );
+        storedResults.put(ticket, stored);
+        return stored;
+    }
+
+    /**
+     * Reads the header of a ticket.
+     *
+     * @param ticketDirectory  The directory of the ticket
+     *
+     * @return the header, or null if the ticket isn't stored
+     *
+     * @throws IOException if the header exists but can't be read
+     */
+    private JsonNode readHeader(Path ticketDirectory) throws IOException {
+        try (InputStream in = Files.newInputStream(ticketDirectory.resolve(HEADER_FILE))) {
+            return mapper.readTree(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Recursively deletes a file or directory, logging rather than failing if it can't be deleted.
+     *
+     * @param path  The file or directory to delete, may be null
+     */
+    private static void deleteQuietly(Path path) {
+        if (path == null || !Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            LOG.warn("Unable to delete {}", path, e);
+        }
+    }
+
+    /**
+     * Gets the directory holding the results of a ticket.
+     *
+     * @param ticket  The ticket
+     *
+     * @return the directory, named so that any ticket is a safe file name
+     */
+    private Path getTicketDirectory(String ticket) {
+        return directory.resolve(
+                Base64.getUrlEncoder().withoutPadding().encodeToString(ticket.getBytes(StandardCharsets.UTF_8))
+        );
+    }
+
+    /**
+     * Gets the name of the file holding a chunk.
+     *
+     * @param chunk  The index of the chunk
+     *
+     * @return the file name
+     */
+    private static String chunkName(int chunk) {
+        return String.format(CHUNK_FILE_FORMAT, chunk);
+    }
+
+    /**
+     * Reads the rows of a range of a stored result in order, decompressing one chunk at a time.
+     * <p>
+     * A chunk file is opened when its first row in the range is read, and closed once its last row in the range has
+     * been read, so at most one chunk file is open at a time.
+     */
+    private class RowIterator implements Iterator<Result> {
+        private final StoredResult stored;
+        private final int to;
+        private int row;
+        private JsonParser parser;
+
+        /**
+         * Constructor.
+         *
+         * @param stored  The stored result to read from
+         * @param from  The index of the first row to read
+         * @param to  The index after the last row to read
+         */
+        RowIterator(StoredResult stored, int from, int to) {
+            this.stored = stored;
+            this.row = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return row < to;
+        }
+
+        @Override
+        public Result next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                if (parser == null) {
+                    parser = openChunk(row);
+                }
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw new IOException(String.format("Row %d of %s is missing", row, stored.directory));
+                }
+                Result result = readResult(stored, mapper.readTree(parser));
+                row++;
+                if (row == to || row % stored.rowsPerChunk == 0) {
+                    closeChunk();
+                }
+                return result;
+            } catch (IOException e) {
+                closeChunk();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Opens the chunk holding a row, positioned just before the row.
+         *
+         * @param first  The index of the row
+         *
+         * @return a parser over the rest of the chunk
+         *
+         * @throws IOException if the chunk can't be read
+         */
+        private JsonParser openChunk(int first) throws IOException {
+            int chunk = first / stored.rowsPerChunk;
+            int block = (first - chunk * stored.rowsPerChunk) / stored.rowsPerBlock;
+            SeekableByteChannel channel = Files.newByteChannel(stored.chunkDirectory.resolve(chunkName(chunk)));
+            JsonParser chunkParser;
+            try {
+                channel.position(stored.blockOffsets.get(chunk).get(block).asLong());
+                chunkParser = mapper.getFactory().createParser(new GZIPInputStream(
+                        new BufferedInputStream(Channels.newInputStream(channel)),
+                        BUFFER_SIZE
+                ));
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            for (int skipped = chunk * stored.rowsPerChunk + block * stored.rowsPerBlock; skipped < first; skipped++) {
+                chunkParser.nextToken();
+                chunkParser.skipChildren();
+            }
+            return chunkParser;
+        }
+
+        /**
+         * Closes the chunk being read, if any.
+         */
+        private void closeChunk() {
+            if (parser == null) {
+                return;
+            }
+            try {
+                parser.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close a chunk of {}", stored.directory, e);
+            }
+            parser = null;
+        }
+    }
+
+    /**
+     * The header of a stored ticket, along with its deserialized schema and the dimension rows its results have
+     * resolved so far.
+     */
+    private static class StoredResult {
+        private final Path directory;
+        private final Path chunkDirectory;
+        private final JsonNode header;
+        private final ResultSetSchema schema;
+        private final int rowCount;
+        private final int rowsPerChunk;
+        private final int rowsPerBlock;
+        private final JsonNode blockOffsets;
+        private final Set<DimensionColumn> dimensionColumns;
+        private final Set<MetricColumnWithValueType> metricColumns;
+        private final Map<Dimension, Map<String, DimensionRow>> dimensionRows = new ConcurrentHashMap<>();
+
+        /**
+         * Constructor.
+         *
+         * @param directory  The directory of the ticket
+         * @param header  The header of the ticket
+         * @param schema  The deserialized schema of the ticket's results
+         */
+        StoredResult(Path directory, JsonNode header, ResultSetSchema schema) {
+            this.directory = directory;
+            this.chunkDirectory = directory.resolve(header.get(CHUNK_DIRECTORY_KEY).asText());
+            this.header = header;
+            this.schema = schema;
+            this.rowCount = header.get(ROW_COUNT_KEY).asInt();
+            this.rowsPerChunk = header.get(ROWS_PER_CHUNK_KEY).asInt();
+            this.rowsPerBlock = header.get(ROWS_PER_BLOCK_KEY).asInt();
+            this.blockOffsets = header.get(BLOCK_OFFSETS_KEY);
+            this.dimensionColumns = schema.getColumns(DimensionColumn.class);
+            this.metricColumns = schema.getColumns(MetricColumnWithValueType.class);
+        }
+
+        /**
+         * Finds the row of a dimension, reusing the rows already found for this ticket.
+         *
+         * @param dimension  The dimension
+         * @param keyValue  The key value of the row
+         *
+         * @return the dimension row, or an empty row if the dimension has no row for the key value
+         */
+        DimensionRow getDimensionRow(Dimension dimension, String keyValue) {
+            Map<String, DimensionRow> rows = dimensionRows.computeIfAbsent(
+                    dimension,
+                    ignored -> new ConcurrentHashMap<>()
+            );
+            DimensionRow row = rows.get(keyValue);
+            if (row == null) {
+                row = dimension.findDimensionRowByKeyValue(keyValue);
+                if (row == null) {
+                    row = dimension.createEmptyDimensionRow(keyValue);
+                }
+                if (rows.size() < MAX_CACHED_DIMENSION_ROWS) {
+                    rows.put(keyValue, row);
+                }
+            }
+            return row;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.async.preresponses.stores;
+
+import com.yahoo.bard.webservice.web.PreResponse;
+import com.yahoo.bard.webservice.web.responseprocessors.ResponseContextKeys;
+import com.yahoo.bard.webservice.web.util.PaginationParameters;
+
+import rx.Observable;
+
+/**
+ * A PreResponseStore that can read a single page of a stored result without loading the rest of the result.
+ */
+public interface PagedPreResponseStore extends PreResponseStore {
+
+    /**
+     * Returns an Observable over a PreResponse holding one page of the results associated with a given ticket. The
+     * PreResponse's ResultSet contains only the rows of the requested page, and its ResponseContext holds the
+     * {@link com.yahoo.bard.webservice.util.Pagination} describing the page under
+     * {@link ResponseContextKeys#PAGINATION_CONTEXT_KEY}. The Observable is empty if the ticket is not in the store.
+     * <p>
+     * If the requested page doesn't exist, the Observable's {@code onError} method gets called with a
+     * {@link com.yahoo.bard.webservice.web.PageNotFoundException}. In case of any other error while reading the
+     * store, {@code onError} gets called with the exception as payload.
+     *
+     * @param ticket  The ticket used to identify a job and it's results
+     * @param paginationParameters  The page to read
+     *
+     * @return An Observable over a page of the PreResponse associated with the given ticket
+     */
+    Observable<PreResponse> getPage(String ticket, PaginationParameters paginationParameters);
+}
@@ -0,0 +1,253 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.async.workflows;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Func0;
+import rx.subscriptions.Subscriptions;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounds the number of operations of one stage of the asynchronous workflows (i.e. saving PreResponses) that may be in
+ * flight at once.
+ * <p>
+ * At most {@code maxConcurrent} operations run at a time. Operations beyond that wait in a queue of at most
+ * {@code maxQueued} operations, and operations beyond that are rejected with an {@link AsyncWorkRejectedException}
+ * rather than being buffered without bound. A stage allowing 0 running operations is unbounded: its operations run as
+ * soon as they are subscribed to, and it is never saturated.
+ * <p>
+ * Each stage publishes the following metrics, prefixed by {@code async.<stage name>}:
+ * <ul>
+ *     <li> {@code queue.depth}: The number of operations waiting to run
+ *     <li> {@code running}: The number of operations running
+ *     <li> {@code latency}: The time between an operation starting and terminating
+ *     <li> {@code rejected}: The rate at which operations are rejected
+ * </ul>
+ */
+public class AsyncStageLimiter {
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueued;
+
+    private final Deque<Runnable> pending = new ArrayDeque<>();
+    private int running = 0;
+    private boolean draining = false;
+
+    private final Timer latency;
+    private final Meter rejections;
+
+    /**
+     * Constructor.
+     *
+     * @param name  The name of the stage, used to name its metrics and in rejection messages
+     * @param maxConcurrent  The maximum number of operations of this stage that may run at once, or 0 if unbounded
+     * @param maxQueued  The maximum number of operations of this stage that may wait to run
+     */
+    public AsyncStageLimiter(String name, int maxConcurrent, int maxQueued) {
+        if (maxConcurrent < 0 || maxQueued < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Stage %s must allow a non-negative number of running (%d) and queued (%d) operations",
+                    name,
+                    maxConcurrent,
+                    maxQueued
+            ));
+        }
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+
+        String prefix = MetricRegistry.name("async", name);
+        register(MetricRegistry.name(prefix, "queue", "depth"), this::getQueueDepth);
+        register(MetricRegistry.name(prefix, "running"), this::getRunning);
+        this.latency = REGISTRY.timer(MetricRegistry.name(prefix, "latency"));
+        this.rejections = REGISTRY.meter(MetricRegistry.name(prefix, "rejected"));
+    }
+
+    /**
+     * Runs an operation of this stage once there is room for it.
+     * <p>
+     * The operation is subscribed to when the returned Observable is subscribed to and fewer than
+     * {@code maxConcurrent} operations are running. If the queue is full instead, the returned Observable fails with
+     * an {@link AsyncWorkRejectedException}.
+     *
+     * @param operation  Builds the Observable performing the operation
+     * @param <T>  The type of the operation's results
+     *
+     * @return An Observable that emits the results of the operation
+     */
+    public <T> Observable<T> limit(Func0<Observable<T>> operation) {
+        if (!isBounded()) {
+            return Observable.defer(operation);
+        }
+        return Observable.create((Subscriber<? super T> subscriber) -> {
+            Runnable start = () -> start(operation, subscriber);
+            if (!offer(start)) {
+                rejections.mark();
+                subscriber.onError(buildRejection());
+            }
+        });
+    }
+
+    /**
+     * Whether this stage can't accept any more operations without rejecting them.
+     *
+     * @return true if the operations queue is full
+     */
+    public synchronized boolean isSaturated() {
+        return isBounded() && running >= maxConcurrent && pending.size() >= maxQueued;
+    }
+
+    /**
+     * Whether this stage bounds the number of its operations running at once.
+     *
+     * @return false if the operations of this stage run as soon as they are subscribed to
+     */
+    public boolean isBounded() {
+        return maxConcurrent > 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Builds the exception rejecting an operation of this stage, describing how full the stage is and its limits.
+     *
+     * @return the exception
+     */
+    synchronized AsyncWorkRejectedException buildRejection() {
+        return new AsyncWorkRejectedException(name, running, maxConcurrent, pending.size(), maxQueued);
+    }
+
+    /**
+     * Gets the number of operations waiting to run.
+     *
+     * @return the queue depth
+     */
+    public synchronized int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * Gets the number of operations running.
+     *
+     * @return the number of running operations
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * Starts an operation now if there is room for it to run, queues it if there is room in the queue, and refuses it
+     * otherwise.
+     *
+     * @param start  Starts the operation
+     *
+     * @return false if the operation was refused
+     */
+    private boolean offer(Runnable start) {
+        synchronized (this) {
+            if (running >= maxConcurrent) {
+                if (pending.size() >= maxQueued) {
+                    return false;
+                }
+                pending.add(start);
+                return true;
+            }
+            running++;
+        }
+        start.run();
+        return true;
+    }
+
+    /**
+     * Subscribes to an operation, releasing its slot when it terminates or its subscriber unsubscribes.
+     *
+     * @param operation  Builds the Observable performing the operation
+     * @param subscriber  The subscriber waiting on the operation
+     * @param <T>  The type of the operation's results
+     */
+    private <T> void start(Func0<Observable<T>> operation, Subscriber<? super T> subscriber) {
+        if (subscriber.isUnsubscribed()) {
+            finish();
+            return;
+        }
+        Timer.Context timer = latency.time();
+        AtomicBoolean finished = new AtomicBoolean(false);
+        Runnable release = () -> {
+            if (finished.compareAndSet(false, true)) {
+                timer.stop();
+                finish();
+            }
+        };
+        subscriber.add(Subscriptions.create(release::run));
+        Observable.defer(operation)
+                .doOnTerminate(release::run)
+                .unsafeSubscribe(subscriber);
+    }
+
+    /**
+     * Releases the slot of a finished operation, and starts queued operations while there is room for them.
+     * <p>
+     * Only one thread drains the queue at a time. An operation that finishes while it is being started by the draining
+     * thread only releases its slot, and the draining thread's loop starts the next operation, so operations that
+     * finish synchronously don't recurse through one another.
+     */
+    private void finish() {
+        synchronized (this) {
+            running--;
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        try {
+            for (Runnable next = nextToStart(); next != null; next = nextToStart()) {
+                next.run();
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                draining = false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the next queued operation if there is room for it to run, and otherwise stops draining the queue.
+     *
+     * @return the operation to start, or null if there is none to start
+     */
+    private synchronized Runnable nextToStart() {
+        if (running >= maxConcurrent || pending.isEmpty()) {
+            draining = false;
+            return null;
+        }
+        running++;
+        return pending.poll();
+    }
+
+    /**
+     * Registers a gauge, replacing the gauge of any earlier limiter of the same stage.
+     *
+     * @param metricName  The name of the gauge
+     * @param gauge  The gauge
+     */
+    private static void register(String metricName, Gauge<Integer> gauge) {
+        REGISTRY.remove(metricName);
+        REGISTRY.register(metricName, gauge);
+    }
+}
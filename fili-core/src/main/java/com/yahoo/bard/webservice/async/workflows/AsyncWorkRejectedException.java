@@ -0,0 +1,24 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.async.workflows;
+
+import static com.yahoo.bard.webservice.web.ErrorMessageFormat.ASYNC_STAGE_SATURATED;
+
+/**
+ * Exception thrown when a stage of the asynchronous workflows has no room for more work.
+ */
+public class AsyncWorkRejectedException extends RuntimeException {
+
+    /**
+     * Build an AsyncWorkRejectedException for a saturated stage.
+     *
+     * @param stage  The name of the saturated stage
+     * @param running  The number of operations the stage is running
+     * @param maxConcurrent  The number of operations the stage may run at once
+     * @param queued  The number of operations waiting on the stage
+     * @param maxQueued  The number of operations that may wait on the stage
+     */
+    public AsyncWorkRejectedException(String stage, int running, int maxConcurrent, int queued, int maxQueued) {
+        super(ASYNC_STAGE_SATURATED.logFormat(stage, running, maxConcurrent, queued, maxQueued));
+    }
+}
@@ -12,6 +12,8 @@ import com.yahoo.bard.webservice.async.jobs.jobrows.JobField;
 import com.yahoo.bard.webservice.async.jobs.jobrows.JobRow;
 import com.yahoo.bard.webservice.async.jobs.stores.ApiJobStore;
 import com.yahoo.bard.webservice.async.preresponses.stores.PreResponseStore;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
 import com.yahoo.bard.webservice.util.Either;
 import com.yahoo.bard.webservice.web.ErrorMessageFormat;
 import com.yahoo.bard.webservice.web.PreResponse;
@@ -32,14 +34,35 @@ import javax.inject.Singleton;
 
 /**
  * Builds an Asynchronous process that only saves the results of a query if the query is asynchronous.
+ * <p>
+ * Saves to the ApiJobStore and the PreResponseStore each go through an {@link AsyncStageLimiter}, which bounds how
+ * many saves are in flight at once. A query only becomes asynchronous if neither store is saturated, so slow saves
+ * push back on the admission of new asynchronous jobs instead of piling up in memory. A query that can't be admitted
+ * fails with an {@link AsyncWorkRejectedException}. Each store's limits are configured separately, and a store is
+ * unbounded unless it is configured to allow a positive number of saves at once.
  */
 @Singleton
 public class DefaultAsynchronousWorkflowsBuilder implements AsynchronousWorkflowsBuilder {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultAsynchronousWorkflowsBuilder.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    public static final String MAX_CONCURRENT_JOB_ROW_SAVES_KEY =
+            SYSTEM_CONFIG.getPackageVariableName("async_max_concurrent_job_row_saves");
+    public static final String MAX_QUEUED_JOB_ROW_SAVES_KEY =
+            SYSTEM_CONFIG.getPackageVariableName("async_max_queued_job_row_saves");
+    public static final String MAX_CONCURRENT_PRE_RESPONSE_SAVES_KEY =
+            SYSTEM_CONFIG.getPackageVariableName("async_max_concurrent_pre_response_saves");
+    public static final String MAX_QUEUED_PRE_RESPONSE_SAVES_KEY =
+            SYSTEM_CONFIG.getPackageVariableName("async_max_queued_pre_response_saves");
+
+    public static final int DEFAULT_MAX_CONCURRENT_STORE_OPERATIONS = 0;
+    public static final int DEFAULT_MAX_QUEUED_STORE_OPERATIONS = 1024;
 
     private final ApiJobStore apiJobStore;
     private final PreResponseStore preResponseStore;
     private final Clock timestampGenerator;
+    private final AsyncStageLimiter jobRowSaves;
+    private final AsyncStageLimiter preResponseSaves;
 
     /**
      * A factory for constructing the asynchronous response building workflow.
@@ -53,10 +76,59 @@ public class DefaultAsynchronousWorkflowsBuilder implements AsynchronousWorkflow
             ApiJobStore apiJobStore,
             PreResponseStore preResponseStore,
             Clock timestampGenerator
+    ) {
+        this(
+                apiJobStore,
+                preResponseStore,
+                timestampGenerator,
+                buildStoreLimiter("jobRowSaves", MAX_CONCURRENT_JOB_ROW_SAVES_KEY, MAX_QUEUED_JOB_ROW_SAVES_KEY),
+                buildStoreLimiter(
+                        "preResponseSaves",
+                        MAX_CONCURRENT_PRE_RESPONSE_SAVES_KEY,
+                        MAX_QUEUED_PRE_RESPONSE_SAVES_KEY
+                )
+        );
+    }
+
+    /**
+     * A factory for constructing the asynchronous response building workflow, with explicit bounds on the saves in
+     * flight.
+     *
+     * @param apiJobStore  A service for storing and requesting job metadata
+     * @param preResponseStore  A service for storing and requesting query results
+     * @param timestampGenerator  The clock to use to generate timestamps
+     * @param jobRowSaves  Bounds the saves to the ApiJobStore in flight
+     * @param preResponseSaves  Bounds the saves to the PreResponseStore in flight
+     */
+    public DefaultAsynchronousWorkflowsBuilder(
+            ApiJobStore apiJobStore,
+            PreResponseStore preResponseStore,
+            Clock timestampGenerator,
+            AsyncStageLimiter jobRowSaves,
+            AsyncStageLimiter preResponseSaves
     ) {
         this.apiJobStore = apiJobStore;
         this.preResponseStore = preResponseStore;
         this.timestampGenerator = timestampGenerator;
+        this.jobRowSaves = jobRowSaves;
+        this.preResponseSaves = preResponseSaves;
+    }
+
+    /**
+     * Builds a limiter for saves to a store, bounded by the limits configured for the store.
+     *
+     * @param name  The name of the stage
+     * @param maxConcurrentKey  The key of the maximum number of saves running at once, 0 if unbounded
+     * @param maxQueuedKey  The key of the maximum number of saves waiting to run
+     *
+     * @return A limiter for the stage
+     */
+    private static AsyncStageLimiter buildStoreLimiter(String name, String maxConcurrentKey, String maxQueuedKey) {
+        return new AsyncStageLimiter(
+                name,
+                SYSTEM_CONFIG.getIntProperty(maxConcurrentKey, DEFAULT_MAX_CONCURRENT_STORE_OPERATIONS),
+                SYSTEM_CONFIG.getIntProperty(maxQueuedKey, DEFAULT_MAX_QUEUED_STORE_OPERATIONS)
+        );
     }
 
     @Override
@@ -69,10 +141,11 @@ public class DefaultAsynchronousWorkflowsBuilder implements AsynchronousWorkflow
 
         // This will emit the job metadata iff the query is asynchronous, and be empty iff the query is sychronous.
         // It is replayable because some the asynchronous workflows use this observable as a gate via the delay
-        // operator.
+        // operator. If the stores are too far behind to take on another job, it fails instead, and nothing is stored.
         ConnectableObservable<JobRow> asynchronousPayload = payloadEmitter
                 .filter(Either::isRight)
                 .map(Either::getRight)
+                .flatMap(this::admit)
                 .replay(1);
 
         asynchronousPayload.connect();
@@ -130,6 +203,23 @@ public class DefaultAsynchronousWorkflowsBuilder implements AsynchronousWorkflow
         );
     }
 
+    /**
+     * Admits a query into the asynchronous workflows, unless the stores the workflows save to are saturated.
+     *
+     * @param jobRow  The metadata of the query becoming asynchronous
+     *
+     * @return An Observable that emits the JobRow if the query is admitted, and fails with an
+     * {@link AsyncWorkRejectedException} otherwise
+     */
+    private Observable<JobRow> admit(JobRow jobRow) {
+        for (AsyncStageLimiter stage : new AsyncStageLimiter[] {preResponseSaves, jobRowSaves}) {
+            if (stage.isSaturated()) {
+                return Observable.error(stage.buildRejection());
+            }
+        }
+        return Observable.just(jobRow);
+    }
+
     /**
      * Constructs the observable chain that stores the JobRow in the ApiJobStore, and then emits the JobRow
      * upon successful storage of the ApiJobStore.
@@ -144,7 +234,7 @@ public class DefaultAsynchronousWorkflowsBuilder implements AsynchronousWorkflow
      */
     private Observable<JobRow> buildJobRowStoredNotification(Observable<JobRow> asynchronousPayload, JobRow jobRow) {
         return asynchronousPayload
-                .flatMap(apiJobStore::save)
+                .flatMap(row -> jobRowSaves.limit(() -> apiJobStore.save(row)))
                 .onErrorReturn(error -> {
                     LOG.debug(ErrorMessageFormat.FAILED_TO_SAVE_JOB_ROW.format(jobRow), error);
                     return jobRow;
@@ -179,7 +269,9 @@ public class DefaultAsynchronousWorkflowsBuilder implements AsynchronousWorkflow
                 // Using zip as a gate. We don't let the preResponse from the preResponse emitter continue down the
                 // chain until and unless the asynchronousPayload emits an item.
                 .zipWith(asynchronousPayload, (preResponse, ignored) -> preResponse)
-                .flatMap(preResponse -> preResponseStore.save(jobRow.getId(), preResponse));
+                .flatMap(preResponse -> preResponseSaves.limit(
+                        () -> preResponseStore.save(jobRow.getId(), preResponse)
+                ));
     }
 
 
@@ -220,7 +312,7 @@ public class DefaultAsynchronousWorkflowsBuilder implements AsynchronousWorkflow
                         updateField(jobMetadata, STATUS, FAILURE.getName()) :
                         updateField(jobMetadata, STATUS, SUCCESS.getName())
                 )
-                .flatMap(apiJobStore::save);
+                .flatMap(row -> jobRowSaves.limit(() -> apiJobStore.save(row)));
     }
 
     /**
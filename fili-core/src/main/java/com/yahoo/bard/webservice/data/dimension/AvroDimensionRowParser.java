@@ -2,8 +2,14 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.data.dimension;
 
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
 import com.yahoo.bard.webservice.data.cache.HashDataCache.Pair;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Field;
 import org.apache.avro.file.DataFileReader;
@@ -14,10 +20,18 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -25,10 +39,26 @@ import java.util.stream.StreamSupport;
 
 /**
  * Parses an AVRO file into Dimension Rows.
+ * <p>
+ * Large files can be loaded straight into a dimension in parallel: the file is split into byte ranges, each range is
+ * read from the first sync marker inside it by its own thread, and the rows are written to the dimension in batches.
+ * The position of the next block of each range is checkpointed after every batch, so a load that fails part way
+ * through resumes from the last written batch of each range when it is retried.
  */
 public class AvroDimensionRowParser {
 
     private static final Logger LOG = LoggerFactory.getLogger(AvroDimensionRowParser.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+
+    public static final String LOAD_THREADS_KEY = SYSTEM_CONFIG.getPackageVariableName("avro_dimension_load_threads");
+
+    /**
+     * The checkpoint of a range whose rows have all been written.
+     */
+    public static final String RANGE_LOADED = "loaded";
+
+    private static final Meter ROWS_LOADED = REGISTRY.meter("dimensions.load.rows");
 
     private final DimensionFieldNameMapper dimensionFieldNameMapper;
 
@@ -85,6 +115,22 @@ public class AvroDimensionRowParser {
     }
 
 
+    /**
+     * Checks that the schema of an AVRO file contains all the dimension fields.
+     *
+     * @param dimension  The dimension object used to configure the dimension
+     * @param avroSchema  The AVRO Schema
+     *
+     * @throws IllegalArgumentException if the schema doesn't contain all the dimension fields
+     */
+    private void validateSchema(Dimension dimension, Schema avroSchema) throws IllegalArgumentException {
+        if (!doesSchemaContainAllDimensionFields(dimension, avroSchema)) {
+            String msg = "The AVRO schema file does not contain all the configured dimension fields";
+            LOG.error(msg);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+
     /**
      * Transform an avro generic record into a set map of fields and values.
      *
@@ -120,12 +166,7 @@ public class AvroDimensionRowParser {
             DataFileReader<GenericRecord> dataFileReader,
             Dimension dimension
     ) throws IllegalArgumentException {
-        // Validate Schema
-        if (!doesSchemaContainAllDimensionFields(dimension, dataFileReader.getSchema())) {
-            String msg = "The AVRO schema file does not contain all the configured dimension fields";
-            LOG.error(msg);
-            throw new IllegalArgumentException(msg);
-        }
+        validateSchema(dimension, dataFileReader.getSchema());
 
         // Generates a set of dimension Rows after retrieving the appropriate fields
         return StreamSupport.stream(dataFileReader.spliterator(), false)
@@ -185,6 +226,237 @@ public class AvroDimensionRowParser {
         }
     }
 
+    /**
+     * Loads the rows of an avro file into a dimension in parallel, using the configured number of threads (the number
+     * of processors by default) and batch size ({@code dimension_load_chunk_size}, 10000 rows by default).
+     *
+     * @param dimension  The dimension to load
+     * @param avroFilePath  The path of the AVRO data file (.avro)
+     * @param checkpoints  The store the progress of the load is recorded in
+     *
+     * @return the number of rows loaded, not counting rows loaded by earlier attempts
+     *
+     * @throws IllegalArgumentException if the file can't be read or doesn't contain all the dimension fields
+     */
+    public long loadAvroFileDimensionRows(Dimension dimension, String avroFilePath, KeyValueStore checkpoints)
+            throws IllegalArgumentException {
+        return loadAvroFileDimensionRows(
+                dimension,
+                avroFilePath,
+                checkpoints,
+                SYSTEM_CONFIG.getIntProperty(LOAD_THREADS_KEY, Runtime.getRuntime().availableProcessors()),
+                SYSTEM_CONFIG.getIntProperty(
+                        JsonDimensionRowLoader.CHUNK_SIZE_KEY,
+                        JsonDimensionRowLoader.DEFAULT_CHUNK_SIZE
+                )
+        );
+    }
+
+    /**
+     * Loads the rows of an avro file into a dimension in parallel.
+     * <p>
+     * The file is split into one byte range per thread. Each thread reads the blocks whose sync marker starts in its
+     * range, reusing a single record, and writes its rows to the dimension once it has read at least
+     * {@code batchSize} of them and reaches the end of a block. Rows are parsed in parallel, but batches and
+     * checkpoints are written one at a time, since neither search providers nor stores all support concurrent
+     * updates.
+     * <p>
+     * After each batch, the position of the next block of the range is recorded in the checkpoint store, keyed by the
+     * name, size and modification time of the file and by the range. A retried load of the same file with the same
+     * number of threads starts each range from its checkpoint, and the checkpoints are removed once the whole file is
+     * loaded.
+     *
+     * @param dimension  The dimension to load
+     * @param avroFilePath  The path of the AVRO data file (.avro)
+     * @param checkpoints  The store the progress of the load is recorded in
+     * @param threads  The number of ranges the file is split into, each read by its own thread
+     * @param batchSize  The least number of rows written to the dimension at a time
+     *
+     * @return the number of rows loaded, not counting rows loaded by earlier attempts
+     *
+     * @throws IllegalArgumentException if the file can't be read or doesn't contain all the dimension fields
+     */
+    public long loadAvroFileDimensionRows(
+            Dimension dimension,
+            String avroFilePath,
+            KeyValueStore checkpoints,
+            int threads,
+            int batchSize
+    ) throws IllegalArgumentException {
+        if (threads < 1 || batchSize < 1) {
+            String msg = String.format(
+                    "Loads need at least one thread and one row per batch, not %d and %d",
+                    threads,
+                    batchSize
+            );
+            throw new IllegalArgumentException(msg);
+        }
+        File file = new File(avroFilePath);
+        validateFile(dimension, file);
+
+        List<String> checkpointKeys = new ArrayList<>(threads);
+        List<Future<Long>> loads = new ArrayList<>(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int range = 0; range < threads; range++) {
+                long start = file.length() * range / threads;
+                long end = file.length() * (range + 1) / threads;
+                String checkpointKey = String.format(
+                        "%s_%d_%d_avro_checkpoint_%d_of_%d",
+                        file.getName(),
+                        file.length(),
+                        file.lastModified(),
+                        range,
+                        threads
+                );
+                checkpointKeys.add(checkpointKey);
+                loads.add(executor.submit(
+                        () -> loadRange(dimension, file, start, end, checkpoints, checkpointKey, batchSize)
+                ));
+            }
+            long loaded = 0;
+            for (Future<Long> load : loads) {
+                loaded += load.get();
+            }
+            // The whole file is loaded, so a later load of it starts from scratch
+            checkpointKeys.forEach(checkpoints::remove);
+            LOG.debug("Loaded {} rows into dimension {} from {}", loaded, dimension.getApiName(), avroFilePath);
+            return loaded;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading " + avroFilePath, e);
+        } catch (ExecutionException e) {
+            throw loadFailure(e.getCause(), avroFilePath);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks that an avro file can be read and contains all the dimension fields.
+     *
+     * @param dimension  The dimension object used to configure the dimension
+     * @param file  The AVRO data file
+     *
+     * @throws IllegalArgumentException if the file can't be read or doesn't contain all the dimension fields
+     */
+    private void validateFile(Dimension dimension, File file) throws IllegalArgumentException {
+        try (DataFileReader<GenericRecord> dataFileReader = new DataFileReader<>(file, new GenericDatumReader<>())) {
+            validateSchema(dimension, dataFileReader.getSchema());
+        } catch (IOException e) {
+            String msg = String.format("Unable to process the file, at the location %s", file.getPath());
+            LOG.error(msg, e);
+            throw new IllegalArgumentException(msg, e);
+        }
+    }
+
+    /**
+     * Get the exception to fail a load with, given the failure of one of its ranges.
+     *
+     * @param cause  The exception the range failed with
+     * @param avroFilePath  The path of the AVRO data file (.avro)
+     *
+     * @return the cause if it is unchecked, or an IllegalArgumentException wrapping it otherwise
+     */
+    private static RuntimeException loadFailure(Throwable cause, String avroFilePath) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        String msg = String.format("Unable to process the file, at the location %s", avroFilePath);
+        LOG.error(msg, cause);
+        return new IllegalArgumentException(msg, cause);
+    }
+
+    /**
+     * Loads the rows of the blocks whose sync marker starts in a range of an avro file, resuming from the checkpoint
+     * of the range if there is one.
+     *
+     * @param dimension  The dimension to load
+     * @param file  The AVRO data file
+     * @param start  The position the range starts at
+     * @param end  The position the range ends before
+     * @param checkpoints  The store the progress of the load is recorded in
+     * @param checkpointKey  The key the checkpoint of the range is recorded under
+     * @param batchSize  The least number of rows written to the dimension at a time
+     *
+     * @return the number of rows loaded
+     *
+     * @throws IOException if the file can't be read, or the load is cancelled
+     */
+    private long loadRange(
+            Dimension dimension,
+            File file,
+            long start,
+            long end,
+            KeyValueStore checkpoints,
+            String checkpointKey,
+            int batchSize
+    ) throws IOException {
+        String checkpoint = checkpoints.get(checkpointKey);
+        if (RANGE_LOADED.equals(checkpoint)) {
+            return 0;
+        }
+        try (DataFileReader<GenericRecord> dataFileReader = new DataFileReader<>(file, new GenericDatumReader<>())) {
+            if (checkpoint == null) {
+                dataFileReader.sync(start);
+            } else {
+                dataFileReader.seek(Long.parseLong(checkpoint));
+            }
+
+            long loaded = 0;
+            long blockStart = dataFileReader.previousSync();
+            GenericRecord record = null;
+            Set<DimensionRow> batch = new LinkedHashSet<>();
+            while (dataFileReader.hasNext() && !dataFileReader.pastSync(end)) {
+                if (dataFileReader.previousSync() != blockStart) {
+                    // A new block starts, so the rows read so far can be written without splitting a block
+                    blockStart = dataFileReader.previousSync();
+                    if (batch.size() >= batchSize) {
+                        loaded += write(dimension, batch, checkpoints, checkpointKey, Long.toString(blockStart));
+                        batch = new LinkedHashSet<>();
+                    }
+                }
+                record = dataFileReader.next(record);
+                batch.add(dimension.parseDimensionRow(recordToMap(record, dimension)));
+            }
+            loaded += write(dimension, batch, checkpoints, checkpointKey, RANGE_LOADED);
+            return loaded;
+        }
+    }
+
+    /**
+     * Writes a batch of rows to a dimension and then records the checkpoint of its range, one batch at a time.
+     *
+     * @param dimension  The dimension to write to
+     * @param batch  The rows to write
+     * @param checkpoints  The store the progress of the load is recorded in
+     * @param checkpointKey  The key the checkpoint of the range is recorded under
+     * @param checkpoint  The checkpoint of the range once the batch is written
+     *
+     * @return the number of rows written
+     *
+     * @throws InterruptedIOException if the load was cancelled
+     */
+    private static int write(
+            Dimension dimension,
+            Set<DimensionRow> batch,
+            KeyValueStore checkpoints,
+            String checkpointKey,
+            String checkpoint
+    ) throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Load of dimension " + dimension.getApiName() + " was cancelled");
+        }
+        synchronized (dimension) {
+            if (!batch.isEmpty()) {
+                dimension.addAllDimensionRows(batch);
+            }
+            checkpoints.put(checkpointKey, checkpoint);
+        }
+        ROWS_LOADED.mark(batch.size());
+        return batch.size();
+    }
+
     /**
      * Returns a memoized converter function for the dimension field name mapping.
      *
@@ -192,7 +464,8 @@ public class AvroDimensionRowParser {
      * @return Memoized function that converts the dimension field name based on the user mapping
      */
     private DimensionFieldNameMapper memoize(DimensionFieldNameMapper dimensionFieldNameMapper) {
-        Map<Pair<Dimension, DimensionField>, String> cache = new HashMap<>();
+        // Loads convert field names from several threads
+        Map<Pair<Dimension, DimensionField>, String> cache = new ConcurrentHashMap<>();
         return (dimension, dimensionField) -> cache.computeIfAbsent(
                 new Pair<>(dimension, dimensionField),
                 key -> dimensionFieldNameMapper.convert(key.getKey(), key.getValue())
@@ -9,9 +9,12 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 import org.joda.time.DateTime;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Dimension interface.
@@ -111,6 +114,41 @@ public interface Dimension {
      */
     DimensionRow findDimensionRowByKeyValue(String value);
 
+    /**
+     * Find which of a collection of key values have a dimension row.
+     * <p>
+     * Dimensions backed by a store that can fetch many keys at once should override this to look the values up in bulk.
+     *
+     * @param values  The key values to look for
+     *
+     * @return the key values that have a row
+     */
+    default Set<String> findExistingKeyValues(Collection<String> values) {
+        return values.stream()
+                .filter(value -> findDimensionRowByKeyValue(value) != null)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Get the dimension rows of a collection of key values.
+     * <p>
+     * Dimensions backed by a store that can fetch many keys at once should override this to look the rows up in bulk.
+     *
+     * @param values  The key values to look for
+     *
+     * @return the rows of the key values that have one, by key value
+     */
+    default Map<String, DimensionRow> findDimensionRowsByKeyValues(Collection<String> values) {
+        Map<String, DimensionRow> rows = new HashMap<>();
+        for (String value : values) {
+            DimensionRow row = findDimensionRowByKeyValue(value);
+            if (row != null) {
+                rows.put(value, row);
+            }
+        }
+        return rows;
+    }
+
     /**
      * Get primary key field for this dimension.
      *
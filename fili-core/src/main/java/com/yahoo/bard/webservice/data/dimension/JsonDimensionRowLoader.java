@@ -0,0 +1,211 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Streams the dimension rows of a JSON document into a dimension, a chunk at a time.
+ * <p>
+ * The document is expected in the format accepted by the dimension cache loader:
+ * <pre><code>
+ * {
+ *     "dimensionRows": [
+ *         { "id":"usa", "description":"United_States_of_America" },
+ *         { "id":"can", "description":"Canada" }
+ *     ]
+ * }
+ * </code></pre>
+ * Rows are parsed one at a time, and handed to {@link Dimension#addAllDimensionRows(Set)} every {@code chunkSize}
+ * rows, so the memory needed to load a dimension is bounded by the chunk size rather than the size of the document.
+ * Rows are written chunk by chunk, so a document that fails to parse part way through leaves the chunks before the
+ * failure loaded.
+ */
+public class JsonDimensionRowLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(JsonDimensionRowLoader.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+
+    public static final String CHUNK_SIZE_KEY = SYSTEM_CONFIG.getPackageVariableName("dimension_load_chunk_size");
+    public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+    public static final String DIMENSION_ROWS_KEY = "dimensionRows";
+
+    private static final Meter ROWS_LOADED = REGISTRY.meter("dimensions.load.rows");
+    private static final Timer CHUNK_LOAD_TIME = REGISTRY.timer("dimensions.load.chunk");
+    private static final TypeReference<LinkedHashMap<String, String>> ROW_TYPE =
+            new TypeReference<LinkedHashMap<String, String>>() { /* Empty class */ };
+
+    private final ObjectMapper mapper;
+    private final int chunkSize;
+
+    /**
+     * Constructor, using the configured chunk size (10000 rows by default).
+     *
+     * @param mapper  The mapper used to parse the document
+     */
+    public JsonDimensionRowLoader(ObjectMapper mapper) {
+        this(mapper, SYSTEM_CONFIG.getIntProperty(CHUNK_SIZE_KEY, DEFAULT_CHUNK_SIZE));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param mapper  The mapper used to parse the document
+     * @param chunkSize  The number of rows written to the dimension at a time
+     */
+    public JsonDimensionRowLoader(ObjectMapper mapper, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunks must hold at least one row, not " + chunkSize);
+        }
+        this.mapper = mapper;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Loads the rows of a document into a dimension, adding or replacing rows by key.
+     *
+     * @param dimension  The dimension to load
+     * @param document  The JSON document holding the rows
+     *
+     * @return the number of rows loaded
+     *
+     * @throws IOException if the document can't be read or isn't in the expected format
+     */
+    public long load(Dimension dimension, Reader document) throws IOException {
+        return load(dimension, document, dimension::parseDimensionRow);
+    }
+
+    /**
+     * Loads the rows of a document into a dimension, building each row to write from its fields in the document.
+     *
+     * @param dimension  The dimension to load
+     * @param document  The JSON document holding the rows
+     * @param rowBuilder  Builds the row to write from the field names and values of a row in the document
+     *
+     * @return the number of rows loaded
+     *
+     * @throws IOException if the document can't be read or isn't in the expected format
+     */
+    public long load(
+            Dimension dimension,
+            Reader document,
+            Function<Map<String, String>, DimensionRow> rowBuilder
+    ) throws IOException {
+        return loadChunks(
+                dimension,
+                document,
+                chunk -> chunk.stream().map(rowBuilder).collect(Collectors.toCollection(LinkedHashSet::new))
+        );
+    }
+
+    /**
+     * Loads the rows of a document into a dimension, building the rows to write a chunk at a time from their fields in
+     * the document. This lets the rows of a chunk be built from the rows already in the dimension with one lookup.
+     *
+     * @param dimension  The dimension to load
+     * @param document  The JSON document holding the rows
+     * @param chunkBuilder  Builds the rows to write from the field names and values of a chunk of rows in the document
+     *
+     * @return the number of rows loaded
+     *
+     * @throws IOException if the document can't be read or isn't in the expected format
+     */
+    public long loadChunks(
+            Dimension dimension,
+            Reader document,
+            Function<List<Map<String, String>>, Set<DimensionRow>> chunkBuilder
+    ) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(document)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonMappingException(parser, "Expected an object holding " + DIMENSION_ROWS_KEY);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (DIMENSION_ROWS_KEY.equals(field) && value == JsonToken.START_ARRAY) {
+                    return loadRows(dimension, parser, chunkBuilder);
+                }
+                parser.skipChildren();
+            }
+            throw new JsonMappingException(parser, "Missing " + DIMENSION_ROWS_KEY);
+        }
+    }
+
+    /**
+     * Loads the rows of the array the parser is positioned at, a chunk at a time.
+     *
+     * @param dimension  The dimension to load
+     * @param parser  A parser positioned at the start of the array of rows
+     * @param chunkBuilder  Builds the rows to write from the field names and values of a chunk of rows in the document
+     *
+     * @return the number of rows loaded
+     *
+     * @throws IOException if a row can't be parsed
+     */
+    private long loadRows(
+            Dimension dimension,
+            JsonParser parser,
+            Function<List<Map<String, String>>, Set<DimensionRow>> chunkBuilder
+    ) throws IOException {
+        long loaded = 0;
+        List<Map<String, String>> chunk = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            chunk.add(mapper.readValue(parser, ROW_TYPE));
+            if (chunk.size() >= chunkSize) {
+                loaded += write(dimension, chunkBuilder.apply(chunk), loaded);
+                chunk = new ArrayList<>();
+            }
+        }
+        if (parser.getCurrentToken() != JsonToken.END_ARRAY) {
+            throw new JsonMappingException(parser, "Expected only objects in " + DIMENSION_ROWS_KEY);
+        }
+        if (!chunk.isEmpty()) {
+            loaded += write(dimension, chunkBuilder.apply(chunk), loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * Writes a chunk of rows to a dimension.
+     *
+     * @param dimension  The dimension to write to
+     * @param chunk  The rows to write
+     * @param loaded  The number of rows written before this chunk
+     *
+     * @return the number of rows written
+     */
+    private int write(Dimension dimension, Set<DimensionRow> chunk, long loaded) {
+        try (Timer.Context ignored = CHUNK_LOAD_TIME.time()) {
+            dimension.addAllDimensionRows(chunk);
+        }
+        ROWS_LOADED.mark(chunk.size());
+        LOG.debug("Loaded {} rows into dimension {}", loaded + chunk.size(), dimension.getApiName());
+        return chunk.size();
+    }
+}
@@ -5,6 +5,8 @@ package com.yahoo.bard.webservice.data.dimension;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.validation.constraints.NotNull;
@@ -61,6 +63,26 @@ public interface KeyValueStore extends Closeable {
         return get(key) == null ? defaultValue : get(key);
     }
 
+    /**
+     * Get the values for several keys from store.
+     * <p>
+     * Stores that can fetch several keys in one round trip should override this, the default gets each key in turn.
+     *
+     * @param keys  Keys to get the values for
+     *
+     * @return the values of the keys that are set, by key
+     */
+    default Map<String, String> getAll(@NotNull Collection<String> keys) {
+        Map<String, String> values = new HashMap<>(keys.size());
+        for (String key : keys) {
+            String value = get(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
     /**
      * Get the health status of the store.
      *
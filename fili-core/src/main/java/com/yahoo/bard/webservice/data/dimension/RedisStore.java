@@ -7,10 +7,15 @@ import org.slf4j.LoggerFactory;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.exceptions.JedisException;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -121,39 +126,70 @@ public class RedisStore implements KeyValueStore {
         return putAll(Collections.singletonMap(key, value)).get(key);
     }
 
+    @Override
+    public Map<String, String> getAll(@NotNull Collection<String> keys) {
+        if (keys == null) {
+            throw new IllegalArgumentException("Cannot get null keys");
+        }
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        try (Jedis jedis = pool.getResource()) {
+            return fetch(jedis, keys);
+        } catch (JedisException e) {
+            redisIsHealthy = false;
+            String msg = String.format("Unable to get %d keys from Redis", keys.size());
+            LOG.error(msg);
+            throw new RuntimeException(msg, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The old values are fetched in one round trip, and the changes are written in a single pipeline.
+     */
     @Override
     public Map<String, String> putAll(@NotNull Map<String, String> entries) {
         if (entries == null) {
             throw new IllegalArgumentException("Cannot set null entries");
         }
+        if (entries.containsKey(null)) {
+            throw new IllegalArgumentException("Cannot set null key");
+        }
+        if (entries.isEmpty()) {
+            return new HashMap<>();
+        }
 
         try (Jedis jedis = pool.getResource()) {
-
+            Map<String, String> fetched = fetch(jedis, entries.keySet());
             Map<String, String> oldValues = new HashMap<>(entries.size());
-            for (String key : entries.keySet()) {
-                if (key == null) {
-                    throw new IllegalArgumentException("Cannot set null key");
-                }
-
-                String rKey = redisKey(storeName, key);
-
-                String oldValue = jedis.get(rKey);
-                String newValue = entries.get(key);
 
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<String>> results = new ArrayList<>(entries.size());
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                String key = entry.getKey();
+                String oldValue = fetched.get(key);
                 oldValues.put(key, oldValue);
 
-                if (newValue == null) {
+                String rKey = redisKey(storeName, key);
+                if (entry.getValue() == null) {
                     if (oldValue != null) {
-                        jedis.del(rKey);
+                        pipeline.del(rKey);
                     }
                 } else {
-                    String result = jedis.set(rKey, entries.get(key));
-                    if (!"OK".equals(result)) {
-                        redisIsHealthy = false;
-                        String msg = "Redis failed to store key";
-                        LOG.error(msg);
-                        throw new RuntimeException(msg);
-                    }
+                    results.add(pipeline.set(rKey, entry.getValue()));
+                }
+            }
+            pipeline.sync();
+
+            for (Response<String> result : results) {
+                if (!"OK".equals(result.get())) {
+                    redisIsHealthy = false;
+                    String msg = "Redis failed to store key";
+                    LOG.error(msg);
+                    throw new RuntimeException(msg);
                 }
             }
             return oldValues;
@@ -166,6 +202,28 @@ public class RedisStore implements KeyValueStore {
         }
     }
 
+    /**
+     * Fetch the values of several keys in a single round trip.
+     *
+     * @param jedis  The connection to fetch the values over
+     * @param keys  Keys to get the values for
+     *
+     * @return the values of the keys that are set, by key
+     */
+    private Map<String, String> fetch(Jedis jedis, Collection<String> keys) {
+        List<String> storeKeys = new ArrayList<>(keys);
+        String[] rKeys = storeKeys.stream().map(key -> redisKey(storeName, key)).toArray(String[]::new);
+        List<String> values = jedis.mget(rKeys);
+
+        Map<String, String> found = new HashMap<>(storeKeys.size());
+        for (int i = 0; i < storeKeys.size(); i++) {
+            if (values.get(i) != null) {
+                found.put(storeKeys.get(i), values.get(i));
+            }
+        }
+        return found;
+    }
+
     /**
      * Ping the Redis server and update redisIsHealthy.
      */
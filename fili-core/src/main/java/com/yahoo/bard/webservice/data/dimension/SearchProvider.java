@@ -10,9 +10,11 @@ import com.yahoo.bard.webservice.web.util.PaginationParameters;
 import org.slf4j.LoggerFactory;
 
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.stream.Collectors;
 
 import javax.validation.constraints.NotNull;
 
@@ -100,6 +102,22 @@ public interface SearchProvider {
         );
     }
 
+    /**
+     * Get the key values of the dimension rows that match the specified filters, in key value order.
+     * <p>
+     * Filter builders only need the keys of the matching rows, so search providers that can read the keys without
+     * building the rows should override this.
+     *
+     * @param filters  ApiFilters to use for finding matching dimension rows
+     *
+     * @return the key values of the matching dimension rows
+     */
+    default List<String> findFilteredKeyValues(Set<ApiFilter> filters) {
+        return findFilteredDimensionRows(filters).stream()
+                .map(DimensionRow::getKeyValue)
+                .collect(Collectors.toList());
+    }
+
     /**
      * Return the desired page of dimension rows that match the specified filters.
      *
@@ -116,6 +134,19 @@ public interface SearchProvider {
             @NotNull PaginationParameters paginationParameters
     );
 
+    /**
+     * Count the dimension rows that match the specified filters.
+     * <p>
+     * Search providers that can count matches without reading the rows should override this.
+     *
+     * @param filters  ApiFilters to use for finding matching dimension rows
+     *
+     * @return the number of matching dimension rows
+     */
+    default int countFilteredDimensionRows(Set<ApiFilter> filters) {
+        return findFilteredDimensionRowsPaged(filters, PaginationParameters.ONE_RESULT).getNumResults();
+    }
+
     /**
      * Determine if any rows match these filters.
      *
@@ -124,7 +155,7 @@ public interface SearchProvider {
      * @return true if at least one row is returned.
      */
     default boolean hasAnyRows(Set<ApiFilter> filters) {
-        return findFilteredDimensionRowsPaged(filters, PaginationParameters.ONE_RESULT).getNumResults() > 0;
+        return countFilteredDimensionRows(filters) > 0;
     }
 
     /**
@@ -0,0 +1,216 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl;
+
+import com.yahoo.bard.webservice.data.config.dimension.DimensionConfig;
+import com.yahoo.bard.webservice.data.dimension.Dimension;
+import com.yahoo.bard.webservice.data.dimension.DimensionField;
+import com.yahoo.bard.webservice.data.dimension.DimensionRow;
+import com.yahoo.bard.webservice.data.dimension.KeyValueStore;
+import com.yahoo.bard.webservice.data.dimension.MapStore;
+import com.yahoo.bard.webservice.data.dimension.metadata.StorageStrategy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * A dimension whose rows are held in memory by a {@link ColumnarSearchProvider}, rather than serialized into a
+ * KeyValueStore.
+ * <p>
+ * Non-key field values are dictionary encoded, so a dimension with millions of rows and a few thousand distinct
+ * attribute values holds each attribute value once. The KeyValueStore of the dimension only holds its metadata, such
+ * as the last time it was updated. The search provider of a {@link DimensionConfig} is not used, since the provider is
+ * the storage of the rows.
+ */
+public class ColumnarDimension extends KeyValueStoreDimension {
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarDimension.class);
+
+    /**
+     * Constructor.
+     *
+     * @param dimensionName  API Name of the dimension
+     * @param longName  Long API Name of the dimension
+     * @param category  Category of the dimension
+     * @param description  Description of the dimension
+     * @param dimensionFields  Metadata fields of the dimension
+     * @param keyValueStore  Store for the metadata of the dimension, such as when it was last updated
+     * @param searchProvider  Search provider holding the rows of the dimension
+     * @param defaultDimensionFields  Default fields for the dimension
+     * @param isAggregatable  Whether the dimension is aggregatable
+     * @param storageStrategy  Strategy of how dimension is loaded. See
+     * {@link com.yahoo.bard.webservice.data.dimension.metadata.StorageStrategy}
+     */
+    public ColumnarDimension(
+            String dimensionName,
+            String longName,
+            String category,
+            String description,
+            @NotNull LinkedHashSet<DimensionField> dimensionFields,
+            @NotNull KeyValueStore keyValueStore,
+            @NotNull ColumnarSearchProvider searchProvider,
+            @NotNull LinkedHashSet<DimensionField> defaultDimensionFields,
+            boolean isAggregatable,
+            StorageStrategy storageStrategy
+    ) {
+        super(
+                dimensionName,
+                longName,
+                category,
+                description,
+                dimensionFields,
+                keyValueStore,
+                searchProvider,
+                defaultDimensionFields,
+                isAggregatable,
+                storageStrategy
+        );
+    }
+
+    /**
+     * Constructor.
+     * <p>
+     * It constructs an aggregatable dimension that defaults the Long Api Name to the Api Name, sets the Category to the
+     * default category, and keeps its metadata in a {@link MapStore}.
+     *
+     * @param dimensionName  API Name of the dimension
+     * @param description  Description of the dimension
+     * @param dimensionFields  Metadata fields of the dimension
+     */
+    public ColumnarDimension(
+            String dimensionName,
+            String description,
+            @NotNull LinkedHashSet<DimensionField> dimensionFields
+    ) {
+        this(
+                dimensionName,
+                dimensionName,
+                Dimension.DEFAULT_CATEGORY,
+                description,
+                dimensionFields,
+                new MapStore(),
+                new ColumnarSearchProvider(),
+                new LinkedHashSet<>(),
+                true,
+                StorageStrategy.LOADED
+        );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param dimensionConfig  Configuration holder for this dimension
+     */
+    public ColumnarDimension(DimensionConfig dimensionConfig) {
+        this(
+                dimensionConfig.getApiName(),
+                dimensionConfig.getLongName(),
+                dimensionConfig.getCategory(),
+                dimensionConfig.getDescription(),
+                dimensionConfig.getFields(),
+                dimensionConfig.getKeyValueStore(),
+                new ColumnarSearchProvider(),
+                dimensionConfig.getDefaultDimensionFields(),
+                dimensionConfig.isAggregatable(),
+                dimensionConfig.getStorageStrategy()
+        );
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Rows are added to the columns directly. A field missing from a row is stored as the empty string, as it would be
+     * read back from a KeyValueStore.
+     */
+    @Override
+    public void addAllDimensionRows(Set<DimensionRow> dimensionRows) {
+        List<DimensionRow> rows = new ArrayList<>(dimensionRows.size());
+        for (DimensionRow dimensionRow : dimensionRows) {
+            if (dimensionRow.isEmpty()) {
+                LOG.warn("Ignoring attempt to add a dimension row with no data {}", dimensionRow);
+            } else if (dimensionRow.get(getKey()) == null) {
+                LOG.warn("Attempting to add a dimension row with a null key {}", dimensionRow);
+                throw new IllegalArgumentException("Cannot add dimension with null key.");
+            } else {
+                rows.add(complete(dimensionRow));
+            }
+        }
+        getRows().putAll(rows);
+    }
+
+    @Override
+    public DimensionRow findDimensionRowByKeyValue(String value) {
+        return getRows().get(value);
+    }
+
+    @Override
+    public Set<String> findExistingKeyValues(Collection<String> values) {
+        ColumnarDimensionRows rows = getRows();
+        return values.stream().filter(rows::containsKey).collect(Collectors.toSet());
+    }
+
+    @Override
+    public void deleteAllDimensionRows() {
+        getSearchProvider().clearDimension();
+    }
+
+    /**
+     * Constructs a new ColumnarDimension with specified
+     * {@link com.yahoo.bard.webservice.data.dimension.metadata.StorageStrategy}, sharing the rows of this dimension.
+     *
+     * @param storageStrategy  The specified StorageStrategy
+     *
+     * @return the new ColumnarDimension with the specified StorageStrategy
+     */
+    @Override
+    public ColumnarDimension withStorageStrategy(StorageStrategy storageStrategy) {
+        return new ColumnarDimension(
+                getApiName(),
+                getLongName(),
+                getCategory(),
+                getDescription(),
+                getDimensionFields(),
+                getKeyValueStore(),
+                (ColumnarSearchProvider) getSearchProvider(),
+                getDefaultDimensionFields(),
+                isAggregatable(),
+                storageStrategy
+        );
+    }
+
+    /**
+     * Get the columns holding the rows of the dimension.
+     *
+     * @return the rows of the dimension
+     */
+    private ColumnarDimensionRows getRows() {
+        return ((ColumnarSearchProvider) getSearchProvider()).getRows();
+    }
+
+    /**
+     * Fills the fields a row is missing with the empty string.
+     *
+     * @param dimensionRow  The row
+     *
+     * @return the row if it has every field, or a copy of it with every field
+     */
+    private DimensionRow complete(DimensionRow dimensionRow) {
+        if (dimensionRow.keySet().containsAll(getDimensionFields())) {
+            return dimensionRow;
+        }
+        LinkedHashMap<DimensionField, String> values = new LinkedHashMap<>(getDimensionFields().size() * 2);
+        for (DimensionField field : getDimensionFields()) {
+            values.put(field, dimensionRow.getOrDefault(field, ""));
+        }
+        return new DimensionRow(getKey(), values);
+    }
+}
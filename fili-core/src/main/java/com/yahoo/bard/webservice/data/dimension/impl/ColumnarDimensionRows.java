@@ -0,0 +1,624 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl;
+
+import com.yahoo.bard.webservice.data.cache.HashDataCache.Pair;
+import com.yahoo.bard.webservice.data.dimension.DimensionField;
+import com.yahoo.bard.webservice.data.dimension.DimensionRow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * An in-memory, column oriented store of the rows of a dimension.
+ * <p>
+ * The key values of the rows are kept in a single array, and found through an open addressing hash index of row
+ * numbers, so a lookup by key allocates nothing but the row it returns. Every other field is dictionary encoded: each
+ * distinct value of the field is stored once, and each row holds the int code of its value. Dimensions with many rows
+ * and few distinct attribute values therefore hold each attribute value once rather than once per row.
+ * <p>
+ * Rows are handed out as DimensionRows built from the columns when they are read. Filters are evaluated against the
+ * dictionaries first, so each distinct value of a field is matched once per search, and then against the int columns.
+ * <p>
+ * Rows can be added and replaced. Removing rows compacts the columns and rebuilds the hash index, so rows are removed
+ * in batches rather than one by one. The dictionaries count the rows holding each value, and drop a value once no row
+ * holds it, so replacing and removing rows doesn't leave stale values behind.
+ */
+public class ColumnarDimensionRows {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NULL_CODE = -1;
+    private static final int EMPTY_SLOT = 0;
+
+    private final DimensionField key;
+    private final List<DimensionField> dimensionFields;
+    private final Map<DimensionField, Integer> columnPositions;
+    private final boolean caseSensitiveKeys;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int size;
+    private String[] keys;
+    private int[][] columns;
+    private FieldDictionary[] dictionaries;
+    private int[] keyIndex;
+    private volatile int[] sortedRows;
+
+    /**
+     * Constructor.
+     *
+     * @param key  The key field of the dimension
+     * @param dimensionFields  All the fields of the dimension, in the order rows should present them
+     * @param caseSensitiveKeys  Whether rows are looked up by their exact key value, or ignoring case
+     */
+    public ColumnarDimensionRows(
+            DimensionField key,
+            Collection<DimensionField> dimensionFields,
+            boolean caseSensitiveKeys
+    ) {
+        this.key = key;
+        this.dimensionFields = new ArrayList<>(dimensionFields);
+        this.columnPositions = new HashMap<>();
+        for (DimensionField field : dimensionFields) {
+            if (!field.equals(key)) {
+                columnPositions.put(field, columnPositions.size());
+            }
+        }
+        this.caseSensitiveKeys = caseSensitiveKeys;
+        reset();
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds rows, replacing the stored rows with the same key values.
+     *
+     * @param dimensionRows  The rows to add
+     */
+    public void putAll(Collection<DimensionRow> dimensionRows) {
+        lock.writeLock().lock();
+        try {
+            for (DimensionRow dimensionRow : dimensionRows) {
+                put(dimensionRow);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the rows with some key values, then adds rows, replacing the stored rows with the same key values.
+     * <p>
+     * Removing rows compacts the columns and rebuilds the hash index without them, so no stale key value is left
+     * behind.
+     *
+     * @param dimensionRows  The rows to add
+     * @param removedKeyValues  The key values of the rows to remove
+     */
+    public void replaceAll(Collection<DimensionRow> dimensionRows, Collection<String> removedKeyValues) {
+        lock.writeLock().lock();
+        try {
+            remove(removedKeyValues);
+            for (DimensionRow dimensionRow : dimensionRows) {
+                put(dimensionRow);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the row with a key value.
+     *
+     * @param keyValue  The key value of the row
+     *
+     * @return the row, or null if there is no row with the key value
+     */
+    public DimensionRow get(String keyValue) {
+        lock.readLock().lock();
+        try {
+            int row = findRow(keyValue);
+            return row < 0 ? null : buildRow(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Whether there is a row with a key value.
+     *
+     * @param keyValue  The key value
+     *
+     * @return true if there is a row with the key value
+     */
+    public boolean containsKey(String keyValue) {
+        lock.readLock().lock();
+        try {
+            return findRow(keyValue) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get a range of the rows, in key value order.
+     *
+     * @param offset  The position of the first row to get
+     * @param limit  The most rows to get
+     *
+     * @return the rows in the range
+     */
+    public List<DimensionRow> getSorted(long offset, int limit) {
+        lock.readLock().lock();
+        try {
+            int[] sorted = getSortedRows();
+            return buildRows(sorted, offset, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get a range of the rows matching a filter, in key value order, along with the number of matching rows.
+     * <p>
+     * Each matcher of the filter is tried once against each distinct value of its field, and the rows are then matched
+     * through their codes, in parallel for large dimensions.
+     *
+     * @param filter  The filter rows have to match
+     * @param offsetOf  Gets the position among the matching rows of the first row to get from the number of matches
+     * @param limit  The most rows to get
+     *
+     * @return the matching rows in the range, and the number of matching rows
+     */
+    public Pair<List<DimensionRow>, Integer> findSorted(
+            CompiledDimensionRowFilter filter,
+            IntToLongFunction offsetOf,
+            int limit
+    ) {
+        lock.readLock().lock();
+        try {
+            IntPredicate matches = compile(filter);
+            int[] sorted = getSortedRows();
+            IntStream positions = IntStream.of(sorted);
+            if (sorted.length >= CompiledDimensionRowFilter.PARALLEL_FILTER_THRESHOLD) {
+                positions = positions.parallel();
+            }
+            int[] matching = positions.filter(matches).toArray();
+            return new Pair<>(buildRows(matching, offsetOf.applyAsLong(matching.length), limit), matching.length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the key values of the rows matching a filter, in key value order, without building the rows.
+     *
+     * @param filter  The filter rows have to match
+     *
+     * @return the key values of the matching rows
+     */
+    public List<String> findSortedKeys(CompiledDimensionRowFilter filter) {
+        lock.readLock().lock();
+        try {
+            IntPredicate matches = compile(filter);
+            int[] sorted = getSortedRows();
+            IntStream positions = IntStream.of(sorted);
+            if (sorted.length >= CompiledDimensionRowFilter.PARALLEL_FILTER_THRESHOLD) {
+                positions = positions.parallel();
+            }
+            return Arrays.asList(positions.filter(matches).mapToObj(row -> keys[row]).toArray(String[]::new));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all the rows.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            reset();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Empties the columns, dictionaries and index.
+     */
+    private void reset() {
+        size = 0;
+        keys = new String[INITIAL_CAPACITY];
+        columns = new int[columnPositions.size()][INITIAL_CAPACITY];
+        dictionaries = new FieldDictionary[columnPositions.size()];
+        for (int column = 0; column < dictionaries.length; column++) {
+            dictionaries[column] = new FieldDictionary();
+        }
+        keyIndex = new int[INITIAL_CAPACITY * 2];
+        sortedRows = new int[0];
+    }
+
+    /**
+     * Adds a row, or replaces the row with the same key value. Callers hold the write lock.
+     *
+     * @param dimensionRow  The row to add
+     */
+    private void put(DimensionRow dimensionRow) {
+        String keyValue = dimensionRow.get(key);
+        if (keyValue == null) {
+            throw new IllegalArgumentException("Cannot add dimension with null key.");
+        }
+        int row = findRow(keyValue);
+        boolean replaced = row >= 0;
+        if (!replaced) {
+            row = size++;
+            ensureCapacity(size);
+            insertIntoIndex(row, keyValue);
+            sortedRows = null;
+        } else if (!keys[row].equals(keyValue)) {
+            // The key only differs by case, so the order of the rows may change
+            sortedRows = null;
+        }
+        keys[row] = keyValue;
+        for (Map.Entry<DimensionField, Integer> column : columnPositions.entrySet()) {
+            FieldDictionary dictionary = dictionaries[column.getValue()];
+            int[] codes = columns[column.getValue()];
+            int replacedCode = codes[row];
+            // Encode the new value before releasing the old one, so a value the row keeps isn't dropped and re-added
+            codes[row] = dictionary.encode(dimensionRow.get(column.getKey()));
+            if (replaced) {
+                dictionary.release(replacedCode);
+            }
+        }
+    }
+
+    /**
+     * Removes the rows with some key values, compacting the columns and rebuilding the hash index if any row is
+     * removed. Callers hold the write lock.
+     *
+     * @param keyValues  The key values of the rows to remove
+     */
+    private void remove(Collection<String> keyValues) {
+        BitSet removed = new BitSet(size);
+        for (String keyValue : keyValues) {
+            int row = findRow(keyValue);
+            if (row >= 0) {
+                removed.set(row);
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        int kept = 0;
+        for (int row = 0; row < size; row++) {
+            if (removed.get(row)) {
+                for (int column = 0; column < columns.length; column++) {
+                    dictionaries[column].release(columns[column][row]);
+                }
+                continue;
+            }
+            keys[kept] = keys[row];
+            for (int[] column : columns) {
+                column[kept] = column[row];
+            }
+            kept++;
+        }
+        Arrays.fill(keys, kept, size, null);
+        size = kept;
+        keyIndex = new int[Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(size, 1))) * 4];
+        for (int row = 0; row < size; row++) {
+            insertIntoSlots(keyIndex, row, normalize(keys[row]));
+        }
+        sortedRows = null;
+    }
+
+    /**
+     * Builds the row stored at a row number.
+     *
+     * @param row  The row number
+     *
+     * @return the row
+     */
+    private DimensionRow buildRow(int row) {
+        LinkedHashMap<DimensionField, String> values = new LinkedHashMap<>(dimensionFields.size() * 2);
+        for (DimensionField field : dimensionFields) {
+            if (field.equals(key)) {
+                values.put(field, keys[row]);
+                continue;
+            }
+            int column = columnPositions.get(field);
+            int code = columns[column][row];
+            if (code != NULL_CODE) {
+                values.put(field, dictionaries[column].decode(code));
+            }
+        }
+        return new DimensionRow(key, values);
+    }
+
+    /**
+     * Builds the rows of a range of row numbers.
+     *
+     * @param rows  The row numbers
+     * @param offset  The position of the first row to build
+     * @param limit  The most rows to build
+     *
+     * @return the rows
+     */
+    private List<DimensionRow> buildRows(int[] rows, long offset, int limit) {
+        int from = (int) Math.min(offset, rows.length);
+        int to = (int) Math.min(from + (long) limit, rows.length);
+        List<DimensionRow> dimensionRows = new ArrayList<>(to - from);
+        for (int position = from; position < to; position++) {
+            dimensionRows.add(buildRow(rows[position]));
+        }
+        return dimensionRows;
+    }
+
+    /**
+     * Compiles a filter into a test on row numbers, by matching each distinct value of the filtered fields once.
+     *
+     * @param filter  The filter to compile
+     *
+     * @return a test of whether a row number matches the filter
+     */
+    private IntPredicate compile(CompiledDimensionRowFilter filter) {
+        IntPredicate matches = row -> true;
+        for (CompiledDimensionRowFilter.FieldMatcher matcher : filter.getMatchers()) {
+            Predicate<String> valueMatcher = matcher.getValueMatcher();
+            Integer column = columnPositions.get(matcher.getField());
+            IntPredicate rowMatcher;
+            if (column == null) {
+                // The key field, or a field the dimension doesn't have
+                rowMatcher = matcher.getField().equals(key) ?
+                        row -> valueMatcher.test(keys[row]) :
+                        row -> valueMatcher.test(null);
+            } else {
+                int[] codes = columns[column];
+                BitSet matchingCodes = dictionaries[column].match(valueMatcher);
+                boolean matchesNull = valueMatcher.test(null);
+                rowMatcher = row -> codes[row] == NULL_CODE ? matchesNull : matchingCodes.get(codes[row]);
+            }
+            matches = matches.and(rowMatcher);
+        }
+        return matches;
+    }
+
+    /**
+     * Get the row numbers in key value order, sorting them if rows were added since they were last sorted.
+     * <p>
+     * Sorting happens under the read lock, so concurrent readers sort under this object's monitor, and the sorted
+     * rows are published through a volatile field.
+     *
+     * @return the sorted row numbers
+     */
+    private int[] getSortedRows() {
+        int[] sorted = sortedRows;
+        if (sorted != null) {
+            return sorted;
+        }
+        synchronized (this) {
+            if (sortedRows == null) {
+                String[] sortedKeys = Arrays.copyOf(keys, size);
+                Arrays.parallelSort(sortedKeys);
+                int[] order = new int[size];
+                for (int position = 0; position < size; position++) {
+                    order[position] = findRow(sortedKeys[position]);
+                }
+                sortedRows = order;
+            }
+            return sortedRows;
+        }
+    }
+
+    /**
+     * Finds the row number of a key value through the hash index.
+     *
+     * @param keyValue  The key value
+     *
+     * @return the row number, or -1 if there is no row with the key value
+     */
+    private int findRow(String keyValue) {
+        String normalized = normalize(keyValue);
+        int mask = keyIndex.length - 1;
+        for (int slot = hash(normalized) & mask; keyIndex[slot] != EMPTY_SLOT; slot = (slot + 1) & mask) {
+            int row = keyIndex[slot] - 1;
+            if (normalize(keys[row]).equals(normalized)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a row number to the hash index, growing the index to keep it at most half full.
+     *
+     * @param row  The row number
+     * @param keyValue  The key value of the row
+     */
+    private void insertIntoIndex(int row, String keyValue) {
+        if (size * 2 > keyIndex.length) {
+            int[] grown = new int[keyIndex.length * 2];
+            for (int slot : keyIndex) {
+                if (slot != EMPTY_SLOT) {
+                    insertIntoSlots(grown, slot - 1, normalize(keys[slot - 1]));
+                }
+            }
+            keyIndex = grown;
+        }
+        insertIntoSlots(keyIndex, row, normalize(keyValue));
+    }
+
+    /**
+     * Puts a row number in the first free slot for its key value.
+     *
+     * @param slots  The slots of the hash index
+     * @param row  The row number
+     * @param normalized  The normalized key value of the row
+     */
+    private static void insertIntoSlots(int[] slots, int row, String normalized) {
+        int mask = slots.length - 1;
+        int slot = hash(normalized) & mask;
+        while (slots[slot] != EMPTY_SLOT) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = row + 1;
+    }
+
+    /**
+     * Grows the columns to hold at least the given number of rows.
+     *
+     * @param capacity  The number of rows to hold
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= keys.length) {
+            return;
+        }
+        int grown = Math.max(capacity, keys.length + (keys.length >> 1));
+        keys = Arrays.copyOf(keys, grown);
+        for (int column = 0; column < columns.length; column++) {
+            columns[column] = Arrays.copyOf(columns[column], grown);
+        }
+    }
+
+    /**
+     * Normalizes a key value for lookups.
+     *
+     * @param keyValue  The key value
+     *
+     * @return the key value, lower cased unless keys are case sensitive
+     */
+    private String normalize(String keyValue) {
+        return caseSensitiveKeys ? keyValue : keyValue.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Spreads the bits of a hash code, since the index only uses its low bits.
+     *
+     * @param value  The value to hash
+     *
+     * @return the hash of the value
+     */
+    private static int hash(String value) {
+        int hash = value.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * The distinct values of a field, each with an int code and the number of rows holding it.
+     * <p>
+     * A value is dropped once no row holds it, and its code is reused by the next new value.
+     */
+    static class FieldDictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private final Deque<Integer> freeCodes = new ArrayDeque<>();
+        private int[] rowCounts = new int[INITIAL_CAPACITY];
+
+        /**
+         * Get the code of a value for a row holding it, adding the value to the dictionary if needed.
+         *
+         * @param value  The value
+         *
+         * @return the code of the value
+         */
+        int encode(String value) {
+            if (value == null) {
+                return NULL_CODE;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = freeCodes.poll();
+                if (code == null) {
+                    code = values.size();
+                    values.add(value);
+                    if (code == rowCounts.length) {
+                        rowCounts = Arrays.copyOf(rowCounts, code * 2);
+                    }
+                } else {
+                    values.set(code, value);
+                }
+                codes.put(value, code);
+            }
+            rowCounts[code]++;
+            return code;
+        }
+
+        /**
+         * Releases the code of a value for a row no longer holding it, dropping the value if no other row holds it.
+         *
+         * @param code  The code
+         */
+        void release(int code) {
+            if (code == NULL_CODE || --rowCounts[code] > 0) {
+                return;
+            }
+            codes.remove(values.get(code));
+            values.set(code, null);
+            freeCodes.push(code);
+        }
+
+        /**
+         * Get the number of distinct values held by at least one row.
+         *
+         * @return the number of values
+         */
+        int size() {
+            return codes.size();
+        }
+
+        /**
+         * Get the value of a code.
+         *
+         * @param code  The code
+         *
+         * @return the value
+         */
+        String decode(int code) {
+            return values.get(code);
+        }
+
+        /**
+         * Get the codes of the values that match a predicate.
+         *
+         * @param matcher  The predicate
+         *
+         * @return the matching codes
+         */
+        BitSet match(Predicate<String> matcher) {
+            BitSet matching = new BitSet(values.size());
+            for (int code = 0; code < values.size(); code++) {
+                String value = values.get(code);
+                if (value != null && matcher.test(value)) {
+                    matching.set(code);
+                }
+            }
+            return matching;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl;
+
+import com.yahoo.bard.webservice.config.BardFeatureFlag;
+import com.yahoo.bard.webservice.data.cache.HashDataCache.Pair;
+import com.yahoo.bard.webservice.data.dimension.Dimension;
+import com.yahoo.bard.webservice.data.dimension.DimensionRow;
+import com.yahoo.bard.webservice.data.dimension.KeyValueStore;
+import com.yahoo.bard.webservice.data.dimension.SearchProvider;
+import com.yahoo.bard.webservice.util.DimensionStoreKeyUtils;
+import com.yahoo.bard.webservice.util.Pagination;
+import com.yahoo.bard.webservice.util.SinglePagePagination;
+import com.yahoo.bard.webservice.web.ApiFilter;
+import com.yahoo.bard.webservice.web.util.PaginationParameters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Search provider holding the rows of its dimension in a {@link ColumnarDimensionRows} store.
+ * <p>
+ * The provider is both the index and the storage of the rows: indexing a row stores it, and the rows are read back
+ * from the columns. It is meant to back a {@link ColumnarDimension}, which keeps no other copy of the rows, but it can
+ * also index a {@link KeyValueStoreDimension}, in which case clearing the index removes the rows from the KeyValueStore
+ * too. Since a ColumnarDimension keeps no rows in its KeyValueStore, clearing its index leaves the store's rows alone.
+ */
+public class ColumnarSearchProvider implements SearchProvider {
+
+    private Dimension dimension;
+    private KeyValueStore keyValueStore;
+    private ColumnarDimensionRows rows;
+
+    @Override
+    public void setDimension(Dimension dimension) {
+        this.dimension = dimension;
+        if (rows == null) {
+            rows = new ColumnarDimensionRows(
+                    dimension.getKey(),
+                    dimension.getDimensionFields(),
+                    BardFeatureFlag.CASE_SENSITIVE_KEYS.isOn()
+            );
+        }
+    }
+
+    @Override
+    public void setKeyValueStore(KeyValueStore keyValueStore) {
+        this.keyValueStore = keyValueStore;
+    }
+
+    /**
+     * Get the store holding the rows of the dimension.
+     *
+     * @return the rows
+     */
+    public ColumnarDimensionRows getRows() {
+        return rows;
+    }
+
+    @Override
+    public int getDimensionCardinality() {
+        return rows.size();
+    }
+
+    @Override
+    public Pagination<DimensionRow> findAllDimensionRowsPaged(PaginationParameters paginationParameters) {
+        int size = rows.size();
+        return new SinglePagePagination<>(
+                Collections.unmodifiableList(
+                        rows.getSorted(offset(paginationParameters, size), paginationParameters.getPerPage())
+                ),
+                paginationParameters,
+                size
+        );
+    }
+
+    @Override
+    public TreeSet<DimensionRow> findAllOrderedDimensionRows() {
+        return new TreeSet<>(rows.getSorted(0, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public TreeSet<DimensionRow> findFilteredDimensionRows(Set<ApiFilter> filters) {
+        CompiledDimensionRowFilter filter = CompiledDimensionRowFilter.compile(filters);
+        return new TreeSet<>(rows.findSorted(filter, ignored -> 0, Integer.MAX_VALUE).getKey());
+    }
+
+    @Override
+    public List<String> findFilteredKeyValues(Set<ApiFilter> filters) {
+        return rows.findSortedKeys(CompiledDimensionRowFilter.compile(filters));
+    }
+
+    @Override
+    public Pagination<DimensionRow> findFilteredDimensionRowsPaged(
+            Set<ApiFilter> filters,
+            PaginationParameters paginationParameters
+    ) {
+        Pair<List<DimensionRow>, Integer> page = rows.findSorted(
+                CompiledDimensionRowFilter.compile(filters),
+                matches -> offset(paginationParameters, matches),
+                paginationParameters.getPerPage()
+        );
+        return new SinglePagePagination<>(
+                Collections.unmodifiableList(page.getKey()),
+                paginationParameters,
+                page.getValue()
+        );
+    }
+
+    @Override
+    public void refreshIndex(String rowId, DimensionRow dimensionRow, DimensionRow dimensionRowOld) {
+        refreshIndex(Collections.singletonMap(rowId, new Pair<>(dimensionRow, dimensionRowOld)));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * An old row whose key value differs from its new row's is removed, so its key value doesn't linger in the index.
+     */
+    @Override
+    public void refreshIndex(Map<String, Pair<DimensionRow, DimensionRow>> changedRows) {
+        List<DimensionRow> newRows = new ArrayList<>(changedRows.size());
+        List<String> staleKeyValues = new ArrayList<>();
+        for (Pair<DimensionRow, DimensionRow> changedRow : changedRows.values()) {
+            DimensionRow newRow = changedRow.getKey();
+            DimensionRow oldRow = changedRow.getValue();
+            newRows.add(newRow);
+            if (oldRow != null && !Objects.equals(oldRow.getKeyValue(), newRow.getKeyValue())) {
+                staleKeyValues.add(oldRow.getKeyValue());
+            }
+        }
+        rows.replaceAll(newRows, staleKeyValues);
+    }
+
+    @Override
+    public boolean isHealthy() {
+        return true;
+    }
+
+    @Override
+    public void clearDimension() {
+        Map<String, String> removals = new LinkedHashMap<>();
+        if (!(dimension instanceof ColumnarDimension)) {
+            // Remove the stored copies of the rows too, so the rows are indexed again when they are reloaded
+            String keyName = dimension.getKey().getName();
+            for (DimensionRow dimensionRow : rows.getSorted(0, Integer.MAX_VALUE)) {
+                removals.put(DimensionStoreKeyUtils.getRowKey(keyName, dimensionRow.getKeyValue()), null);
+            }
+        }
+        //We're resetting the keyValueStore, so we don't want any stale last updated date floating around.
+        removals.put(DimensionStoreKeyUtils.getLastUpdatedKey(), null);
+        keyValueStore.putAll(removals);
+        rows.clear();
+    }
+
+    /**
+     * Get the position of the first row of the requested page.
+     *
+     * @param paginationParameters  The parameters defining the page
+     * @param size  The number of rows being paginated
+     *
+     * @return the offset of the page
+     */
+    private static long offset(PaginationParameters paginationParameters, int size) {
+        return (long) (paginationParameters.getPage(size) - 1) * paginationParameters.getPerPage();
+    }
+}
@@ -0,0 +1,275 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl;
+
+import com.yahoo.bard.webservice.data.dimension.DimensionField;
+import com.yahoo.bard.webservice.data.dimension.DimensionRow;
+import com.yahoo.bard.webservice.web.ApiFilter;
+import com.yahoo.bard.webservice.web.DefaultFilterOperation;
+import com.yahoo.bard.webservice.web.FilterOperation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A set of ApiFilters compiled into a single predicate on dimension rows, so that scan based search providers can
+ * filter their rows in one pass.
+ * <p>
+ * Each filter is compiled into a matcher suited to its operation: a hash set of the values for {@code in},
+ * {@code eq} and {@code notin}, a trie of the prefixes for {@code startswith}, and an array of the substrings for
+ * {@code contains}. Values are matched literally and case sensitively. A row matches if it matches every filter, and
+ * the filters are tried cheapest first.
+ */
+public class CompiledDimensionRowFilter implements Predicate<DimensionRow> {
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledDimensionRowFilter.class);
+
+    /**
+     * Collections with at least this many rows are filtered in parallel.
+     */
+    public static final int PARALLEL_FILTER_THRESHOLD = 10000;
+
+    private final List<FieldMatcher> matchers;
+
+    /**
+     * Constructor.
+     *
+     * @param matchers  The matchers a row has to satisfy
+     */
+    private CompiledDimensionRowFilter(List<FieldMatcher> matchers) {
+        this.matchers = matchers;
+    }
+
+    /**
+     * Compiles the conjunction of a set of filters.
+     *
+     * @param filters  The filters a row has to match
+     *
+     * @return the compiled filter
+     *
+     * @throws IllegalArgumentException if a filter doesn't use a default filter operation
+     */
+    public static CompiledDimensionRowFilter compile(Set<ApiFilter> filters) {
+        return new CompiledDimensionRowFilter(filters.stream()
+                .map(filter -> compileMatcher(getDefaultOperation(filter), filter))
+                .sorted(Comparator.comparingInt(FieldMatcher::getCost))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Compiles the values and field of a filter with the given operation, regardless of the operation of the filter.
+     *
+     * @param operation  The operation to filter with
+     * @param filter  The filter holding the field and values to filter on
+     *
+     * @return the compiled filter
+     */
+    public static CompiledDimensionRowFilter compile(DefaultFilterOperation operation, ApiFilter filter) {
+        List<FieldMatcher> matchers = new ArrayList<>(1);
+        matchers.add(compileMatcher(operation, filter));
+        return new CompiledDimensionRowFilter(matchers);
+    }
+
+    @Override
+    public boolean test(DimensionRow dimensionRow) {
+        for (FieldMatcher matcher : matchers) {
+            if (!matcher.test(dimensionRow)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the matchers a row has to satisfy, cheapest first.
+     *
+     * @return the matchers of the filter
+     */
+    public List<FieldMatcher> getMatchers() {
+        return matchers;
+    }
+
+    /**
+     * Filters a collection of dimension rows in one pass, in parallel if there are many rows.
+     *
+     * @param dimensionRows  The rows to filter
+     *
+     * @return the matching rows, in order
+     */
+    public TreeSet<DimensionRow> filter(Collection<DimensionRow> dimensionRows) {
+        Stream<DimensionRow> rows = dimensionRows.size() >= PARALLEL_FILTER_THRESHOLD ?
+                dimensionRows.parallelStream() :
+                dimensionRows.stream();
+        return rows.filter(this).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * Get the default filter operation of a filter.
+     *
+     * @param filter  The filter
+     *
+     * @return the operation of the filter
+     *
+     * @throws IllegalArgumentException if the filter doesn't use a default filter operation
+     */
+    private static DefaultFilterOperation getDefaultOperation(ApiFilter filter) {
+        FilterOperation op = filter.getOperation();
+        if (!(op instanceof DefaultFilterOperation)) {
+            LOG.error("Illegal Filter operation : {}, only default filter ops supported", filter.getOperation());
+            throw new IllegalArgumentException(
+                    "Only supports default filter operations: in, notin, startswith, contains, eq"
+            );
+        }
+        return (DefaultFilterOperation) op;
+    }
+
+    /**
+     * Compiles a filter with the given operation into a matcher.
+     *
+     * @param operation  The operation to filter with
+     * @param filter  The filter holding the field and values to filter on
+     *
+     * @return the matcher
+     */
+    private static FieldMatcher compileMatcher(DefaultFilterOperation operation, ApiFilter filter) {
+        DimensionField field = filter.getDimensionField();
+        switch (operation) {
+            case eq:
+                // fall through on purpose since eq and in have the same functionality
+            case in:
+                Set<String> included = new HashSet<>(filter.getValues());
+                return new FieldMatcher(field, 0, included::contains);
+            case notin:
+                Set<String> excluded = new HashSet<>(filter.getValues());
+                return new FieldMatcher(field, 0, value -> !excluded.contains(value));
+            case startswith:
+                PrefixTrie prefixes = new PrefixTrie(filter.getValues());
+                return new FieldMatcher(field, 1, value -> value != null && prefixes.matchesPrefixOf(value));
+            case contains:
+                String[] substrings = filter.getValues().toArray(new String[0]);
+                return new FieldMatcher(field, 2, value -> value != null && containsAny(value, substrings));
+            default:
+                LOG.error("Illegal Filter operation : {}", filter.getOperation());
+                throw new IllegalArgumentException("Invalid Filter Operation.");
+        }
+    }
+
+    /**
+     * Whether a value contains any of a set of substrings.
+     *
+     * @param value  The value to search
+     * @param substrings  The substrings to search for
+     *
+     * @return true if the value contains one of the substrings
+     */
+    private static boolean containsAny(String value, String[] substrings) {
+        for (String substring : substrings) {
+            if (value.contains(substring)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches the value of one field of a row.
+     */
+    public static class FieldMatcher implements Predicate<DimensionRow> {
+        private final DimensionField field;
+        private final int cost;
+        private final Predicate<String> valueMatcher;
+
+        /**
+         * Constructor.
+         *
+         * @param field  The field to match
+         * @param cost  The relative cost of matching a value, cheaper matchers are tried first
+         * @param valueMatcher  Matches the value of the field
+         */
+        FieldMatcher(DimensionField field, int cost, Predicate<String> valueMatcher) {
+            this.field = field;
+            this.cost = cost;
+            this.valueMatcher = valueMatcher;
+        }
+
+        public DimensionField getField() {
+            return field;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+
+        public Predicate<String> getValueMatcher() {
+            return valueMatcher;
+        }
+
+        @Override
+        public boolean test(DimensionRow dimensionRow) {
+            return valueMatcher.test(dimensionRow.get(field));
+        }
+    }
+
+    /**
+     * A trie of prefixes, which finds whether any of them starts a value in a single walk of the value.
+     */
+    static class PrefixTrie {
+        private final Node root = new Node();
+
+        /**
+         * Constructor.
+         *
+         * @param prefixes  The prefixes to match
+         */
+        PrefixTrie(Collection<String> prefixes) {
+            for (String prefix : prefixes) {
+                Node node = root;
+                for (int i = 0; i < prefix.length(); i++) {
+                    node = node.children.computeIfAbsent(prefix.charAt(i), ignored -> new Node());
+                }
+                node.isPrefix = true;
+            }
+        }
+
+        /**
+         * Whether one of the prefixes starts the value.
+         *
+         * @param value  The value to match
+         *
+         * @return true if the value starts with one of the prefixes
+         */
+        boolean matchesPrefixOf(String value) {
+            Node node = root;
+            for (int i = 0; !node.isPrefix; i++) {
+                if (i == value.length()) {
+                    return false;
+                }
+                node = node.children.get(value.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A node of a prefix trie.
+     */
+    static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private boolean isPrefix = false;
+    }
+}
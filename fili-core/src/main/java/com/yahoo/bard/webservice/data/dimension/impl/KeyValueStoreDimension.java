@@ -2,6 +2,9 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.data.dimension.impl;
 
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
 import com.yahoo.bard.webservice.data.cache.HashDataCache.Pair;
 import com.yahoo.bard.webservice.data.config.dimension.DimensionConfig;
 import com.yahoo.bard.webservice.data.dimension.Dimension;
@@ -12,6 +15,8 @@ import com.yahoo.bard.webservice.data.dimension.SearchProvider;
 import com.yahoo.bard.webservice.data.dimension.metadata.StorageStrategy;
 import com.yahoo.bard.webservice.util.DimensionStoreKeyUtils;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
@@ -22,15 +27,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import javax.validation.constraints.NotNull;
 
@@ -47,6 +56,18 @@ public class KeyValueStoreDimension implements Dimension {
     private static final String FIELD_UNDEFINED_FORMAT = "Unknown dimensionField: '%s' on dimension: '%s'.";
 
     private static final Logger LOG = LoggerFactory.getLogger(KeyValueStoreDimension.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+
+    public static final String UPDATE_BATCH_SIZE_KEY =
+            SYSTEM_CONFIG.getPackageVariableName("dimension_update_batch_size");
+    public static final int DEFAULT_UPDATE_BATCH_SIZE = 10000;
+    private static final int UPDATE_BATCH_SIZE = readUpdateBatchSize();
+
+    private static final Meter ROWS_UPDATED = REGISTRY.meter("dimensions.update.rows");
+    private static final Meter ROWS_UNCHANGED = REGISTRY.meter("dimensions.update.unchanged");
+    private static final TypeReference<LinkedHashMap<String, String>> ROW_TYPE =
+            new TypeReference<LinkedHashMap<String, String>>() { /* Empty class */ };
 
     private final String apiName;
     private final String longName;
@@ -436,52 +457,109 @@ public class KeyValueStoreDimension implements Dimension {
         addAllDimensionRows(Collections.singleton(dimensionRow));
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Rows are written in batches of {@code dimension_update_batch_size} rows (10000 by default). The stored versions
+     * of the rows of a batch are fetched from the key value store together, and each row is compared with its stored
+     * version, so only the rows that changed are written to the store and the index.
+     */
     @Override
     public void addAllDimensionRows(Set<DimensionRow> dimensionRows) {
-        Map<String, String> storeRows = new LinkedHashMap<>(dimensionRows.size());
-        Map<String, Pair<DimensionRow, DimensionRow>> indexRows = new LinkedHashMap<>(dimensionRows.size());
-
+        List<DimensionRow> rows = new ArrayList<>(dimensionRows.size());
         for (DimensionRow dimensionRow : dimensionRows) {
-            try {
-                if (dimensionRow.isEmpty()) {
-                    LOG.warn("Ignoring attempt to add a dimension row with no data {}", dimensionRow);
-                    continue;
-                } else if (dimensionRow.get(getKey()) == null) {
-                    LOG.warn("Attempting to add a dimension row with a null key {}", dimensionRow);
-                    throw new IllegalArgumentException("Cannot add dimension with null key.");
-                }
-
-                // rowId  - key to associate a dimension row to its id
-                String rowIdKey = DimensionStoreKeyUtils.getRowKey(getKey().getName(), dimensionRow.get(getKey()));
-
-                // check if the dimension row already exists in store
-                DimensionRow dimensionRowOld = null;
-                String row = keyValueStore.get(rowIdKey);
-                if (row != null) {
-                    LinkedHashMap<String, String> fieldNameValueMap = objectMapper.readValue(
-                            row,
-                            new TypeReference<LinkedHashMap<String, String>>() { }
-                    );
-                    dimensionRowOld = parseDimensionRow(fieldNameValueMap);
-                    if (dimensionRow.equals(dimensionRowOld)) {
-                        continue;
-                    }
-                }
+            if (dimensionRow.isEmpty()) {
+                LOG.warn("Ignoring attempt to add a dimension row with no data {}", dimensionRow);
+            } else if (dimensionRow.get(getKey()) == null) {
+                LOG.warn("Attempting to add a dimension row with a null key {}", dimensionRow);
+                throw new IllegalArgumentException("Cannot add dimension with null key.");
+            } else {
+                rows.add(dimensionRow);
+            }
+        }
 
-                String dimRowSerialized = objectMapper.writeValueAsString(dimensionRow);
-                storeRows.put(rowIdKey, dimRowSerialized);
+        int start = 0;
+        do {
+            List<DimensionRow> batch = rows.subList(start, Math.min(start + UPDATE_BATCH_SIZE, rows.size()));
+            updateBatch(batch);
+            start += batch.size();
+        } while (start < rows.size());
+    }
 
-                //update indexes
-                indexRows.put(rowIdKey, new Pair<>(dimensionRow, dimensionRowOld));
+    /**
+     * Reads the configured number of rows to update at a time.
+     *
+     * @return the batch size, or the default batch size if the configured one is less than 1
+     */
+    static int readUpdateBatchSize() {
+        int batchSize = SYSTEM_CONFIG.getIntProperty(UPDATE_BATCH_SIZE_KEY, DEFAULT_UPDATE_BATCH_SIZE);
+        if (batchSize < 1) {
+            LOG.error(
+                    "{} must be at least 1, not {}. Using {} instead.",
+                    UPDATE_BATCH_SIZE_KEY,
+                    batchSize,
+                    DEFAULT_UPDATE_BATCH_SIZE
+            );
+            return DEFAULT_UPDATE_BATCH_SIZE;
+        }
+        return batchSize;
+    }
 
-            } catch (IOException e) {
-                LOG.error("Exception while adding dimension row {}", e);
-                throw new RuntimeException(e);
-            }
+    /**
+     * Writes the rows of a batch that differ from their stored version to the key value store and the search provider.
+     *
+     * @param batch  The rows to write, each with a key
+     */
+    private void updateBatch(List<DimensionRow> batch) {
+        // rowId  - key to associate a dimension row to its id
+        List<String> rowIdKeys = batch.stream()
+                .map(row -> DimensionStoreKeyUtils.getRowKey(getKey().getName(), row.get(getKey())))
+                .collect(Collectors.toList());
+        Map<String, String> storedRows = batch.isEmpty() ? Collections.emptyMap() : keyValueStore.getAll(rowIdKeys);
+
+        List<RowUpdate> updates = IntStream.range(0, batch.size())
+                .mapToObj(i -> diff(rowIdKeys.get(i), batch.get(i), storedRows.get(rowIdKeys.get(i))))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+
+        Map<String, String> storeRows = new LinkedHashMap<>(updates.size());
+        Map<String, Pair<DimensionRow, DimensionRow>> indexRows = new LinkedHashMap<>(updates.size());
+        for (RowUpdate update : updates) {
+            storeRows.put(update.rowIdKey, update.serialized);
+            indexRows.put(update.rowIdKey, new Pair<>(update.row, update.oldRow));
         }
 
         keyValueStore.putAll(storeRows);
         searchProvider.refreshIndex(indexRows);
+
+        ROWS_UPDATED.mark(updates.size());
+        ROWS_UNCHANGED.mark(batch.size() - updates.size());
+    }
+
+    /**
+     * Compares a row with its stored version.
+     *
+     * @param rowIdKey  The key of the row in the key value store
+     * @param dimensionRow  The row to write
+     * @param storedRow  The serialized stored version of the row, or null if the row isn't stored
+     *
+     * @return the update to make, or null if the row is unchanged
+     */
+    private RowUpdate diff(String rowIdKey, DimensionRow dimensionRow, String storedRow) {
+        try {
+            DimensionRow dimensionRowOld = null;
+            if (storedRow != null) {
+                dimensionRowOld = parseDimensionRow(objectMapper.readValue(storedRow, ROW_TYPE));
+                if (dimensionRow.equals(dimensionRowOld)) {
+                    return null;
+                }
+            }
+            String serialized = objectMapper.writeValueAsString(dimensionRow);
+            return new RowUpdate(rowIdKey, serialized, dimensionRow, dimensionRowOld);
+        } catch (IOException e) {
+            LOG.error("Exception while adding dimension row {}", e);
+            throw new RuntimeException(e);
+        }
     }
 
     @Override
@@ -527,6 +605,53 @@ public class KeyValueStoreDimension implements Dimension {
         return drByKey;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The rows are fetched from the key value store in a single batch.
+     */
+    @Override
+    public Set<String> findExistingKeyValues(Collection<String> values) {
+        List<String> keyValues = new ArrayList<>(values);
+        List<String> rowKeys = keyValues.stream()
+                .map(value -> DimensionStoreKeyUtils.getRowKey(getKey().getName(), value))
+                .collect(Collectors.toList());
+        Map<String, String> storedRows = keyValues.isEmpty() ? Collections.emptyMap() : keyValueStore.getAll(rowKeys);
+        return IntStream.range(0, keyValues.size())
+                .filter(i -> storedRows.containsKey(rowKeys.get(i)))
+                .mapToObj(keyValues::get)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The rows are fetched from the key value store in a single batch.
+     */
+    @Override
+    public Map<String, DimensionRow> findDimensionRowsByKeyValues(Collection<String> values) {
+        Map<String, String> rowKeys = new LinkedHashMap<>();
+        for (String value : values) {
+            rowKeys.put(value, DimensionStoreKeyUtils.getRowKey(getKey().getName(), value));
+        }
+        Map<String, String> storedRows = rowKeys.isEmpty() ?
+                Collections.emptyMap() :
+                keyValueStore.getAll(rowKeys.values());
+        Map<String, DimensionRow> rows = new HashMap<>();
+        try {
+            for (Map.Entry<String, String> rowKey : rowKeys.entrySet()) {
+                String dimRowJson = storedRows.get(rowKey.getValue());
+                if (dimRowJson != null) {
+                    rows.put(rowKey.getKey(), parseDimensionRow(objectMapper.readValue(dimRowJson, ROW_TYPE)));
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Cannot map string to DimensionRow object. {}", e);
+            throw new RuntimeException(e);
+        }
+        return rows;
+    }
+
 
     /**
      * Internal method for cleaning the dimension rows.
@@ -646,4 +771,29 @@ public class KeyValueStoreDimension implements Dimension {
                 isAggregatable + ":" +
                 (getLastUpdated() == null ? "" : getLastUpdated());
     }
+
+    /**
+     * A changed row to write, with its serialized form and the stored row it replaces.
+     */
+    private static class RowUpdate {
+        private final String rowIdKey;
+        private final String serialized;
+        private final DimensionRow row;
+        private final DimensionRow oldRow;
+
+        /**
+         * Constructor.
+         *
+         * @param rowIdKey  The key of the row in the key value store
+         * @param serialized  The serialized row
+         * @param row  The row
+         * @param oldRow  The row it replaces, or null if the row is new
+         */
+        RowUpdate(String rowIdKey, String serialized, DimensionRow row, DimensionRow oldRow) {
+            this.rowIdKey = rowIdKey;
+            this.serialized = serialized;
+            this.row = row;
+            this.oldRow = oldRow;
+        }
+    }
 }
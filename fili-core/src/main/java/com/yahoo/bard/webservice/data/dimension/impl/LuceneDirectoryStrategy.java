@@ -0,0 +1,116 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl;
+
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * How a {@link LuceneSearchProvider} holds the files of its index.
+ */
+public enum LuceneDirectoryStrategy {
+
+    /**
+     * Memory maps the index files, optionally preloading them so the first searches don't fault them in.
+     */
+    MMAP {
+        @Override
+        public Directory open(Path indexPath) throws IOException {
+            MMapDirectory directory = new MMapDirectory(indexPath);
+            directory.setPreload(MMAP_PRELOAD);
+            return directory;
+        }
+    },
+
+    /**
+     * Memory maps the index files, and keeps small newly written segments in memory until they are merged or
+     * committed.
+     */
+    NRT_CACHING {
+        @Override
+        public Directory open(Path indexPath) throws IOException {
+            return new NRTCachingDirectory(MMAP.open(indexPath), NRT_MAX_MERGE_SIZE_MB, NRT_MAX_CACHED_MB);
+        }
+    },
+
+    /**
+     * Copies the index into the heap when it is opened.
+     * <p>
+     * Changes to the index are not written back to disk, so this is only meant for small dimensions that are
+     * reloaded when the application starts.
+     */
+    MEMORY {
+        @Override
+        public Directory open(Path indexPath) throws IOException {
+            ByteBuffersDirectory directory = new ByteBuffersDirectory();
+            try (Directory source = FSDirectory.open(indexPath)) {
+                for (String file : source.listAll()) {
+                    if (!IndexWriter.WRITE_LOCK_NAME.equals(file)) {
+                        directory.copyFrom(source, file, file, IOContext.READONCE);
+                    }
+                }
+            }
+            return directory;
+        }
+    };
+
+    private static final Logger LOG = LoggerFactory.getLogger(LuceneDirectoryStrategy.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    private static final String STRATEGY_KEY = SYSTEM_CONFIG.getPackageVariableName("lucene_directory_strategy");
+
+    private static final boolean MMAP_PRELOAD = SYSTEM_CONFIG.getBooleanProperty(
+            SYSTEM_CONFIG.getPackageVariableName("lucene_mmap_preload"),
+            false
+    );
+
+    private static final double NRT_MAX_MERGE_SIZE_MB = SYSTEM_CONFIG.getDoubleProperty(
+            SYSTEM_CONFIG.getPackageVariableName("lucene_nrt_cache_max_merge_size_mb"),
+            5.0
+    );
+
+    private static final double NRT_MAX_CACHED_MB = SYSTEM_CONFIG.getDoubleProperty(
+            SYSTEM_CONFIG.getPackageVariableName("lucene_nrt_cache_max_cached_mb"),
+            60.0
+    );
+
+    /**
+     * Opens the directory holding an index.
+     *
+     * @param indexPath  The path of the index files
+     *
+     * @return the directory of the index
+     *
+     * @throws IOException if the directory can't be opened
+     */
+    public abstract Directory open(Path indexPath) throws IOException;
+
+    /**
+     * Get the configured directory strategy.
+     *
+     * @return the configured strategy, or {@link #MMAP} if it isn't set or isn't known
+     */
+    public static LuceneDirectoryStrategy getDefault() {
+        String strategy = SYSTEM_CONFIG.getStringProperty(STRATEGY_KEY, MMAP.name());
+        try {
+            return valueOf(strategy.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Unknown Lucene directory strategy {}, using {}", strategy, MMAP, e);
+            return MMAP;
+        }
+    }
+}
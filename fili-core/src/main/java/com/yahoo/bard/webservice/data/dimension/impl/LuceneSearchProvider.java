@@ -2,6 +2,7 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.data.dimension.impl;
 
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
 import com.yahoo.bard.webservice.config.SystemConfig;
 import com.yahoo.bard.webservice.config.SystemConfigProvider;
 import com.yahoo.bard.webservice.data.cache.HashDataCache.Pair;
@@ -25,6 +26,10 @@ import com.yahoo.bard.webservice.web.PageNotFoundException;
 import com.yahoo.bard.webservice.web.RowLimitReachedException;
 import com.yahoo.bard.webservice.web.util.PaginationParameters;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 import org.apache.commons.io.FileUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
@@ -32,6 +37,7 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
@@ -47,7 +53,6 @@ import org.apache.lucene.search.TimeLimitingCollector;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.WildcardQuery;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.MMapDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,12 +64,15 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collector;
@@ -93,6 +101,34 @@ public class LuceneSearchProvider implements SearchProvider {
             1.2f
     );
 
+    /**
+     * The number of searches whose results are cached by each search provider, 0 disables the cache.
+     */
+    public static final int LUCENE_SEARCH_CACHE_SIZE = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("lucene_search_cache_size"),
+            64
+    );
+
+    /**
+     * The number of recent searches run against a new index searcher before it replaces the current one.
+     */
+    public static final int LUCENE_WARM_UP_QUERIES = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("lucene_warm_up_queries"),
+            16
+    );
+
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+
+    /**
+     * The provider whose index size each index size gauge reports, so the gauge is registered only once per dimension.
+     */
+    private static final Map<String, LuceneSearchProvider> INDEX_SIZE_SOURCES = new ConcurrentHashMap<>();
+
+    /**
+     * The number of hits whose documents are loaded by each warm-up search.
+     */
+    private static final int WARM_UP_HITS = 10;
+
     protected Analyzer analyzer;
 
     protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
@@ -105,12 +141,17 @@ public class LuceneSearchProvider implements SearchProvider {
      */
     private int maxResults;
 
-    private Directory luceneDirectory;
+    private final LuceneDirectoryStrategy directoryStrategy;
+    private volatile Directory luceneDirectory;
+    private volatile long indexSizeBytes;
+    private volatile Timer queryTimer = new Timer();
+    private volatile Timer warmUpTimer = new Timer();
     private KeyValueStore keyValueStore;
     private Dimension dimension;
     private boolean luceneIndexIsHealthy;
     protected IndexSearcher luceneIndexSearcher;
     private int searchTimeout;
+    private final LuceneSearchResultCache searchResultCache = new LuceneSearchResultCache(LUCENE_SEARCH_CACHE_SIZE);
 
     /**
      * Constructor.
@@ -118,17 +159,24 @@ public class LuceneSearchProvider implements SearchProvider {
      * @param luceneIndexPath  Path to the lucene index files
      * @param maxResults  Maximum number of allowed results in a page
      * @param searchTimeout  Maximum time in milliseconds that a lucene search can run
+     * @param directoryStrategy  How the files of the index are held
      */
-    public LuceneSearchProvider(String luceneIndexPath, int maxResults, int searchTimeout) {
+    public LuceneSearchProvider(
+            String luceneIndexPath,
+            int maxResults,
+            int searchTimeout,
+            LuceneDirectoryStrategy directoryStrategy
+    ) {
         this.luceneIndexPath = luceneIndexPath;
         Utils.createParentDirectories(this.luceneIndexPath);
 
         this.maxResults = maxResults;
         this.searchTimeout = searchTimeout;
+        this.directoryStrategy = directoryStrategy;
 
         this.analyzer = STANDARD_LUCENE_ANALYZER;
         try {
-            luceneDirectory = new MMapDirectory(Paths.get(this.luceneIndexPath));
+            luceneDirectory = directoryStrategy.open(Paths.get(this.luceneIndexPath));
             luceneIndexIsHealthy = true;
         } catch (IOException e) {
             luceneIndexIsHealthy = false;
@@ -137,6 +185,17 @@ public class LuceneSearchProvider implements SearchProvider {
         }
     }
 
+    /**
+     * Constructor.  The directory strategy is initialized to the configured value.
+     *
+     * @param luceneIndexPath  Path to the lucene index files
+     * @param maxResults  Maximum number of allowed results in a page
+     * @param searchTimeout  Maximum time in milliseconds that a lucene search can run
+     */
+    public LuceneSearchProvider(String luceneIndexPath, int maxResults, int searchTimeout) {
+        this(luceneIndexPath, maxResults, searchTimeout, LuceneDirectoryStrategy.getDefault());
+    }
+
     /**
      * Constructor.  The search timeout is initialized to the default (or configured) value.
      *
@@ -233,46 +292,156 @@ public class LuceneSearchProvider implements SearchProvider {
     /**
      * Re-open the Index Searcher, opening it for the first time if it's never been opened.
      * <p>
-     * This method will attempt to acquire and release a write lock.
+     * The new searcher is opened and warmed up without holding the write lock, so searches keep running against the
+     * current searcher in the meantime. The write lock is only taken to swap the new searcher in, and to clear the
+     * results cached from the current one. If another searcher on a newer version of the index was swapped in while
+     * this one warmed up, this one is closed instead.
      *
      * @param firstTimeThrough  If true, will write an empty index and will then re-open the searcher
      */
     private void reopenIndexSearcher(boolean firstTimeThrough) {
-        writeLock();
+        DirectoryReader indexReader;
         try {
-            // Close the current reader if open
-            if (luceneIndexSearcher != null) {
-                luceneIndexSearcher.getIndexReader().close();
-            }
-
             // Open a new IndexSearcher on a new DirectoryReader
-            luceneIndexSearcher = new IndexSearcher(DirectoryReader.open(luceneDirectory));
+            indexReader = DirectoryReader.open(luceneDirectory);
         } catch (IOException reopenException) {
             // If there is no index file, this is expected. On the 1st time through, write an empty index and try again
             if (firstTimeThrough) {
-                IndexWriterConfig indexWriterConfig = new IndexWriterConfig(analyzer);
-                try (IndexWriter ignored = new IndexWriter(luceneDirectory, indexWriterConfig)) {
-                    // Closed automatically by the try-resource block
-                } catch (IOException emptyIndexWriteException) {
-                    // We can't move past this, so puke
-                    luceneIndexIsHealthy = false;
-                    String message = String.format("Unable to write empty index to %s:", luceneIndexPath);
-                    LOG.error(message, emptyIndexWriteException);
-                    throw new RuntimeException(emptyIndexWriteException);
-                }
+                writeEmptyIndex();
                 reopenIndexSearcher(false);
-            } else {
-                // We've been here before, so puke
-                luceneIndexIsHealthy = false;
-                String message = String.format("Unable to open index searcher for %s:", luceneIndexPath);
-                LOG.error(message, reopenException);
-                throw new RuntimeException(reopenException);
+                return;
             }
+            // We've been here before, so puke
+            luceneIndexIsHealthy = false;
+            String message = String.format("Unable to open index searcher for %s:", luceneIndexPath);
+            LOG.error(message, reopenException);
+            throw new RuntimeException(reopenException);
+        }
+        IndexSearcher indexSearcher = new IndexSearcher(indexReader);
+        warmUp(indexSearcher);
+
+        writeLock();
+        try {
+            if (isStale(indexReader)) {
+                closeIndexReader(indexReader);
+                return;
+            }
+            // Close the current reader if open
+            if (luceneIndexSearcher != null) {
+                closeIndexReader(luceneIndexSearcher.getIndexReader());
+            }
+            luceneIndexSearcher = indexSearcher;
+            indexSizeBytes = measureIndexSize();
+            searchResultCache.clear();
         } finally {
             writeUnlock();
         }
     }
 
+    /**
+     * Writes an empty index, so that an index searcher can be opened on an index that was never written to.
+     * <p>
+     * This method will attempt to acquire and release a write lock.
+     */
+    private void writeEmptyIndex() {
+        IndexWriterConfig indexWriterConfig = new IndexWriterConfig(analyzer);
+        writeLock();
+        try (IndexWriter ignored = new IndexWriter(luceneDirectory, indexWriterConfig)) {
+            // Closed automatically by the try-resource block
+        } catch (IOException emptyIndexWriteException) {
+            // We can't move past this, so puke
+            luceneIndexIsHealthy = false;
+            String message = String.format("Unable to write empty index to %s:", luceneIndexPath);
+            LOG.error(message, emptyIndexWriteException);
+            throw new RuntimeException(emptyIndexWriteException);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Whether a newly opened index reader reads a directory that has since been replaced, or an older version of the
+     * index than the reader of the current searcher.
+     * <p>
+     * Note that this method must be called while holding the write lock.
+     *
+     * @param indexReader  The newly opened index reader
+     *
+     * @return true if the current searcher should be kept instead
+     */
+    private boolean isStale(DirectoryReader indexReader) {
+        if (indexReader.directory() != luceneDirectory) {
+            return true;
+        }
+        if (luceneIndexSearcher == null || !(luceneIndexSearcher.getIndexReader() instanceof DirectoryReader)) {
+            return false;
+        }
+        DirectoryReader currentReader = (DirectoryReader) luceneIndexSearcher.getIndexReader();
+        return currentReader.directory() == luceneDirectory && currentReader.getVersion() > indexReader.getVersion();
+    }
+
+    /**
+     * Closes an index reader that is no longer searched, logging rather than failing if it can't be closed.
+     *
+     * @param indexReader  The index reader to close
+     */
+    private void closeIndexReader(IndexReader indexReader) {
+        try {
+            indexReader.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to close an index reader of {}", luceneIndexPath, e);
+        }
+    }
+
+    /**
+     * Runs the most recent searches, and a search for every document, against a new index searcher, so that the
+     * first requests it serves don't pay for loading the index.
+     * <p>
+     * A failed warm-up is logged and otherwise ignored, since it only costs the speed of the first searches.
+     *
+     * @param indexSearcher  The new index searcher
+     */
+    private void warmUp(IndexSearcher indexSearcher) {
+        List<Query> queries = new ArrayList<>(searchResultCache.getQueries(LUCENE_WARM_UP_QUERIES));
+        queries.add(new MatchAllDocsQuery());
+        try (Timer.Context ignored = warmUpTimer.time()) {
+            for (Query query : queries) {
+                for (ScoreDoc hit : indexSearcher.search(query, WARM_UP_HITS).scoreDocs) {
+                    indexSearcher.doc(hit.doc);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Unable to warm up the index searcher for {}", luceneIndexPath, e);
+        }
+    }
+
+    /**
+     * Adds up the sizes of the files of the index.
+     *
+     * @return the size of the index in bytes, or -1 if it can't be measured
+     */
+    private long measureIndexSize() {
+        try {
+            long size = 0;
+            for (String file : luceneDirectory.listAll()) {
+                size += luceneDirectory.fileLength(file);
+            }
+            return size;
+        } catch (IOException e) {
+            LOG.debug("Unable to measure the size of the index at {}", luceneIndexPath, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Get the size of the files of the index, as of the last time the index searcher was opened.
+     *
+     * @return the size of the index in bytes, or -1 if it couldn't be measured
+     */
+    public long getIndexSizeBytes() {
+        return indexSizeBytes;
+    }
+
     /**
      * Getter for the search provider's dimension.
      *
@@ -285,6 +454,16 @@ public class LuceneSearchProvider implements SearchProvider {
     @Override
     public void setDimension(Dimension dimension) {
         this.dimension = dimension;
+
+        String metricPrefix = "dimensions.lucene." + dimension.getApiName();
+        queryTimer = REGISTRY.timer(metricPrefix + ".query");
+        warmUpTimer = REGISTRY.timer(metricPrefix + ".warmup");
+        String indexSizeName = metricPrefix + ".index.size";
+        INDEX_SIZE_SOURCES.put(indexSizeName, this);
+        REGISTRY.gauge(
+                indexSizeName,
+                () -> (Gauge<Long>) () -> INDEX_SIZE_SOURCES.get(indexSizeName).getIndexSizeBytes()
+        );
     }
 
     @Override
@@ -387,13 +566,15 @@ public class LuceneSearchProvider implements SearchProvider {
                 throw new RuntimeException(e);
                 // Commit all the changes to the index (on .close, called by try-resources) and refresh the cardinality
             }
-            //This must be outside the try-resources block because it may _also_ need to open an IndexWriter, and
-            //opening an IndexWriter involves taking a write lock on lucene, of which there can only be one at a time.
-            reopenIndexSearcher(true);
-            refreshCardinality();
         } finally {
             writeUnlock();
         }
+        //This must be outside the try-resources block because it may _also_ need to open an IndexWriter, and
+        //opening an IndexWriter involves taking a write lock on lucene, of which there can only be one at a time.
+        //It is outside the write lock too, so that searches run against the current searcher while the new one warms
+        //up.
+        reopenIndexSearcher(true);
+        refreshCardinality();
     }
 
     /**
@@ -437,6 +618,7 @@ public class LuceneSearchProvider implements SearchProvider {
                 newLuceneIndexPathString
         );
 
+        Directory oldDirectory;
         writeLock();
         try {
             Path oldLuceneIndexPath = Paths.get(luceneIndexPath);
@@ -457,10 +639,40 @@ public class LuceneSearchProvider implements SearchProvider {
             LOG.trace("Deleting old Lucene indexes in {} ...", tempDir);
             deleteDir(tempDir);
 
-            reopenIndexSearcher(false);
+            oldDirectory = reopenDirectory();
         } finally {
             writeUnlock();
         }
+        // The new searcher warms up outside the write lock, and the replaced directory is closed once it is swapped in
+        try {
+            reopenIndexSearcher(false);
+        } finally {
+            try {
+                oldDirectory.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close the replaced directory of {}", luceneIndexPath, e);
+            }
+        }
+    }
+
+    /**
+     * Opens the directory of the index again, so that it holds the files now at the index path.
+     * <p>
+     * Note that this method must be called while holding the write lock.
+     *
+     * @return the replaced directory, to be closed once a searcher on the new directory is opened
+     */
+    private Directory reopenDirectory() {
+        Directory oldDirectory = luceneDirectory;
+        try {
+            luceneDirectory = directoryStrategy.open(Paths.get(luceneIndexPath));
+        } catch (IOException e) {
+            luceneIndexIsHealthy = false;
+            String message = ErrorMessageFormat.UNABLE_TO_CREATE_DIR.format(luceneIndexPath);
+            LOG.error(message, e);
+            throw new RuntimeException(message, e);
+        }
+        return oldDirectory;
     }
 
     /**
@@ -563,13 +775,15 @@ public class LuceneSearchProvider implements SearchProvider {
                 throw new RuntimeException(e);
             }
 
-            //This must be outside the try-resources block because it may _also_ need to open an IndexWriter, and
-            //opening an IndexWriter involves taking a write lock on lucene, of which there can only be one at a time.
-            reopenIndexSearcher(true);
-            refreshCardinality();
         } finally {
             writeUnlock();
         }
+        //This must be outside the try-resources block because it may _also_ need to open an IndexWriter, and
+        //opening an IndexWriter involves taking a write lock on lucene, of which there can only be one at a time.
+        //It is outside the write lock too, so that searches run against the current searcher while the new one warms
+        //up.
+        reopenIndexSearcher(true);
+        refreshCardinality();
     }
 
     /**
@@ -600,6 +814,92 @@ public class LuceneSearchProvider implements SearchProvider {
         return getResultsPage(getFilterQuery(filters), paginationParameters);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The hits are counted without loading any documents or rows, and the count is cached with the other results of
+     * the query.
+     */
+    @Override
+    public int countFilteredDimensionRows(Set<ApiFilter> filters) {
+        Query query = getFilterQuery(filters);
+        initializeIndexSearcher();
+        readLock();
+        try {
+            LuceneSearchResultCache.CachedSearch search = searchResultCache.get(query);
+            Integer hitCount = search.getHitCount();
+            if (hitCount == null) {
+                try (
+                        TimedPhase timer = RequestLog.startTiming("CountingLuceneHits");
+                        Timer.Context ignored = queryTimer.time()
+                ) {
+                    hitCount = luceneIndexSearcher.count(query);
+                }
+                search.setHitCount(hitCount);
+            }
+            return hitCount;
+        } catch (IOException e) {
+            String errorMessage = "Unable to count dimension rows.";
+            LOG.error(errorMessage);
+            throw new RuntimeException(errorMessage, e);
+        } finally {
+            readUnlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the stored key field of each hit is read, and the rows aren't built. Keys whose row is no longer in the key
+     * value store are dropped, as they are when finding the rows. The same limit on the number of hits applies as when
+     * finding the rows.
+     */
+    @Override
+    public List<String> findFilteredKeyValues(Set<ApiFilter> filters) {
+        Query query = getFilterQuery(filters);
+        int perPage = PaginationParameters.EVERYTHING_IN_ONE_PAGE.getPerPage();
+        validatePerPage(perPage);
+        initializeIndexSearcher();
+
+        String idKey = DimensionStoreKeyUtils.getColumnKey(dimension.getKey().getName());
+        Set<String> idField = Collections.singleton(idKey);
+        String[] keyValues;
+        readLock();
+        try (TimedPhase timer = RequestLog.startTiming("QueryingLuceneKeys")) {
+            ScoreDoc[] hits = getPageOfData(luceneIndexSearcher, null, query, perPage).scoreDocs;
+            keyValues = new String[hits.length];
+            for (int i = 0; i < hits.length; i++) {
+                keyValues[i] = luceneIndexSearcher.doc(hits[i].doc, idField).get(idKey);
+            }
+        } catch (IOException e) {
+            String errorMessage = "Unable to find dimension key values.";
+            LOG.error(errorMessage);
+            throw new RuntimeException(errorMessage, e);
+        } finally {
+            readUnlock();
+        }
+
+        String keyName = dimension.getKey().getName();
+        List<String> sortedKeyValues = Arrays.asList(Utils.sortedDistinct(keyValues));
+        Map<String, String> storedRows = keyValueStore.getAll(
+                sortedKeyValues.stream()
+                        .map(keyValue -> DimensionStoreKeyUtils.getRowKey(keyName, keyValue))
+                        .collect(Collectors.toList())
+        );
+        return sortedKeyValues.stream()
+                .filter(keyValue -> storedRows.containsKey(DimensionStoreKeyUtils.getRowKey(keyName, keyValue)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Get the cache of the results of recent searches.
+     *
+     * @return the search result cache
+     */
+    protected LuceneSearchResultCache getSearchResultCache() {
+        return searchResultCache;
+    }
+
     /**
      * Returns a Collector that accumulates boolean queries into a single nested query, and ties all of the sub
      * queries together with the specified {@link BooleanClause.Occur}.
@@ -766,6 +1066,10 @@ public class LuceneSearchProvider implements SearchProvider {
 
     /**
      * Returns the desired page of dimension rows found by the specified query with the relevant metadata.
+     * <p>
+     * Recently returned pages are served from the search result cache. Otherwise the search starts after the last hit
+     * of the deepest cached page before the desired one, so paging through the results doesn't search the earlier
+     * pages again.
      *
      * @param query  The Lucene query used to locate the desired DimensionRows
      * @param paginationParameters  The parameters defining the pagination (i.e. the number of rows per page, and the
@@ -783,76 +1087,139 @@ public class LuceneSearchProvider implements SearchProvider {
         int perPage = paginationParameters.getPerPage();
         validatePerPage(perPage);
 
-        TreeSet<DimensionRow> filteredDimRows;
+        List<DimensionRow> filteredDimRows;
         int documentCount;
         initializeIndexSearcher();
         LOG.trace("Lucene Query {}", query);
 
         readLock();
         try {
+            // The cache is only read and written under the read lock, so it can't outlive the index searcher
+            LuceneSearchResultCache.CachedSearch search = searchResultCache.get(query);
+            Integer hitCount = search.getHitCount();
+            List<DimensionRow> cachedRows = hitCount == null ?
+                    null :
+                    search.getPage(perPage, paginationParameters.getPage(hitCount));
+            if (cachedRows != null) {
+                return new SinglePagePagination<>(cachedRows, paginationParameters, hitCount);
+            }
+
             ScoreDoc[] hits;
             try (TimedPhase timer = RequestLog.startTiming("QueryingLucene")) {
-                TopDocs hitDocs = getPageOfData(
-                        luceneIndexSearcher,
-                        null,
-                        query,
-                        perPage
-                );
-                hits = hitDocs.scoreDocs;
-                // The change to supprt long document sizes is incompletely supported in Lucene
-                // Since we can't request up to long documents we'll only expect to receive up to Integer.MAX_VALUE
-                // responses, and throw an error if we exceed that.
-                if (hitDocs.totalHits > Integer.MAX_VALUE) {
-                    String message = String.format(TOO_MANY_DOCUMENTS, hitDocs.totalHits);
-                    RowLimitReachedException exception = new RowLimitReachedException(message);
-                    LOG.error(exception.getMessage(), exception);
-                    throw exception;
-                }
-                documentCount = (int) hitDocs.totalHits;
-
-                int requestedPageNumber = paginationParameters.getPage(documentCount);
-                if (hits.length == 0) {
-                    if (requestedPageNumber == 1) {
-                        return new SinglePagePagination<>(Collections.emptyList(), paginationParameters, 0);
-                    }
-                    throw new PageNotFoundException(requestedPageNumber, perPage, 0);
-                }
-                for (int currentPage = 1; currentPage < requestedPageNumber; currentPage++) {
-                    ScoreDoc lastEntry = hits[hits.length - 1];
-                    hits = getPageOfData(luceneIndexSearcher, lastEntry, query, perPage).scoreDocs;
-                    if (hits.length == 0) {
-                        throw new PageNotFoundException(requestedPageNumber, perPage, 0);
-                    }
-                }
+                Map.Entry<Integer, ScoreDoc> cursor = hitCount == null ?
+                        null :
+                        search.getCursorBefore(perPage, paginationParameters.getPage(hitCount));
+                hits = findPageOfHits(search, query, paginationParameters, cursor);
+            }
+            documentCount = search.getHitCount();
+            if (hits.length == 0) {
+                return new SinglePagePagination<>(Collections.emptyList(), paginationParameters, 0);
             }
 
             // convert hits to dimension rows
             try (TimedPhase timer = RequestLog.startTiming("LuceneHydratingDimensionRows")) {
-                String idKey = DimensionStoreKeyUtils.getColumnKey(dimension.getKey().getName());
-                filteredDimRows = Arrays.stream(hits)
-                        .map(
-                                hit -> {
-                                    try {
-                                        return luceneIndexSearcher.doc(hit.doc);
-                                    } catch (IOException e) {
-                                        LOG.error("Unable to convert hit " + hit);
-                                        throw new RuntimeException(e);
-                                    }
-                                }
-                        )
-                        .map(document -> document.get(idKey))
-                        .map(dimension::findDimensionRowByKeyValue)
-                        .filter(it -> it != null)
-                        .collect(Collectors.toCollection(TreeSet::new));
+                filteredDimRows = hydrateDimensionRows(hits);
             }
+            search.putPage(perPage, paginationParameters.getPage(documentCount), filteredDimRows);
         } finally {
             readUnlock();
         }
-        return new SinglePagePagination<>(
-                Collections.unmodifiableList(filteredDimRows.stream().collect(Collectors.toList())),
-                paginationParameters,
-                documentCount
-        );
+        return new SinglePagePagination<>(filteredDimRows, paginationParameters, documentCount);
+    }
+
+    /**
+     * Finds the hits of the desired page, starting from a cursor if there is one, and caches the number of hits and
+     * the last hit of every page on the way.
+     * <p>
+     * Note that this method must be called while holding the read lock.
+     *
+     * @param search  The cached results of the query
+     * @param query  The Lucene query used to locate the desired DimensionRows
+     * @param paginationParameters  The parameters defining the pagination
+     * @param cursor  The number and the last hit of the page to search after, or null to search from the beginning
+     *
+     * @return The hits of the desired page, which are only empty if there are no hits at all
+     *
+     * @throws PageNotFoundException if the page requested is past the last page of results
+     */
+    private ScoreDoc[] findPageOfHits(
+            LuceneSearchResultCache.CachedSearch search,
+            Query query,
+            PaginationParameters paginationParameters,
+            Map.Entry<Integer, ScoreDoc> cursor
+    ) throws PageNotFoundException {
+        int perPage = paginationParameters.getPerPage();
+        int currentPage = cursor == null ? 1 : cursor.getKey() + 1;
+        TopDocs hitDocs = getPageOfData(luceneIndexSearcher, cursor == null ? null : cursor.getValue(), query, perPage);
+        ScoreDoc[] hits = hitDocs.scoreDocs;
+        int documentCount = getDocumentCount(hitDocs);
+        search.setHitCount(documentCount);
+
+        int requestedPageNumber = paginationParameters.getPage(documentCount);
+        if (hits.length == 0) {
+            if (requestedPageNumber == 1) {
+                return hits;
+            }
+            throw new PageNotFoundException(requestedPageNumber, perPage, 0);
+        }
+        search.putCursor(perPage, currentPage, hits[hits.length - 1]);
+        for (; currentPage < requestedPageNumber; currentPage++) {
+            ScoreDoc lastEntry = hits[hits.length - 1];
+            hits = getPageOfData(luceneIndexSearcher, lastEntry, query, perPage).scoreDocs;
+            if (hits.length == 0) {
+                throw new PageNotFoundException(requestedPageNumber, perPage, 0);
+            }
+            search.putCursor(perPage, currentPage + 1, hits[hits.length - 1]);
+        }
+        return hits;
+    }
+
+    /**
+     * Get the number of hits of a search.
+     *
+     * @param hitDocs  The results of the search
+     *
+     * @return the number of hits, failing with a RowLimitReachedException if there are more than an int can count
+     */
+    private static int getDocumentCount(TopDocs hitDocs) {
+        // The change to supprt long document sizes is incompletely supported in Lucene
+        // Since we can't request up to long documents we'll only expect to receive up to Integer.MAX_VALUE
+        // responses, and throw an error if we exceed that.
+        if (hitDocs.totalHits > Integer.MAX_VALUE) {
+            String message = String.format(TOO_MANY_DOCUMENTS, hitDocs.totalHits);
+            RowLimitReachedException exception = new RowLimitReachedException(message);
+            LOG.error(exception.getMessage(), exception);
+            throw exception;
+        }
+        return (int) hitDocs.totalHits;
+    }
+
+    /**
+     * Looks up the dimension rows of a page of hits.
+     *
+     * @param hits  The hits of the page
+     *
+     * @return the rows of the hits, in order
+     */
+    private List<DimensionRow> hydrateDimensionRows(ScoreDoc[] hits) {
+        String idKey = DimensionStoreKeyUtils.getColumnKey(dimension.getKey().getName());
+        return Collections.unmodifiableList(Arrays.stream(hits)
+                .map(
+                        hit -> {
+                            try {
+                                return luceneIndexSearcher.doc(hit.doc);
+                            } catch (IOException e) {
+                                LOG.error("Unable to convert hit " + hit);
+                                throw new RuntimeException(e);
+                            }
+                        }
+                )
+                .map(document -> document.get(idKey))
+                .map(dimension::findDimensionRowByKeyValue)
+                .filter(it -> it != null)
+                .collect(Collectors.toCollection(TreeSet::new))
+                .stream()
+                .collect(Collectors.toList()));
     }
 
     /**
@@ -891,7 +1258,7 @@ public class LuceneSearchProvider implements SearchProvider {
     ) {
         TimeLimitingCollectorManager manager = new TimeLimitingCollectorManager(searchTimeout, lastEntry, perPage);
         readLock();
-        try {
+        try (Timer.Context ignored = queryTimer.time()) {
             return indexSearcher.search(query, manager);
         } catch (IOException e) {
             String errorMessage = "Unable to find dimension rows for specified page.";
@@ -0,0 +1,183 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl;
+
+import com.yahoo.bard.webservice.data.dimension.DimensionRow;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The results of the most recent searches of a {@link LuceneSearchProvider}, keyed by their query.
+ * <p>
+ * Lucene orders hits by score, so a query and a page size fix the order of the hits and the contents of each page.
+ * For each search the cache keeps the number of hits, the last hit of every page visited so far, which the next page
+ * can be searched after, and the rows of the most recently visited pages. The score docs only hold for the index
+ * searcher that found them, so the cache has to be cleared whenever the index changes.
+ */
+public class LuceneSearchResultCache {
+
+    /**
+     * The number of pages of rows kept for each search.
+     */
+    public static final int PAGES_PER_SEARCH = 8;
+
+    private final Map<Query, CachedSearch> searches;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSearches  The number of searches to keep, the least recently used searches are evicted first
+     */
+    public LuceneSearchResultCache(int maxSearches) {
+        this.searches = new LinkedHashMap<Query, CachedSearch>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Query, CachedSearch> eldest) {
+                return size() > maxSearches;
+            }
+        };
+    }
+
+    /**
+     * Get the cached results of a query, starting an empty entry for it if there isn't one.
+     *
+     * @param query  The query of the search
+     *
+     * @return the cached results of the search
+     */
+    public synchronized CachedSearch get(Query query) {
+        return searches.computeIfAbsent(query, ignored -> new CachedSearch());
+    }
+
+    /**
+     * Get the queries of the most recently used searches.
+     *
+     * @param limit  The maximum number of queries to get
+     *
+     * @return the queries, most recently used first
+     */
+    public synchronized List<Query> getQueries(int limit) {
+        List<Query> queries = new ArrayList<>(searches.keySet());
+        Collections.reverse(queries);
+        return queries.subList(0, Math.min(Math.max(limit, 0), queries.size()));
+    }
+
+    /**
+     * Get the number of searches in the cache.
+     *
+     * @return the number of cached searches
+     */
+    public synchronized int size() {
+        return searches.size();
+    }
+
+    /**
+     * Drops every cached search.
+     */
+    public synchronized void clear() {
+        searches.clear();
+    }
+
+    /**
+     * The cached results of a single query.
+     */
+    public static class CachedSearch {
+        private Integer hitCount;
+        private final Map<Integer, TreeMap<Integer, ScoreDoc>> cursorsByPageSize = new HashMap<>();
+        private final Map<Long, List<DimensionRow>> pages = new LinkedHashMap<Long, List<DimensionRow>>(
+                PAGES_PER_SEARCH * 2,
+                0.75f,
+                true
+        ) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<DimensionRow>> eldest) {
+                return size() > PAGES_PER_SEARCH;
+            }
+        };
+
+        /**
+         * Get the number of hits of the query.
+         *
+         * @return the number of hits, or null if the query hasn't been run yet
+         */
+        public synchronized Integer getHitCount() {
+            return hitCount;
+        }
+
+        /**
+         * Set the number of hits of the query.
+         *
+         * @param hitCount  The number of hits
+         */
+        public synchronized void setHitCount(int hitCount) {
+            this.hitCount = hitCount;
+        }
+
+        /**
+         * Get the last hit of the deepest visited page before the given page.
+         *
+         * @param perPage  The number of hits per page
+         * @param page  The page to search for
+         *
+         * @return the number of the deepest page before the given one and its last hit, or null if none was visited
+         */
+        public synchronized Map.Entry<Integer, ScoreDoc> getCursorBefore(int perPage, int page) {
+            TreeMap<Integer, ScoreDoc> cursors = cursorsByPageSize.get(perPage);
+            return cursors == null ? null : cursors.lowerEntry(page);
+        }
+
+        /**
+         * Remember the last hit of a page, so the next page can be searched after it.
+         *
+         * @param perPage  The number of hits per page
+         * @param page  The page the hit ends
+         * @param lastHit  The last hit of the page
+         */
+        public synchronized void putCursor(int perPage, int page, ScoreDoc lastHit) {
+            cursorsByPageSize.computeIfAbsent(perPage, ignored -> new TreeMap<>()).put(page, lastHit);
+        }
+
+        /**
+         * Get the rows of a page.
+         *
+         * @param perPage  The number of hits per page
+         * @param page  The page
+         *
+         * @return the rows of the page, or null if they aren't cached
+         */
+        public synchronized List<DimensionRow> getPage(int perPage, int page) {
+            return pages.get(pageKey(perPage, page));
+        }
+
+        /**
+         * Cache the rows of a page.
+         *
+         * @param perPage  The number of hits per page
+         * @param page  The page
+         * @param rows  The rows of the page
+         */
+        public synchronized void putPage(int perPage, int page, List<DimensionRow> rows) {
+            pages.put(pageKey(perPage, page), rows);
+        }
+
+        /**
+         * Combines a page size and a page number into the key of a cached page.
+         *
+         * @param perPage  The number of hits per page
+         * @param page  The page
+         *
+         * @return the key of the page
+         */
+        private static long pageKey(int perPage, int page) {
+            return ((long) perPage << Integer.SIZE) | (page & 0xFFFFFFFFL);
+        }
+    }
+}
@@ -22,6 +22,7 @@ public class MapSearchProvider extends ScanSearchProvider implements ImmutableSe
     protected static final String UNSUPPORTED_OP_EXCEPTION_MESSAGE = "MapSearchProvider does not support %s operation";
 
     private final Map<String, DimensionRow> dimensionRows;
+    private final TreeSet<DimensionRow> orderedDimensionRows;
 
     /**
      * Constructor.
@@ -30,6 +31,7 @@ public class MapSearchProvider extends ScanSearchProvider implements ImmutableSe
      */
     public MapSearchProvider(Map<String, DimensionRow> dimensionRows) {
         this.dimensionRows = new TreeMap<>(dimensionRows);
+        this.orderedDimensionRows = new TreeSet<>(dimensionRows.values());
     }
 
     @Override
@@ -50,12 +52,20 @@ public class MapSearchProvider extends ScanSearchProvider implements ImmutableSe
 
     @Override
     public TreeSet<DimensionRow> findAllOrderedDimensionRows() {
-        return new TreeSet<>(dimensionRows.values());
+        return new TreeSet<>(orderedDimensionRows);
     }
 
+    /**
+     * Get the ordered rows of the map, sorted once since the map can't change.
+     * <p>
+     * The rows are copied out of the set sorted at construction, which takes linear time since they are already in
+     * order, so callers can't change the rows of the provider.
+     *
+     * @return the ordered dimension rows
+     */
     @Override
     protected TreeSet<DimensionRow> getAllOrderedDimensionRows() {
-        return findAllOrderedDimensionRows();
+        return new TreeSet<>(orderedDimensionRows);
     }
 
     @Override
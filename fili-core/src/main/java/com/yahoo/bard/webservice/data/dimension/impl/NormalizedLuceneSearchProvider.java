@@ -56,9 +56,15 @@ public class NormalizedLuceneSearchProvider extends LuceneSearchProvider impleme
      * @param luceneIndexPath  Path to the lucene index files
      * @param maxResults  Maximum number of allowed results in a page
      * @param searchTimeout  Maximum time in milliseconds that a lucene search can run
+     * @param directoryStrategy  How the files of the index are held
      */
-    public NormalizedLuceneSearchProvider(String luceneIndexPath, int maxResults, int searchTimeout) {
-        super(luceneIndexPath, maxResults, searchTimeout);
+    public NormalizedLuceneSearchProvider(
+            String luceneIndexPath,
+            int maxResults,
+            int searchTimeout,
+            LuceneDirectoryStrategy directoryStrategy
+    ) {
+        super(luceneIndexPath, maxResults, searchTimeout, directoryStrategy);
 
         // override analyzer in LuceneSearchProvider
         Map<String, Analyzer> analyzerMap = new HashMap<>();
@@ -70,6 +76,17 @@ public class NormalizedLuceneSearchProvider extends LuceneSearchProvider impleme
         this.queryParser.setDefaultOperator(BooleanClause.Occur.MUST);
     }
 
+    /**
+     * Constructor.  The directory strategy is initialized to the configured value.
+     *
+     * @param luceneIndexPath  Path to the lucene index files
+     * @param maxResults  Maximum number of allowed results in a page
+     * @param searchTimeout  Maximum time in milliseconds that a lucene search can run
+     */
+    public NormalizedLuceneSearchProvider(String luceneIndexPath, int maxResults, int searchTimeout) {
+        this(luceneIndexPath, maxResults, searchTimeout, LuceneDirectoryStrategy.getDefault());
+    }
+
     /**
      * Constructor.  The search timeout is initialized to the default (or configured) value.
      *
@@ -14,7 +14,6 @@ import com.yahoo.bard.webservice.util.Pagination;
 import com.yahoo.bard.webservice.util.SinglePagePagination;
 import com.yahoo.bard.webservice.web.ApiFilter;
 import com.yahoo.bard.webservice.web.DefaultFilterOperation;
-import com.yahoo.bard.webservice.web.FilterOperation;
 import com.yahoo.bard.webservice.web.util.PaginationParameters;
 
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -76,6 +75,18 @@ public class ScanSearchProvider implements SearchProvider, FilterDimensionRows {
 
     }
 
+    protected Dimension getDimension() {
+        return dimension;
+    }
+
+    protected KeyValueStore getKeyValueStore() {
+        return keyValueStore;
+    }
+
+    protected ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
     @Override
     public int getDimensionCardinality() {
         return Integer.parseInt(keyValueStore.get(DimensionStoreKeyUtils.getCardinalityKey()));
@@ -258,21 +269,12 @@ public class ScanSearchProvider implements SearchProvider, FilterDimensionRows {
 
     @Override
     public TreeSet<DimensionRow> inFilterOperation(TreeSet<DimensionRow> dimensionRows, ApiFilter filter) {
-        return dimensionRows.stream()
-                .filter(row -> filter.getValues().contains(row.get(filter.getDimensionField())))
-                .collect(Collectors.toCollection(TreeSet<DimensionRow>::new));
+        return CompiledDimensionRowFilter.compile(DefaultFilterOperation.in, filter).filter(dimensionRows);
     }
 
     @Override
     public TreeSet<DimensionRow> notinFilterOperation(TreeSet<DimensionRow> dimensionRows, ApiFilter filter) {
-        TreeSet<DimensionRow> filteredDimensionRows = new TreeSet<>(dimensionRows);
-        for (DimensionRow dimensionRow : dimensionRows) {
-            String value = dimensionRow.get(filter.getDimensionField());
-            if (filter.getValues().contains(value)) {
-                filteredDimensionRows.remove(dimensionRow);
-            }
-        }
-        return filteredDimensionRows;
+        return CompiledDimensionRowFilter.compile(DefaultFilterOperation.notin, filter).filter(dimensionRows);
     }
 
     @Override
@@ -280,23 +282,7 @@ public class ScanSearchProvider implements SearchProvider, FilterDimensionRows {
             TreeSet<DimensionRow> dimensionRows,
             ApiFilter filter
     ) {
-        TreeSet<DimensionRow> filteredDimensionRows = new TreeSet<>();
-
-        // regex string containing all starts with filter values
-        StringBuilder startsWithRegex = new StringBuilder("(");
-        for (String filterValue : filter.getValues()) {
-            startsWithRegex.append(filterValue).append("|");
-        }
-        startsWithRegex.replace(startsWithRegex.length() - 1, startsWithRegex.length(), ").*");
-
-        String startsWithRegexString = startsWithRegex.toString();
-        for (DimensionRow dimensionRow : dimensionRows) {
-            String value = dimensionRow.get(filter.getDimensionField());
-            if (value.matches(startsWithRegexString)) {
-                filteredDimensionRows.add(dimensionRow);
-            }
-        }
-        return filteredDimensionRows;
+        return CompiledDimensionRowFilter.compile(DefaultFilterOperation.startswith, filter).filter(dimensionRows);
     }
 
     /**
@@ -309,22 +295,7 @@ public class ScanSearchProvider implements SearchProvider, FilterDimensionRows {
      */
     @Override
     public TreeSet<DimensionRow> containsFilterOperation(TreeSet<DimensionRow> dimensionRows, ApiFilter filter) {
-        TreeSet<DimensionRow> filteredDimensionRows = new TreeSet<>();
-
-        // regex string containing all contains filter values
-        StringBuilder containsRegex = new StringBuilder(".*(");
-        for (String filterValue : filter.getValues()) {
-            containsRegex.append(filterValue).append("|");
-        }
-        containsRegex.replace(containsRegex.length() - 1, containsRegex.length(), ").*");
-
-        for (DimensionRow dimensionRow : dimensionRows) {
-            String value = dimensionRow.get(filter.getDimensionField());
-            if (value.matches(containsRegex.toString())) {
-                filteredDimensionRows.add(dimensionRow);
-            }
-        }
-        return filteredDimensionRows;
+        return CompiledDimensionRowFilter.compile(DefaultFilterOperation.contains, filter).filter(dimensionRows);
     }
 
     @Override
@@ -436,6 +407,8 @@ public class ScanSearchProvider implements SearchProvider, FilterDimensionRows {
 
     /**
      * Filter out dimension rows.
+     * <p>
+     * The filters are compiled into a single predicate, and the rows are filtered in one pass.
      *
      * @param dimensionRows  The set of dimension rows to be filtered
      * @param filters  The filters that are to be applied to the dimensionRows
@@ -443,38 +416,6 @@ public class ScanSearchProvider implements SearchProvider, FilterDimensionRows {
      * @return  The set of filtered dimension rows
      */
     private TreeSet<DimensionRow> applyFilters(TreeSet<DimensionRow> dimensionRows, Set<ApiFilter> filters) {
-        // filter chain
-        for (ApiFilter filter : filters) {
-            FilterOperation op = filter.getOperation();
-            if (!(op instanceof DefaultFilterOperation)) {
-                LOG.error("Illegal Filter operation : {}, only default filter ops supported", filter.getOperation());
-                throw new IllegalArgumentException(
-                        "Only supports default filter operations: in, notin, startswith, contains, eq"
-                );
-            }
-            DefaultFilterOperation defaultFilterOp = (DefaultFilterOperation) op;
-
-            switch (defaultFilterOp) {
-                case eq:
-                    // fall through on purpose since eq and in have the same functionality
-                case in:
-                    dimensionRows = inFilterOperation(dimensionRows, filter);
-                    break;
-                case notin:
-                    dimensionRows = notinFilterOperation(dimensionRows, filter);
-                    break;
-                case startswith:
-                    dimensionRows = startswithFilterOperation(dimensionRows, filter);
-                    break;
-                case contains:
-                    dimensionRows = containsFilterOperation(dimensionRows, filter);
-                    break;
-                default:
-                    LOG.error("Illegal Filter operation : {}", filter.getOperation());
-                    throw new IllegalArgumentException("Invalid Filter Operation.");
-            }
-        }
-
-        return dimensionRows;
+        return CompiledDimensionRowFilter.compile(filters).filter(dimensionRows);
     }
 }
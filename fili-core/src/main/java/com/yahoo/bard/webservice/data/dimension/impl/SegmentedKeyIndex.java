@@ -0,0 +1,406 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl;
+
+import com.yahoo.bard.webservice.data.dimension.KeyValueStore;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * A sorted set of strings kept in a KeyValueStore as a series of sorted segments, so that it can be updated and read a
+ * segment at a time.
+ * <p>
+ * The set is stored under a base key, which holds a directory listing each segment with its size and first value, and
+ * one key per segment, named {@code <base key>_segment_<segment id>}, holding the values of the segment. Eg:
+ * <pre><code>
+ * all_values_index_key -&gt; {"size":5,"nextId":2,"segments":[{"id":0,"size":3,"first":"a"},{"id":1,...}]}
+ * all_values_index_key_segment_0 -&gt; ["a","b","c"]
+ * all_values_index_key_segment_1 -&gt; ["x","y"]
+ * </code></pre>
+ * Updating the set only reads and writes the directory and the segments the changed values fall into, and a segment
+ * is split once it grows past twice the segment size. Reading a range of the set only reads the directory and the
+ * segments overlapping the range.
+ * <p>
+ * The index doesn't lock the store, callers updating the same index concurrently need to serialize the updates.
+ */
+public class SegmentedKeyIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedKeyIndex.class);
+
+    private static final String SEGMENT_KEY_INFIX = "_segment_";
+    private static final TypeReference<List<String>> SEGMENT_TYPE = new TypeReference<List<String>>() { };
+
+    private final KeyValueStore keyValueStore;
+    private final String baseKey;
+    private final int segmentSize;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Constructor.
+     *
+     * @param keyValueStore  The store holding the index
+     * @param baseKey  The key the directory of the index is stored under
+     * @param segmentSize  The number of values a segment is split into once it holds more than twice as many values
+     * @param objectMapper  The mapper used to serialize the directory and the segments
+     */
+    public SegmentedKeyIndex(KeyValueStore keyValueStore, String baseKey, int segmentSize, ObjectMapper objectMapper) {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("Segments must hold at least one value, not " + segmentSize);
+        }
+        this.keyValueStore = keyValueStore;
+        this.baseKey = baseKey;
+        this.segmentSize = segmentSize;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Get the number of values in the set.
+     *
+     * @return the size of the set
+     */
+    public int size() {
+        return readDirectory().getSize();
+    }
+
+    /**
+     * Get a range of the values of the set, in order.
+     *
+     * @param offset  The position of the first value to get
+     * @param limit  The most values to get
+     *
+     * @return the values in the range, fewer than the limit if the set ends first
+     */
+    public List<String> get(long offset, int limit) {
+        List<Segment> overlapping = new ArrayList<>();
+        long segmentStart = 0;
+        long end = offset + limit;
+        long skip = 0;
+        for (Segment segment : readDirectory().getSegments()) {
+            long segmentEnd = segmentStart + segment.getSize();
+            if (segmentEnd > offset && segmentStart < end) {
+                if (overlapping.isEmpty()) {
+                    skip = offset - segmentStart;
+                }
+                overlapping.add(segment);
+            } else if (segmentStart >= end) {
+                break;
+            }
+            segmentStart = segmentEnd;
+        }
+        if (overlapping.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<Integer, List<String>> segments = readSegments(overlapping);
+        List<String> values = new ArrayList<>(Math.min(limit, overlapping.size() * segmentSize * 2));
+        for (Segment segment : overlapping) {
+            for (String value : segments.get(segment.getId())) {
+                if (skip > 0) {
+                    skip--;
+                } else if (values.size() < limit) {
+                    values.add(value);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Get all the values of the set, in order.
+     *
+     * @return the values of the set
+     */
+    public List<String> getAll() {
+        Directory directory = readDirectory();
+        Map<Integer, List<String>> segments = readSegments(directory.getSegments());
+        return directory.getSegments().stream()
+                .flatMap(segment -> segments.get(segment.getId()).stream())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Adds and removes values of the set.
+     * <p>
+     * Only the segments the changed values fall into are read and written. Values that are both added and removed are
+     * added.
+     *
+     * @param added  The values to add to the set
+     * @param removed  The values to remove from the set
+     */
+    public void update(Collection<String> added, Collection<String> removed) {
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        Directory directory = readDirectory();
+        List<Segment> segments = new ArrayList<>(directory.getSegments());
+        int nextId = directory.getNextId();
+        if (segments.isEmpty()) {
+            segments.add(new Segment(nextId++, 0, null));
+        }
+
+        // Group the changes by the position of the segment they fall into
+        SortedMap<Integer, Set<String>> additions = groupBySegment(segments, added);
+        SortedMap<Integer, Set<String>> removals = groupBySegment(segments, removed);
+        Set<Integer> changed = new TreeSet<>(additions.keySet());
+        changed.addAll(removals.keySet());
+        Map<Integer, List<String>> stored = readSegments(
+                changed.stream().map(segments::get).collect(Collectors.toList())
+        );
+
+        Map<String, String> writes = new LinkedHashMap<>();
+        List<Segment> updated = new ArrayList<>(segments.size() + changed.size());
+        int size = directory.getSize();
+        for (int position = 0; position < segments.size(); position++) {
+            Segment segment = segments.get(position);
+            if (!changed.contains(position)) {
+                updated.add(segment);
+                continue;
+            }
+            TreeSet<String> values = new TreeSet<>(stored.get(segment.getId()));
+            values.removeAll(removals.getOrDefault(position, Collections.emptySet()));
+            values.addAll(additions.getOrDefault(position, Collections.emptySet()));
+            size += values.size() - segment.getSize();
+
+            // Split segments that grew past twice the segment size, and drop segments that are now empty
+            List<List<String>> pieces = split(new ArrayList<>(values));
+            writes.put(segmentKey(segment.getId()), null);
+            for (int piece = 0; piece < pieces.size(); piece++) {
+                int id = piece == 0 ? segment.getId() : nextId++;
+                writes.put(segmentKey(id), serialize(pieces.get(piece)));
+                updated.add(new Segment(id, pieces.get(piece).size(), pieces.get(piece).get(0)));
+            }
+        }
+
+        writes.put(baseKey, serialize(new Directory(size, nextId, updated)));
+        keyValueStore.putAll(writes);
+    }
+
+    /**
+     * Removes the whole set from the store.
+     */
+    public void clear() {
+        Map<String, String> removals = new LinkedHashMap<>();
+        for (Segment segment : readDirectory().getSegments()) {
+            removals.put(segmentKey(segment.getId()), null);
+        }
+        removals.put(baseKey, null);
+        keyValueStore.putAll(removals);
+    }
+
+    /**
+     * Groups values by the position of the segment each falls into, i.e. the last segment starting at or before the
+     * value, or the first segment for values before every segment.
+     *
+     * @param segments  The segments of the set, in order
+     * @param values  The values to group
+     *
+     * @return the values, by segment position
+     */
+    private SortedMap<Integer, Set<String>> groupBySegment(List<Segment> segments, Collection<String> values) {
+        SortedMap<Integer, Set<String>> grouped = new TreeMap<>();
+        for (String value : values) {
+            int low = 0;
+            int high = segments.size() - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (segments.get(middle).getFirst().compareTo(value) <= 0) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            grouped.computeIfAbsent(low, ignored -> new TreeSet<>()).add(value);
+        }
+        return grouped;
+    }
+
+    /**
+     * Splits the values of a segment into pieces of the segment size if it holds more than twice the segment size.
+     *
+     * @param values  The values of the segment, in order
+     *
+     * @return the values of the segments to replace it with, none if it is empty
+     */
+    private List<List<String>> split(List<String> values) {
+        if (values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (values.size() <= 2 * segmentSize) {
+            return Collections.singletonList(values);
+        }
+        List<List<String>> pieces = new ArrayList<>();
+        for (int start = 0; start < values.size(); start += segmentSize) {
+            pieces.add(values.subList(start, Math.min(start + segmentSize, values.size())));
+        }
+        return pieces;
+    }
+
+    /**
+     * Reads the directory of the index, an empty directory if the index isn't stored.
+     *
+     * @return the directory
+     */
+    private Directory readDirectory() {
+        String directory = keyValueStore.get(baseKey);
+        if (directory == null) {
+            return new Directory(0, 0, Collections.emptyList());
+        }
+        try {
+            return objectMapper.readValue(directory, Directory.class);
+        } catch (IOException e) {
+            LOG.error("Unable to read the index directory {}", baseKey, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the values of segments in a single batch.
+     *
+     * @param segments  The segments to read
+     *
+     * @return the values of each segment, by segment id, empty for segments missing from the store
+     */
+    private Map<Integer, List<String>> readSegments(List<Segment> segments) {
+        Map<String, String> stored = keyValueStore.getAll(
+                segments.stream().map(segment -> segmentKey(segment.getId())).collect(Collectors.toList())
+        );
+        Map<Integer, List<String>> values = new TreeMap<>();
+        try {
+            for (Segment segment : segments) {
+                String json = stored.get(segmentKey(segment.getId()));
+                values.put(
+                        segment.getId(),
+                        json == null ? Collections.emptyList() : objectMapper.readValue(json, SEGMENT_TYPE)
+                );
+            }
+        } catch (IOException e) {
+            LOG.error("Unable to read the segments of index {}", baseKey, e);
+            throw new RuntimeException(e);
+        }
+        return values;
+    }
+
+    /**
+     * Serializes a directory or segment.
+     *
+     * @param value  The value to serialize
+     *
+     * @return the JSON form of the value
+     */
+    private String serialize(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            LOG.error("Unable to write index {}", baseKey, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Build the key a segment of this index is stored under.
+     *
+     * @param id  The id of the segment
+     *
+     * @return the key of the segment
+     */
+    private String segmentKey(int id) {
+        return baseKey + SEGMENT_KEY_INFIX + id;
+    }
+
+    /**
+     * The stored description of the segments of an index.
+     */
+    static class Directory {
+        private final int size;
+        private final int nextId;
+        private final List<Segment> segments;
+
+        /**
+         * Constructor.
+         *
+         * @param size  The number of values in the index
+         * @param nextId  The id the next new segment will take
+         * @param segments  The segments of the index, in order
+         */
+        @JsonCreator
+        Directory(
+                @JsonProperty("size") int size,
+                @JsonProperty("nextId") int nextId,
+                @JsonProperty("segments") List<Segment> segments
+        ) {
+            this.size = size;
+            this.nextId = nextId;
+            this.segments = segments;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getNextId() {
+            return nextId;
+        }
+
+        public List<Segment> getSegments() {
+            return segments;
+        }
+    }
+
+    /**
+     * The stored description of one segment of an index.
+     */
+    static class Segment {
+        private final int id;
+        private final int size;
+        private final String first;
+
+        /**
+         * Constructor.
+         *
+         * @param id  The id of the segment, used to build its key
+         * @param size  The number of values in the segment
+         * @param first  The first value of the segment
+         */
+        @JsonCreator
+        Segment(
+                @JsonProperty("id") int id,
+                @JsonProperty("size") int size,
+                @JsonProperty("first") String first
+        ) {
+            this.id = id;
+            this.size = size;
+            this.first = first;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public String getFirst() {
+            return first;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl;
+
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.data.cache.HashDataCache.Pair;
+import com.yahoo.bard.webservice.data.dimension.Dimension;
+import com.yahoo.bard.webservice.data.dimension.DimensionField;
+import com.yahoo.bard.webservice.data.dimension.DimensionRow;
+import com.yahoo.bard.webservice.util.DimensionStoreKeyUtils;
+import com.yahoo.bard.webservice.util.Pagination;
+import com.yahoo.bard.webservice.util.SinglePagePagination;
+import com.yahoo.bard.webservice.web.ApiFilter;
+import com.yahoo.bard.webservice.web.DefaultFilterOperation;
+import com.yahoo.bard.webservice.web.util.PaginationParameters;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Search provider using scan on dimension rows, whose indexes are stored as sorted segments in the KeyValueStore.
+ * <p>
+ * The {@link ScanSearchProvider} keeps the key of every row, and the rows of every non-key field value, as a single
+ * JSON array that is read and rewritten for each row indexed, so loading a dimension costs time quadratic in its
+ * size. This provider keeps the key values of the dimension, and the rows of each non-key field value, in
+ * {@link SegmentedKeyIndex}es instead, and applies all the changes of a batch of rows to each index at once. Indexing a
+ * batch of rows only touches the segments the rows fall into, and reading a page of rows only reads the segments
+ * overlapping the page.
+ * <p>
+ * Searches with an {@code in} or {@code eq} filter only read the rows the filter can match: the rows of the filtered
+ * key values, or the rows listed in the indexes of the filtered field values, rather than every row of the dimension.
+ * <p>
+ * The key index is kept under {@link #ALL_VALUES_INDEX_KEY}, and the index of each field value under the row key of
+ * the field value followed by {@link #FIELD_INDEX_SUFFIX} (e.g. {@code desc_value1_row_key_index}), rather than under
+ * the keys the ScanSearchProvider keeps its indexes under, so a store indexed by one provider needs to be reloaded to
+ * be searched by the other.
+ */
+public class SegmentedScanSearchProvider extends ScanSearchProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedScanSearchProvider.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    public static final String SEGMENT_SIZE_KEY = SYSTEM_CONFIG.getPackageVariableName("scan_search_segment_size");
+    public static final int DEFAULT_SEGMENT_SIZE = 1000;
+
+    /**
+     * The key the index of the key values of the dimension is stored under.
+     */
+    public static final String ALL_VALUES_INDEX_KEY = "all_values_index_key";
+
+    /**
+     * The suffix added to the row key of a field value to get the key its index is stored under.
+     */
+    public static final String FIELD_INDEX_SUFFIX = "_index";
+
+    private static final TypeReference<Map<String, String>> ROW_TYPE = new TypeReference<Map<String, String>>() { };
+
+    private final int segmentSize;
+
+    /**
+     * Constructor, using the configured segment size (1000 values by default).
+     */
+    public SegmentedScanSearchProvider() {
+        this(SYSTEM_CONFIG.getIntProperty(SEGMENT_SIZE_KEY, DEFAULT_SEGMENT_SIZE));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param segmentSize  The number of values an index segment is split into once it grows past twice that size
+     */
+    public SegmentedScanSearchProvider(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public int getDimensionCardinality(boolean refresh) {
+        if (refresh) {
+            refreshCardinality();
+        }
+        return getDimensionCardinality();
+    }
+
+    @Override
+    public synchronized void clearDimension() {
+        //Remove all dimension data and field value indexes from the store.
+        Dimension dimension = getDimension();
+        Map<String, String> removals = new LinkedHashMap<>();
+        Set<String> fieldIndexKeys = new LinkedHashSet<>();
+        for (DimensionRow dimensionRow : getAllOrderedDimensionRows()) {
+            for (Map.Entry<DimensionField, String> entry : dimensionRow.entrySet()) {
+                if (entry.getKey().equals(dimension.getKey())) {
+                    removals.put(DimensionStoreKeyUtils.getRowKey(entry.getKey().getName(), entry.getValue()), null);
+                } else {
+                    fieldIndexKeys.add(fieldIndexKey(entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+        fieldIndexKeys.forEach(fieldIndexKey -> index(fieldIndexKey).clear());
+        //Since the indices are being dropped, the dimension field stored via the columnKey is becoming stale.
+        removals.put(DimensionStoreKeyUtils.getColumnKey(dimension.getKey().getName()), null);
+        //We're resetting the keyValueStore, so we don't want any stale last updated date floating around.
+        removals.put(DimensionStoreKeyUtils.getLastUpdatedKey(), null);
+        getKeyValueStore().putAll(removals);
+        keyIndex().clear();
+
+        refreshCardinality();
+    }
+
+    @Override
+    public void refreshIndex(String rowId, DimensionRow dimensionRow, DimensionRow dimensionRowOld) {
+        refreshIndex(Collections.singletonMap(rowId, new Pair<>(dimensionRow, dimensionRowOld)));
+    }
+
+    /**
+     * Updates the indexes for a batch of changed rows.
+     * <p>
+     * The changes are grouped by index first, so each index is read and written once per batch.
+     *
+     * @param changedRows  Collection of rowIds mapped to a pair of the new dimension row and the old dimension row
+     */
+    @Override
+    public synchronized void refreshIndex(Map<String, Pair<DimensionRow, DimensionRow>> changedRows) {
+        if (changedRows.isEmpty()) {
+            return;
+        }
+        Dimension dimension = getDimension();
+        IndexChanges keys = new IndexChanges();
+        Map<String, IndexChanges> fieldValues = new LinkedHashMap<>();
+        for (Map.Entry<String, Pair<DimensionRow, DimensionRow>> changedRow : changedRows.entrySet()) {
+            String rowId = changedRow.getKey();
+            DimensionRow newRow = changedRow.getValue().getKey();
+            DimensionRow oldRow = changedRow.getValue().getValue();
+
+            if (oldRow != null && !oldRow.getKeyValue().equals(newRow.getKeyValue())) {
+                keys.removed.add(oldRow.getKeyValue());
+            }
+            keys.added.add(newRow.getKeyValue());
+
+            for (DimensionField field : dimension.getDimensionFields()) {
+                // skip key field
+                if (field.equals(dimension.getKey())) {
+                    continue;
+                }
+                if (oldRow != null) {
+                    changesOf(fieldValues, field, oldRow.get(field)).removed.add(rowId);
+                }
+                changesOf(fieldValues, field, newRow.get(field)).added.add(rowId);
+            }
+        }
+
+        SegmentedKeyIndex keyIndex = keyIndex();
+        keyIndex.update(keys.added, keys.removed);
+        for (Map.Entry<String, IndexChanges> changes : fieldValues.entrySet()) {
+            IndexChanges fieldValueChanges = changes.getValue();
+            // A row whose value didn't change is both removed from and added to the index of the value
+            fieldValueChanges.removed.removeAll(fieldValueChanges.added);
+            index(changes.getKey()).update(fieldValueChanges.added, fieldValueChanges.removed);
+        }
+        getKeyValueStore().put(DimensionStoreKeyUtils.getCardinalityKey(), Integer.toString(keyIndex.size()));
+    }
+
+    @Override
+    public Pagination<DimensionRow> findAllDimensionRowsPaged(PaginationParameters paginationParameters) {
+        SegmentedKeyIndex keyIndex = keyIndex();
+        int size = keyIndex.size();
+        long offset = (long) (paginationParameters.getPage(size) - 1) * paginationParameters.getPerPage();
+        List<String> keyValues = keyIndex.get(offset, paginationParameters.getPerPage());
+        return new SinglePagePagination<>(
+                Collections.unmodifiableList(new ArrayList<>(readRows(keyValues))),
+                paginationParameters,
+                size
+        );
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If one of the filters is an {@code in} or {@code eq} filter, only the rows it can match are read and filtered.
+     */
+    @Override
+    public Pagination<DimensionRow> findFilteredDimensionRowsPaged(
+            Set<ApiFilter> filters,
+            PaginationParameters paginationParameters
+    ) {
+        Optional<Collection<String>> candidateRowKeys = findCandidateRowKeys(filters);
+        if (!candidateRowKeys.isPresent()) {
+            return super.findFilteredDimensionRowsPaged(filters, paginationParameters);
+        }
+        TreeSet<DimensionRow> filteredRows = CompiledDimensionRowFilter.compile(filters)
+                .filter(new TreeSet<>(readRowsByRowKey(candidateRowKeys.get())));
+        int perPage = paginationParameters.getPerPage();
+        return new SinglePagePagination<>(
+                filteredRows.stream()
+                        .skip((long) (paginationParameters.getPage(filteredRows.size()) - 1) * perPage)
+                        .limit(perPage)
+                        .collect(Collectors.toList()),
+                paginationParameters,
+                filteredRows.size()
+        );
+    }
+
+    @Override
+    protected TreeSet<DimensionRow> getAllOrderedDimensionRows() {
+        return new TreeSet<>(readRows(keyIndex().getAll()));
+    }
+
+    /**
+     * Finds the row keys of the rows an {@code in} or {@code eq} filter among the filters can match, using the key
+     * values of a filter on the key field directly, and the field value indexes for a filter on another field.
+     * <p>
+     * Row keys and index keys ignore case unless case sensitive keys are enabled, so the rows found may include rows
+     * the filters don't match, and still need to be filtered.
+     *
+     * @param filters  The filters of a search
+     *
+     * @return the row keys of the rows the filters can match, or empty if none of the filters narrows the rows down
+     */
+    private Optional<Collection<String>> findCandidateRowKeys(Set<ApiFilter> filters) {
+        Optional<ApiFilter> inFilter = filters.stream()
+                .filter(filter -> filter.getOperation() == DefaultFilterOperation.in ||
+                        filter.getOperation() == DefaultFilterOperation.eq)
+                .min(Comparator.comparingInt(filter -> filter.getValues().size()));
+        if (!inFilter.isPresent()) {
+            return Optional.empty();
+        }
+        DimensionField field = inFilter.get().getDimensionField();
+        Set<String> rowKeys = new LinkedHashSet<>();
+        for (String value : inFilter.get().getValues()) {
+            if (field.equals(getDimension().getKey())) {
+                rowKeys.add(DimensionStoreKeyUtils.getRowKey(field.getName(), value));
+            } else {
+                rowKeys.addAll(index(fieldIndexKey(field, value)).getAll());
+            }
+        }
+        return Optional.of(rowKeys);
+    }
+
+    /**
+     * Reads the rows with the given key values from the KeyValueStore, in a single batch.
+     *
+     * @param keyValues  The key values of the rows to read
+     *
+     * @return the rows that are stored, in the order of their key values
+     */
+    private List<DimensionRow> readRows(List<String> keyValues) {
+        String keyName = getDimension().getKey().getName();
+        return readRowsByRowKey(keyValues.stream()
+                .map(keyValue -> DimensionStoreKeyUtils.getRowKey(keyName, keyValue))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Reads the rows with the given row keys from the KeyValueStore, in a single batch.
+     *
+     * @param rowKeys  The keys the rows are stored under
+     *
+     * @return the rows that are stored, in the order of their row keys
+     */
+    private List<DimensionRow> readRowsByRowKey(Collection<String> rowKeys) {
+        Map<String, String> rows = rowKeys.isEmpty() ?
+                Collections.emptyMap() :
+                getKeyValueStore().getAll(rowKeys);
+
+        List<DimensionRow> dimensionRows = new ArrayList<>(rows.size());
+        try {
+            for (String rowKey : rowKeys) {
+                String row = rows.get(rowKey);
+                if (row != null) {
+                    dimensionRows.add(getDimension().parseDimensionRow(getObjectMapper().readValue(row, ROW_TYPE)));
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Exception while reading dimension rows {}", e);
+            throw new RuntimeException(e);
+        }
+        return dimensionRows;
+    }
+
+    /**
+     * Update the cardinality count.
+     */
+    private void refreshCardinality() {
+        getKeyValueStore().put(DimensionStoreKeyUtils.getCardinalityKey(), Integer.toString(keyIndex().size()));
+    }
+
+    /**
+     * Get the index of the key values of the dimension.
+     *
+     * @return the key index
+     */
+    private SegmentedKeyIndex keyIndex() {
+        return index(ALL_VALUES_INDEX_KEY);
+    }
+
+    /**
+     * Get an index stored in the KeyValueStore of this provider.
+     *
+     * @param baseKey  The key the index is stored under
+     *
+     * @return the index
+     */
+    private SegmentedKeyIndex index(String baseKey) {
+        return new SegmentedKeyIndex(getKeyValueStore(), baseKey, segmentSize, getObjectMapper());
+    }
+
+    /**
+     * Get the key the index of the rows with a value of a non-key field is stored under.
+     *
+     * @param field  The field
+     * @param value  The value
+     *
+     * @return the key of the index of the field value
+     */
+    private static String fieldIndexKey(DimensionField field, String value) {
+        return DimensionStoreKeyUtils.getRowKey(field.getName(), value) + FIELD_INDEX_SUFFIX;
+    }
+
+    /**
+     * Get the changes to the index of the rows with a value of a non-key field, adding them if there aren't any yet.
+     *
+     * @param fieldValues  The changes to the field value indexes, by index key
+     * @param field  The field
+     * @param value  The value
+     *
+     * @return the changes to the index of the field value
+     */
+    private static IndexChanges changesOf(Map<String, IndexChanges> fieldValues, DimensionField field, String value) {
+        return fieldValues.computeIfAbsent(fieldIndexKey(field, value), ignored -> new IndexChanges());
+    }
+
+    /**
+     * The values added to and removed from an index by a batch of rows.
+     */
+    static class IndexChanges {
+        private final Set<String> added = new HashSet<>();
+        private final Set<String> removed = new HashSet<>();
+    }
+}
@@ -0,0 +1,42 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Segmented scan search provider instances factory.
+ */
+
+public class SegmentedScanSearchProviderManager {
+    private static Map<String, SegmentedScanSearchProvider> segmentedProviders = new HashMap<>();
+
+    /**
+     * Get instance pointing to a search provider This method makes sure that there just one instance of search provider
+     * for a given dimension.
+     *
+     * @param providerName name unique identifier for search provider instances
+     *
+     * @return The search provider instance
+     */
+    public static synchronized SegmentedScanSearchProvider getInstance(String providerName) {
+        SegmentedScanSearchProvider segmentedProvider = segmentedProviders.get(providerName);
+
+        if (segmentedProvider == null) {
+            segmentedProvider = new SegmentedScanSearchProvider();
+            segmentedProviders.put(providerName, segmentedProvider);
+        }
+
+        return segmentedProvider;
+    }
+
+    /**
+     * Cleanup the existing instance.
+     *
+     * @param providerName The name of the provider
+     */
+    public static synchronized void removeInstance(String providerName) {
+        segmentedProviders.remove(providerName);
+    }
+}
@@ -11,7 +11,10 @@ import org.slf4j.LoggerFactory;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Helper to fetch druid url and timeout settings.
@@ -33,6 +36,12 @@ public class DruidClientConfigHelper {
     public static final String DRUID_BROKER_URL_KEY =
             SYSTEM_CONFIG.getPackageVariableName("druid_broker");
 
+    /**
+     * The urls of the individual brokers to spread queries over, in place of the broker vip.
+     */
+    public static final String DRUID_BROKER_URLS_KEY =
+            SYSTEM_CONFIG.getPackageVariableName("druid_brokers");
+
     /**
      * The url for the coordinator vip which serves low latency queries.
      */
@@ -98,6 +107,19 @@ public class DruidClientConfigHelper {
         return new DruidServiceConfig("Broker", getDruidUrl(), getDruidTimeout(), getDruidPriority());
     }
 
+    /**
+     * Create a druid service configuration object for each of the individual brokers, if any are configured.
+     *
+     * @return the configuration objects of the brokers, empty if queries go to the broker vip
+     */
+    public static List<DruidServiceConfig> getBrokerServiceConfigs() {
+        List<String> urls = SYSTEM_CONFIG.getListProperty(DRUID_BROKER_URLS_KEY, Collections.emptyList());
+        urls.forEach(DruidClientConfigHelper::validateUrl);
+        return urls.stream()
+                .map(url -> new DruidServiceConfig("Broker", url, getDruidTimeout(), getDruidPriority()))
+                .collect(Collectors.toList());
+    }
+
     /**
      * Create a druid service configuration object for the metadata service.
      *
@@ -33,6 +33,32 @@ public interface DruidWebService {
             DruidQuery<?> query
     );
 
+    /**
+     * Cancels the Druid queries of a request whose responses haven't arrived yet, so their responses are dropped.
+     * <p>
+     * Web services that track queries apart from the context of the request should override this.
+     *
+     * @param context  The context of the request whose queries are cancelled
+     */
+    default void cancelDruidQueries(RequestContext context) {
+        context.getDruidQueriesInFlight().keySet().forEach(druidQueryId -> cancelDruidQuery(context, druidQueryId));
+    }
+
+    /**
+     * Cancels one of the Druid queries of a request if its response hasn't arrived yet, so its response is dropped.
+     * <p>
+     * Web services that track queries apart from the context of the request should override this.
+     *
+     * @param context  The context of the request whose query is cancelled
+     * @param druidQueryId  The id of the Druid query to cancel
+     */
+    default void cancelDruidQuery(RequestContext context, String druidQueryId) {
+        Future<?> response = context.getDruidQueriesInFlight().get(druidQueryId);
+        if (response != null) {
+            response.cancel(true);
+        }
+    }
+
     /**
      * Invokes GET on the druid broker with a callback expecting a JSON Object on success.
      *
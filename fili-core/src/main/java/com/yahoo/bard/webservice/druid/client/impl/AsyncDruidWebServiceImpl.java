@@ -24,12 +24,14 @@ import com.yahoo.bard.webservice.web.handlers.RequestContext;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MappingJsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 import org.asynchttpclient.AsyncCompletionHandler;
 import org.asynchttpclient.AsyncHttpClient;
@@ -37,18 +39,27 @@ import org.asynchttpclient.AsyncHttpClientConfig;
 import org.asynchttpclient.BoundRequestBuilder;
 import org.asynchttpclient.DefaultAsyncHttpClient;
 import org.asynchttpclient.DefaultAsyncHttpClientConfig;
+import org.asynchttpclient.ListenableFuture;
 import org.asynchttpclient.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 import javax.ws.rs.core.Response.Status;
 
@@ -77,12 +88,108 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
             "org.asynchttpclient.AsyncHttpClientConfig.enabledCipherSuites"
     );
 
+    /**
+     * The most connections open at once to all hosts, and to each host, -1 for no limit.
+     */
+    private static final String MAX_CONNECTIONS_KEY = SYSTEM_CONFIG.getPackageVariableName("druid_max_connections");
+    private static final String MAX_CONNECTIONS_PER_HOST_KEY = SYSTEM_CONFIG.getPackageVariableName(
+            "druid_max_connections_per_host"
+    );
+
+    /**
+     * Whether connections are kept open to be reused once their response has been read.
+     */
+    private static final String KEEP_ALIVE_KEY = SYSTEM_CONFIG.getPackageVariableName("druid_keep_alive");
+
+    /**
+     * How long a connection may be reused for, and may stay idle in the pool, in milliseconds. Both default to the
+     * request timeout.
+     */
+    private static final String CONNECTION_TTL_KEY = SYSTEM_CONFIG.getPackageVariableName("druid_connection_ttl");
+    private static final String CONNECTION_IDLE_TIMEOUT_KEY = SYSTEM_CONFIG.getPackageVariableName(
+            "druid_connection_idle_timeout"
+    );
+
+    /**
+     * The number of Netty event loop threads reading the responses, 0 for twice the number of processors.
+     */
+    private static final String IO_THREADS_KEY = SYSTEM_CONFIG.getPackageVariableName("druid_io_threads");
+
+    /**
+     * The size of the parts the bodies of the responses are buffered in, in bytes.
+     */
+    private static final String RESPONSE_CHUNK_SIZE_KEY = SYSTEM_CONFIG.getPackageVariableName(
+            "druid_response_chunk_size"
+    );
+
+    /**
+     * The number of connections to each Druid service opened at startup, so the first queries do not pay for them.
+     */
+    public static final int PREWARM_CONNECTIONS = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_prewarm_connections"),
+            0
+    );
+
+    /**
+     * Whether Druid is asked to compress its responses, which are decompressed chunk by chunk as they arrive.
+     */
+    private static final String RESPONSE_COMPRESSION_KEY = SYSTEM_CONFIG.getPackageVariableName(
+            "druid_response_compression"
+    );
+
+    /**
+     * The smallest query, in bytes, whose request body is gzip compressed, -1 to never compress requests.
+     */
+    public static final int REQUEST_COMPRESSION_MIN_BYTES = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_request_compression_min_bytes"),
+            -1
+    );
+
+    /**
+     * The content type of Smile, the binary JSON format Druid can answer queries in.
+     */
+    public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+
+    /**
+     * Whether Druid is asked to answer queries in Smile rather than JSON, which is smaller and faster to parse.
+     */
+    public static final boolean SMILE_RESPONSES = "smile".equalsIgnoreCase(
+            SYSTEM_CONFIG.getStringProperty(SYSTEM_CONFIG.getPackageVariableName("druid_response_format"), "json")
+    );
+
+    /**
+     * Druid queries cancelled because nobody waits for their responses anymore, which are also deleted from Druid.
+     */
+    public static final String CANCELLED_QUERIES = "druid.queries.cancelled";
+
+    /**
+     * Druid queries whose responses took too long to arrive, which are also deleted from Druid.
+     */
+    public static final String TIMED_OUT_QUERIES = "druid.queries.timed.out";
+
+    /**
+     * The suffix of the key of a weight check query in the queries in flight of its request.
+     */
+    public static final String WEIGHT_QUERY_SUFFIX = "-weight";
+
+    private static final Meter CANCELLED_QUERIES_METER = REGISTRY.meter(CANCELLED_QUERIES);
+    private static final Meter TIMED_OUT_QUERIES_METER = REGISTRY.meter(TIMED_OUT_QUERIES);
+
+    private static final JsonFactory JSON_FACTORY = new MappingJsonFactory();
+    private static final JsonFactory SMILE_FACTORY = new ObjectMapper(new SmileFactory()).getFactory();
+
     /**
      * The default JSON builder puts only response body in the JSON response.
+     * <p>
+     * The body is parsed as Smile if that is its content type, and as JSON otherwise.
      */
     public static final Function<Response, JsonNode> DEFAULT_JSON_NODE_BUILDER_STRATEGY =
             response -> {
-        try (JsonParser parser = new MappingJsonFactory().createParser(response.getResponseBodyAsStream())) {
+        String contentType = response.getContentType();
+        JsonFactory factory = contentType != null && contentType.startsWith(SMILE_CONTENT_TYPE) ?
+                SMILE_FACTORY :
+                JSON_FACTORY;
+        try (JsonParser parser = factory.createParser(response.getResponseBodyAsStream())) {
             return parser.readValueAsTree();
         } catch (IOException ioe) {
             throw new IllegalStateException(ioe);
@@ -226,6 +333,7 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
         LOG.info("Configured with druid server config: {}", config);
         this.headersToAppend = headersToAppend;
         this.webClient = asyncHttpClient;
+        MeteredAsyncCompletionHandler.monitorConnections(asyncHttpClient);
         this.writer = mapper.writer();
         this.httpErrorMeter = REGISTRY.meter("druid.errors.http");
         this.exceptionMeter = REGISTRY.meter("druid.errors.exceptions");
@@ -248,13 +356,22 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
                 null
                 : cipherSuites.toArray(new String[cipherSuites.size()]);
 
+        int connectionTtl = SYSTEM_CONFIG.getIntProperty(CONNECTION_TTL_KEY, requestTimeout);
+        int connectionIdleTimeout = SYSTEM_CONFIG.getIntProperty(CONNECTION_IDLE_TIMEOUT_KEY, requestTimeout);
+
         // Build the configuration
         AsyncHttpClientConfig config = new DefaultAsyncHttpClientConfig.Builder()
                 .setReadTimeout(requestTimeout)
                 .setRequestTimeout(requestTimeout)
                 .setConnectTimeout(requestTimeout)
-                .setConnectionTtl(requestTimeout)
-                .setPooledConnectionIdleTimeout(requestTimeout)
+                .setConnectionTtl(connectionTtl)
+                .setPooledConnectionIdleTimeout(connectionIdleTimeout)
+                .setMaxConnections(SYSTEM_CONFIG.getIntProperty(MAX_CONNECTIONS_KEY, -1))
+                .setMaxConnectionsPerHost(SYSTEM_CONFIG.getIntProperty(MAX_CONNECTIONS_PER_HOST_KEY, -1))
+                .setKeepAlive(SYSTEM_CONFIG.getBooleanProperty(KEEP_ALIVE_KEY, true))
+                .setIoThreadsCount(SYSTEM_CONFIG.getIntProperty(IO_THREADS_KEY, 0))
+                .setHttpClientCodecMaxChunkSize(SYSTEM_CONFIG.getIntProperty(RESPONSE_CHUNK_SIZE_KEY, 8192))
+                .setCompressionEnforced(SYSTEM_CONFIG.getBooleanProperty(RESPONSE_COMPRESSION_KEY, false))
                 .setEnabledCipherSuites(enabledCipherSuites)
                 .setFollowRedirect(true)
                 .build();
@@ -286,41 +403,45 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
         RequestLog.startTiming(timerName);
         final RequestLog logCtx = RequestLog.dump();
         try {
-            return requestBuilder.execute(
-                new AsyncCompletionHandler<Response>() {
-                    @Override
-                    public Response onCompleted(Response response) {
-                        String druidQueryId = response.getHeader("X-Druid-Query-Id");
-                        Status status = Status.fromStatusCode(response.getStatusCode());
-                        logRequest(logCtx, timerName, outstanding, druidQueryId, status);
-
-                        if (hasError(status)) {
-                            markError(status, response, druidQueryId, error);
-                        } else {
-                            try {
-                                success.invoke(jsonNodeBuilderStrategy.apply(response));
-                            } catch (RuntimeException e) {
-                                failure.invoke(e);
-                            }
-
+            return new MeteredAsyncCompletionHandler() {
+                @Override
+                public Response onCompleted(Response response) {
+                    String druidQueryId = response.getHeader("X-Druid-Query-Id");
+                    Status status = Status.fromStatusCode(response.getStatusCode());
+                    logRequest(logCtx, timerName, outstanding, druidQueryId, status);
+
+                    if (hasError(status)) {
+                        markError(status, response, druidQueryId, error);
+                    } else {
+                        try {
+                            success.invoke(jsonNodeBuilderStrategy.apply(response));
+                        } catch (RuntimeException e) {
+                            failure.invoke(e);
                         }
 
-                        // we consumed this response, so pass null to any chains
-                        return null;
                     }
 
-                    @Override
-                    public void onThrowable(Throwable t) {
-                        RequestLog.restore(logCtx);
-                        RequestLog.stopTiming(timerName);
-                        if (outstanding.decrementAndGet() == 0) {
-                            RequestLog.startTiming(RESPONSE_WORKFLOW_TIMER);
-                        }
+                    // we consumed this response, so pass null to any chains
+                    return null;
+                }
+
+                @Override
+                public void onThrowable(Throwable t) {
+                    RequestLog.restore(logCtx);
+                    RequestLog.stopTiming(timerName);
+                    if (outstanding.decrementAndGet() == 0) {
+                        RequestLog.startTiming(RESPONSE_WORKFLOW_TIMER);
+                    }
+                    if (t instanceof CancellationException) {
+                        // The request was cancelled on purpose, so there's nothing to report
+                        LOG.debug("druid {} request cancelled", serviceConfig.getNameAndUrl());
+                    } else {
                         exceptionMeter.mark();
                         LOG.error("druid {} request failed:", serviceConfig.getNameAndUrl(), t);
-                        failure.invoke(t);
                     }
-                });
+                    failure.invoke(t);
+                }
+            }.execute(requestBuilder);
         } catch (RuntimeException t) {
             RequestLog.restore(logCtx);
             RequestLog.stopTiming(timerName);
@@ -333,6 +454,17 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
         }
     }
 
+    /**
+     * Counts a data query of a request as sent, and stops timing the request workflow once every data query was.
+     *
+     * @param context  The context of the request
+     */
+    private static void queryOutgoing(RequestContext context) {
+        if (context.getNumberOfOutgoing().decrementAndGet() == 0) {
+            RequestLog.stopTiming(REQUEST_WORKFLOW_TIMER);
+        }
+    }
+
     @Override
     public Future<Response> getJsonObject(
             SuccessCallback success,
@@ -363,13 +495,31 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
             FailureCallback failure,
             DruidQuery<?> druidQuery
     ) {
+        boolean tracked = context != null && !(druidQuery instanceof WeightEvaluationQuery);
+        if (context != null && context.isCancelled()) {
+            // Nobody waits for the response to the request anymore, so its remaining queries aren't sent
+            CancellationException cancelled = new CancellationException(
+                    "Druid query " + druidQuery.getContext().getQueryId() + " was cancelled"
+            );
+            if (tracked) {
+                // The query is accounted for as if it had been sent and had failed
+                queryOutgoing(context);
+                if (context.getNumberOfIncoming().decrementAndGet() == 0) {
+                    RequestLog.startTiming(RESPONSE_WORKFLOW_TIMER);
+                }
+            }
+            failure.invoke(cancelled);
+            return CompletedFuture.throwing(cancelled);
+        }
+
         long seqNum = druidQuery.getContext().getSequenceNumber();
-        String entityBody;
+        byte[] body;
         RequestLog.startTiming("DruidQuerySerializationSeq" + seqNum);
         try {
-            entityBody = writer.writeValueAsString(druidQuery);
-        } catch (JsonProcessingException e) {
-            throw new IllegalStateException(e);
+            // A query sent again, such as a hedged copy, reuses the bytes it was first sent with
+            body = context == null ?
+                    serialize(druidQuery) :
+                    context.getSerializedDruidQuery(druidQuery, this::serialize);
         } finally {
             RequestLog.stopTiming("DruidQuerySerializationSeq" + seqNum);
         }
@@ -379,32 +529,211 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
         String timerName;
         AtomicLong outstanding;
 
-        if (!(druidQuery instanceof WeightEvaluationQuery)) {
-            if (context.getNumberOfOutgoing().decrementAndGet() == 0) {
-                RequestLog.stopTiming(REQUEST_WORKFLOW_TIMER);
-            }
-            outstanding = context.getNumberOfIncoming();
-            timerName = DRUID_QUERY_TIMER + String.format(format, seqNum);
-        } else {
+        if (druidQuery instanceof WeightEvaluationQuery) {
             outstanding = new AtomicLong(0);
             timerName = DRUID_WEIGHTED_QUERY_TIMER + String.format(format, seqNum);
+        } else {
+            // Without a request context there is no request workflow to time
+            outstanding = tracked ? context.getNumberOfIncoming() : new AtomicLong(0);
+            if (tracked) {
+                queryOutgoing(context);
+            }
+            timerName = DRUID_QUERY_TIMER + String.format(format, seqNum);
         }
 
         BoundRequestBuilder requestBuilder = webClient.preparePost(serviceConfig.getUrl())
-                .setBody(entityBody)
                 .addHeader("Content-Type", "application/json; charset=UTF-8");
+        if (REQUEST_COMPRESSION_MIN_BYTES >= 0 && body.length >= REQUEST_COMPRESSION_MIN_BYTES) {
+            requestBuilder.setBody(gzip(body)).addHeader("Content-Encoding", "gzip");
+        } else {
+            requestBuilder.setBody(body);
+        }
+        if (SMILE_RESPONSES) {
+            requestBuilder.addHeader("Accept", SMILE_CONTENT_TYPE);
+        }
 
         headersToAppend.get().forEach(requestBuilder::addHeader);
 
-        LOG.debug("druid json request: {}", entityBody);
-        return sendRequest(
-                success,
-                error,
-                failure,
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("druid json request: {}", new String(body, StandardCharsets.UTF_8));
+        }
+        if (context == null) {
+            return sendRequest(success, error, failure, requestBuilder, timerName, outstanding);
+        }
+
+        String druidQueryId = druidQuery.getContext().getQueryId();
+        // A weight check may share the id of its data query, so it is tracked apart from it
+        String key = druidQuery instanceof WeightEvaluationQuery ? druidQueryId + WEIGHT_QUERY_SUFFIX : druidQueryId;
+        // The query is forgotten before its callbacks run, so that cancelling the request from them doesn't cancel it
+        AtomicReference<Future<Response>> sent = new AtomicReference<>();
+        Runnable answered = () -> {
+            Future<Response> inFlight = sent.get();
+            if (inFlight != null) {
+                context.removeDruidQueryInFlight(key, inFlight);
+            }
+        };
+        Future<Response> response = sendRequest(
+                jsonResponse -> {
+                    answered.run();
+                    context.removeSerializedDruidQuery(druidQuery);
+                    success.invoke(jsonResponse);
+                },
+                (statusCode, reasonPhrase, responseBody) -> {
+                    answered.run();
+                    context.removeSerializedDruidQuery(druidQuery);
+                    error.invoke(statusCode, reasonPhrase, responseBody);
+                },
+                throwable -> {
+                    answered.run();
+                    context.removeSerializedDruidQuery(druidQuery);
+                    failure.invoke(throwable);
+                },
                 requestBuilder,
                 timerName,
                 outstanding
         );
+        sent.set(response);
+        trackQueryInFlight(context, key, druidQueryId, response);
+        return response;
+    }
+
+    /**
+     * Serialize a query straight to the UTF-8 bytes of its JSON, through the recycled buffers of the writer, without
+     * building it as a String first.
+     *
+     * @param druidQuery  The query to serialize
+     *
+     * @return the serialized query
+     */
+    protected byte[] serialize(DruidQuery<?> druidQuery) {
+        try {
+            return writer.writeValueAsBytes(druidQuery);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compress the body of a request.
+     *
+     * @param body  The body to compress
+     *
+     * @return the gzip compressed body
+     */
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(body);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Remembers a query in the context of its request until its response arrives, so it can be cancelled.
+     * <p>
+     * If the query is cancelled, or its response doesn't arrive in time, it is also deleted from the broker through the
+     * Druid query cancellation API, so that Druid stops running it.
+     *
+     * @param context  The context of the request
+     * @param key  The key of the query in the queries in flight of the request
+     * @param druidQueryId  The id of the Druid query
+     * @param response  The future response to the query
+     */
+    private void trackQueryInFlight(
+            RequestContext context,
+            String key,
+            String druidQueryId,
+            Future<Response> response
+    ) {
+        if (!(response instanceof ListenableFuture)) {
+            return;
+        }
+        context.addDruidQueryInFlight(key, response);
+        ((ListenableFuture<Response>) response).addListener(
+                () -> {
+                    context.removeDruidQueryInFlight(key, response);
+                    if (response.isCancelled()) {
+                        CANCELLED_QUERIES_METER.mark();
+                        deleteDruidQuery(druidQueryId);
+                    } else if (isTimedOut(response)) {
+                        TIMED_OUT_QUERIES_METER.mark();
+                        deleteDruidQuery(druidQueryId);
+                    }
+                },
+                Runnable::run
+        );
+    }
+
+    /**
+     * Determine if a completed request failed because its response didn't arrive in time.
+     *
+     * @param response  The completed future response
+     *
+     * @return true if the request timed out
+     */
+    private static boolean isTimedOut(Future<Response> response) {
+        try {
+            response.get();
+            return false;
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof TimeoutException;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Asks the broker to stop running a query, through the Druid query cancellation API.
+     *
+     * @param druidQueryId  The id of the Druid query
+     */
+    private void deleteDruidQuery(String druidQueryId) {
+        String url = serviceConfig.getUrl().endsWith("/") ? serviceConfig.getUrl() : serviceConfig.getUrl() + "/";
+        BoundRequestBuilder requestBuilder = webClient.prepareDelete(url + druidQueryId);
+        headersToAppend.get().forEach(requestBuilder::addHeader);
+        requestBuilder.execute(new AsyncCompletionHandler<Response>() {
+            @Override
+            public Response onCompleted(Response response) {
+                LOG.debug("druid query {} cancelled: {}", druidQueryId, response.getStatusCode());
+                return null;
+            }
+
+            @Override
+            public void onThrowable(Throwable t) {
+                LOG.warn("druid query {} could not be cancelled", druidQueryId, t);
+            }
+        });
+    }
+
+    /**
+     * Opens connections to the Druid service ahead of its first queries, by sending it concurrent status requests.
+     * <p>
+     * The connections are kept in the pool once the requests complete, for as long as the connection idle timeout.
+     *
+     * @param connections  The number of connections to open
+     */
+    public void prewarmConnections(int connections) {
+        String url = URI.create(serviceConfig.getUrl()).resolve("/status").toString();
+        LOG.info("Opening {} connections to druid {}", connections, serviceConfig.getNameAndUrl());
+        for (int i = 0; i < connections; i++) {
+            BoundRequestBuilder requestBuilder = webClient.prepareGet(url);
+            headersToAppend.get().forEach(requestBuilder::addHeader);
+            new MeteredAsyncCompletionHandler() {
+                @Override
+                public Response onCompleted(Response response) {
+                    LOG.debug("druid {} status: {}", serviceConfig.getNameAndUrl(), response.getStatusCode());
+                    return null;
+                }
+
+                @Override
+                public void onThrowable(Throwable t) {
+                    LOG.warn("Could not open a connection to druid {}", serviceConfig.getNameAndUrl(), t);
+                }
+            }.execute(requestBuilder);
+        }
     }
 
     @Override
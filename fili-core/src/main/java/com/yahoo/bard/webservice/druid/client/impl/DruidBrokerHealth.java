@@ -0,0 +1,88 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the load and health of a single Druid broker from the outcomes of the requests sent to it.
+ * <p>
+ * A broker is ejected for a while after a run of consecutive failures, and is tried again once the ejection expires.
+ */
+public class DruidBrokerHealth {
+
+    // The weight of the latest latency in the moving average of the latencies
+    private static final double LATENCY_DECAY = 0.2;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long ejectedUntil;
+    private double latencyAverage;
+
+    /**
+     * Records that a request was sent to the broker.
+     */
+    public void requestSent() {
+        outstanding.incrementAndGet();
+    }
+
+    /**
+     * Records that the broker answered a request.
+     *
+     * @param latencyMillis  The time the broker took to answer, in milliseconds
+     */
+    public void requestSucceeded(long latencyMillis) {
+        outstanding.decrementAndGet();
+        consecutiveFailures.set(0);
+        synchronized (this) {
+            latencyAverage = latencyAverage == 0 ?
+                    latencyMillis :
+                    latencyAverage + LATENCY_DECAY * (latencyMillis - latencyAverage);
+        }
+    }
+
+    /**
+     * Records that a request to the broker failed, ejecting the broker if it has failed too many times in a row.
+     *
+     * @param nowMillis  The current time, in milliseconds
+     * @param failuresToEject  The number of consecutive failures that eject the broker
+     * @param ejectionMillis  How long the broker is ejected for, in milliseconds
+     *
+     * @return true if this failure ejected the broker
+     */
+    public boolean requestFailed(long nowMillis, int failuresToEject, long ejectionMillis) {
+        outstanding.decrementAndGet();
+        if (consecutiveFailures.incrementAndGet() < failuresToEject) {
+            return false;
+        }
+        consecutiveFailures.set(0);
+        ejectedUntil = nowMillis + ejectionMillis;
+        return true;
+    }
+
+    /**
+     * Records that a request to the broker was cancelled before it was answered, which says nothing of its health.
+     */
+    public void requestCancelled() {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * Determine if the broker should be sent requests.
+     *
+     * @param nowMillis  The current time, in milliseconds
+     *
+     * @return true unless the broker is ejected
+     */
+    public boolean isHealthy(long nowMillis) {
+        return nowMillis >= ejectedUntil;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public synchronized double getLatencyAverage() {
+        return latencyAverage;
+    }
+}
@@ -0,0 +1,142 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl;
+
+import com.yahoo.bard.webservice.druid.client.DruidWebService;
+import com.yahoo.bard.webservice.druid.client.FailureCallback;
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
+import com.yahoo.bard.webservice.druid.client.SuccessCallback;
+import com.yahoo.bard.webservice.web.handlers.RequestContext;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Druid query sent to more than one broker, whose first answer is passed on and whose other attempts are cancelled.
+ * <p>
+ * A successful response answers the query as soon as it arrives. An error or failure only answers it once no other
+ * attempt is still pending, so a hedged attempt can still succeed where the first one failed.
+ */
+public class HedgedDruidQuery {
+
+    private final String druidQueryId;
+    private final SuccessCallback success;
+    private final HttpErrorCallback error;
+    private final FailureCallback failure;
+    private final AtomicBoolean answered = new AtomicBoolean();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final List<Pair<DruidWebService, RequestContext>> attempts = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param druidQueryId  The id of the Druid query
+     * @param success  The callback for the first successful response
+     * @param error  The callback for an http error, if no attempt succeeds
+     * @param failure  The callback for a failure, if no attempt succeeds
+     */
+    public HedgedDruidQuery(
+            String druidQueryId,
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure
+    ) {
+        this.druidQueryId = druidQueryId;
+        this.success = success;
+        this.error = error;
+        this.failure = failure;
+    }
+
+    /**
+     * Registers an attempt at the query, before it is sent.
+     *
+     * @param broker  The web service of the broker the attempt is sent to
+     * @param context  The context the attempt is sent with
+     *
+     * @return the number of the attempt, to get its callbacks with
+     */
+    public synchronized int addAttempt(DruidWebService broker, RequestContext context) {
+        pending.incrementAndGet();
+        attempts.add(Pair.of(broker, context));
+        return attempts.size() - 1;
+    }
+
+    /**
+     * Determine if the query has been answered, in which case no more attempts are needed.
+     *
+     * @return true if the query has been answered
+     */
+    public boolean isAnswered() {
+        return answered.get();
+    }
+
+    /**
+     * Get the callback for the successful response of an attempt.
+     *
+     * @param attempt  The number of the attempt
+     *
+     * @return the callback
+     */
+    public SuccessCallback getSuccessCallback(int attempt) {
+        return jsonResponse -> {
+            pending.decrementAndGet();
+            if (answered.compareAndSet(false, true)) {
+                cancelOtherAttempts(attempt);
+                success.invoke(jsonResponse);
+            }
+        };
+    }
+
+    /**
+     * Get the callback for an http error of an attempt.
+     *
+     * @param attempt  The number of the attempt
+     *
+     * @return the callback
+     */
+    public HttpErrorCallback getErrorCallback(int attempt) {
+        return (statusCode, reasonPhrase, responseBody) -> {
+            if (pending.decrementAndGet() == 0 && answered.compareAndSet(false, true)) {
+                error.invoke(statusCode, reasonPhrase, responseBody);
+            }
+        };
+    }
+
+    /**
+     * Get the callback for a failure of an attempt.
+     *
+     * @param attempt  The number of the attempt
+     *
+     * @return the callback
+     */
+    public FailureCallback getFailureCallback(int attempt) {
+        return throwable -> {
+            boolean lastAttempt = pending.decrementAndGet() == 0;
+            // Attempts cancelled because another one answered are expected to fail
+            if (throwable instanceof CancellationException && answered.get()) {
+                return;
+            }
+            if (lastAttempt && answered.compareAndSet(false, true)) {
+                failure.invoke(throwable);
+            }
+        };
+    }
+
+    /**
+     * Cancels every attempt but the one that answered the query.
+     *
+     * @param winner  The number of the attempt that answered the query
+     */
+    protected void cancelOtherAttempts(int winner) {
+        for (int i = 0; i < attempts.size(); i++) {
+            if (i != winner) {
+                attempts.get(i).getLeft().cancelDruidQuery(attempts.get(i).getRight(), druidQueryId);
+            }
+        }
+    }
+}
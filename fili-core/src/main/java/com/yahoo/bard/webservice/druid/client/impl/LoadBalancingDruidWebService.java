@@ -0,0 +1,485 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.application.TaskScheduler;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.druid.client.DruidServiceConfig;
+import com.yahoo.bard.webservice.druid.client.DruidWebService;
+import com.yahoo.bard.webservice.druid.client.FailureCallback;
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
+import com.yahoo.bard.webservice.druid.client.SuccessCallback;
+import com.yahoo.bard.webservice.druid.model.datasource.DataSource;
+import com.yahoo.bard.webservice.druid.model.query.DruidQuery;
+import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery;
+import com.yahoo.bard.webservice.logging.RequestLog;
+import com.yahoo.bard.webservice.web.handlers.RequestContext;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.SlidingWindowReservoir;
+
+import org.asynchttpclient.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Druid web service that spreads queries over several brokers, each reached through its own web service.
+ * <ul>
+ *     <li>Each query goes to the healthy broker with the fewest requests outstanding, or with the lowest average
+ * latency weighted by its requests outstanding, depending on the {@link BrokerSelection}.
+ *     <li>Brokers are ejected for a while after a run of consecutive failures, and are tried again afterwards. If every
+ * broker is ejected, they are all tried.
+ *     <li>When hedging is enabled, a data query that has not been answered after a percentile of the recent latencies
+ * of its table is also sent to a second broker. The first response is used and the other query is cancelled.
+ * </ul>
+ */
+public class LoadBalancingDruidWebService implements DruidWebService {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadBalancingDruidWebService.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * How the broker for a query is chosen among the healthy brokers.
+     */
+    public enum BrokerSelection {
+        LEAST_OUTSTANDING,
+        LOWEST_LATENCY
+    }
+
+    public static final BrokerSelection DEFAULT_BROKER_SELECTION = BrokerSelection.valueOf(
+            SYSTEM_CONFIG.getStringProperty(
+                    SYSTEM_CONFIG.getPackageVariableName("druid_broker_selection"),
+                    BrokerSelection.LEAST_OUTSTANDING.name()
+            ).toUpperCase(Locale.ENGLISH)
+    );
+
+    /**
+     * The number of consecutive failures of a broker that eject it.
+     */
+    public static final int DEFAULT_FAILURES_TO_EJECT = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_broker_failures_to_eject"),
+            5
+    );
+
+    /**
+     * How long an ejected broker is sent no queries, in milliseconds.
+     */
+    public static final long DEFAULT_EJECTION_MILLIS = SYSTEM_CONFIG.getLongProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_broker_ejection_millis"),
+            30000
+    );
+
+    /**
+     * The percentile of the latencies of a table after which its queries are hedged, 0 to disable hedging.
+     */
+    public static final double DEFAULT_HEDGE_PERCENTILE = SYSTEM_CONFIG.getDoubleProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_hedge_latency_percentile"),
+            0
+    );
+
+    // The number of latencies of a table kept, and needed before its queries are hedged
+    private static final int LATENCY_SAMPLES = 1024;
+    private static final int MIN_LATENCY_SAMPLES = 100;
+
+    public static final Meter EJECTIONS = MetricRegistryFactory.getRegistry().meter("druid.broker.ejections");
+    public static final Meter HEDGED_QUERIES = MetricRegistryFactory.getRegistry().meter("druid.queries.hedged");
+
+    private final DruidServiceConfig serviceConfig;
+    private final List<DruidWebService> brokers;
+    private final List<DruidBrokerHealth> brokerHealth;
+    private final BrokerSelection brokerSelection;
+    private final int failuresToEject;
+    private final long ejectionMillis;
+    private final double hedgePercentile;
+    private final ScheduledExecutorService hedgeScheduler;
+
+    private final AtomicInteger nextBroker = new AtomicInteger();
+    private final Map<String, Histogram> tableLatencies = new ConcurrentHashMap<>();
+    private final Map<String, DruidWebService> queryBrokers = new ConcurrentHashMap<>();
+    private final Map<String, HedgedDruidQuery> hedgedQueries = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param serviceConfig  The configuration of the service as a whole
+     * @param brokers  The web services of each of the brokers
+     * @param brokerSelection  How the broker for a query is chosen
+     * @param failuresToEject  The number of consecutive failures of a broker that eject it
+     * @param ejectionMillis  How long an ejected broker is sent no queries, in milliseconds
+     * @param hedgePercentile  The percentile of the latencies of a table after which its queries are hedged, 0 to
+     * disable hedging
+     * @param hedgeScheduler  The scheduler that sends the hedged queries
+     */
+    public LoadBalancingDruidWebService(
+            DruidServiceConfig serviceConfig,
+            List<DruidWebService> brokers,
+            BrokerSelection brokerSelection,
+            int failuresToEject,
+            long ejectionMillis,
+            double hedgePercentile,
+            ScheduledExecutorService hedgeScheduler
+    ) {
+        if (brokers.isEmpty()) {
+            throw new IllegalArgumentException("At least one broker is needed for " + serviceConfig.getNameAndUrl());
+        }
+        this.serviceConfig = serviceConfig;
+        this.brokers = Collections.unmodifiableList(new ArrayList<>(brokers));
+        this.brokerHealth = new ArrayList<>(brokers.size());
+        brokers.forEach(ignored -> brokerHealth.add(new DruidBrokerHealth()));
+        this.brokerSelection = brokerSelection;
+        this.failuresToEject = failuresToEject;
+        this.ejectionMillis = ejectionMillis;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeScheduler = hedgeScheduler;
+    }
+
+    /**
+     * Constructor, using the configured broker selection, ejection and hedging settings.
+     *
+     * @param serviceConfig  The configuration of the service as a whole
+     * @param brokers  The web services of each of the brokers
+     */
+    public LoadBalancingDruidWebService(DruidServiceConfig serviceConfig, List<DruidWebService> brokers) {
+        this(
+                serviceConfig,
+                brokers,
+                DEFAULT_BROKER_SELECTION,
+                DEFAULT_FAILURES_TO_EJECT,
+                DEFAULT_EJECTION_MILLIS,
+                DEFAULT_HEDGE_PERCENTILE,
+                DEFAULT_HEDGE_PERCENTILE > 0 ? new TaskScheduler(1) : null
+        );
+    }
+
+    @Override
+    public Future<Response> postDruidQuery(
+            RequestContext context,
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            DruidQuery<?> druidQuery
+    ) {
+        int broker = selectBroker(-1);
+        String table = getTableName(druidQuery);
+        long hedgeDelay = getHedgeDelayMillis(druidQuery, table);
+        if (hedgeDelay < 0) {
+            return send(broker, context, success, error, failure, druidQuery, table);
+        }
+
+        String druidQueryId = druidQuery.getContext().getQueryId();
+        HedgedDruidQuery hedgedQuery = new HedgedDruidQuery(druidQueryId, success, error, failure);
+        hedgedQueries.put(druidQueryId, hedgedQuery);
+        // Sending the query hands the request log over to its callbacks, so keep a copy for the hedged query
+        RequestLog logCtx = RequestLog.copy();
+
+        int attempt = hedgedQuery.addAttempt(brokers.get(broker), context);
+        Future<Response> response = send(
+                broker,
+                context,
+                hedgedQuery.getSuccessCallback(attempt),
+                hedgedQuery.getErrorCallback(attempt),
+                hedgedQuery.getFailureCallback(attempt),
+                druidQuery,
+                table
+        );
+        hedgeScheduler.schedule(
+                () -> hedge(broker, hedgedQuery, logCtx, context.fork(), druidQuery, table),
+                hedgeDelay,
+                TimeUnit.MILLISECONDS
+        );
+        return response;
+    }
+
+    /**
+     * Sends a second attempt at a query to another broker, unless it has been answered already.
+     *
+     * @param firstBroker  The index of the broker the first attempt went to
+     * @param hedgedQuery  The query being hedged
+     * @param logCtx  A copy of the request log of the query when it was first sent
+     * @param context  The context to send the second attempt with
+     * @param druidQuery  The query to send
+     * @param table  The name of the table queried
+     */
+    protected void hedge(
+            int firstBroker,
+            HedgedDruidQuery hedgedQuery,
+            RequestLog logCtx,
+            RequestContext context,
+            DruidQuery<?> druidQuery,
+            String table
+    ) {
+        int broker = selectBroker(firstBroker);
+        if (hedgedQuery.isAnswered() || broker == firstBroker) {
+            return;
+        }
+        HEDGED_QUERIES.mark();
+        LOG.debug("Hedging druid query {} to a second broker", druidQuery.getContext().getQueryId());
+        RequestLog.restore(logCtx);
+        try {
+            int attempt = hedgedQuery.addAttempt(brokers.get(broker), context);
+            send(
+                    broker,
+                    context,
+                    hedgedQuery.getSuccessCallback(attempt),
+                    hedgedQuery.getErrorCallback(attempt),
+                    hedgedQuery.getFailureCallback(attempt),
+                    druidQuery,
+                    table
+            );
+            // The first attempt may have answered while this one was being sent
+            if (hedgedQuery.isAnswered()) {
+                brokers.get(broker).cancelDruidQuery(context, druidQuery.getContext().getQueryId());
+            }
+        } finally {
+            // The scheduler thread runs the hedges of other requests, so it mustn't keep the log of this one
+            RequestLog.dump();
+        }
+    }
+
+    /**
+     * Sends a query to a broker, tracking the health of the broker and the latency of the table from its outcome.
+     *
+     * @param broker  The index of the broker
+     * @param context  The context of the request
+     * @param success  The callback for a successful response
+     * @param error  The callback for an http error
+     * @param failure  The callback for a failure
+     * @param druidQuery  The query to send
+     * @param table  The name of the table queried
+     *
+     * @return the future response of the broker
+     */
+    protected Future<Response> send(
+            int broker,
+            RequestContext context,
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            DruidQuery<?> druidQuery,
+            String table
+    ) {
+        DruidBrokerHealth health = brokerHealth.get(broker);
+        String druidQueryId = druidQuery.getContext().getQueryId();
+        boolean tracked = !(druidQuery instanceof WeightEvaluationQuery) && druidQueryId != null;
+        if (tracked) {
+            // A hedged query is cancelled through its attempts, so only the first broker is remembered
+            queryBrokers.putIfAbsent(druidQueryId, brokers.get(broker));
+        }
+        long start = System.currentTimeMillis();
+        health.requestSent();
+        return brokers.get(broker).postDruidQuery(
+                context,
+                jsonResponse -> {
+                    long latency = System.currentTimeMillis() - start;
+                    health.requestSucceeded(latency);
+                    if (hedgePercentile > 0) {
+                        tableLatencies.computeIfAbsent(table, ignored -> newLatencyHistogram()).update(latency);
+                    }
+                    forgetQuery(tracked, druidQueryId, broker);
+                    success.invoke(jsonResponse);
+                },
+                (statusCode, reasonPhrase, responseBody) -> {
+                    // Client errors are the fault of the query, not the broker
+                    if (statusCode >= 500) {
+                        brokerFailed(broker);
+                    } else {
+                        health.requestSucceeded(System.currentTimeMillis() - start);
+                    }
+                    forgetQuery(tracked, druidQueryId, broker);
+                    error.invoke(statusCode, reasonPhrase, responseBody);
+                },
+                throwable -> {
+                    if (throwable instanceof CancellationException) {
+                        health.requestCancelled();
+                    } else {
+                        brokerFailed(broker);
+                    }
+                    forgetQuery(tracked, druidQueryId, broker);
+                    failure.invoke(throwable);
+                },
+                druidQuery
+        );
+    }
+
+    /**
+     * Choose the broker to send a query to.
+     *
+     * @param excluded  The index of a broker not to choose unless it is the only one, or -1
+     *
+     * @return the index of the broker
+     */
+    protected int selectBroker(int excluded) {
+        long now = System.currentTimeMillis();
+        // Start from a different broker each time, so that ties are spread over the brokers
+        int start = Math.floorMod(nextBroker.getAndIncrement(), brokers.size());
+        int selected = -1;
+        int fallback = -1;
+        for (int i = 0; i < brokers.size(); i++) {
+            int broker = (start + i) % brokers.size();
+            if (broker == excluded) {
+                continue;
+            }
+            if (!brokerHealth.get(broker).isHealthy(now)) {
+                fallback = fallback < 0 ? broker : fallback;
+            } else if (selected < 0 || isLessLoaded(broker, selected)) {
+                selected = broker;
+            }
+        }
+        if (selected >= 0) {
+            return selected;
+        }
+        return fallback >= 0 ? fallback : Math.max(excluded, 0);
+    }
+
+    /**
+     * Determine if one broker should be preferred over another.
+     * <p>
+     * By latency, a broker is expected to take its average latency for each of its outstanding requests and the new
+     * one. Until both brokers have answered a request, and so have an average latency, they are compared by their
+     * outstanding requests alone.
+     *
+     * @param broker  The index of the broker
+     * @param other  The index of the other broker
+     *
+     * @return true if the broker is less loaded than the other one
+     */
+    protected boolean isLessLoaded(int broker, int other) {
+        DruidBrokerHealth health = brokerHealth.get(broker);
+        DruidBrokerHealth otherHealth = brokerHealth.get(other);
+        int outstanding = health.getOutstanding();
+        int otherOutstanding = otherHealth.getOutstanding();
+        if (brokerSelection == BrokerSelection.LOWEST_LATENCY) {
+            double latency = health.getLatencyAverage();
+            double otherLatency = otherHealth.getLatencyAverage();
+            if (latency > 0 && otherLatency > 0) {
+                return latency * (outstanding + 1) < otherLatency * (otherOutstanding + 1);
+            }
+        }
+        return outstanding < otherOutstanding;
+    }
+
+    /**
+     * Get how long to wait for the answer to a query before hedging it.
+     *
+     * @param druidQuery  The query
+     * @param table  The name of the table queried
+     *
+     * @return the delay in milliseconds, or -1 if the query is not hedged
+     */
+    protected long getHedgeDelayMillis(DruidQuery<?> druidQuery, String table) {
+        if (hedgePercentile <= 0 || brokers.size() < 2 || druidQuery instanceof WeightEvaluationQuery ||
+                druidQuery.getContext().getQueryId() == null) {
+            return -1;
+        }
+        Histogram latencies = tableLatencies.get(table);
+        if (latencies == null || latencies.getCount() < MIN_LATENCY_SAMPLES) {
+            return -1;
+        }
+        return (long) latencies.getSnapshot().getValue(hedgePercentile);
+    }
+
+    /**
+     * Records the failure of a request to a broker, ejecting it after too many.
+     *
+     * @param broker  The index of the broker
+     */
+    private void brokerFailed(int broker) {
+        if (brokerHealth.get(broker).requestFailed(System.currentTimeMillis(), failuresToEject, ejectionMillis)) {
+            EJECTIONS.mark();
+            LOG.warn("Ejecting druid broker {} for {}ms", brokers.get(broker).getServiceConfig(), ejectionMillis);
+        }
+    }
+
+    /**
+     * Forgets which broker a query was sent to once it has been answered.
+     *
+     * @param tracked  True if the broker of the query was remembered
+     * @param druidQueryId  The id of the query
+     * @param broker  The index of the broker that answered
+     */
+    private void forgetQuery(boolean tracked, String druidQueryId, int broker) {
+        if (tracked && queryBrokers.remove(druidQueryId, brokers.get(broker))) {
+            hedgedQueries.remove(druidQueryId);
+        }
+    }
+
+    /**
+     * Get the name of the table of a query, to keep the latencies of its queries by.
+     *
+     * @param druidQuery  The query
+     *
+     * @return the names of the data sources of the query
+     */
+    private static String getTableName(DruidQuery<?> druidQuery) {
+        DataSource dataSource = druidQuery.getDataSource();
+        return dataSource == null || dataSource.getPhysicalTable() == null ?
+                "" :
+                new TreeSet<>(dataSource.getNames()).toString();
+    }
+
+    /**
+     * Build a histogram of the latest latencies of a table.
+     *
+     * @return the histogram
+     */
+    private static Histogram newLatencyHistogram() {
+        return new Histogram(new SlidingWindowReservoir(LATENCY_SAMPLES));
+    }
+
+    @Override
+    public void cancelDruidQuery(RequestContext context, String druidQueryId) {
+        HedgedDruidQuery hedgedQuery = hedgedQueries.remove(druidQueryId);
+        if (hedgedQuery != null) {
+            hedgedQuery.cancelOtherAttempts(-1);
+        }
+        DruidWebService broker = queryBrokers.remove(druidQueryId);
+        if (broker != null) {
+            broker.cancelDruidQuery(context, druidQueryId);
+        } else {
+            DruidWebService.super.cancelDruidQuery(context, druidQueryId);
+        }
+    }
+
+    @Override
+    public Future<Response> getJsonObject(
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            String resourcePath
+    ) {
+        return brokers.get(selectBroker(-1)).getJsonObject(success, error, failure, resourcePath);
+    }
+
+    @Override
+    public DruidServiceConfig getServiceConfig() {
+        return serviceConfig;
+    }
+
+    @Override
+    public Integer getTimeout() {
+        return serviceConfig.getTimeout();
+    }
+
+    public List<DruidWebService> getBrokers() {
+        return brokers;
+    }
+
+    public List<DruidBrokerHealth> getBrokerHealth() {
+        return Collections.unmodifiableList(brokerHealth);
+    }
+}
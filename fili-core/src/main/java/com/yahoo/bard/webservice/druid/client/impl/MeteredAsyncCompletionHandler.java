@@ -0,0 +1,158 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import org.asynchttpclient.AsyncCompletionHandler;
+import org.asynchttpclient.AsyncHandler;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.BoundRequestBuilder;
+import org.asynchttpclient.ClientStats;
+import org.asynchttpclient.HttpResponseBodyPart;
+import org.asynchttpclient.ListenableFuture;
+import org.asynchttpclient.Response;
+import org.asynchttpclient.netty.request.NettyRequest;
+
+import io.netty.channel.Channel;
+
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * A completion handler for requests to Druid which meters the connections they use.
+ * <p>
+ * The metrics cover every Druid http client being monitored:
+ * <ul>
+ *     <li>{@value #ACTIVE_CONNECTIONS}, {@value #IDLE_CONNECTIONS}: the connections in use and waiting in the pools
+ *     <li>{@value #PENDING_REQUESTS}: the requests not yet written to a connection, most often waiting to connect
+ *     <li>{@value #CONNECT_TIMER}: how long opening a new connection takes, which a warm pool avoids
+ *     <li>{@value #BYTES_READ}: the bytes of the bodies of the responses
+ * </ul>
+ */
+public abstract class MeteredAsyncCompletionHandler extends AsyncCompletionHandler<Response> {
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+
+    public static final String ACTIVE_CONNECTIONS = "druid.connections.active";
+    public static final String IDLE_CONNECTIONS = "druid.connections.idle";
+    public static final String PENDING_REQUESTS = "druid.connections.pending";
+    public static final String CONNECT_TIMER = "druid.connections.connect";
+    public static final String BYTES_READ = "druid.bytes.read";
+
+    private static final Set<AsyncHttpClient> CLIENTS = new CopyOnWriteArraySet<>();
+    private static final AtomicLong PENDING = new AtomicLong();
+    private static final Timer CONNECT = REGISTRY.timer(CONNECT_TIMER);
+    private static final Meter BYTES = REGISTRY.meter(BYTES_READ);
+
+    private final AtomicBoolean pending = new AtomicBoolean(true);
+    private volatile long connectStart;
+
+    /**
+     * Constructor, counting the request as pending until it is written to a connection.
+     */
+    public MeteredAsyncCompletionHandler() {
+        PENDING.incrementAndGet();
+    }
+
+    /**
+     * Adds the connections of a client to the connection gauges, registering the gauges the first time.
+     *
+     * @param client  The http client to monitor
+     */
+    public static synchronized void monitorConnections(AsyncHttpClient client) {
+        CLIENTS.add(client);
+        registerGauge(ACTIVE_CONNECTIONS, () -> sumOverClients(ClientStats::getTotalActiveConnectionCount));
+        registerGauge(IDLE_CONNECTIONS, () -> sumOverClients(ClientStats::getTotalIdleConnectionCount));
+        registerGauge(PENDING_REQUESTS, PENDING::get);
+    }
+
+    /**
+     * Register a gauge unless one of that name is already registered.
+     *
+     * @param name  The name of the gauge
+     * @param gauge  The gauge
+     */
+    private static void registerGauge(String name, Gauge<Long> gauge) {
+        if (!REGISTRY.getMetrics().containsKey(name)) {
+            REGISTRY.register(name, gauge);
+        }
+    }
+
+    /**
+     * Sum a statistic over the connection pools of every monitored client.
+     *
+     * @param statistic  The statistic of a pool
+     *
+     * @return the sum of the statistic
+     */
+    private static long sumOverClients(ToLongFunction<ClientStats> statistic) {
+        CLIENTS.removeIf(AsyncHttpClient::isClosed);
+        long sum = 0;
+        for (AsyncHttpClient client : CLIENTS) {
+            ClientStats stats = client.getClientStats();
+            sum += stats == null ? 0 : statistic.applyAsLong(stats);
+        }
+        return sum;
+    }
+
+    /**
+     * Executes a request with this handler.
+     *
+     * @param requestBuilder  The request to execute
+     *
+     * @return the future response
+     */
+    public ListenableFuture<Response> execute(BoundRequestBuilder requestBuilder) {
+        try {
+            ListenableFuture<Response> response = requestBuilder.execute(this);
+            // A request that failed or was cancelled before it was sent is not pending anymore either
+            if (response != null) {
+                response.addListener(this::requestSent, Runnable::run);
+            }
+            return response;
+        } catch (RuntimeException e) {
+            requestSent();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops counting the request as pending.
+     */
+    private void requestSent() {
+        if (pending.compareAndSet(true, false)) {
+            PENDING.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void onTcpConnectAttempt(InetSocketAddress remoteAddress) {
+        connectStart = System.nanoTime();
+    }
+
+    @Override
+    public void onTcpConnectSuccess(InetSocketAddress remoteAddress, Channel connection) {
+        CONNECT.update(System.nanoTime() - connectStart, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onRequestSend(NettyRequest request) {
+        requestSent();
+    }
+
+    @Override
+    public AsyncHandler.State onBodyPartReceived(HttpResponseBodyPart content) throws Exception {
+        BYTES.mark(content.length());
+        return super.onBodyPartReceived(content);
+    }
+}
@@ -0,0 +1,56 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl;
+
+import com.yahoo.bard.webservice.druid.client.DruidWebService;
+import com.yahoo.bard.webservice.web.handlers.RequestContext;
+
+import org.asynchttpclient.Response;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The response to a Druid query that is being retried, which stands in for the query in the queries in flight of its
+ * request so that cancelling the request also cancels the retries.
+ * <p>
+ * Cancelling it cancels the attempt in flight, if any, and stops any further retry.
+ */
+public class RetriedDruidQuery extends CompletableFuture<Response> {
+
+    private final DruidWebService druidWebService;
+    private final String druidQueryId;
+    private volatile RequestContext attemptContext;
+
+    /**
+     * Constructor.
+     *
+     * @param druidWebService  The web service the attempts are sent through
+     * @param druidQueryId  The id of the Druid query
+     */
+    public RetriedDruidQuery(DruidWebService druidWebService, String druidQueryId) {
+        this.druidWebService = druidWebService;
+        this.druidQueryId = druidQueryId;
+    }
+
+    /**
+     * Records that a retry was sent, cancelling it straight away if the query was cancelled while it was being sent.
+     *
+     * @param context  The context the retry was sent with
+     */
+    public void attemptSent(RequestContext context) {
+        attemptContext = context;
+        if (isCancelled()) {
+            druidWebService.cancelDruidQuery(context, druidQueryId);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        RequestContext context = attemptContext;
+        if (cancelled && context != null) {
+            druidWebService.cancelDruidQuery(context, druidQueryId);
+        }
+        return cancelled;
+    }
+}
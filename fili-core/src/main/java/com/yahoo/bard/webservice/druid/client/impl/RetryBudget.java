@@ -0,0 +1,52 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl;
+
+/**
+ * A token bucket limiting retries to a share of the requests sent, so that a failing node is not hit by a retry storm.
+ * <p>
+ * Every request sent adds a fraction of a token to the bucket, up to a burst of tokens, and every retry takes a whole
+ * token out of it. The bucket starts full.
+ */
+public class RetryBudget {
+
+    private final double retryRatio;
+    private final double burst;
+    private double tokens;
+
+    /**
+     * Constructor.
+     *
+     * @param retryRatio  The share of the requests that may be retried, such as 0.1 for 10%
+     * @param burst  The most retries allowed in a row, once the bucket has filled up
+     */
+    public RetryBudget(double retryRatio, double burst) {
+        this.retryRatio = retryRatio;
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    /**
+     * Records that a request was sent, adding to the budget.
+     */
+    public synchronized void requestSent() {
+        tokens = Math.min(burst, tokens + retryRatio);
+    }
+
+    /**
+     * Takes a retry out of the budget, if there is one left.
+     *
+     * @return true if the retry may be made
+     */
+    public synchronized boolean tryRetry() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    public synchronized double getTokens() {
+        return tokens;
+    }
+}
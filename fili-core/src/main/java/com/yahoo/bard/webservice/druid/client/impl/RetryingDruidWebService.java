@@ -0,0 +1,361 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.application.TaskScheduler;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.druid.client.DruidServiceConfig;
+import com.yahoo.bard.webservice.druid.client.DruidWebService;
+import com.yahoo.bard.webservice.druid.client.FailureCallback;
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
+import com.yahoo.bard.webservice.druid.client.SuccessCallback;
+import com.yahoo.bard.webservice.druid.model.query.DruidQuery;
+import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery;
+import com.yahoo.bard.webservice.logging.RequestLog;
+import com.yahoo.bard.webservice.web.handlers.RequestContext;
+
+import com.codahale.metrics.Meter;
+
+import org.asynchttpclient.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A Druid web service that retries the queries another one fails to send, or that get a transient http error.
+ * <ul>
+ *     <li>Queries are retried after an exponential backoff with full jitter, up to a number of times.
+ *     <li>Retries are limited by a {@link RetryBudget} to a share of the queries sent, so a failing node is not
+ * flooded with retries.
+ *     <li>Only connection failures and the configured status codes, by default 502, 503 and 504, are retried. Timeouts
+ * and Druid query errors are not.
+ *     <li>Retries are sent with a fork of the request context, so they reuse the serialized query and leave the
+ * counters of the request alone. The retried query stands in the queries in flight of the request until it is
+ * answered, so cancelling the queries of the request cancels the retries too.
+ * </ul>
+ */
+public class RetryingDruidWebService implements DruidWebService {
+    private static final Logger LOG = LoggerFactory.getLogger(RetryingDruidWebService.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * The most times a query is retried, 0 to never retry.
+     */
+    public static final int DEFAULT_MAX_RETRIES = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_retries"),
+            0
+    );
+
+    /**
+     * The backoff before the first retry, doubled for each retry after it, in milliseconds.
+     */
+    public static final long DEFAULT_BACKOFF_MILLIS = SYSTEM_CONFIG.getLongProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_retry_backoff_millis"),
+            100
+    );
+
+    /**
+     * The longest backoff before a retry, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = SYSTEM_CONFIG.getLongProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_retry_max_backoff_millis"),
+            2000
+    );
+
+    /**
+     * The share of the queries to a node that may be retried.
+     */
+    public static final double DEFAULT_BUDGET_RATIO = SYSTEM_CONFIG.getDoubleProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_retry_budget_ratio"),
+            0.1
+    );
+
+    /**
+     * The most retries to a node allowed in a row.
+     */
+    public static final double DEFAULT_BUDGET_BURST = SYSTEM_CONFIG.getDoubleProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_retry_budget_burst"),
+            10
+    );
+
+    /**
+     * The http status codes of the transient errors that are retried.
+     */
+    public static final Set<Integer> DEFAULT_RETRY_STATUS_CODES = SYSTEM_CONFIG.<Object>getListProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_retry_status_codes"),
+            Arrays.asList(502, 503, 504)
+    ).stream().map(code -> Integer.valueOf(code.toString().trim())).collect(Collectors.toSet());
+
+    public static final Meter RETRIES = MetricRegistryFactory.getRegistry().meter("druid.retries");
+    public static final Meter RETRIES_SUCCEEDED = MetricRegistryFactory.getRegistry().meter("druid.retries.succeeded");
+    public static final Meter RETRIES_OVER_BUDGET = MetricRegistryFactory.getRegistry().meter(
+            "druid.retries.over.budget"
+    );
+
+    private final DruidWebService druidWebService;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final Set<Integer> retryStatusCodes;
+    private final RetryBudget retryBudget;
+    private final ScheduledExecutorService retryScheduler;
+
+    /**
+     * Constructor.
+     *
+     * @param druidWebService  The web service to send the queries and their retries through
+     * @param maxRetries  The most times a query is retried
+     * @param backoffMillis  The backoff before the first retry, doubled for each retry after it, in milliseconds
+     * @param maxBackoffMillis  The longest backoff before a retry, in milliseconds
+     * @param retryStatusCodes  The http status codes of the errors to retry
+     * @param retryBudget  The budget limiting the retries
+     * @param retryScheduler  The scheduler that sends the retries
+     */
+    public RetryingDruidWebService(
+            DruidWebService druidWebService,
+            int maxRetries,
+            long backoffMillis,
+            long maxBackoffMillis,
+            Set<Integer> retryStatusCodes,
+            RetryBudget retryBudget,
+            ScheduledExecutorService retryScheduler
+    ) {
+        this.druidWebService = druidWebService;
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.retryStatusCodes = new HashSet<>(retryStatusCodes);
+        this.retryBudget = retryBudget;
+        this.retryScheduler = retryScheduler;
+    }
+
+    /**
+     * Constructor, using the configured retry settings and a budget of its own.
+     *
+     * @param druidWebService  The web service to send the queries and their retries through
+     */
+    public RetryingDruidWebService(DruidWebService druidWebService) {
+        this(
+                druidWebService,
+                DEFAULT_MAX_RETRIES,
+                DEFAULT_BACKOFF_MILLIS,
+                DEFAULT_MAX_BACKOFF_MILLIS,
+                DEFAULT_RETRY_STATUS_CODES,
+                new RetryBudget(DEFAULT_BUDGET_RATIO, DEFAULT_BUDGET_BURST),
+                new TaskScheduler(1)
+        );
+    }
+
+    @Override
+    public Future<Response> postDruidQuery(
+            RequestContext context,
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            DruidQuery<?> druidQuery
+    ) {
+        retryBudget.requestSent();
+        return send(context, context, null, success, error, failure, druidQuery, 0);
+    }
+
+    /**
+     * Sends an attempt at a query, retrying it if it fails in a way worth retrying.
+     *
+     * @param context  The context of the request
+     * @param attemptContext  The context to send the attempt with
+     * @param retried  The retried query standing in for the query of the request, or null before the first retry
+     * @param success  The callback for a successful response
+     * @param error  The callback for an http error that is not retried
+     * @param failure  The callback for a failure that is not retried
+     * @param druidQuery  The query to send
+     * @param retries  The number of times the query has been retried already
+     *
+     * @return the future response of the attempt
+     */
+    protected Future<Response> send(
+            RequestContext context,
+            RequestContext attemptContext,
+            RetriedDruidQuery retried,
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            DruidQuery<?> druidQuery,
+            int retries
+    ) {
+        return druidWebService.postDruidQuery(
+                attemptContext,
+                jsonResponse -> {
+                    if (retries > 0) {
+                        RETRIES_SUCCEEDED.mark();
+                    }
+                    answered(context, retried, druidQuery);
+                    success.invoke(jsonResponse);
+                },
+                (statusCode, reasonPhrase, responseBody) -> {
+                    if (retryStatusCodes.contains(statusCode) &&
+                            retry(context, retried, success, error, failure, druidQuery, retries)) {
+                        return;
+                    }
+                    answered(context, retried, druidQuery);
+                    error.invoke(statusCode, reasonPhrase, responseBody);
+                },
+                throwable -> {
+                    if (throwable instanceof IOException &&
+                            retry(context, retried, success, error, failure, druidQuery, retries)) {
+                        return;
+                    }
+                    answered(context, retried, druidQuery);
+                    failure.invoke(throwable);
+                },
+                druidQuery
+        );
+    }
+
+    /**
+     * Schedules a retry of a query, if it has retries left and the budget allows it.
+     *
+     * @param context  The context of the request
+     * @param retried  The retried query standing in for the query of the request, or null before the first retry
+     * @param success  The callback for a successful response
+     * @param error  The callback for an http error that is not retried
+     * @param failure  The callback for a failure that is not retried
+     * @param druidQuery  The query to retry
+     * @param retries  The number of times the query has been retried already
+     *
+     * @return true if the query will be retried
+     */
+    protected boolean retry(
+            RequestContext context,
+            RetriedDruidQuery retried,
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            DruidQuery<?> druidQuery,
+            int retries
+    ) {
+        if (retries >= maxRetries || context == null || (retried != null && retried.isCancelled())) {
+            return false;
+        }
+        if (!retryBudget.tryRetry()) {
+            RETRIES_OVER_BUDGET.mark();
+            return false;
+        }
+        RETRIES.mark();
+
+        String druidQueryId = druidQuery.getContext().getQueryId();
+        RetriedDruidQuery retriedQuery = retried != null ?
+                retried :
+                new RetriedDruidQuery(druidWebService, druidQueryId);
+        if (retried == null && isTracked(druidQuery)) {
+            context.addDruidQueryInFlight(druidQueryId, retriedQuery);
+        }
+
+        long delay = getBackoffMillis(retries);
+        LOG.debug("Retrying druid query {} in {}ms", druidQueryId, delay);
+        // The callback hands the request log over to the retry, which runs on the thread of the scheduler
+        RequestLog logCtx = RequestLog.dump();
+        retryScheduler.schedule(
+                () -> {
+                    RequestLog.restore(logCtx);
+                    if (retriedQuery.isCancelled()) {
+                        answered(context, retriedQuery, druidQuery);
+                        failure.invoke(new CancellationException("Druid query " + druidQueryId + " was cancelled"));
+                        return;
+                    }
+                    RequestContext attemptContext = context.fork();
+                    send(context, attemptContext, retriedQuery, success, error, failure, druidQuery, retries + 1);
+                    retriedQuery.attemptSent(attemptContext);
+                },
+                delay,
+                TimeUnit.MILLISECONDS
+        );
+        return true;
+    }
+
+    /**
+     * Get the backoff before a retry: a random time up to the exponential backoff for the retry.
+     *
+     * @param retries  The number of times the query has been retried already
+     *
+     * @return the backoff in milliseconds
+     */
+    protected long getBackoffMillis(int retries) {
+        long backoff = Math.min(maxBackoffMillis, backoffMillis << Math.min(retries, 30));
+        return ThreadLocalRandom.current().nextLong(backoff + 1);
+    }
+
+    /**
+     * Forgets the retried query of a query once it has been answered.
+     *
+     * @param context  The context of the request
+     * @param retried  The retried query, or null if the query was not retried
+     * @param druidQuery  The query
+     */
+    private static void answered(RequestContext context, RetriedDruidQuery retried, DruidQuery<?> druidQuery) {
+        if (retried != null) {
+            context.removeDruidQueryInFlight(druidQuery.getContext().getQueryId(), retried);
+            retried.complete(null);
+        }
+    }
+
+    /**
+     * Determine if a query is tracked in the queries in flight of its request.
+     *
+     * @param druidQuery  The query
+     *
+     * @return true for data queries with an id
+     */
+    private static boolean isTracked(DruidQuery<?> druidQuery) {
+        return !(druidQuery instanceof WeightEvaluationQuery) && druidQuery.getContext().getQueryId() != null;
+    }
+
+    @Override
+    public void cancelDruidQuery(RequestContext context, String druidQueryId) {
+        Future<?> inFlight = context.getDruidQueriesInFlight().get(druidQueryId);
+        if (inFlight instanceof RetriedDruidQuery) {
+            inFlight.cancel(true);
+        } else {
+            druidWebService.cancelDruidQuery(context, druidQueryId);
+        }
+    }
+
+    @Override
+    public Future<Response> getJsonObject(
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            String resourcePath
+    ) {
+        return druidWebService.getJsonObject(success, error, failure, resourcePath);
+    }
+
+    @Override
+    public DruidServiceConfig getServiceConfig() {
+        return druidWebService.getServiceConfig();
+    }
+
+    @Override
+    public Integer getTimeout() {
+        return druidWebService.getTimeout();
+    }
+
+    public DruidWebService getDruidWebService() {
+        return druidWebService;
+    }
+
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+}
@@ -0,0 +1,217 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.local;
+
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * An immutable in memory table of Druid shaped rows stored column by column and sorted by time.
+ * <p>
+ * Dimensions are dictionary encoded and metrics are stored as primitive arrays, so a table costs far less memory
+ * than the rows it was built from. Tables are built with a {@link Builder}.
+ */
+public class ColumnarTable {
+
+    private final String name;
+    private final long[] timestamps;
+    private final Map<String, DictionaryEncodedColumn> dimensions;
+    private final Map<String, NumericColumn> metrics;
+
+    /**
+     * Constructor. Private to ensure use of the Builder.
+     *
+     * @param name  Name of the Druid data source this table stands in for
+     * @param timestamps  Timestamp of each row in milliseconds, sorted ascending
+     * @param dimensions  Dimension columns by physical name
+     * @param metrics  Metric columns by physical name
+     */
+    private ColumnarTable(
+            String name,
+            long[] timestamps,
+            Map<String, DictionaryEncodedColumn> dimensions,
+            Map<String, NumericColumn> metrics
+    ) {
+        this.name = name;
+        this.timestamps = timestamps;
+        this.dimensions = Collections.unmodifiableMap(dimensions);
+        this.metrics = Collections.unmodifiableMap(metrics);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the number of rows in this table.
+     *
+     * @return the number of rows
+     */
+    public int getRowCount() {
+        return timestamps.length;
+    }
+
+    /**
+     * Get the timestamp of a row.
+     *
+     * @param row  The row to read
+     *
+     * @return the timestamp in milliseconds since the epoch
+     */
+    public long getTimestamp(int row) {
+        return timestamps[row];
+    }
+
+    /**
+     * Find the first row whose timestamp is at or after an instant.
+     *
+     * @param instant  The instant in milliseconds since the epoch
+     *
+     * @return the index of the first such row, or the row count if there is none
+     */
+    public int firstRowAtOrAfter(long instant) {
+        int low = 0;
+        int high = timestamps.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < instant) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Get a dimension column.
+     *
+     * @param physicalName  The physical name of the dimension
+     *
+     * @return the column, or empty if the table has no such dimension
+     */
+    public Optional<DictionaryEncodedColumn> getDimension(String physicalName) {
+        return Optional.ofNullable(dimensions.get(physicalName));
+    }
+
+    /**
+     * Get a metric column.
+     *
+     * @param physicalName  The physical name of the metric
+     *
+     * @return the column, or empty if the table has no such metric
+     */
+    public Optional<NumericColumn> getMetric(String physicalName) {
+        return Optional.ofNullable(metrics.get(physicalName));
+    }
+
+    public Set<String> getDimensionNames() {
+        return dimensions.keySet();
+    }
+
+    public Set<String> getMetricNames() {
+        return metrics.keySet();
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarTable{name=" + name + ", rows=" + timestamps.length + ", dimensions=" + dimensions.keySet()
+                + ", metrics=" + metrics.keySet() + "}";
+    }
+
+    /**
+     * Builder for a ColumnarTable.
+     * <p>
+     * Rows may be added in any order and may omit columns; the table is sorted by time and missing values are filled
+     * with null dimension values and zero metric values when it is built.
+     */
+    public static class Builder {
+
+        private final String name;
+        private final List<Long> timestamps = new ArrayList<>();
+        private final List<Map<String, String>> dimensionRows = new ArrayList<>();
+        private final List<Map<String, ? extends Number>> metricRows = new ArrayList<>();
+        private final Set<String> dimensionNames = new LinkedHashSet<>();
+        private final Set<String> metricNames = new LinkedHashSet<>();
+
+        /**
+         * Constructor.
+         *
+         * @param name  Name of the Druid data source the table stands in for
+         */
+        public Builder(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Add a row to the table.
+         *
+         * @param timestamp  The time of the row
+         * @param dimensions  Dimension values of the row by physical name
+         * @param metrics  Metric values of the row by physical name
+         *
+         * @return the builder
+         */
+        public Builder addRow(
+                DateTime timestamp,
+                Map<String, String> dimensions,
+                Map<String, ? extends Number> metrics
+        ) {
+            timestamps.add(timestamp.getMillis());
+            dimensionRows.add(dimensions);
+            metricRows.add(metrics);
+            dimensionNames.addAll(dimensions.keySet());
+            metricNames.addAll(metrics.keySet());
+            return this;
+        }
+
+        /**
+         * Build the table.
+         *
+         * @return the built table
+         */
+        public ColumnarTable build() {
+            int rowCount = timestamps.size();
+            Integer[] order = new Integer[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                order[row] = row;
+            }
+            Arrays.sort(order, Comparator.comparingLong(timestamps::get));
+
+            long[] sortedTimestamps = new long[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                sortedTimestamps[row] = timestamps.get(order[row]);
+            }
+
+            Map<String, DictionaryEncodedColumn> dimensions = new LinkedHashMap<>();
+            for (String dimensionName : dimensionNames) {
+                String[] values = new String[rowCount];
+                for (int row = 0; row < rowCount; row++) {
+                    values[row] = dimensionRows.get(order[row]).get(dimensionName);
+                }
+                dimensions.put(dimensionName, new DictionaryEncodedColumn(values));
+            }
+
+            Map<String, NumericColumn> metrics = new LinkedHashMap<>();
+            for (String metricName : metricNames) {
+                Number[] values = new Number[rowCount];
+                for (int row = 0; row < rowCount; row++) {
+                    values[row] = metricRows.get(order[row]).get(metricName);
+                }
+                metrics.put(metricName, new NumericColumn(values));
+            }
+
+            return new ColumnarTable(name, sortedTimestamps, dimensions, metrics);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.local;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * An immutable string column stored as a sorted dictionary of distinct values plus one dictionary code per row.
+ * <p>
+ * Codes are packed into the narrowest array that can hold the dictionary, so low cardinality columns (the common
+ * case for reference tables) cost a single byte per row. Code 0 is always reserved for the null value, and empty
+ * strings are treated as null the same way Druid does.
+ */
+public class DictionaryEncodedColumn {
+
+    private static final int BYTE_CARDINALITY = 1 << Byte.SIZE;
+    private static final int SHORT_CARDINALITY = 1 << Short.SIZE;
+
+    private final String[] dictionary;
+    private final byte[] byteCodes;
+    private final short[] shortCodes;
+    private final int[] intCodes;
+    private final int size;
+
+    /**
+     * Constructor.
+     *
+     * @param values  The value of this column for each row, nulls and empty strings are stored as null
+     */
+    public DictionaryEncodedColumn(String[] values) {
+        TreeSet<String> distinct = new TreeSet<>();
+        for (String value : values) {
+            if (value != null && !value.isEmpty()) {
+                distinct.add(value);
+            }
+        }
+
+        dictionary = new String[distinct.size() + 1];
+        int index = 1;
+        for (String value : distinct) {
+            dictionary[index++] = value;
+        }
+
+        size = values.length;
+        byte[] bytes = null;
+        short[] shorts = null;
+        int[] ints = null;
+        if (dictionary.length <= BYTE_CARDINALITY) {
+            bytes = new byte[size];
+        } else if (dictionary.length <= SHORT_CARDINALITY) {
+            shorts = new short[size];
+        } else {
+            ints = new int[size];
+        }
+
+        for (int row = 0; row < size; row++) {
+            int code = indexOf(values[row]);
+            if (bytes != null) {
+                bytes[row] = (byte) code;
+            } else if (shorts != null) {
+                shorts[row] = (short) code;
+            } else {
+                ints[row] = code;
+            }
+        }
+
+        byteCodes = bytes;
+        shortCodes = shorts;
+        intCodes = ints;
+    }
+
+    /**
+     * Get the number of rows in this column.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of dictionary entries, including the entry reserved for null.
+     *
+     * @return the size of the dictionary
+     */
+    public int getCardinality() {
+        return dictionary.length;
+    }
+
+    /**
+     * Get the dictionary code of the value stored at a row.
+     *
+     * @param row  The row to read
+     *
+     * @return the dictionary code of the row's value
+     */
+    public int getCode(int row) {
+        if (byteCodes != null) {
+            return byteCodes[row] & 0xFF;
+        }
+        if (shortCodes != null) {
+            return shortCodes[row] & 0xFFFF;
+        }
+        return intCodes[row];
+    }
+
+    /**
+     * Get the value for a dictionary code.
+     *
+     * @param code  The dictionary code
+     *
+     * @return the value, or null for the null code
+     */
+    public String getValue(int code) {
+        return dictionary[code];
+    }
+
+    /**
+     * Find the dictionary code of a value.
+     *
+     * @param value  The value to look up
+     *
+     * @return the dictionary code, or -1 if the value does not occur in this column
+     */
+    public int indexOf(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(dictionary, 1, dictionary.length, value);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * Evaluate a predicate once per distinct value rather than once per row.
+     *
+     * @param predicate  The predicate to test each dictionary value against, null is passed for the null entry
+     *
+     * @return the set of dictionary codes whose value satisfies the predicate
+     */
+    public BitSet matching(Predicate<String> predicate) {
+        BitSet matches = new BitSet(dictionary.length);
+        for (int code = 0; code < dictionary.length; code++) {
+            if (predicate.test(dictionary[code])) {
+                matches.set(code);
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    public String toString() {
+        return "DictionaryEncodedColumn{rows=" + size + ", cardinality=" + dictionary.length + "}";
+    }
+}
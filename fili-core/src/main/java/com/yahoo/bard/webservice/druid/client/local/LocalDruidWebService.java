@@ -0,0 +1,307 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.local;
+
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.REQUEST_WORKFLOW_TIMER;
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.RESPONSE_WORKFLOW_TIMER;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.druid.client.DruidServiceConfig;
+import com.yahoo.bard.webservice.druid.client.DruidWebService;
+import com.yahoo.bard.webservice.druid.client.FailureCallback;
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
+import com.yahoo.bard.webservice.druid.client.SuccessCallback;
+import com.yahoo.bard.webservice.druid.model.datasource.DataSource;
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.druid.model.query.DruidQuery;
+import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery;
+import com.yahoo.bard.webservice.logging.RequestLog;
+import com.yahoo.bard.webservice.metadata.DataSourceMetadataLoadTask;
+import com.yahoo.bard.webservice.util.CompletedFuture;
+import com.yahoo.bard.webservice.web.handlers.RequestContext;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.apache.commons.lang3.concurrent.ConcurrentUtils;
+import org.asynchttpclient.Response;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.ws.rs.core.Response.Status;
+
+/**
+ * A DruidWebService which answers queries in process from tables held in memory instead of sending them to a broker.
+ * <p>
+ * It is intended for small reference tables, where the round trip to Druid costs far more than evaluating the query.
+ * Tables are registered with {@link #loadTable(ColumnarTable)} under the name of the Druid data source they replace,
+ * and queries are evaluated with a {@link LocalQueryEngine}. Responses have the same shape Druid would have sent, so
+ * the rest of the request handling is unchanged. Callbacks are invoked on the calling thread.
+ * <p>
+ * The data source metadata endpoint is also served for loaded tables, so the table's availability can be loaded by
+ * the usual {@link DataSourceMetadataLoadTask} pointed at this service.
+ */
+public class LocalDruidWebService implements DruidWebService {
+    private static final Logger LOG = LoggerFactory.getLogger(LocalDruidWebService.class);
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+    private static final JsonNodeFactory NODE_FACTORY = JsonNodeFactory.instance;
+
+    public static final String LOCAL_QUERY_TIMER = "LocalDruidProcessing";
+
+    private static final Pattern METADATA_PATH = Pattern.compile(
+            String.format(DataSourceMetadataLoadTask.DATASOURCE_METADATA_QUERY_FORMAT, "([^/?]+)").replace("?", "\\?")
+    );
+
+    private final DruidServiceConfig serviceConfig;
+    private final LocalQueryEngine queryEngine;
+    private final Map<String, ColumnarTable> tables = new ConcurrentHashMap<>();
+    private final Map<String, String> versions = new ConcurrentHashMap<>();
+    private final Meter queryMeter;
+    private final Meter exceptionMeter;
+
+    /**
+     * Constructor.
+     *
+     * @param serviceConfig  Configuration naming this service, the url is not used
+     */
+    public LocalDruidWebService(DruidServiceConfig serviceConfig) {
+        this(serviceConfig, new LocalQueryEngine());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param serviceConfig  Configuration naming this service, the url is not used
+     * @param queryEngine  The engine evaluating queries
+     */
+    public LocalDruidWebService(DruidServiceConfig serviceConfig, LocalQueryEngine queryEngine) {
+        this.serviceConfig = serviceConfig;
+        this.queryEngine = queryEngine;
+        this.queryMeter = REGISTRY.meter("druid.local.queries");
+        this.exceptionMeter = REGISTRY.meter("druid.local.errors.exceptions");
+    }
+
+    /**
+     * Register a table, replacing any table previously loaded under the same name.
+     *
+     * @param table  The table to serve
+     */
+    public void loadTable(ColumnarTable table) {
+        versions.put(table.getName(), DateTime.now(DateTimeZone.UTC).toString());
+        tables.put(table.getName(), table);
+        LOG.info("Loaded local table {}", table);
+    }
+
+    /**
+     * Stop serving a table.
+     *
+     * @param name  Name of the table
+     *
+     * @return the removed table, or empty if no table was loaded under that name
+     */
+    public Optional<ColumnarTable> removeTable(String name) {
+        versions.remove(name);
+        return Optional.ofNullable(tables.remove(name));
+    }
+
+    /**
+     * Get a loaded table.
+     *
+     * @param name  Name of the table
+     *
+     * @return the table, or empty if no table is loaded under that name
+     */
+    public Optional<ColumnarTable> getTable(String name) {
+        return Optional.ofNullable(tables.get(name));
+    }
+
+    /**
+     * Whether a query reads a single table which is loaded in this service.
+     * <p>
+     * This only checks the data source, a query can still use features the {@link LocalQueryEngine} does not support.
+     *
+     * @param query  The query to check
+     *
+     * @return true if the query can be sent to this service
+     */
+    public boolean isQueryable(DruidAggregationQuery<?> query) {
+        return getTableName(query.getDataSource()).map(tables::containsKey).orElse(false);
+    }
+
+    /**
+     * Get the name of the single table a data source reads.
+     *
+     * @param dataSource  The data source
+     *
+     * @return the table name, or empty if the data source is a nested query or spans several tables
+     */
+    private Optional<String> getTableName(DataSource dataSource) {
+        if (dataSource.getQuery().isPresent() || dataSource.getNames().size() != 1) {
+            return Optional.empty();
+        }
+        return Optional.of(dataSource.getNames().iterator().next());
+    }
+
+    @Override
+    public Future<Response> postDruidQuery(
+            RequestContext context,
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            DruidQuery<?> druidQuery
+    ) {
+        AtomicLong outstanding;
+        if (!(druidQuery instanceof WeightEvaluationQuery)) {
+            if (context.getNumberOfOutgoing().decrementAndGet() == 0) {
+                RequestLog.stopTiming(REQUEST_WORKFLOW_TIMER);
+            }
+            outstanding = context.getNumberOfIncoming();
+        } else {
+            outstanding = new AtomicLong(0);
+        }
+
+        queryMeter.mark();
+        JsonNode response = null;
+        RuntimeException exception = null;
+        RequestLog.startTiming(LOCAL_QUERY_TIMER);
+        try {
+            response = execute(druidQuery);
+        } catch (RuntimeException e) {
+            exception = e;
+        }
+        RequestLog.stopTiming(LOCAL_QUERY_TIMER);
+        if (outstanding.decrementAndGet() == 0) {
+            RequestLog.startTiming(RESPONSE_WORKFLOW_TIMER);
+        }
+
+        if (exception != null) {
+            exceptionMeter.mark();
+            LOG.error("local druid {} query failed:", serviceConfig.getNameAndUrl(), exception);
+            failure.invoke(exception);
+            return CompletedFuture.throwing(exception);
+        }
+        success.invoke(response);
+        return ConcurrentUtils.constantFuture(null);
+    }
+
+    /**
+     * Evaluate a query against the loaded tables.
+     * <p>
+     * Weight evaluation queries are answered by evaluating the query being weighed and summing the weight of its rows,
+     * since they can't be evaluated directly.
+     *
+     * @param druidQuery  The query to evaluate
+     *
+     * @return the Druid shaped response
+     */
+    private JsonNode execute(DruidQuery<?> druidQuery) {
+        if (druidQuery instanceof WeightEvaluationQuery) {
+            DruidAggregationQuery<?> weighedQuery = ((WeightEvaluationQuery) druidQuery).getInnerQuery()
+                    .orElseThrow(() -> new IllegalArgumentException("Weight evaluation query without inner query"));
+            long count = 0;
+            for (JsonNode row : execute(weighedQuery)) {
+                count += row.get("event").get("count").asLong();
+            }
+            ArrayNode response = NODE_FACTORY.arrayNode();
+            ObjectNode event = response.addObject().putObject("event");
+            event.put("count", count);
+            return response;
+        }
+        if (!(druidQuery instanceof DruidAggregationQuery) || !isQueryable((DruidAggregationQuery<?>) druidQuery)) {
+            throw new UnsupportedOperationException("Query can't be run locally: " + druidQuery);
+        }
+        DruidAggregationQuery<?> query = (DruidAggregationQuery<?>) druidQuery;
+        return queryEngine.execute(query, tables.get(getTableName(query.getDataSource()).get()));
+    }
+
+    /**
+     * Serves the data source metadata of loaded tables. Every other resource is reported as not found.
+     */
+    @Override
+    public Future<Response> getJsonObject(
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            String resourcePath
+    ) {
+        Matcher matcher = METADATA_PATH.matcher(resourcePath);
+        ColumnarTable table = matcher.matches() ? tables.get(matcher.group(1)) : null;
+        if (table == null) {
+            error.invoke(Status.NOT_FOUND.getStatusCode(), Status.NOT_FOUND.getReasonPhrase(), resourcePath);
+            return ConcurrentUtils.constantFuture(null);
+        }
+        success.invoke(buildMetadata(table, versions.getOrDefault(table.getName(), "")));
+        return ConcurrentUtils.constantFuture(null);
+    }
+
+    /**
+     * Describe a table the way Druid's coordinator describes a data source, with one segment per day holding data.
+     *
+     * @param table  The table to describe
+     * @param version  The version to report for the table's segments
+     *
+     * @return the data source metadata
+     */
+    private JsonNode buildMetadata(ColumnarTable table, String version) {
+        ObjectNode metadata = NODE_FACTORY.objectNode();
+        metadata.put("name", table.getName());
+        metadata.putObject("properties");
+        ArrayNode segments = metadata.putArray("segments");
+
+        String dimensions = String.join(",", table.getDimensionNames());
+        String metrics = String.join(",", table.getMetricNames());
+        int row = 0;
+        while (row < table.getRowCount()) {
+            DateTime dayStart = new DateTime(table.getTimestamp(row), DateTimeZone.UTC).withTimeAtStartOfDay();
+            Interval day = new Interval(dayStart, dayStart.plusDays(1));
+
+            ObjectNode segment = segments.addObject();
+            segment.put("dataSource", table.getName());
+            segment.put("interval", day.toString());
+            segment.put("version", version);
+            segment.putObject("loadSpec");
+            segment.put("dimensions", dimensions);
+            segment.put("metrics", metrics);
+            ObjectNode shardSpec = segment.putObject("shardSpec");
+            shardSpec.put("type", "hashed");
+            shardSpec.put("partitionNum", 0);
+            shardSpec.put("partitions", 1);
+            segment.put("binaryVersion", 9);
+            segment.put("size", 0);
+            segment.put("identifier", String.join("_", table.getName(), day.getStart().toString(), version));
+
+            row = table.firstRowAtOrAfter(day.getEndMillis());
+        }
+        return metadata;
+    }
+
+    @Override
+    public DruidServiceConfig getServiceConfig() {
+        return serviceConfig;
+    }
+
+    @Override
+    public Integer getTimeout() {
+        return serviceConfig.getTimeout();
+    }
+
+    @Override
+    public String toString() {
+        return "LocalDruidWebService{serviceConfig=" + serviceConfig + ", tables=" + tables.keySet() + "}";
+    }
+}
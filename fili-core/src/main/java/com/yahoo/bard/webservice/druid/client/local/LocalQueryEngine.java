@@ -0,0 +1,909 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.local;
+
+import com.yahoo.bard.webservice.data.dimension.Dimension;
+import com.yahoo.bard.webservice.data.time.AllGranularity;
+import com.yahoo.bard.webservice.data.time.Granularity;
+import com.yahoo.bard.webservice.data.time.TimeGrain;
+import com.yahoo.bard.webservice.druid.model.Ordering;
+import com.yahoo.bard.webservice.druid.model.aggregation.Aggregation;
+import com.yahoo.bard.webservice.druid.model.aggregation.CountAggregation;
+import com.yahoo.bard.webservice.druid.model.aggregation.DoubleMaxAggregation;
+import com.yahoo.bard.webservice.druid.model.aggregation.DoubleMinAggregation;
+import com.yahoo.bard.webservice.druid.model.aggregation.DoubleSumAggregation;
+import com.yahoo.bard.webservice.druid.model.aggregation.FilteredAggregation;
+import com.yahoo.bard.webservice.druid.model.aggregation.LongMaxAggregation;
+import com.yahoo.bard.webservice.druid.model.aggregation.LongMinAggregation;
+import com.yahoo.bard.webservice.druid.model.aggregation.LongSumAggregation;
+import com.yahoo.bard.webservice.druid.model.filter.AndFilter;
+import com.yahoo.bard.webservice.druid.model.filter.BoundFilter;
+import com.yahoo.bard.webservice.druid.model.filter.DimensionalFilter;
+import com.yahoo.bard.webservice.druid.model.filter.Filter;
+import com.yahoo.bard.webservice.druid.model.filter.InFilter;
+import com.yahoo.bard.webservice.druid.model.filter.NotFilter;
+import com.yahoo.bard.webservice.druid.model.filter.OrFilter;
+import com.yahoo.bard.webservice.druid.model.filter.RegularExpressionFilter;
+import com.yahoo.bard.webservice.druid.model.filter.SearchFilter;
+import com.yahoo.bard.webservice.druid.model.filter.SelectorFilter;
+import com.yahoo.bard.webservice.druid.model.having.AndHaving;
+import com.yahoo.bard.webservice.druid.model.having.Having;
+import com.yahoo.bard.webservice.druid.model.having.NotHaving;
+import com.yahoo.bard.webservice.druid.model.having.NumericHaving;
+import com.yahoo.bard.webservice.druid.model.having.OrHaving;
+import com.yahoo.bard.webservice.druid.model.orderby.LimitSpec;
+import com.yahoo.bard.webservice.druid.model.orderby.OrderByColumn;
+import com.yahoo.bard.webservice.druid.model.orderby.SortDirection;
+import com.yahoo.bard.webservice.druid.model.orderby.TopNMetric;
+import com.yahoo.bard.webservice.druid.model.postaggregation.ArithmeticPostAggregation;
+import com.yahoo.bard.webservice.druid.model.postaggregation.ConstantPostAggregation;
+import com.yahoo.bard.webservice.druid.model.postaggregation.FieldAccessorPostAggregation;
+import com.yahoo.bard.webservice.druid.model.postaggregation.PostAggregation;
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.druid.model.query.GroupByQuery;
+import com.yahoo.bard.webservice.druid.model.query.TimeSeriesQuery;
+import com.yahoo.bard.webservice.druid.model.query.TopNQuery;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Evaluates Druid aggregation queries against a {@link ColumnarTable} and builds the response Druid would have sent.
+ * <p>
+ * Group by, topN and timeseries queries over a single table are supported with the selector, in, search, bound,
+ * regex, and, or and not filters; the count, sum, min, max and filtered aggregations; the arithmetic, field
+ * accessor and constant post aggregations; and numeric havings. Anything else, including extraction functions and
+ * nested queries, throws an {@link UnsupportedOperationException} so that it can be sent to Druid instead.
+ * <p>
+ * Filters are evaluated once per distinct dimension value using the table's dictionaries, so the per row cost of
+ * a filter is a bit lookup.
+ */
+public class LocalQueryEngine {
+
+    private static final JsonNodeFactory NODE_FACTORY = JsonNodeFactory.instance;
+
+    /**
+     * Run a query against a table.
+     *
+     * @param query  The query to run
+     * @param table  The table holding the data of the query's data source
+     *
+     * @return the query response in the shape Druid would have returned it
+     *
+     * @throws UnsupportedOperationException if the query uses a feature this engine cannot evaluate
+     */
+    public JsonNode execute(DruidAggregationQuery<?> query, ColumnarTable table) {
+        if (query.getInnerQuery().isPresent()) {
+            throw new UnsupportedOperationException("Nested queries can't be run locally: " + query);
+        }
+        if (!(query instanceof GroupByQuery || query instanceof TopNQuery || query instanceof TimeSeriesQuery)) {
+            throw new UnsupportedOperationException("Query type can't be run locally: " + query.getQueryType());
+        }
+
+        Function<String, String> physicalNames = name -> query.getDataSource()
+                .getPhysicalTable()
+                .getPhysicalColumnName(name);
+
+        List<Dimension> dimensions = new ArrayList<>(query.getDimensions());
+        DictionaryEncodedColumn[] dimensionColumns = dimensions.stream()
+                .map(dimension -> table.getDimension(physicalNames.apply(dimension.getApiName())).orElse(null))
+                .toArray(DictionaryEncodedColumn[]::new);
+
+        List<Aggregation> aggregations = new ArrayList<>(query.getAggregations());
+        List<Supplier<Aggregator>> aggregators = aggregations.stream()
+                .map(aggregation -> compileAggregation(aggregation, table, physicalNames))
+                .collect(Collectors.toList());
+
+        IntPredicate filter = compileFilter(query.getFilter(), table, physicalNames);
+        LongUnaryOperator bucketer = compileBucketer(query);
+
+        // Aggregate the filtered rows of the requested intervals into groups
+        Map<GroupKey, Aggregator[]> groups = new HashMap<>();
+        BitSet rows = selectRows(query.getIntervals(), table);
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            if (!filter.test(row)) {
+                continue;
+            }
+            int[] codes = new int[dimensionColumns.length];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = dimensionColumns[i] == null ? 0 : dimensionColumns[i].getCode(row);
+            }
+            Aggregator[] state = groups.computeIfAbsent(
+                    new GroupKey(bucketer.applyAsLong(table.getTimestamp(row)), codes),
+                    ignored -> aggregators.stream().map(Supplier::get).toArray(Aggregator[]::new)
+            );
+            for (Aggregator aggregator : state) {
+                aggregator.aggregate(row);
+            }
+        }
+
+        // Turn the groups into named values
+        List<ResultRow> results = new ArrayList<>(groups.size());
+        for (Map.Entry<GroupKey, Aggregator[]> group : groups.entrySet()) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            int[] codes = group.getKey().codes;
+            for (int i = 0; i < codes.length; i++) {
+                String value = dimensionColumns[i] == null ? null : dimensionColumns[i].getValue(codes[i]);
+                values.put(dimensions.get(i).getApiName(), value);
+            }
+            for (int i = 0; i < aggregations.size(); i++) {
+                values.put(aggregations.get(i).getName(), group.getValue()[i].get());
+            }
+            for (PostAggregation postAggregation : query.getPostAggregations()) {
+                values.put(postAggregation.getName(), evaluatePostAggregation(postAggregation, values));
+            }
+            results.add(new ResultRow(group.getKey().bucket, values));
+        }
+
+        if (query instanceof GroupByQuery) {
+            return buildGroupByResponse((GroupByQuery) query, results);
+        }
+        if (query instanceof TopNQuery) {
+            return buildTopNResponse((TopNQuery) query, results);
+        }
+        return buildTimeSeriesResponse(results);
+    }
+
+    /**
+     * Find the rows of a table which fall in any of a set of intervals.
+     *
+     * @param intervals  The intervals to select
+     * @param table  The table to select from
+     *
+     * @return the selected rows
+     */
+    private BitSet selectRows(List<Interval> intervals, ColumnarTable table) {
+        BitSet rows = new BitSet(table.getRowCount());
+        for (Interval interval : intervals) {
+            rows.set(
+                    table.firstRowAtOrAfter(interval.getStartMillis()),
+                    table.firstRowAtOrAfter(interval.getEndMillis())
+            );
+        }
+        return rows;
+    }
+
+    /**
+     * Build the function which maps a row's timestamp to the start of its time bucket.
+     *
+     * @param query  The query whose granularity is being used
+     *
+     * @return the bucketing function
+     */
+    private LongUnaryOperator compileBucketer(DruidAggregationQuery<?> query) {
+        Granularity granularity = query.getGranularity();
+        if (granularity instanceof AllGranularity) {
+            // Druid reports "all" granularity results at the start of the query
+            long start = query.getIntervals().stream()
+                    .mapToLong(Interval::getStartMillis)
+                    .min()
+                    .orElse(0);
+            return timestamp -> start;
+        }
+        if (!(granularity instanceof TimeGrain)) {
+            throw new UnsupportedOperationException("Granularity can't be run locally: " + granularity);
+        }
+        TimeGrain timeGrain = (TimeGrain) granularity;
+
+        // Rows are sorted by time, so remember the last bucket to avoid rounding every row
+        long[] lastBucket = {Long.MAX_VALUE, Long.MIN_VALUE};
+        return timestamp -> {
+            if (timestamp < lastBucket[0] || timestamp >= lastBucket[1]) {
+                DateTime start = timeGrain.roundFloor(new DateTime(timestamp, DateTimeZone.UTC));
+                lastBucket[0] = start.getMillis();
+                lastBucket[1] = timeGrain.roundCeiling(start.plusMillis(1)).getMillis();
+            }
+            return lastBucket[0];
+        };
+    }
+
+    /**
+     * Build a row predicate from a filter.
+     *
+     * @param filter  The filter to compile, null matches every row
+     * @param table  The table the predicate will read
+     * @param physicalNames  Maps dimension api names to physical names
+     *
+     * @return a predicate on row indexes
+     */
+    private IntPredicate compileFilter(Filter filter, ColumnarTable table, Function<String, String> physicalNames) {
+        if (filter == null) {
+            return row -> true;
+        }
+        if (filter instanceof AndFilter) {
+            return ((AndFilter) filter).getFields().stream()
+                    .map(field -> compileFilter(field, table, physicalNames))
+                    .reduce(row -> true, IntPredicate::and);
+        }
+        if (filter instanceof OrFilter) {
+            return ((OrFilter) filter).getFields().stream()
+                    .map(field -> compileFilter(field, table, physicalNames))
+                    .reduce(row -> false, IntPredicate::or);
+        }
+        if (filter instanceof NotFilter) {
+            return compileFilter(((NotFilter) filter).getField(), table, physicalNames).negate();
+        }
+        if (filter instanceof DimensionalFilter) {
+            DimensionalFilter<?> dimensionalFilter = (DimensionalFilter<?>) filter;
+            return matchDimension(dimensionalFilter, compileValuePredicate(dimensionalFilter), table, physicalNames);
+        }
+        throw new UnsupportedOperationException("Filter can't be run locally: " + filter);
+    }
+
+    /**
+     * Build the predicate a dimensional filter applies to a single dimension value.
+     *
+     * @param filter  The filter to compile
+     *
+     * @return a predicate on dimension values, where null is the missing value
+     */
+    private Predicate<String> compileValuePredicate(DimensionalFilter<?> filter) {
+        if (filter.getExtractionFunction() != null) {
+            throw new UnsupportedOperationException("Extraction functions can't be run locally: " + filter);
+        }
+        if (filter instanceof SelectorFilter) {
+            String expected = emptyToNull(((SelectorFilter) filter).getValue());
+            return value -> Objects.equals(value, expected);
+        }
+        if (filter instanceof InFilter) {
+            Set<String> expected = ((InFilter) filter).getValues().stream()
+                    .map(LocalQueryEngine::emptyToNull)
+                    .collect(Collectors.toSet());
+            return expected::contains;
+        }
+        if (filter instanceof RegularExpressionFilter) {
+            Pattern pattern = ((RegularExpressionFilter) filter).getPattern();
+            return value -> value != null && pattern.matcher(value).find();
+        }
+        if (filter instanceof SearchFilter) {
+            return compileSearch((SearchFilter) filter);
+        }
+        if (filter instanceof BoundFilter) {
+            return compileBound((BoundFilter) filter);
+        }
+        throw new UnsupportedOperationException("Filter can't be run locally: " + filter);
+    }
+
+    /**
+     * Build the value predicate of a search filter.
+     *
+     * @param filter  The search filter
+     *
+     * @return a predicate on dimension values
+     */
+    private Predicate<String> compileSearch(SearchFilter filter) {
+        String target = filter.getQueryValue();
+        SearchFilter.QueryType queryType = SearchFilter.QueryType.fromType(filter.getQueryType())
+                .orElseThrow(() -> new UnsupportedOperationException("Search can't be run locally: " + filter));
+        switch (queryType) {
+            case Contains:
+                return value -> value != null && value.contains(target);
+            case InsensitiveContains:
+            case Fragment:
+                String lowerTarget = target.toLowerCase(Locale.ENGLISH);
+                return value -> value != null && value.toLowerCase(Locale.ENGLISH).contains(lowerTarget);
+            default:
+                throw new UnsupportedOperationException("Search can't be run locally: " + filter);
+        }
+    }
+
+    /**
+     * Build the value predicate of a bound filter.
+     *
+     * @param filter  The bound filter
+     *
+     * @return a predicate on dimension values
+     */
+    private Predicate<String> compileBound(BoundFilter filter) {
+        Ordering ordering = filter.getOrdering() == null ? Ordering.LEXICOGRAPHIC : filter.getOrdering();
+        Comparator<String> comparator;
+        switch (ordering) {
+            case LEXICOGRAPHIC:
+                comparator = Comparator.naturalOrder();
+                break;
+            case NUMERIC:
+                comparator = Comparator.comparingDouble(Double::parseDouble);
+                break;
+            default:
+                throw new UnsupportedOperationException("Bound ordering can't be run locally: " + ordering);
+        }
+        String lower = filter.getLower();
+        String upper = filter.getUpper();
+        boolean lowerStrict = Boolean.TRUE.equals(filter.isLowerStrict());
+        boolean upperStrict = Boolean.TRUE.equals(filter.isUpperStrict());
+        return value -> {
+            if (value == null) {
+                return false;
+            }
+            try {
+                if (lower != null) {
+                    int compared = comparator.compare(value, lower);
+                    if (compared < 0 || (lowerStrict && compared == 0)) {
+                        return false;
+                    }
+                }
+                if (upper != null) {
+                    int compared = comparator.compare(value, upper);
+                    if (compared > 0 || (upperStrict && compared == 0)) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (NumberFormatException ignored) {
+                // Values which aren't numbers never match a numeric bound
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Lift a predicate on dimension values to a predicate on rows.
+     *
+     * @param filter  The filter the predicate came from
+     * @param valuePredicate  The predicate on dimension values
+     * @param table  The table the predicate will read
+     * @param physicalNames  Maps dimension api names to physical names
+     *
+     * @return a predicate on row indexes
+     */
+    private IntPredicate matchDimension(
+            DimensionalFilter<?> filter,
+            Predicate<String> valuePredicate,
+            ColumnarTable table,
+            Function<String, String> physicalNames
+    ) {
+        String physicalName = physicalNames.apply(filter.getDimension().getApiName());
+        DictionaryEncodedColumn column = table.getDimension(physicalName).orElse(null);
+        if (column == null) {
+            // Every value of a missing dimension is null
+            boolean matches = valuePredicate.test(null);
+            return row -> matches;
+        }
+        BitSet matchingCodes = column.matching(valuePredicate);
+        return row -> matchingCodes.get(column.getCode(row));
+    }
+
+    /**
+     * Build a factory for the per group state of an aggregation.
+     *
+     * @param aggregation  The aggregation to compile
+     * @param table  The table the aggregation will read
+     * @param physicalNames  Maps column names to physical names
+     *
+     * @return a supplier of fresh aggregators
+     */
+    private Supplier<Aggregator> compileAggregation(
+            Aggregation aggregation,
+            ColumnarTable table,
+            Function<String, String> physicalNames
+    ) {
+        if (aggregation instanceof FilteredAggregation) {
+            FilteredAggregation filteredAggregation = (FilteredAggregation) aggregation;
+            IntPredicate filter = compileFilter(filteredAggregation.getFilter(), table, physicalNames);
+            Supplier<Aggregator> inner = compileAggregation(
+                    filteredAggregation.getAggregation(),
+                    table,
+                    physicalNames
+            );
+            return () -> new FilteredAggregator(filter, inner.get());
+        }
+        if (aggregation instanceof CountAggregation) {
+            return () -> new LongAggregator(row -> 1, Long::sum, 0);
+        }
+
+        NumericColumn column = table.getMetric(physicalNames.apply(aggregation.getFieldName())).orElse(null);
+        IntToLongFunction longs = column == null ? row -> 0 : column::getLong;
+        IntToDoubleFunction doubles = column == null ? row -> 0 : column::getDouble;
+        if (aggregation instanceof LongSumAggregation) {
+            return () -> new LongAggregator(longs, Long::sum, 0);
+        }
+        if (aggregation instanceof LongMinAggregation) {
+            return () -> new LongAggregator(longs, Math::min, Long.MAX_VALUE);
+        }
+        if (aggregation instanceof LongMaxAggregation) {
+            return () -> new LongAggregator(longs, Math::max, Long.MIN_VALUE);
+        }
+        if (aggregation instanceof DoubleSumAggregation) {
+            return () -> new DoubleAggregator(doubles, Double::sum, 0);
+        }
+        if (aggregation instanceof DoubleMinAggregation) {
+            return () -> new DoubleAggregator(doubles, Math::min, Double.POSITIVE_INFINITY);
+        }
+        if (aggregation instanceof DoubleMaxAggregation) {
+            return () -> new DoubleAggregator(doubles, Math::max, Double.NEGATIVE_INFINITY);
+        }
+        throw new UnsupportedOperationException("Aggregation can't be run locally: " + aggregation);
+    }
+
+    /**
+     * Compute a post aggregation from the values already computed for a row.
+     * <p>
+     * Arithmetic is done on doubles and division by zero is zero, matching Druid's arithmetic post aggregator.
+     *
+     * @param postAggregation  The post aggregation to compute
+     * @param values  The aggregated values of the row by name
+     *
+     * @return the value of the post aggregation
+     */
+    private Number evaluatePostAggregation(PostAggregation postAggregation, Map<String, Object> values) {
+        if (postAggregation instanceof FieldAccessorPostAggregation) {
+            String fieldName = ((FieldAccessorPostAggregation) postAggregation).getFieldName();
+            Object value = values.get(fieldName);
+            if (!(value instanceof Number)) {
+                throw new IllegalArgumentException("No aggregated value for field " + fieldName);
+            }
+            return (Number) value;
+        }
+        if (postAggregation instanceof ConstantPostAggregation) {
+            return ((ConstantPostAggregation) postAggregation).getValue();
+        }
+        if (postAggregation instanceof ArithmeticPostAggregation) {
+            ArithmeticPostAggregation arithmetic = (ArithmeticPostAggregation) postAggregation;
+            List<PostAggregation> fields = arithmetic.getFields();
+            double result = evaluatePostAggregation(fields.get(0), values).doubleValue();
+            for (PostAggregation field : fields.subList(1, fields.size())) {
+                double operand = evaluatePostAggregation(field, values).doubleValue();
+                switch (arithmetic.getFn()) {
+                    case PLUS:
+                        result += operand;
+                        break;
+                    case MINUS:
+                        result -= operand;
+                        break;
+                    case MULTIPLY:
+                        result *= operand;
+                        break;
+                    case DIVIDE:
+                        result = operand == 0 ? 0 : result / operand;
+                        break;
+                    default:
+                        throw new UnsupportedOperationException("Post aggregation can't be run locally: " + arithmetic);
+                }
+            }
+            return result;
+        }
+        throw new UnsupportedOperationException("Post aggregation can't be run locally: " + postAggregation);
+    }
+
+    /**
+     * Check whether a row satisfies a having clause.
+     *
+     * @param having  The having clause
+     * @param values  The values of the row by name
+     *
+     * @return true if the row should be kept
+     */
+    private boolean matchesHaving(Having having, Map<String, Object> values) {
+        if (having instanceof AndHaving) {
+            return ((AndHaving) having).getHavings().stream().allMatch(inner -> matchesHaving(inner, values));
+        }
+        if (having instanceof OrHaving) {
+            return ((OrHaving) having).getHavings().stream().anyMatch(inner -> matchesHaving(inner, values));
+        }
+        if (having instanceof NotHaving) {
+            return !matchesHaving(((NotHaving) having).getHaving(), values);
+        }
+        if (having instanceof NumericHaving) {
+            NumericHaving numericHaving = (NumericHaving) having;
+            Object value = values.get(numericHaving.getAggregation());
+            if (!(value instanceof Number)) {
+                return false;
+            }
+            int compared = Double.compare(
+                    ((Number) value).doubleValue(),
+                    numericHaving.getValue().doubleValue()
+            );
+            if (numericHaving.getType() == Having.DefaultHavingType.EQUAL_TO) {
+                return compared == 0;
+            }
+            if (numericHaving.getType() == Having.DefaultHavingType.LESS_THAN) {
+                return compared < 0;
+            }
+            if (numericHaving.getType() == Having.DefaultHavingType.GREATER_THAN) {
+                return compared > 0;
+            }
+        }
+        throw new UnsupportedOperationException("Having can't be run locally: " + having);
+    }
+
+    /**
+     * Apply the having, ordering and limit of a group by query and build its response.
+     *
+     * @param query  The group by query
+     * @param results  The aggregated rows
+     *
+     * @return the group by response
+     */
+    private JsonNode buildGroupByResponse(GroupByQuery query, List<ResultRow> results) {
+        List<ResultRow> rows = query.getHaving() == null ? results : results.stream()
+                .filter(row -> matchesHaving(query.getHaving(), row.values))
+                .collect(Collectors.toList());
+
+        // Druid orders by time first, then by the limit spec and finally by the dimensions
+        Comparator<ResultRow> comparator = Comparator.comparingLong(row -> row.bucket);
+        LimitSpec limitSpec = query.getLimitSpec();
+        if (limitSpec != null) {
+            for (OrderByColumn column : limitSpec.getColumns()) {
+                Comparator<ResultRow> byColumn = Comparator.comparing(
+                        row -> row.values.get(column.getDimension()),
+                        LocalQueryEngine::compareValues
+                );
+                comparator = comparator.thenComparing(
+                        column.getDirection() == SortDirection.DESC ? byColumn.reversed() : byColumn
+                );
+            }
+        }
+        for (Dimension dimension : query.getDimensions()) {
+            comparator = comparator.thenComparing(
+                    row -> row.values.get(dimension.getApiName()),
+                    LocalQueryEngine::compareValues
+            );
+        }
+        rows.sort(comparator);
+
+        if (limitSpec != null && limitSpec.getLimit().isPresent() && limitSpec.getLimit().getAsInt() < rows.size()) {
+            rows = rows.subList(0, limitSpec.getLimit().getAsInt());
+        }
+
+        ArrayNode response = NODE_FACTORY.arrayNode();
+        for (ResultRow row : rows) {
+            ObjectNode record = response.addObject();
+            record.put("version", "v1");
+            record.put("timestamp", formatTimestamp(row.bucket));
+            record.set("event", toEvent(row.values));
+        }
+        return response;
+    }
+
+    /**
+     * Rank the rows of each time bucket of a topN query and build its response.
+     *
+     * @param query  The topN query
+     * @param results  The aggregated rows
+     *
+     * @return the topN response
+     */
+    private JsonNode buildTopNResponse(TopNQuery query, List<ResultRow> results) {
+        Comparator<ResultRow> comparator = compileTopNComparator(query.getMetric(), query.getDimension().getApiName());
+
+        Map<Long, List<ResultRow>> buckets = new TreeMap<>();
+        for (ResultRow row : results) {
+            buckets.computeIfAbsent(row.bucket, ignored -> new ArrayList<>()).add(row);
+        }
+
+        ArrayNode response = NODE_FACTORY.arrayNode();
+        for (Map.Entry<Long, List<ResultRow>> bucket : buckets.entrySet()) {
+            ObjectNode record = response.addObject();
+            record.put("timestamp", formatTimestamp(bucket.getKey()));
+            ArrayNode ranked = record.putArray("result");
+            bucket.getValue().stream()
+                    .sorted(comparator)
+                    .limit(query.getThreshold())
+                    .map(row -> toEvent(row.values))
+                    .forEach(ranked::add);
+        }
+        return response;
+    }
+
+    /**
+     * Build the ordering a topN metric specifies.
+     *
+     * @param metric  The topN metric
+     * @param dimensionName  The name of the topN dimension in the result rows
+     *
+     * @return a comparator which puts the highest ranked row first
+     */
+    private Comparator<ResultRow> compileTopNComparator(TopNMetric metric, String dimensionName) {
+        if (metric == null || metric.getPreviousStop() != null) {
+            throw new UnsupportedOperationException("TopN metric can't be run locally: " + metric);
+        }
+        switch (metric.getType()) {
+            case NUMERIC:
+                if (!(metric.getMetric() instanceof String)) {
+                    break;
+                }
+                String metricName = (String) metric.getMetric();
+                Comparator<ResultRow> ascending = Comparator.comparing(
+                        row -> row.values.get(metricName),
+                        LocalQueryEngine::compareValues
+                );
+                return ascending.reversed();
+            case INVERTED:
+                if (!(metric.getMetric() instanceof TopNMetric)) {
+                    break;
+                }
+                return compileTopNComparator((TopNMetric) metric.getMetric(), dimensionName).reversed();
+            case LEXICOGRAPHIC:
+                return Comparator.comparing(row -> row.values.get(dimensionName), LocalQueryEngine::compareValues);
+            default:
+                break;
+        }
+        throw new UnsupportedOperationException("TopN metric can't be run locally: " + metric);
+    }
+
+    /**
+     * Build a timeseries response. Only buckets containing data are included.
+     *
+     * @param results  The aggregated rows, one per time bucket
+     *
+     * @return the timeseries response
+     */
+    private JsonNode buildTimeSeriesResponse(List<ResultRow> results) {
+        ArrayNode response = NODE_FACTORY.arrayNode();
+        results.stream()
+                .sorted(Comparator.comparingLong(row -> row.bucket))
+                .forEach(row -> {
+                    ObjectNode record = response.addObject();
+                    record.put("timestamp", formatTimestamp(row.bucket));
+                    record.set("result", toEvent(row.values));
+                });
+        return response;
+    }
+
+    /**
+     * Serialize the values of a row.
+     *
+     * @param values  The values by name
+     *
+     * @return a JSON object holding the values
+     */
+    private ObjectNode toEvent(Map<String, Object> values) {
+        ObjectNode event = NODE_FACTORY.objectNode();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            if (value == null) {
+                event.putNull(entry.getKey());
+            } else if (value instanceof Long || value instanceof Integer) {
+                event.put(entry.getKey(), ((Number) value).longValue());
+            } else if (value instanceof Number) {
+                event.put(entry.getKey(), ((Number) value).doubleValue());
+            } else {
+                event.put(entry.getKey(), value.toString());
+            }
+        }
+        return event;
+    }
+
+    /**
+     * Format an instant the way Druid formats result timestamps.
+     *
+     * @param millis  The instant in milliseconds since the epoch
+     *
+     * @return the ISO 8601 representation of the instant in UTC
+     */
+    private static String formatTimestamp(long millis) {
+        return new DateTime(millis, DateTimeZone.UTC).toString();
+    }
+
+    /**
+     * Compare two result values, numerically if both are numbers and as strings otherwise. Nulls sort first.
+     *
+     * @param left  The first value
+     * @param right  The second value
+     *
+     * @return a negative number, zero or a positive number as the first value is less than, equal to or greater than
+     * the second
+     */
+    private static int compareValues(Object left, Object right) {
+        if (left == null || right == null) {
+            return left == null ? (right == null ? 0 : -1) : 1;
+        }
+        if (left instanceof Number && right instanceof Number) {
+            return Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue());
+        }
+        return left.toString().compareTo(right.toString());
+    }
+
+    /**
+     * Druid does not distinguish empty strings from missing values.
+     *
+     * @param value  The value to normalize
+     *
+     * @return null if the value is null or empty, the value otherwise
+     */
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * The running state of one aggregation for one group.
+     */
+    private interface Aggregator {
+
+        /**
+         * Fold a row into the aggregated value.
+         *
+         * @param row  The row to aggregate
+         */
+        void aggregate(int row);
+
+        /**
+         * Get the aggregated value.
+         *
+         * @return the value aggregated so far
+         */
+        Number get();
+    }
+
+    /**
+     * Aggregates a long valued reading of each row.
+     */
+    private static final class LongAggregator implements Aggregator {
+        private final IntToLongFunction reader;
+        private final LongBinaryOperator operator;
+        private long value;
+
+        /**
+         * Constructor.
+         *
+         * @param reader  Reads the value of a row
+         * @param operator  Folds a row's value into the aggregated value
+         * @param initial  The aggregated value of no rows
+         */
+        private LongAggregator(IntToLongFunction reader, LongBinaryOperator operator, long initial) {
+            this.reader = reader;
+            this.operator = operator;
+            this.value = initial;
+        }
+
+        @Override
+        public void aggregate(int row) {
+            value = operator.applyAsLong(value, reader.applyAsLong(row));
+        }
+
+        @Override
+        public Number get() {
+            return value;
+        }
+    }
+
+    /**
+     * Aggregates a double valued reading of each row.
+     */
+    private static final class DoubleAggregator implements Aggregator {
+        private final IntToDoubleFunction reader;
+        private final DoubleBinaryOperator operator;
+        private double value;
+
+        /**
+         * Constructor.
+         *
+         * @param reader  Reads the value of a row
+         * @param operator  Folds a row's value into the aggregated value
+         * @param initial  The aggregated value of no rows
+         */
+        private DoubleAggregator(IntToDoubleFunction reader, DoubleBinaryOperator operator, double initial) {
+            this.reader = reader;
+            this.operator = operator;
+            this.value = initial;
+        }
+
+        @Override
+        public void aggregate(int row) {
+            value = operator.applyAsDouble(value, reader.applyAsDouble(row));
+        }
+
+        @Override
+        public Number get() {
+            return value;
+        }
+    }
+
+    /**
+     * Only passes the rows matching a filter on to another aggregator.
+     */
+    private static final class FilteredAggregator implements Aggregator {
+        private final IntPredicate filter;
+        private final Aggregator inner;
+
+        /**
+         * Constructor.
+         *
+         * @param filter  The rows to aggregate
+         * @param inner  The aggregator of the matching rows
+         */
+        private FilteredAggregator(IntPredicate filter, Aggregator inner) {
+            this.filter = filter;
+            this.inner = inner;
+        }
+
+        @Override
+        public void aggregate(int row) {
+            if (filter.test(row)) {
+                inner.aggregate(row);
+            }
+        }
+
+        @Override
+        public Number get() {
+            return inner.get();
+        }
+    }
+
+    /**
+     * Identifies a group by its time bucket and the dictionary codes of its dimension values.
+     */
+    private static final class GroupKey {
+        private final long bucket;
+        private final int[] codes;
+        private final int hashCode;
+
+        /**
+         * Constructor.
+         *
+         * @param bucket  Start of the time bucket in milliseconds
+         * @param codes  Dictionary code of each grouped dimension
+         */
+        private GroupKey(long bucket, int[] codes) {
+            this.bucket = bucket;
+            this.codes = codes;
+            this.hashCode = 31 * Long.hashCode(bucket) + Arrays.hashCode(codes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof GroupKey)) {
+                return false;
+            }
+            GroupKey that = (GroupKey) o;
+            return bucket == that.bucket && Arrays.equals(codes, that.codes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * An aggregated row of a result.
+     */
+    private static final class ResultRow {
+        private final long bucket;
+        private final Map<String, Object> values;
+
+        /**
+         * Constructor.
+         *
+         * @param bucket  Start of the row's time bucket in milliseconds
+         * @param values  Dimension values, aggregations and post aggregations of the row by name
+         */
+        private ResultRow(long bucket, Map<String, Object> values) {
+            this.bucket = bucket;
+            this.values = values;
+        }
+    }
+}
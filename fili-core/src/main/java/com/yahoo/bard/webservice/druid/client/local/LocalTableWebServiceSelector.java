@@ -0,0 +1,47 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.local;
+
+import com.yahoo.bard.webservice.druid.client.DruidWebService;
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.util.DruidWebServiceSelector;
+import com.yahoo.bard.webservice.web.apirequest.DataApiRequest;
+import com.yahoo.bard.webservice.web.handlers.RequestContext;
+
+/**
+ * Sends queries on tables loaded in a {@link LocalDruidWebService} to that service and every other query to a
+ * fallback selector, typically one picking a Druid broker.
+ */
+public class LocalTableWebServiceSelector implements DruidWebServiceSelector {
+
+    private final LocalDruidWebService localWebService;
+    private final DruidWebServiceSelector fallback;
+
+    /**
+     * Constructor.
+     *
+     * @param localWebService  The service answering queries on local tables
+     * @param fallback  The selector used for every other query
+     */
+    public LocalTableWebServiceSelector(LocalDruidWebService localWebService, DruidWebServiceSelector fallback) {
+        this.localWebService = localWebService;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param localWebService  The service answering queries on local tables
+     * @param fallback  The service used for every other query
+     */
+    public LocalTableWebServiceSelector(LocalDruidWebService localWebService, DruidWebService fallback) {
+        this(localWebService, (context, request, druidQuery) -> fallback);
+    }
+
+    @Override
+    public DruidWebService select(RequestContext context, DataApiRequest request, DruidAggregationQuery<?> druidQuery) {
+        return localWebService.isQueryable(druidQuery) ?
+                localWebService :
+                fallback.select(context, request, druidQuery);
+    }
+}
@@ -0,0 +1,100 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.local;
+
+/**
+ * An immutable metric column stored as a primitive array.
+ * <p>
+ * A column is stored as longs unless any of its values is a floating point number, in which case it is stored as
+ * doubles. Missing values are stored as 0, which is how Druid treats a metric that was not ingested for a row.
+ */
+public class NumericColumn {
+
+    private final long[] longValues;
+    private final double[] doubleValues;
+
+    /**
+     * Constructor.
+     *
+     * @param values  The value of this column for each row, nulls are stored as 0
+     */
+    public NumericColumn(Number[] values) {
+        boolean floatingPoint = false;
+        for (Number value : values) {
+            if (value != null && !isIntegral(value)) {
+                floatingPoint = true;
+                break;
+            }
+        }
+
+        if (floatingPoint) {
+            longValues = null;
+            doubleValues = new double[values.length];
+            for (int row = 0; row < values.length; row++) {
+                doubleValues[row] = values[row] == null ? 0 : values[row].doubleValue();
+            }
+        } else {
+            longValues = new long[values.length];
+            doubleValues = null;
+            for (int row = 0; row < values.length; row++) {
+                longValues[row] = values[row] == null ? 0 : values[row].longValue();
+            }
+        }
+    }
+
+    /**
+     * Get the number of rows in this column.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        return longValues == null ? doubleValues.length : longValues.length;
+    }
+
+    /**
+     * Whether this column is stored as doubles.
+     *
+     * @return true if the values are floating point numbers
+     */
+    public boolean isFloatingPoint() {
+        return doubleValues != null;
+    }
+
+    /**
+     * Read a row as a long, truncating floating point values.
+     *
+     * @param row  The row to read
+     *
+     * @return the value of the row
+     */
+    public long getLong(int row) {
+        return longValues == null ? (long) doubleValues[row] : longValues[row];
+    }
+
+    /**
+     * Read a row as a double.
+     *
+     * @param row  The row to read
+     *
+     * @return the value of the row
+     */
+    public double getDouble(int row) {
+        return longValues == null ? doubleValues[row] : longValues[row];
+    }
+
+    /**
+     * Whether a number can be stored as a long without losing precision.
+     *
+     * @param value  The number to check
+     *
+     * @return true for the integral boxed types
+     */
+    private static boolean isIntegral(Number value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    @Override
+    public String toString() {
+        return "NumericColumn{rows=" + size() + ", floatingPoint=" + isFloatingPoint() + "}";
+    }
+}
@@ -171,9 +171,14 @@ public abstract class ConjunctionDruidFilterBuilder implements DruidFilterBuilde
      */
     protected List<String> getFilteredDimensionRowValues(Dimension dimension, Set<ApiFilter> filters)
             throws DimensionRowNotFoundException {
-        return getFilteredDimensionRows(dimension, filters).stream()
-                .map(DimensionRow::getKeyValue)
-                .collect(Collectors.toList());
+        // Only the keys are needed, so let the search provider skip building the rows where it can
+        List<String> values = dimension.getSearchProvider().findFilteredKeyValues(filters);
+
+        if (values.isEmpty()) {
+            throw dimensionRowsNotFound(dimension, filters);
+        }
+
+        return values;
     }
 
     /**
@@ -191,14 +196,26 @@ public abstract class ConjunctionDruidFilterBuilder implements DruidFilterBuilde
         Set<DimensionRow> rows = dimension.getSearchProvider().findFilteredDimensionRows(filters);
 
         if (rows.isEmpty()) {
-            String msg = ErrorMessageFormat.DIMENSION_ROWS_NOT_FOUND.format(dimension.getApiName(), filters);
-            LOG.debug(msg);
-            throw new DimensionRowNotFoundException(msg);
+            throw dimensionRowsNotFound(dimension, filters);
         }
 
         return rows;
     }
 
+    /**
+     * Builds the exception thrown when filters filter out all the rows of a dimension.
+     *
+     * @param dimension  The dimension being filtered
+     * @param filters  The filters being applied to the {@code dimension}
+     *
+     * @return the exception to throw
+     */
+    protected DimensionRowNotFoundException dimensionRowsNotFound(Dimension dimension, Set<ApiFilter> filters) {
+        String msg = ErrorMessageFormat.DIMENSION_ROWS_NOT_FOUND.format(dimension.getApiName(), filters);
+        LOG.debug(msg);
+        return new DimensionRowNotFoundException(msg);
+    }
+
     /**
      * Builds a list of Druid selector or extraction filters.
      *
@@ -208,28 +225,36 @@ public abstract class ConjunctionDruidFilterBuilder implements DruidFilterBuilde
      * @return a list of Druid selector filters
      */
     protected List<Filter> buildSelectorFilters(Dimension dimension, Set<DimensionRow> rows) {
-
-        Function<DimensionRow, Filter> filterBuilder = row -> new SelectorFilter(
+        return buildKeyValueSelectorFilters(
                 dimension,
-                row.get(dimension.getKey())
+                rows.stream().map(row -> row.get(dimension.getKey())).collect(Collectors.toList())
         );
+    }
+
+    /**
+     * Builds a list of Druid selector or extraction filters from the key values of dimension rows.
+     *
+     * @param dimension  The dimension to build the list of Druid selector filters from
+     * @param keyValues  The key values of the dimension rows that need selector filters built around
+     *
+     * @return a list of Druid selector filters
+     */
+    protected List<Filter> buildKeyValueSelectorFilters(Dimension dimension, List<String> keyValues) {
+
+        Function<String, Filter> filterBuilder = keyValue -> new SelectorFilter(dimension, keyValue);
 
         if (dimension instanceof ExtractionFunctionDimension) {
 
             Optional<ExtractionFunction> extractionFunction = ((ExtractionFunctionDimension) dimension)
                     .getExtractionFunction();
             if (extractionFunction.isPresent()) {
-                filterBuilder = row -> new ExtractionFilter(
-                        dimension,
-                        row.get(dimension.getKey()),
-                        extractionFunction.get()
-                );
+                filterBuilder = keyValue -> new ExtractionFilter(dimension, keyValue, extractionFunction.get());
             }
         }
 
-        final Function<DimensionRow, Filter> finalFilterBuilder = filterBuilder;
+        final Function<String, Filter> finalFilterBuilder = filterBuilder;
 
-        return rows.stream()
+        return keyValues.stream()
                 .map(finalFilterBuilder::apply)
                 .collect(Collectors.toList());
     }
@@ -25,8 +25,8 @@ import java.util.stream.Collectors;
  * Builds Dimension filters in a way to keep the size of filter clauses in Druid small.
  * <p>
  * If there is at least one positive filter amongst the filters of a given Dimension, then all of the filters are
- * resolved into a set of DimensionRows at once. A disjunction of selector filters is then built, one for each
- * dimension row in the resolved set.
+ * resolved into the key values of the matching DimensionRows at once. A disjunction of selector filters is then built,
+ * one for each key value in the resolved set.
  * <p>
  * So the filters:
  * <p>
@@ -61,7 +61,10 @@ public class ConsolidatingDruidFilterBuilder extends ConjunctionDruidFilterBuild
         if (!filters.stream().map(ApiFilter::getOperation).allMatch(DefaultFilterOperation.notin::equals)) {
             // The search provider returns the set of dimension rows that satisfy all the filters, which are translated
             // into a disjunction of selector filters on their ids for Druid to use.
-            List<Filter> druidFilters = buildSelectorFilters(dimension, getFilteredDimensionRows(dimension, filters));
+            List<Filter> druidFilters = buildKeyValueSelectorFilters(
+                    dimension,
+                    getFilteredDimensionRowValues(dimension, filters)
+            );
             return druidFilters.size() == 1 ? druidFilters.get(0) : new OrFilter(druidFilters);
         }
         // The search providers do not support disjunctions across dimension|field terms, so we can't use
@@ -70,12 +73,12 @@ public class ConsolidatingDruidFilterBuilder extends ConjunctionDruidFilterBuild
                 .map(filter -> filter.withOperation(DefaultFilterOperation.in))
                 .collect(Collectors.toCollection(LinkedHashSet::new));
 
-        // Can't really stream because getFilteredDimensionRows throws a very specific checked exception.
+        // Can't really stream because getFilteredDimensionRowValues throws a very specific checked exception.
         List<Filter> druidFilters = new ArrayList<>(negatedFilters.size());
         for (ApiFilter negatedFilter : negatedFilters) {
-            List<Filter> selectorFilters = buildSelectorFilters(
+            List<Filter> selectorFilters = buildKeyValueSelectorFilters(
                     dimension,
-                    getFilteredDimensionRows(dimension, Collections.singleton(negatedFilter))
+                    getFilteredDimensionRowValues(dimension, Collections.singleton(negatedFilter))
             );
             druidFilters.add(new NotFilter(
                     selectorFilters.size() == 1 ?
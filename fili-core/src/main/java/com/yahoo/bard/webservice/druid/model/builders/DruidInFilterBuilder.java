@@ -77,9 +77,9 @@ public class DruidInFilterBuilder extends ConjunctionDruidFilterBuilder {
                     }
                 })
                 .flatMap(List::stream)
-                .distinct()
                 .collect(Collectors.toList());
 
+        // the in-filters sort and deduplicate their values
         List<Filter> inFilters = new ArrayList<>(); // A set with at most two in-filters(positive & negative)
 
         // add a Druid in-filter out of the matched values of the positive filter
@@ -45,9 +45,9 @@ public class DruidOrFilterBuilder extends ConjunctionDruidFilterBuilder {
             if (normalizedFilter.getOperation().equals(DefaultFilterOperation.notin)) {
                 normalizedFilter = filter.withOperation(DefaultFilterOperation.in);
             }
-            Filter disjunction = new OrFilter(buildSelectorFilters(
+            Filter disjunction = new OrFilter(buildKeyValueSelectorFilters(
                     dimension,
-                    getFilteredDimensionRows(dimension, Collections.singleton(normalizedFilter))
+                    getFilteredDimensionRowValues(dimension, Collections.singleton(normalizedFilter))
             ));
             orFilters.add(normalizedFilter == filter ? disjunction : new NotFilter(disjunction));
         }
@@ -0,0 +1,149 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.model.builders;
+
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.data.dimension.Dimension;
+import com.yahoo.bard.webservice.data.dimension.DimensionRowNotFoundException;
+import com.yahoo.bard.webservice.data.dimension.impl.ExtractionFunctionDimension;
+import com.yahoo.bard.webservice.druid.model.dimension.extractionfunction.RegisteredLookupExtractionFunction;
+import com.yahoo.bard.webservice.druid.model.filter.AndFilter;
+import com.yahoo.bard.webservice.druid.model.filter.Filter;
+import com.yahoo.bard.webservice.druid.model.filter.InFilter;
+import com.yahoo.bard.webservice.web.ApiFilter;
+import com.yahoo.bard.webservice.web.DefaultFilterOperation;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@code LookupDruidInFilterBuilder} is a {@link DruidInFilterBuilder} that leaves very large in-filters on a
+ * dimension field to a Druid registered lookup, instead of resolving them into the key values of every matching
+ * dimension row.
+ * <p>
+ * When every positive filter on a dimension is an {@link DefaultFilterOperation#in} or
+ * {@link DefaultFilterOperation#eq} filter on a field that has a registered lookup from the dimension keys to the field
+ * values, and more rows match the filters than the threshold, each of those filters is sent to Druid as an in-filter on
+ * the filter values with the lookup as its extraction function. The rows are then only counted, never read, and the
+ * Druid query holds the filter values rather than the (usually far more numerous) matching key values.
+ * <p>
+ * For example, with a lookup {@code country_to_continent} registered for the {@code continent} field of
+ * {@code country}, {@code country|continent-in[Europe]} becomes {@code IN(country, [Europe], country_to_continent)}.
+ * <p>
+ * Druid has to hold the lookups and keep them in step with the dimension, so this builder is only used when bound
+ * explicitly in place of the default filter builder.
+ */
+public class LookupDruidInFilterBuilder extends DruidInFilterBuilder {
+    private static final Logger LOG = LoggerFactory.getLogger(LookupDruidInFilterBuilder.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * The number of matching dimension rows above which a lookup filter is used, if one is available.
+     */
+    public static final int DEFAULT_LOOKUP_THRESHOLD = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_in_filter_lookup_threshold"),
+            10000
+    );
+
+    private final Map<String, Map<String, String>> registeredLookups;
+    private final int lookupThreshold;
+
+    /**
+     * Constructor.
+     *
+     * @param registeredLookups  The names of the registered lookups from the dimension keys to the values of a field,
+     * by the api name of the dimension and then the name of the field
+     * @param lookupThreshold  The number of matching dimension rows above which a lookup filter is used
+     */
+    public LookupDruidInFilterBuilder(Map<String, Map<String, String>> registeredLookups, int lookupThreshold) {
+        this.registeredLookups = new LinkedHashMap<>(registeredLookups);
+        this.lookupThreshold = lookupThreshold;
+    }
+
+    /**
+     * Constructor, using the configured lookup threshold.
+     *
+     * @param registeredLookups  The names of the registered lookups from the dimension keys to the values of a field,
+     * by the api name of the dimension and then the name of the field
+     */
+    public LookupDruidInFilterBuilder(Map<String, Map<String, String>> registeredLookups) {
+        this(registeredLookups, DEFAULT_LOOKUP_THRESHOLD);
+    }
+
+    @Override
+    protected Filter buildDimensionFilter(Dimension dimension, Set<ApiFilter> filters)
+            throws DimensionRowNotFoundException {
+        Pair<Set<ApiFilter>, Set<ApiFilter>> positiveAndNegativeSplitFilters = splitApiFilters(filters);
+        Set<ApiFilter> positiveFilters = positiveAndNegativeSplitFilters.getLeft();
+        Set<ApiFilter> negativeFilters = positiveAndNegativeSplitFilters.getRight();
+
+        if (!canUseLookups(dimension, positiveFilters)) {
+            return super.buildDimensionFilter(dimension, filters);
+        }
+
+        int matchingRows = dimension.getSearchProvider().countFilteredDimensionRows(positiveFilters);
+        if (matchingRows == 0) {
+            throw dimensionRowsNotFound(dimension, positiveFilters);
+        }
+        if (matchingRows <= lookupThreshold) {
+            return super.buildDimensionFilter(dimension, filters);
+        }
+
+        LOG.debug("Filtering {} rows of {} through registered lookups", matchingRows, dimension.getApiName());
+        List<Filter> lookupFilters = buildLookupFilters(dimension, positiveFilters);
+        if (!negativeFilters.isEmpty()) {
+            lookupFilters.add(super.buildDimensionFilter(dimension, negativeFilters));
+        }
+        return lookupFilters.size() == 1 ? lookupFilters.get(0) : new AndFilter(lookupFilters);
+    }
+
+    /**
+     * Determine if every one of the positive filters can be sent to Druid through a registered lookup.
+     *
+     * @param dimension  The dimension being filtered
+     * @param positiveFilters  The positive filters being applied to the {@code dimension}
+     *
+     * @return true if there are positive filters and all of them can be sent through a lookup
+     */
+    protected boolean canUseLookups(Dimension dimension, Set<ApiFilter> positiveFilters) {
+        if (positiveFilters.isEmpty() || dimension instanceof ExtractionFunctionDimension) {
+            return false;
+        }
+        Map<String, String> lookups = registeredLookups.getOrDefault(dimension.getApiName(), Collections.emptyMap());
+        return positiveFilters.stream().allMatch(filter ->
+                lookups.containsKey(filter.getDimensionField().getName()) && (
+                        DefaultFilterOperation.in.equals(filter.getOperation()) ||
+                                DefaultFilterOperation.eq.equals(filter.getOperation())
+                )
+        );
+    }
+
+    /**
+     * Builds an in-filter through the registered lookup of its field for each of the positive filters.
+     *
+     * @param dimension  The dimension being filtered
+     * @param positiveFilters  The positive filters being applied to the {@code dimension}
+     *
+     * @return the lookup filters
+     */
+    protected List<Filter> buildLookupFilters(Dimension dimension, Set<ApiFilter> positiveFilters) {
+        Map<String, String> lookups = registeredLookups.get(dimension.getApiName());
+        List<Filter> lookupFilters = new ArrayList<>(positiveFilters.size() + 1);
+        for (ApiFilter filter : positiveFilters) {
+            String lookup = lookups.get(filter.getDimensionField().getName());
+            lookupFilters.add(
+                    new InFilter(dimension, filter.getValues(), new RegisteredLookupExtractionFunction(lookup))
+            );
+        }
+        return lookupFilters;
+    }
+}
@@ -3,7 +3,13 @@
 package com.yahoo.bard.webservice.druid.model.filter;
 
 import com.yahoo.bard.webservice.data.dimension.Dimension;
+import com.yahoo.bard.webservice.druid.model.dimension.extractionfunction.ExtractionFunction;
+import com.yahoo.bard.webservice.util.Utils;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
@@ -20,10 +26,13 @@ import javax.validation.constraints.NotNull;
  * {@link SelectorFilter}.
  * <p>
  * Note that Druid's in filter is only supported by Druid versions 0.9.0 and greater.
+ * <p>
+ * In filters may hold hundreds of thousands of values, so the values are kept sorted and distinct in an array, which
+ * is written straight out when the filter is serialized.
  */
 public class InFilter extends DimensionalFilter<InFilter> {
 
-    private final TreeSet<String> values;
+    private final String[] values;
 
     /**
      * Constructor.
@@ -33,17 +42,29 @@ public class InFilter extends DimensionalFilter<InFilter> {
      */
     public InFilter(Dimension dimension, @NotNull Collection<String> values) {
         super(dimension, DefaultFilterType.IN);
-        this.values = new TreeSet<>(values);
+        this.values = Utils.sortedDistinct(values.toArray(new String[values.size()]));
+    }
+
+    /**
+     * Constructor, with explicit extraction function provided.
+     *
+     * @param dimension  The dimension to perform an in filter on
+     * @param values  The values to filter on
+     * @param extractionFunction  Extraction function to be applied on dimension before matching the values
+     */
+    public InFilter(Dimension dimension, @NotNull Collection<String> values, ExtractionFunction extractionFunction) {
+        super(dimension, DefaultFilterType.IN, extractionFunction);
+        this.values = Utils.sortedDistinct(values.toArray(new String[values.size()]));
     }
 
     //CHECKSTYLE:OFF
     @Override
     public InFilter withDimension(Dimension dimension) {
-        return new InFilter(dimension, getValues());
+        return new InFilter(dimension, Arrays.asList(values), getExtractionFunction());
     }
 
     public InFilter withValues(List<String> values) {
-        return new InFilter(getDimension(), values);
+        return new InFilter(getDimension(), values, getExtractionFunction());
     }
     //CHECKSTYLE:ON
 
@@ -52,13 +73,34 @@ public class InFilter extends DimensionalFilter<InFilter> {
      *
      * @return The set of values to filter on
      */
+    @JsonIgnore
     public TreeSet<String> getValues() {
-        return new TreeSet<>(values);
+        return new TreeSet<>(Arrays.asList(values));
+    }
+
+    /**
+     * Return the number of values to filter on, without copying them.
+     *
+     * @return The number of values to filter on
+     */
+    @JsonIgnore
+    public int getValueCount() {
+        return values.length;
+    }
+
+    /**
+     * Get the sorted, distinct values to filter on, for serialization.
+     *
+     * @return The values to filter on
+     */
+    @JsonProperty("values")
+    private String[] getSortedValues() {
+        return values;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), values);
+        return Objects.hash(super.hashCode(), Arrays.hashCode(values));
     }
 
     @Override
@@ -68,11 +110,12 @@ public class InFilter extends DimensionalFilter<InFilter> {
 
         InFilter inFilter = (InFilter) o;
 
-        return super.equals(inFilter) && Objects.equals(values, inFilter.values);
+        return super.equals(inFilter) && Arrays.equals(values, inFilter.values);
     }
 
     @Override
     public String toString() {
-        return "Filter{ type=" + getType() + ", dimension=" + getDimension() + ", value=" + getValues() + "}";
+        return "Filter{ type=" + getType() + ", dimension=" + getDimension() + ", value=" + Arrays.toString(values)
+                + "}";
     }
 }
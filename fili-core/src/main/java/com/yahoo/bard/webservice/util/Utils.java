@@ -248,6 +248,24 @@ public class Utils {
         return new ImmutablePair<>(pair.getLeft(), right);
     }
 
+    /**
+     * Sorts an array of strings in place and drops its duplicates.
+     *
+     * @param values  The strings to sort, which is reordered
+     *
+     * @return the distinct strings in order, which is the given array if it had no duplicates
+     */
+    public static String[] sortedDistinct(String[] values) {
+        Arrays.sort(values);
+        int distinct = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (distinct == 0 || !values[i].equals(values[distinct - 1])) {
+                values[distinct++] = values[i];
+            }
+        }
+        return distinct == values.length ? values : Arrays.copyOf(values, distinct);
+    }
+
     /**
      * Create metrics from instance descriptors and store in the metric dictionary.
      *
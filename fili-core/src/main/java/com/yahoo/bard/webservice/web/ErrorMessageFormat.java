@@ -205,6 +205,11 @@ public enum ErrorMessageFormat implements MessageFormatter {
                     "integer number of milliseconds."
     ),
 
+    ASYNC_STAGE_SATURATED(
+            "Too many asynchronous queries are in progress. Please try again later.",
+            "Asynchronous stage '%s' is saturated with %d of %d operations running and %d of %d queued"
+    ),
+
     FILTER_JOBFIELD_UNDEFINED("Filter field '%s' does not exist. The possible fields to filter on are '%s'"),
 
     FAILED_TO_SEND_QUERY_TO_DRUID("Failed to retrieve data.", "Failed to send the query %s to Druid."),
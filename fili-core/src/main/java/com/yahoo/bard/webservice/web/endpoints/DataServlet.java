@@ -51,6 +51,7 @@ import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessor;
 import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessorFactory;
 import com.yahoo.bard.webservice.web.util.BardConfigResources;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.annotation.Timed;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -70,6 +71,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -82,6 +84,8 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.ConnectionCallback;
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
@@ -100,6 +104,8 @@ public class DataServlet extends CORSPreflightServlet implements BardConfigResou
     private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
 
     private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+    private static final Meter DISCONNECTED_REQUESTS = REGISTRY.meter("request.cancelled.disconnected");
+    private static final Meter COMPLETED_REQUESTS = REGISTRY.meter("request.cancelled.completed");
 
     private final ResourceDictionaries resourceDictionaries;
     private final DruidQueryBuilder druidQueryBuilder;
@@ -429,6 +435,9 @@ public class DataServlet extends CORSPreflightServlet implements BardConfigResou
                 context = new RequestContext(containerRequestContext, readCache);
             }
 
+            AtomicBoolean asynchronous = new AtomicBoolean(false);
+            cancelWithoutClient(asyncResponse, context, asynchronous);
+
             Subject<PreResponse, PreResponse> queryResultsEmitter = PublishSubject.create();
 
             setupAsynchronousWorkflows(
@@ -436,7 +445,8 @@ public class DataServlet extends CORSPreflightServlet implements BardConfigResou
                     queryResultsEmitter,
                     containerRequestContext,
                     asyncResponse,
-                    httpResponseMaker
+                    httpResponseMaker,
+                    asynchronous
             );
 
             ResponseProcessor responseProcessor = responseProcessorFactory.build(
@@ -483,6 +493,31 @@ public class DataServlet extends CORSPreflightServlet implements BardConfigResou
         }
     }
 
+    /**
+     * Cancels the Druid queries of a synchronous request still in flight once nobody is waiting for their results:
+     * when the client disconnects, or when the response was already sent, such as an error or a timeout.
+     * <p>
+     * The queries of a request which has become asynchronous keep running, since their results are stored for later.
+     *
+     * @param asyncResponse  The channel over which user responses will be sent
+     * @param context  The context of the request, which tracks its Druid queries in flight
+     * @param asynchronous  Set once the request has become asynchronous
+     */
+    private void cancelWithoutClient(AsyncResponse asyncResponse, RequestContext context, AtomicBoolean asynchronous) {
+        asyncResponse.register((ConnectionCallback) disconnected -> {
+            if (!asynchronous.get() && context.cancelDruidQueries() > 0) {
+                DISCONNECTED_REQUESTS.mark();
+                LOG.debug("Client disconnected, druid queries of the request cancelled");
+            }
+        });
+        asyncResponse.register((CompletionCallback) throwable -> {
+            if (!asynchronous.get() && context.cancelDruidQueries() > 0) {
+                COMPLETED_REQUESTS.mark();
+                LOG.debug("Response sent before the druid queries of the request were answered, queries cancelled");
+            }
+        });
+    }
+
     /**
      * Builds the asynchronous workflows, and subscribes the appropriate channels to the appropriate workflows.
      *
@@ -491,13 +526,15 @@ public class DataServlet extends CORSPreflightServlet implements BardConfigResou
      * @param containerRequestContext  The context for the request
      * @param asyncResponse  The channel over which user responses will be sent
      * @param  httpResponseMaker  The factory for building HTTP responses
+     * @param asynchronous  Set once the query becomes asynchronous
      */
     private void setupAsynchronousWorkflows(
             ApiRequest apiRequest,
             Observable<PreResponse> queryResultsEmitter,
             ContainerRequestContext containerRequestContext,
             AsyncResponse asyncResponse,
-            HttpResponseMaker httpResponseMaker
+            HttpResponseMaker httpResponseMaker,
+            AtomicBoolean asynchronous
     ) {
         UriInfo uriInfo = containerRequestContext.getUriInfo();
         long asyncAfter = apiRequest.getAsyncAfter();
@@ -512,6 +549,7 @@ public class DataServlet extends CORSPreflightServlet implements BardConfigResou
         // regardless of the number of subscriptions.
         ConnectableObservable<Either<PreResponse, JobRow>> payloadEmitter;
         if (asyncAfter == DataApiRequest.ASYNCHRONOUS_ASYNC_AFTER_VALUE) {
+            asynchronous.set(true);
             payloadEmitter = Observable.just(Either.<PreResponse, JobRow>right(jobMetadata)).publish();
         } else if (asyncAfter == DataApiRequest.SYNCHRONOUS_ASYNC_AFTER_VALUE) {
             payloadEmitter = queryResultsEmitter.map(Either::<PreResponse, JobRow>left).publish();
@@ -521,7 +559,10 @@ public class DataServlet extends CORSPreflightServlet implements BardConfigResou
                     .timeout(
                             asyncAfter,
                             TimeUnit.MILLISECONDS,
-                            Observable.fromCallable(() -> Either.right(jobMetadata))
+                            Observable.fromCallable(() -> {
+                                asynchronous.set(true);
+                                return Either.<PreResponse, JobRow>right(jobMetadata);
+                            })
                     )
                     .publish();
         }
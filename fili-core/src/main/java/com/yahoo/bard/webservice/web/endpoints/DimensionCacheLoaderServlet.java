@@ -13,6 +13,7 @@ import com.yahoo.bard.webservice.data.dimension.DimensionDictionary;
 import com.yahoo.bard.webservice.data.dimension.DimensionField;
 import com.yahoo.bard.webservice.data.dimension.DimensionRow;
 import com.yahoo.bard.webservice.data.dimension.DimensionUpdateDate;
+import com.yahoo.bard.webservice.data.dimension.JsonDimensionRowLoader;
 import com.yahoo.bard.webservice.web.PATCH;
 
 import com.codahale.metrics.annotation.Timed;
@@ -25,8 +26,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -55,6 +59,7 @@ public class DimensionCacheLoaderServlet {
     private final DimensionDictionary dimensionDictionary;
     private final ObjectMapper mapper;
     private final DataCache<?> dataCache;
+    private final JsonDimensionRowLoader rowLoader;
 
     /**
      * Constructor.
@@ -72,6 +77,7 @@ public class DimensionCacheLoaderServlet {
         this.mapper = objectMappers.getMapper();
         this.dimensionDictionary = dimensionDictionary;
         this.dataCache = dataCache;
+        this.rowLoader = new JsonDimensionRowLoader(mapper);
     }
 
     /**
@@ -168,7 +174,8 @@ public class DimensionCacheLoaderServlet {
     /**
      * Endpoint to add/replace dimension rows.
      * <p>
-     * If a row having the same ID already exists, it will be overwritten.
+     * If a row having the same ID already exists, it will be overwritten. The rows are streamed from the request body
+     * and written to the dimension a chunk at a time, so large loads don't need to fit in memory.
      *
      * @param dimensionName  name of the dimension whose dimension rows are to be modified. (path parameter)
      * @param json  post data json containing a list of json objects which describe dimension rows
@@ -187,8 +194,8 @@ public class DimensionCacheLoaderServlet {
     @Timed
     @Path("/dimensions/{dimensionName}/dimensionRows")
     @Consumes("application/json; charset=utf-8")
-    public Response addReplaceDimensionRows(@PathParam("dimensionName") String dimensionName, String json) {
-        LOG.debug("Replacing {} dimension rows with a json payload {} characters long", dimensionName, json.length());
+    public Response addReplaceDimensionRows(@PathParam("dimensionName") String dimensionName, Reader json) {
+        LOG.debug("Replacing {} dimension rows", dimensionName);
         try {
             // if dimension is not located return bad request response
             Dimension dimension = dimensionDictionary.findByApiName(dimensionName);
@@ -198,19 +205,9 @@ public class DimensionCacheLoaderServlet {
                 return Response.status(NOT_FOUND).entity(message).build();
             }
 
-            // extract dimension rows from the post data
-            Map<String, LinkedHashSet<LinkedHashMap<String, String>>> rawDimensionRows = mapper.readValue(
-                    json,
-                    new TypeReference<Map<String, LinkedHashSet<LinkedHashMap<String, String>>>>() { /* Empty class */ }
-            );
-
-            Set<DimensionRow> dimensionRows = rawDimensionRows.get("dimensionRows").stream()
-                    .map(dimension::parseDimensionRow)
-                    .collect(Collectors.toCollection(LinkedHashSet::new));
-
-            dimension.addAllDimensionRows(dimensionRows);
+            long loaded = rowLoader.load(dimension, json);
 
-            LOG.debug("Successfully added/replaced {} row(s) for dimension: {}", dimensionRows.size(), dimensionName);
+            LOG.debug("Successfully added/replaced {} row(s) for dimension: {}", loaded, dimensionName);
             return Response.status(Status.OK).build();
         } catch (IOException e) {
             String message = "Failed to add/replace dimension rows";
@@ -219,6 +216,20 @@ public class DimensionCacheLoaderServlet {
         }
     }
 
+    /**
+     * Add/replace dimension rows from a json string.
+     *
+     * @param dimensionName  name of the dimension whose dimension rows are to be modified
+     * @param json  json containing a list of json objects which describe dimension rows
+     *
+     * @return OK(200) if successfully added/replaced else Bad Request(400)
+     *
+     * @see #addReplaceDimensionRows(String, Reader)
+     */
+    public Response addReplaceDimensionRows(String dimensionName, String json) {
+        return addReplaceDimensionRows(dimensionName, new StringReader(json));
+    }
+
     /**
      * Endpoint to add/update dimension rows, with update semantics.
      * <p>
@@ -273,8 +284,8 @@ public class DimensionCacheLoaderServlet {
     @Timed
     @Path("/dimensions/{dimensionName}/dimensionRows")
     @Consumes("application/json")
-    public Response addUpdateDimensionRows(@PathParam("dimensionName") String dimensionName, String json) {
-        LOG.debug("Updating {} dimension rows with a json payload {} characters long", dimensionName, json.length());
+    public Response addUpdateDimensionRows(@PathParam("dimensionName") String dimensionName, Reader json) {
+        LOG.debug("Updating {} dimension rows", dimensionName);
         try {
             // if dimension is not located return bad request response
             Dimension dimension = dimensionDictionary.findByApiName(dimensionName);
@@ -284,34 +295,38 @@ public class DimensionCacheLoaderServlet {
                 return Response.status(NOT_FOUND).entity(message).build();
             }
 
-            // extract dimension rows form the post data
-            Map<String, LinkedHashSet<LinkedHashMap<String, String>>> rawDimensionRows = mapper.readValue(
-                    json,
-                    new TypeReference<Map<String, LinkedHashSet<LinkedHashMap<String, String>>>>() { /* Empty class */ }
-            );
-
             DimensionField key = dimension.getKey();
-            Set<DimensionRow> dimensionRows = new LinkedHashSet<>();
-            for (Map<String, String> fieldnameValueMap: rawDimensionRows.get("dimensionRows")) {
-                DimensionRow newRow = dimension.parseDimensionRow(fieldnameValueMap);
-                DimensionRow oldRow = dimension.findDimensionRowByKeyValue(newRow.get(key));
-                if (oldRow == null) {
-                    // It didn't exist before, so add it directly
-                    dimensionRows.add(newRow);
-                } else {
+            long loaded = rowLoader.loadChunks(dimension, json, fieldnameValueMaps -> {
+                List<DimensionRow> newRows = fieldnameValueMaps.stream()
+                        .map(dimension::parseDimensionRow)
+                        .collect(Collectors.toList());
+                // Look the existing rows of the whole chunk up at once
+                Map<String, DimensionRow> oldRows = dimension.findDimensionRowsByKeyValues(
+                        newRows.stream().map(row -> row.get(key)).collect(Collectors.toList())
+                );
+                Set<DimensionRow> rows = new LinkedHashSet<>();
+                for (int i = 0; i < newRows.size(); i++) {
+                    DimensionRow newRow = newRows.get(i);
+                    DimensionRow oldRow = oldRows.get(newRow.get(key));
+                    if (oldRow == null) {
+                        // It didn't exist before, so add it directly
+                        rows.add(newRow);
+                        continue;
+                    }
                     // The row existed before, so do an update on the existing row's data
+                    Map<String, String> fieldnameValueMap = fieldnameValueMaps.get(i);
                     for (DimensionField field : dimension.getDimensionFields()) {
                         // only overwrite if the field was in the original JSON
                         if (fieldnameValueMap.containsKey(field.getName())) {
                             oldRow.put(field, newRow.get(field));
                         }
-                        dimensionRows.add(oldRow);
                     }
+                    rows.add(oldRow);
                 }
-            }
-            dimension.addAllDimensionRows(dimensionRows);
+                return rows;
+            });
 
-            LOG.debug("Successfully added/updated {} row(s) for dimension: {}", dimensionRows.size(), dimensionName);
+            LOG.debug("Successfully added/updated {} row(s) for dimension: {}", loaded, dimensionName);
             return Response.status(Status.OK).build();
         } catch (IOException e) {
             String message = "Failed to add/update dimension rows";
@@ -320,6 +335,20 @@ public class DimensionCacheLoaderServlet {
         }
     }
 
+    /**
+     * Add/update dimension rows from a json string.
+     *
+     * @param dimensionName  name of the dimension whose dimension rows are to be modified
+     * @param json  json containing a list of json objects which describe dimension rows
+     *
+     * @return OK(200) if successfully added/updated else Bad Request(400)
+     *
+     * @see #addUpdateDimensionRows(String, Reader)
+     */
+    public Response addUpdateDimensionRows(String dimensionName, String json) {
+        return addUpdateDimensionRows(dimensionName, new StringReader(json));
+    }
+
     /**
      * Endpoint to update cache status.
      *
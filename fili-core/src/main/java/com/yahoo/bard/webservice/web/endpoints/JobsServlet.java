@@ -11,6 +11,7 @@ import com.yahoo.bard.webservice.async.ResponseException;
 import com.yahoo.bard.webservice.async.broadcastchannels.BroadcastChannel;
 import com.yahoo.bard.webservice.async.jobs.payloads.JobPayloadBuilder;
 import com.yahoo.bard.webservice.async.jobs.stores.ApiJobStore;
+import com.yahoo.bard.webservice.async.preresponses.stores.PagedPreResponseStore;
 import com.yahoo.bard.webservice.async.preresponses.stores.PreResponseStore;
 import com.yahoo.bard.webservice.data.HttpResponseChannel;
 import com.yahoo.bard.webservice.data.HttpResponseMaker;
@@ -48,6 +49,7 @@ import org.slf4j.LoggerFactory;
 
 import rx.Observable;
 import rx.exceptions.Exceptions;
+import rx.functions.Func1;
 import rx.observables.ConnectableObservable;
 
 import java.net.URI;
@@ -321,7 +323,11 @@ public class JobsServlet extends EndpointServlet {
             // jobsApiRequest.
             JobsApiRequestImpl jobsApiRequest = apiRequest;
 
-            Observable<PreResponse> preResponseObservable = getResults(ticket, apiRequest.getAsyncAfter());
+            Observable<PreResponse> preResponseObservable = getResults(
+                    ticket,
+                    apiRequest.getAsyncAfter(),
+                    getStorePagination(apiRequest)
+            );
 
             observableResponse = preResponseObservable.isEmpty()
                     .map(
@@ -394,6 +400,25 @@ public class JobsServlet extends EndpointServlet {
      * @return An Observable wrapping a PreResponse or an empty Observable in case a timeout occurs.
      */
     protected Observable<PreResponse> getResults(@NotNull String ticket, long asyncAfter) {
+        return getResults(ticket, asyncAfter, Optional.empty());
+    }
+
+    /**
+     * Get an Observable wrapping a PreResponse, or only a page of it if the PreResponseStore can read pages.
+     *
+     * @param ticket  The ticket for which the PreResponse needs to be retrieved.
+     * @param asyncAfter  The minimum duration the request is allowed to last before becoming asynchronous
+     * @param storePagination  The page to read from a {@link PagedPreResponseStore}, if any
+     *
+     * @return An Observable wrapping a PreResponse or an empty Observable in case a timeout occurs.
+     *
+     * @see #getResults(String, long)
+     */
+    protected Observable<PreResponse> getResults(
+            @NotNull String ticket,
+            long asyncAfter,
+            Optional<PaginationParameters> storePagination
+    ) {
         if (asyncAfter == JobsApiRequest.ASYNCHRONOUS_ASYNC_AFTER_VALUE) {
             // If the user specifies that they always want the asynchronous payload, then we need to force the system
             // to behave like the results are not ready in the store, and the asynchronous timeout has expired even
@@ -406,9 +431,7 @@ public class JobsServlet extends EndpointServlet {
          * collecting values.
          * Once a new observer subscribes to the observable, it will have all the collected values replayed to it.
          */
-        ConnectableObservable<String> broadcastChannelNotifications = broadcastChannel.getNotifications()
-                .filter(ticket::equals)
-                .take(1)
+        ConnectableObservable<String> broadcastChannelNotifications = broadcastChannel.getNotification(ticket)
                 .replay(1);
         broadcastChannelNotifications.connect();
         /*
@@ -421,11 +444,27 @@ public class JobsServlet extends EndpointServlet {
          * If the results are already in the response store, then return them to me. Otherwise, very quickly
          * send back the asynchronous payload.
          */
-        return preResponseStore.get(ticket).switchIfEmpty(
-                applyTimeoutIfNeeded(broadcastChannelNotifications, asyncAfter).flatMap(preResponseStore::get)
+        Func1<String, Observable<PreResponse>> readResults = storePagination.isPresent() ?
+                id -> ((PagedPreResponseStore) preResponseStore).getPage(id, storePagination.get()) :
+                preResponseStore::get;
+        return readResults.call(ticket).switchIfEmpty(
+                applyTimeoutIfNeeded(broadcastChannelNotifications, asyncAfter).flatMap(readResults)
         );
     }
 
+    /**
+     * Gets the page the PreResponseStore should read, if the store can read pages and the request is paginated.
+     *
+     * @param apiRequest  The request for the results
+     *
+     * @return The page to read from the store, or empty if the whole PreResponse should be read
+     */
+    protected Optional<PaginationParameters> getStorePagination(ApiRequest apiRequest) {
+        return preResponseStore instanceof PagedPreResponseStore ?
+                apiRequest.getPaginationParameters() :
+                Optional.empty();
+    }
+
     /**
      * Given an observable, returns a new observable with an asyncAfter timeout applied only if {@code asyncAfter} is
      * not {@code never}.
@@ -492,7 +531,8 @@ public class JobsServlet extends EndpointServlet {
                 .flatMap(preResponse -> handlePreResponseWithError(
                         preResponse,
                         containerRequestContext.getUriInfo(),
-                        apiRequest.getPaginationParameters()
+                        apiRequest.getPaginationParameters(),
+                        getStorePagination(apiRequest).isPresent()
                 ))
                 .subscribe(
                         new HttpResponseChannel(
@@ -518,6 +558,28 @@ public class JobsServlet extends EndpointServlet {
             PreResponse preResponse,
             UriInfo uriInfo,
             Optional<PaginationParameters> paginationParameters
+    ) {
+        return handlePreResponseWithError(preResponse, uriInfo, paginationParameters, false);
+    }
+
+    /**
+     * Check whether the PreResponse contains an error and if it does, return an Observable wrapping the error else
+     * return an Observable wrapping the PreResponse, paginated if needed.
+     *
+     * @param preResponse  The PreResponse to be inspected
+     * @param uriInfo  uriInfo object to get uriBuilder
+     * @param paginationParameters  user's requested pagination parameters
+     * @param pagedByStore  Whether the PreResponse is already the requested page, read by a
+     * {@link PagedPreResponseStore}
+     *
+     * @return An Observable wrapping the PreResponse or an Observable wrapping a ResponseException
+     */
+    @SuppressWarnings("unchecked")
+    protected Observable<PreResponse> handlePreResponseWithError(
+            PreResponse preResponse,
+            UriInfo uriInfo,
+            Optional<PaginationParameters> paginationParameters,
+            boolean pagedByStore
     ) {
         ResponseContext responseContext = preResponse.getResponseContext();
 
@@ -533,6 +595,14 @@ public class JobsServlet extends EndpointServlet {
             return Observable.error(responseException);
         }
 
+        if (pagedByStore) {
+            Pagination<Result> page = (Pagination<Result>) responseContext.get(
+                    ResponseContextKeys.PAGINATION_CONTEXT_KEY.getName()
+            );
+            addPaginationInfoToResponseContext(responseContext, uriInfo, page);
+            return Observable.just(preResponse);
+        }
+
         return paginationParameters
                 .map(pageParams -> new AllPagesPagination<>(preResponse.getResultSet(), pageParams))
                 .map(page -> new PreResponse(
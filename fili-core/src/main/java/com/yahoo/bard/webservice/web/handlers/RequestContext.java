@@ -2,9 +2,19 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.web.handlers;
 
+import com.yahoo.bard.webservice.druid.model.query.DruidQuery;
 import com.yahoo.bard.webservice.util.Utils;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.core.MultivaluedHashMap;
@@ -22,6 +32,10 @@ public class RequestContext {
     protected final MultivaluedMap<String, String> searchableHeaders;
     protected final AtomicLong numberOfIncoming = new AtomicLong(1);
     protected final AtomicLong numberOfOutgoing = new AtomicLong(1);
+    protected final Map<String, Future<?>> druidQueriesInFlight = new ConcurrentHashMap<>();
+    protected final Map<DruidQuery<?>, byte[]> serializedDruidQueries;
+    protected final AtomicBoolean cancelled;
+    protected final List<RequestContext> forks = new CopyOnWriteArrayList<>();
 
     /**
      * Build a context for a request.
@@ -35,6 +49,21 @@ public class RequestContext {
         this.searchableHeaders = containerRequestContext != null ?
                 Utils.headersToLowerCase(containerRequestContext.getHeaders()) :
                 new MultivaluedHashMap<>();
+        this.serializedDruidQueries = Collections.synchronizedMap(new IdentityHashMap<>());
+        this.cancelled = new AtomicBoolean(false);
+    }
+
+    /**
+     * Build another context for the request of a context, sharing its serialized Druid queries and its cancellation.
+     *
+     * @param parent  the context of the request
+     */
+    protected RequestContext(RequestContext parent) {
+        this.containerRequestContext = parent.containerRequestContext;
+        this.readCache = parent.readCache;
+        this.searchableHeaders = parent.searchableHeaders;
+        this.serializedDruidQueries = parent.serializedDruidQueries;
+        this.cancelled = parent.cancelled;
     }
 
     public MultivaluedMap<String, String> getHeaders() {
@@ -78,4 +107,114 @@ public class RequestContext {
     public UriBuilder getUriBuilder() {
         return containerRequestContext.getUriInfo().getRequestUriBuilder();
     }
+
+    /**
+     * Build a context for sending another copy of one of the Druid queries of this request, such as a hedged copy sent
+     * to a second broker or a retry, which counts and tracks its queries apart from this context.
+     * <p>
+     * The contexts share the serialized Druid queries, so the copy is not serialized again. The counters of the fork
+     * never run down to zero, so the copy doesn't stop or start the workflow timers of the request a second time.
+     * Cancelling the queries of this context also cancels those of its forks.
+     *
+     * @return a new context for the same request
+     */
+    public RequestContext fork() {
+        RequestContext fork = new RequestContext(this);
+        fork.numberOfIncoming.set(Long.MAX_VALUE);
+        fork.numberOfOutgoing.set(Long.MAX_VALUE);
+        forks.add(fork);
+        return fork;
+    }
+
+    /**
+     * Get the serialized form of a Druid query of this request, serializing it only the first time it is sent.
+     *
+     * @param druidQuery  The Druid query
+     * @param serializer  The function serializing the query
+     *
+     * @return the serialized query
+     */
+    public byte[] getSerializedDruidQuery(DruidQuery<?> druidQuery, Function<DruidQuery<?>, byte[]> serializer) {
+        // Not serialized under the lock, so that the other queries of the request are not held up by a large one
+        byte[] serialized = serializedDruidQueries.get(druidQuery);
+        if (serialized == null) {
+            serialized = serializer.apply(druidQuery);
+            serializedDruidQueries.put(druidQuery, serialized);
+        }
+        return serialized;
+    }
+
+    /**
+     * Forget the serialized form of a Druid query once it has been answered and won't be sent again.
+     *
+     * @param druidQuery  The Druid query
+     */
+    public void removeSerializedDruidQuery(DruidQuery<?> druidQuery) {
+        serializedDruidQueries.remove(druidQuery);
+    }
+
+    /**
+     * Remember a Druid query sent for this request, until its response arrives.
+     * <p>
+     * A query sent after the request was cancelled is cancelled straight away.
+     *
+     * @param druidQueryId  The id of the Druid query
+     * @param response  The future response to the query
+     */
+    public void addDruidQueryInFlight(String druidQueryId, Future<?> response) {
+        druidQueriesInFlight.put(druidQueryId, response);
+        if (cancelled.get()) {
+            response.cancel(true);
+        }
+    }
+
+    /**
+     * Forget a Druid query of this request once its response has arrived.
+     *
+     * @param druidQueryId  The id of the Druid query
+     * @param response  The future response to the query
+     */
+    public void removeDruidQueryInFlight(String druidQueryId, Future<?> response) {
+        druidQueriesInFlight.remove(druidQueryId, response);
+    }
+
+    /**
+     * Get the Druid queries sent for this request whose responses haven't arrived yet.
+     *
+     * @return the future responses of the queries in flight, by Druid query id
+     */
+    public Map<String, Future<?>> getDruidQueriesInFlight() {
+        return Collections.unmodifiableMap(druidQueriesInFlight);
+    }
+
+    /**
+     * Cancel the Druid queries of this request whose responses haven't arrived yet, including those sent through its
+     * forks, because nobody is waiting for the response to the request anymore.
+     * <p>
+     * The request stays cancelled, so the queries it sends afterwards are cancelled as well.
+     *
+     * @return the number of queries cancelled
+     */
+    public int cancelDruidQueries() {
+        cancelled.set(true);
+        int count = 0;
+        for (Future<?> response : druidQueriesInFlight.values()) {
+            if (response.cancel(true)) {
+                count++;
+            }
+        }
+        for (RequestContext fork : forks) {
+            count += fork.cancelDruidQueries();
+        }
+        return count;
+    }
+
+    /**
+     * Determine if the Druid queries of this request have been cancelled.
+     *
+     * @return true if the request was cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
 }
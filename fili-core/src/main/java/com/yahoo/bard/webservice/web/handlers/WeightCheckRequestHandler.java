@@ -2,19 +2,25 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.web.handlers;
 
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
 import com.yahoo.bard.webservice.data.time.Granularity;
 import com.yahoo.bard.webservice.druid.client.DruidWebService;
 import com.yahoo.bard.webservice.druid.client.FailureCallback;
 import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
 import com.yahoo.bard.webservice.druid.client.SuccessCallback;
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.logging.RequestLog;
 import com.yahoo.bard.webservice.logging.blocks.BardQueryInfo;
 import com.yahoo.bard.webservice.web.ErrorMessageFormat;
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest;
 import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessor;
+import com.yahoo.bard.webservice.web.responseprocessors.SpeculativeResponseProcessor;
 import com.yahoo.bard.webservice.web.responseprocessors.WeightCheckResponseProcessor;
+import com.yahoo.bard.webservice.web.responseprocessors.WeightRecordingResponseProcessor;
 import com.yahoo.bard.webservice.web.util.QueryWeightUtil;
+import com.yahoo.bard.webservice.web.util.WeightCheckPassRates;
 
+import com.codahale.metrics.Meter;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -32,13 +38,24 @@ import javax.validation.constraints.NotNull;
  * results.
  *     <li>If the cost is too high, return an error, otherwise subsequently submit the data request.
  * </ul>
+ * For tables whose weight checks almost always pass, the data request is submitted speculatively along with the weight
+ * check. Its response is held back until the weight check passes, and the data query is cancelled if the weight check
+ * fails.
  */
 public class WeightCheckRequestHandler extends BaseDataRequestHandler {
     private static final Logger LOG = LoggerFactory.getLogger(WeightCheckRequestHandler.class);
 
+    public static final Meter SPECULATIVE_QUERIES = MetricRegistryFactory.getRegistry().meter(
+            "weight.check.speculative"
+    );
+    public static final Meter SPECULATIVE_QUERIES_CANCELLED = MetricRegistryFactory.getRegistry().meter(
+            "weight.check.speculative.cancelled"
+    );
+
     protected final @NotNull DataRequestHandler next;
     protected final @NotNull DruidWebService webService;
     protected final @NotNull QueryWeightUtil queryWeightUtil;
+    protected final @NotNull WeightCheckPassRates passRates;
 
     /**
      * Build a weight checking request handler.
@@ -47,17 +64,37 @@ public class WeightCheckRequestHandler extends BaseDataRequestHandler {
      * @param webService  The web service to use for weight checking
      * @param queryWeightUtil  A provider which measures estimated weight against allowed weights.
      * @param mapper  A JSON object mapper, used to parse the JSON response from the weight check.
+     * @param passRates  The pass rates of the weight checks of each table, used to decide when to speculate
      */
     public WeightCheckRequestHandler(
             DataRequestHandler next,
             DruidWebService webService,
             QueryWeightUtil queryWeightUtil,
-            ObjectMapper mapper
+            ObjectMapper mapper,
+            WeightCheckPassRates passRates
     ) {
         super(mapper);
         this.next = next;
         this.webService = webService;
         this.queryWeightUtil = queryWeightUtil;
+        this.passRates = passRates;
+    }
+
+    /**
+     * Build a weight checking request handler, speculating on the configured pass rate.
+     *
+     * @param next  The request handler to delegate the request to.
+     * @param webService  The web service to use for weight checking
+     * @param queryWeightUtil  A provider which measures estimated weight against allowed weights.
+     * @param mapper  A JSON object mapper, used to parse the JSON response from the weight check.
+     */
+    public WeightCheckRequestHandler(
+            DataRequestHandler next,
+            DruidWebService webService,
+            QueryWeightUtil queryWeightUtil,
+            ObjectMapper mapper
+    ) {
+        this(next, webService, queryWeightUtil, mapper, new WeightCheckPassRates());
     }
 
     @Override
@@ -69,7 +106,15 @@ public class WeightCheckRequestHandler extends BaseDataRequestHandler {
     ) {
         // Heuristic test to let requests with very low estimated cardinality directly through
         if (queryWeightUtil.skipWeightCheckQuery(druidQuery)) {
-            return next.handleRequest(context, request, druidQuery, response);
+            // Keep learning the weights of the queries whose weight checks are skipped from their responses
+            return next.handleRequest(
+                    context,
+                    request,
+                    druidQuery,
+                    queryWeightUtil.isResponseWeightMeasurable(druidQuery) ?
+                            new WeightRecordingResponseProcessor(response, queryWeightUtil) :
+                            response
+            );
         }
 
         BardQueryInfo.getBardQueryInfo().incrementCountWeightCheck();
@@ -78,10 +123,18 @@ public class WeightCheckRequestHandler extends BaseDataRequestHandler {
         Granularity granularity = druidQuery.getInnermostQuery().getGranularity();
         final long queryRowLimit = queryWeightUtil.getQueryWeightThreshold(granularity);
 
-        try {
-            LOG.debug("Weight query {}", writer.writeValueAsString(weightEvaluationQuery));
-        } catch (JsonProcessingException e) {
-            LOG.warn("Weight Query json exception:", e);
+        if (LOG.isDebugEnabled()) {
+            try {
+                LOG.debug("Weight query {}", writer.writeValueAsString(weightEvaluationQuery));
+            } catch (JsonProcessingException e) {
+                LOG.warn("Weight Query json exception:", e);
+            }
+        }
+
+        String tableName = getTableName(request);
+        if (tableName != null && passRates.shouldSpeculate(tableName)) {
+            return handleSpeculatively(context, request, druidQuery, weightCheckResponse, weightEvaluationQuery,
+                    queryRowLimit);
         }
 
         final SuccessCallback weightQuerySuccess = buildSuccessCallback(
@@ -97,6 +150,96 @@ public class WeightCheckRequestHandler extends BaseDataRequestHandler {
         return true;
     }
 
+    /**
+     * Send the weight check query and the data query at the same time.
+     * <p>
+     * The responses of the data query are held back until the weight check passes. If the weight check fails, or its
+     * query does, the data query is cancelled and the request is refused.
+     *
+     * @param context  The context data from the request processing chain
+     * @param request  The API request itself
+     * @param druidQuery  The query being processed
+     * @param response  The response handler
+     * @param weightEvaluationQuery  The weight check query
+     * @param queryRowLimit  The number of aggregating lines allowed
+     *
+     * @return true if the request was handled
+     */
+    protected boolean handleSpeculatively(
+            final RequestContext context,
+            final DataApiRequest request,
+            final DruidAggregationQuery<?> druidQuery,
+            final ResponseProcessor response,
+            final DruidAggregationQuery<?> weightEvaluationQuery,
+            final long queryRowLimit
+    ) {
+        SPECULATIVE_QUERIES.mark();
+        final SpeculativeResponseProcessor speculativeResponse = new SpeculativeResponseProcessor(response);
+
+        // Sending the weight query hands the request log over to its callbacks, so keep a copy for the data query
+        RequestLog logCtx = RequestLog.copy();
+        webService.postDruidQuery(
+                context,
+                buildSpeculativeSuccessCallback(context, request, druidQuery, speculativeResponse, queryRowLimit),
+                (statusCode, reason, responseBody) -> {
+                    if (cancelSpeculation(context, speculativeResponse)) {
+                        response.getErrorCallback(druidQuery).invoke(statusCode, reason, responseBody);
+                    }
+                },
+                error -> {
+                    if (cancelSpeculation(context, speculativeResponse)) {
+                        response.getFailureCallback(druidQuery).invoke(error);
+                    }
+                },
+                weightEvaluationQuery
+        );
+        RequestLog.restore(logCtx);
+
+        // If the weight check has already failed, the request stays cancelled and the data query is cancelled when sent
+        return next.handleRequest(context, request, druidQuery, speculativeResponse);
+    }
+
+    /**
+     * Build a callback which passes on the responses of the speculatively sent data query or cancels it and refuses
+     * the request with an HTTP INSUFFICIENT_STORAGE (507) status based on the cardinality of the requester's query as
+     * measured by the weight check query.
+     *
+     * @param context  The context data from the request processing chain
+     * @param request  The API request itself
+     * @param druidQuery  The query being processed
+     * @param response  The response handler of the speculatively sent data query
+     * @param queryRowLimit  The number of aggregating lines allowed
+     *
+     * @return The callback handler for the weight request
+     */
+    protected SuccessCallback buildSpeculativeSuccessCallback(
+            final RequestContext context,
+            final DataApiRequest request,
+            final DruidAggregationQuery<?> druidQuery,
+            final SpeculativeResponseProcessor response,
+            final long queryRowLimit
+    ) {
+        return new SuccessCallback() {
+            @Override
+            public void invoke(JsonNode jsonResult) {
+                try {
+                    int rowCount = getRowCount(jsonResult);
+                    recordWeightCheck(request, druidQuery, rowCount, queryRowLimit);
+                    if (rowCount <= queryRowLimit) {
+                        response.weightCheckPassed(RequestLog.copy());
+                    } else if (cancelSpeculation(context, response)) {
+                        refuseRequest(druidQuery, response.getNext(), rowCount, queryRowLimit);
+                    }
+                } catch (Throwable e) {
+                    LOG.info("Exception processing druid call in success", e);
+                    if (cancelSpeculation(context, response)) {
+                        response.getNext().getFailureCallback(druidQuery).dispatch(e);
+                    }
+                }
+            }
+        };
+    }
+
     /**
      * Build a callback which continues the original request or refuses it with an HTTP INSUFFICIENT_STORAGE (507)
      * status based on the cardinality of the requester 's query as measured by the weight check query.
@@ -120,31 +263,11 @@ public class WeightCheckRequestHandler extends BaseDataRequestHandler {
             @Override
             public void invoke(JsonNode jsonResult) {
                 try {
-                    // The result will contain either one result reflecting the row count or
-                    // none if the request matches no rows.
-                    LOG.debug("{}", writer.writeValueAsString(jsonResult));
-
-                    JsonNode row = jsonResult.get(0);
-                    // If the weight limit query is empty or reports acceptable rows, run the full query
-                    if (row != null) {
-                        int rowCount = row.get("event").get("count").asInt();
-
-                        if (rowCount > queryRowLimit) {
-                            String reason = String.format(
-                                    ErrorMessageFormat.WEIGHT_CHECK_FAILED.logFormat(rowCount, queryRowLimit),
-                                    rowCount,
-                                    queryRowLimit
-                            );
-                            String description = ErrorMessageFormat.WEIGHT_CHECK_FAILED.format();
-
-                            LOG.debug(reason);
-                            response.getErrorCallback(druidQuery).dispatch(
-                                507, //  Insufficient Storage
-                                reason,
-                                description
-                            );
-                            return;
-                        }
+                    int rowCount = getRowCount(jsonResult);
+                    recordWeightCheck(request, druidQuery, rowCount, queryRowLimit);
+                    if (rowCount > queryRowLimit) {
+                        refuseRequest(druidQuery, response, rowCount, queryRowLimit);
+                        return;
                     }
                     next.handleRequest(context, request, druidQuery, response);
                 } catch (Throwable e) {
@@ -154,4 +277,100 @@ public class WeightCheckRequestHandler extends BaseDataRequestHandler {
             }
         };
     }
+
+    /**
+     * Read the number of aggregating lines from the result of a weight check query.
+     *
+     * @param jsonResult  The result of the weight check query
+     *
+     * @return the number of aggregating lines
+     *
+     * @throws JsonProcessingException if the result cannot be logged
+     */
+    protected int getRowCount(JsonNode jsonResult) throws JsonProcessingException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("{}", writer.writeValueAsString(jsonResult));
+        }
+        // The result will contain either one result reflecting the row count or none if the request matches no rows.
+        JsonNode row = jsonResult.get(0);
+        return row == null ? 0 : row.get("event").get("count").asInt();
+    }
+
+    /**
+     * Refuse a request whose weight check failed with an HTTP INSUFFICIENT_STORAGE (507) status.
+     *
+     * @param druidQuery  The query being processed
+     * @param response  The response handler
+     * @param rowCount  The number of aggregating lines of the query
+     * @param queryRowLimit  The number of aggregating lines allowed
+     */
+    protected void refuseRequest(
+            DruidAggregationQuery<?> druidQuery,
+            ResponseProcessor response,
+            int rowCount,
+            long queryRowLimit
+    ) {
+        String reason = String.format(
+                ErrorMessageFormat.WEIGHT_CHECK_FAILED.logFormat(rowCount, queryRowLimit),
+                rowCount,
+                queryRowLimit
+        );
+        String description = ErrorMessageFormat.WEIGHT_CHECK_FAILED.format();
+
+        LOG.debug(reason);
+        response.getErrorCallback(druidQuery).dispatch(
+                507, //  Insufficient Storage
+                reason,
+                description
+        );
+    }
+
+    /**
+     * Drop the responses of a speculatively sent data query and cancel it.
+     *
+     * @param context  The context data from the request processing chain
+     * @param response  The response handler of the speculatively sent data query
+     *
+     * @return true if the weight check was still pending, and so the request still needs to be answered
+     */
+    protected boolean cancelSpeculation(RequestContext context, SpeculativeResponseProcessor response) {
+        if (!response.weightCheckFailed()) {
+            return false;
+        }
+        SPECULATIVE_QUERIES_CANCELLED.mark();
+        context.cancelDruidQueries();
+        return true;
+    }
+
+    /**
+     * Record the weight measured by the weight check of a request, and its outcome against the pass rate of its table.
+     *
+     * @param request  The API request itself
+     * @param druidQuery  The query being processed
+     * @param rowCount  The number of aggregating lines of the query
+     * @param queryRowLimit  The number of aggregating lines allowed
+     */
+    private void recordWeightCheck(
+            DataApiRequest request,
+            DruidAggregationQuery<?> druidQuery,
+            int rowCount,
+            long queryRowLimit
+    ) {
+        queryWeightUtil.recordQueryWeight(druidQuery, rowCount);
+        String tableName = getTableName(request);
+        if (tableName != null) {
+            passRates.record(tableName, rowCount <= queryRowLimit);
+        }
+    }
+
+    /**
+     * Get the name of the table a request queries.
+     *
+     * @param request  The API request itself
+     *
+     * @return the name of the table, or null if the request has none
+     */
+    private static String getTableName(DataApiRequest request) {
+        return request.getTable() == null ? null : request.getTable().getName();
+    }
 }
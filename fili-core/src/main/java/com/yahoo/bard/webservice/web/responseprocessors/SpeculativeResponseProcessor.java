@@ -0,0 +1,145 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.responseprocessors;
+
+import com.yahoo.bard.webservice.druid.client.FailureCallback;
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.logging.RequestLog;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A response processor for a data query sent before its weight check has finished.
+ * <p>
+ * Responses and errors of the data query are held back until the weight check passes, and are then passed on to the
+ * next response processor. If the weight check fails instead, the held back and later responses are dropped.
+ */
+public class SpeculativeResponseProcessor implements ResponseProcessor {
+    private static final Logger LOG = LoggerFactory.getLogger(SpeculativeResponseProcessor.class);
+
+    private final ResponseProcessor next;
+    private final List<Runnable> heldBack = new ArrayList<>();
+    private Boolean weightCheckOutcome; // null while the weight check is pending
+    private RequestLog weightCheckLog;
+
+    /**
+     * Constructor.
+     *
+     * @param next  The next ResponseProcessor in the chain to call
+     */
+    public SpeculativeResponseProcessor(ResponseProcessor next) {
+        this.next = next;
+    }
+
+    public ResponseProcessor getNext() {
+        return next;
+    }
+
+    @Override
+    public ResponseContext getResponseContext() {
+        return next.getResponseContext();
+    }
+
+    @Override
+    public FailureCallback getFailureCallback(DruidAggregationQuery<?> druidQuery) {
+        return new FailureCallback() {
+            @Override
+            public void invoke(Throwable error) {
+                deliver(() -> next.getFailureCallback(druidQuery).invoke(error));
+            }
+        };
+    }
+
+    @Override
+    public HttpErrorCallback getErrorCallback(DruidAggregationQuery<?> druidQuery) {
+        return new HttpErrorCallback() {
+            @Override
+            public void invoke(int statusCode, String reason, String responseBody) {
+                deliver(() -> next.getErrorCallback(druidQuery).invoke(statusCode, reason, responseBody));
+            }
+        };
+    }
+
+    @Override
+    public void processResponse(JsonNode json, DruidAggregationQuery<?> druidQuery, LoggingContext metadata) {
+        deliver(() -> next.processResponse(json, druidQuery, metadata));
+    }
+
+    /**
+     * Passes on the held back and any later responses, now that the weight check has passed.
+     * <p>
+     * The data query was sent before the weight check query was timed, so the timings of the weight check are
+     * accumulated into the request log of each response passed on.
+     *
+     * @param weightCheckLog  The request log of the weight check
+     */
+    public void weightCheckPassed(RequestLog weightCheckLog) {
+        List<Runnable> released;
+        synchronized (this) {
+            if (weightCheckOutcome != null) {
+                return;
+            }
+            weightCheckOutcome = true;
+            this.weightCheckLog = weightCheckLog;
+            released = new ArrayList<>(heldBack);
+            heldBack.clear();
+        }
+        released.forEach(Runnable::run);
+    }
+
+    /**
+     * Drops the held back and any later responses, now that the weight check has failed.
+     *
+     * @return true if the weight check was still pending, false if its outcome was already known
+     */
+    public synchronized boolean weightCheckFailed() {
+        if (weightCheckOutcome != null) {
+            return false;
+        }
+        weightCheckOutcome = false;
+        heldBack.clear();
+        return true;
+    }
+
+    /**
+     * Determine if the weight check has failed.
+     *
+     * @return true if the weight check has failed
+     */
+    public synchronized boolean isWeightCheckFailed() {
+        return Boolean.FALSE.equals(weightCheckOutcome);
+    }
+
+    /**
+     * Passes a response on to the next response processor once the weight check has passed.
+     *
+     * @param response  Passes the response on
+     */
+    private void deliver(Runnable response) {
+        synchronized (this) {
+            if (Boolean.FALSE.equals(weightCheckOutcome)) {
+                LOG.debug("Dropping the response of a query that failed its weight check");
+                return;
+            }
+            if (weightCheckOutcome == null) {
+                // Hold the response back along with its request log, which is restored when it is passed on
+                RequestLog logCtx = RequestLog.copy();
+                heldBack.add(() -> {
+                    RequestLog.restore(logCtx);
+                    RequestLog.accumulate(weightCheckLog);
+                    response.run();
+                });
+                return;
+            }
+        }
+        RequestLog.accumulate(weightCheckLog);
+        response.run();
+    }
+}
@@ -0,0 +1,52 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.responseprocessors;
+
+import com.yahoo.bard.webservice.druid.client.FailureCallback;
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.web.util.QueryWeightUtil;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A response processor which records the weight of a query whose weight check was skipped, as measured from its
+ * response, so that the estimated weights of later queries keep learning from it.
+ */
+public class WeightRecordingResponseProcessor implements ResponseProcessor {
+
+    private final ResponseProcessor next;
+    private final QueryWeightUtil queryWeightUtil;
+
+    /**
+     * Constructor.
+     *
+     * @param next  The next ResponseProcessor in the chain to call
+     * @param queryWeightUtil  The weight utility to record the measured weights with
+     */
+    public WeightRecordingResponseProcessor(ResponseProcessor next, QueryWeightUtil queryWeightUtil) {
+        this.next = next;
+        this.queryWeightUtil = queryWeightUtil;
+    }
+
+    @Override
+    public ResponseContext getResponseContext() {
+        return next.getResponseContext();
+    }
+
+    @Override
+    public FailureCallback getFailureCallback(DruidAggregationQuery<?> druidQuery) {
+        return next.getFailureCallback(druidQuery);
+    }
+
+    @Override
+    public HttpErrorCallback getErrorCallback(DruidAggregationQuery<?> druidQuery) {
+        return next.getErrorCallback(druidQuery);
+    }
+
+    @Override
+    public void processResponse(JsonNode json, DruidAggregationQuery<?> druidQuery, LoggingContext metadata) {
+        queryWeightUtil.recordResponseWeight(druidQuery, json);
+        next.processResponse(json, druidQuery, metadata);
+    }
+}
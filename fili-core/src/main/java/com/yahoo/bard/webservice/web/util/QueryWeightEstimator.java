@@ -0,0 +1,243 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.util;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.data.dimension.Dimension;
+import com.yahoo.bard.webservice.druid.model.filter.ComplexFilter;
+import com.yahoo.bard.webservice.druid.model.filter.DimensionalFilter;
+import com.yahoo.bard.webservice.druid.model.filter.Filter;
+import com.yahoo.bard.webservice.druid.model.filter.InFilter;
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.util.IntervalUtils;
+
+import com.codahale.metrics.Histogram;
+
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Learns the weights of queries from the weights measured for earlier queries of the same shape.
+ * <p>
+ * Queries have the same shape when they query the same tables at the same granularity, group by the same dimensions
+ * and filter the same dimensions in the same way, whatever their filter values and intervals. For each shape, a
+ * histogram of the weight per time bucket is kept in power of two buckets, and the weight of a query is estimated as
+ * the upper bound of the bucket holding a high quantile of the weights seen, times the number of time buckets queried.
+ * Older weights are halved away so that the estimates follow changes in the data.
+ */
+public class QueryWeightEstimator {
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * The quantile of the weights seen for a shape of query that is used as its estimate.
+     */
+    public static final double DEFAULT_ESTIMATE_QUANTILE = SYSTEM_CONFIG.getDoubleProperty(
+            SYSTEM_CONFIG.getPackageVariableName("query_weight_estimate_quantile"),
+            0.99
+    );
+
+    /**
+     * The number of weights of a shape of query to see before estimating its weight, 0 disables estimates, which is
+     * the default.
+     */
+    public static final int DEFAULT_ESTIMATE_MIN_SAMPLES = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("query_weight_estimate_min_samples"),
+            0
+    );
+
+    /**
+     * The ratio of the measured to the estimated weights, as a percentage.
+     */
+    public static final Histogram ESTIMATE_ACCURACY = MetricRegistryFactory.getRegistry().histogram(
+            "weight.check.estimate.accuracy"
+    );
+
+    // The number of weights kept for a shape of query before the older ones are halved away
+    private static final int MAX_SAMPLES = 1024;
+
+    private final double quantile;
+    private final int minSamples;
+    private final Map<String, long[]> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param quantile  The quantile of the weights seen for a shape of query that is used as its estimate
+     * @param minSamples  The number of weights of a shape of query to see before estimating its weight, 0 or less
+     * disables estimates
+     */
+    public QueryWeightEstimator(double quantile, int minSamples) {
+        this.quantile = quantile;
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * Constructor, using the configured quantile and number of samples.
+     */
+    public QueryWeightEstimator() {
+        this(DEFAULT_ESTIMATE_QUANTILE, DEFAULT_ESTIMATE_MIN_SAMPLES);
+    }
+
+    /**
+     * Estimate the weight of a query.
+     *
+     * @param query  The query to estimate
+     *
+     * @return the estimated weight, or empty if too few queries of the same shape have been seen or estimates are
+     * disabled
+     */
+    public OptionalLong estimateWeight(DruidAggregationQuery<?> query) {
+        if (minSamples <= 0) {
+            return OptionalLong.empty();
+        }
+        long[] histogram = histograms.get(getShape(query));
+        if (histogram == null) {
+            return OptionalLong.empty();
+        }
+        long bucketWeight;
+        synchronized (histogram) {
+            long samples = histogram[histogram.length - 1];
+            if (samples < minSamples) {
+                return OptionalLong.empty();
+            }
+            bucketWeight = getQuantileUpperBound(histogram, (long) Math.ceil(samples * quantile));
+        }
+        return OptionalLong.of(saturatedMultiply(bucketWeight, countBuckets(query)));
+    }
+
+    /**
+     * Record the measured weight of a query.
+     *
+     * @param query  The query that was measured
+     * @param weight  The measured weight of the query
+     */
+    public void recordWeight(DruidAggregationQuery<?> query, long weight) {
+        if (minSamples <= 0) {
+            return;
+        }
+        OptionalLong estimate = estimateWeight(query);
+        if (estimate.isPresent()) {
+            ESTIMATE_ACCURACY.update(100 * weight / Math.max(estimate.getAsLong(), 1));
+        }
+
+        long bucketWeight = Math.max(weight, 0) / countBuckets(query);
+        // The last entry holds the number of samples, the others the samples in each power of two bucket
+        long[] histogram = histograms.computeIfAbsent(getShape(query), ignored -> new long[Long.SIZE + 1]);
+        synchronized (histogram) {
+            histogram[Long.SIZE - Long.numberOfLeadingZeros(bucketWeight)]++;
+            if (++histogram[Long.SIZE] > MAX_SAMPLES) {
+                histogram[Long.SIZE] = 0;
+                for (int i = 0; i < Long.SIZE; i++) {
+                    histogram[i] /= 2;
+                    histogram[Long.SIZE] += histogram[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Describe the shape of a query, which is what its weight is learned by.
+     *
+     * @param query  The query to describe
+     *
+     * @return the shape of the query
+     */
+    protected String getShape(DruidAggregationQuery<?> query) {
+        DruidAggregationQuery<?> innerQuery = query.getInnermostQuery();
+        return String.join(
+                "|",
+                new TreeSet<>(innerQuery.getDataSource().getNames()).toString(),
+                String.valueOf(innerQuery.getGranularity()),
+                innerQuery.getDimensions().stream()
+                        .map(Dimension::getApiName)
+                        .sorted()
+                        .collect(Collectors.joining(",")),
+                getFilterShape(innerQuery.getFilter())
+        );
+    }
+
+    /**
+     * Describe the shape of a filter, which is the dimensions it filters and how, but not the values it filters on.
+     *
+     * @param filter  The filter to describe
+     *
+     * @return the shape of the filter
+     */
+    protected String getFilterShape(Filter filter) {
+        if (filter == null) {
+            return "";
+        }
+        String type = String.valueOf(filter.getType());
+        if (filter instanceof ComplexFilter) {
+            return ((ComplexFilter) filter).getFields().stream()
+                    .map(this::getFilterShape)
+                    .sorted()
+                    .collect(Collectors.joining(",", type + "(", ")"));
+        }
+        if (filter instanceof InFilter) {
+            // Tell small in-filters from large ones by the power of two of their number of values
+            int values = ((InFilter) filter).getValueCount();
+            return type + "(" + ((InFilter) filter).getDimension().getApiName() + "," +
+                    (Integer.SIZE - Integer.numberOfLeadingZeros(values)) + ")";
+        }
+        if (filter instanceof DimensionalFilter) {
+            return type + "(" + ((DimensionalFilter<?>) filter).getDimension().getApiName() + ")";
+        }
+        return type;
+    }
+
+    /**
+     * Count the time buckets a query aggregates into, which its weight is proportional to.
+     *
+     * @param query  The query to count the time buckets of
+     *
+     * @return the number of time buckets, at least 1
+     */
+    private static long countBuckets(DruidAggregationQuery<?> query) {
+        DruidAggregationQuery<?> innerQuery = query.getInnermostQuery();
+        return Math.max(
+                IntervalUtils.countSlicedIntervals(innerQuery.getIntervals(), innerQuery.getGranularity()),
+                1
+        );
+    }
+
+    /**
+     * Get the upper bound of the power of two bucket of a histogram holding the sample at a given rank.
+     *
+     * @param histogram  The histogram, with the number of samples as its last entry
+     * @param rank  The rank of the sample, starting at 1
+     *
+     * @return the largest weight the bucket can hold
+     */
+    private static long getQuantileUpperBound(long[] histogram, long rank) {
+        long seen = 0;
+        for (int i = 0; i < Long.SIZE; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return i == Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Multiply two non-negative numbers, giving {@link Long#MAX_VALUE} instead of overflowing.
+     *
+     * @param left  The first number
+     * @param right  The second number
+     *
+     * @return the product, or Long.MAX_VALUE if it overflows
+     */
+    private static long saturatedMultiply(long left, long right) {
+        try {
+            return Math.multiplyExact(left, right);
+        } catch (ArithmeticException ignored) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
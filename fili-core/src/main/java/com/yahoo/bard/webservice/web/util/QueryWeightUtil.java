@@ -7,13 +7,22 @@ import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.HOUR;
 import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.MONTH;
 import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.WEEK;
 
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
 import com.yahoo.bard.webservice.config.SystemConfig;
 import com.yahoo.bard.webservice.config.SystemConfigProvider;
 import com.yahoo.bard.webservice.data.time.AllGranularity;
 import com.yahoo.bard.webservice.data.time.Granularity;
 import com.yahoo.bard.webservice.data.time.TimeGrain;
+import com.yahoo.bard.webservice.druid.model.DefaultQueryType;
+import com.yahoo.bard.webservice.druid.model.aggregation.SketchAggregation;
+import com.yahoo.bard.webservice.druid.model.orderby.LimitSpec;
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.druid.model.query.GroupByQuery;
 import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery;
+import com.yahoo.bard.webservice.util.Utils;
+
+import com.codahale.metrics.Meter;
+import com.fasterxml.jackson.databind.JsonNode;
 
 import org.joda.time.ReadablePeriod;
 import org.slf4j.Logger;
@@ -21,6 +30,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.OptionalLong;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -55,6 +65,19 @@ public class QueryWeightUtil {
     private static final @NotNull String DEFAULT_SEGMENTATION_FACTOR_KEY = SYSTEM_CONFIG
             .getPackageVariableName("weight_segmentation_factor_default");
 
+    private static final @NotNull String WEIGHT_ESTIMATE_SAFETY_FACTOR_KEY = SYSTEM_CONFIG
+            .getPackageVariableName("query_weight_estimate_safety_factor");
+
+    public static final Meter ESTIMATE_SKIPPED = MetricRegistryFactory.getRegistry().meter(
+            "weight.check.estimate.skipped"
+    );
+    public static final Meter ESTIMATE_NOT_SKIPPED = MetricRegistryFactory.getRegistry().meter(
+            "weight.check.estimate.not.skipped"
+    );
+    public static final Meter ESTIMATE_MISPREDICTED = MetricRegistryFactory.getRegistry().meter(
+            "weight.check.estimate.mispredicted"
+    );
+
     // The default weight limit for queries
     private static final long QUERY_WEIGHT_LIMIT_DEFAULT = 10000;
 
@@ -76,11 +99,22 @@ public class QueryWeightUtil {
     // The default factor to divide the weight threshold by to not require a weight check
     private static final float WEIGHT_CHECK_BYPASS_FACTOR_DEFAULT = 4;
 
+    // The default factor to divide the weight threshold by to not require a weight check for a learned estimate
+    private static final float WEIGHT_ESTIMATE_SAFETY_FACTOR_DEFAULT = 2;
+
     // The factor to divide the weight threshold by to not require a weight check
     private final float weightCheckBypassFactor = SYSTEM_CONFIG.getFloatProperty(
         WEIGHT_CHECK_BYPASS_FACTOR_KEY,
         WEIGHT_CHECK_BYPASS_FACTOR_DEFAULT);
 
+    // The factor to divide the weight threshold by to not require a weight check for a learned estimate
+    private final float weightEstimateSafetyFactor = SYSTEM_CONFIG.getFloatProperty(
+            WEIGHT_ESTIMATE_SAFETY_FACTOR_KEY,
+            WEIGHT_ESTIMATE_SAFETY_FACTOR_DEFAULT
+    );
+
+    private final QueryWeightEstimator weightEstimator;
+
     private final Map<ReadablePeriod, Long> weightLimitTimeMap;
 
     private final Long defaultRowLimit;
@@ -91,6 +125,16 @@ public class QueryWeightUtil {
      */
     @Inject
     public QueryWeightUtil() {
+        this(new QueryWeightEstimator());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param weightEstimator  Learns the weights of queries from the weights measured for earlier ones
+     */
+    public QueryWeightUtil(QueryWeightEstimator weightEstimator) {
+        this.weightEstimator = weightEstimator;
         weightLimitTimeMap = new HashMap<>();
 
         // The factor to divide the weight limit by for daily grain
@@ -148,6 +192,9 @@ public class QueryWeightUtil {
 
     /**
      * Indicate if the weight check query can be skipped based on heuristics.
+     * <p>
+     * The check is skipped if the worst case weight of the query is low enough, or failing that, if the weight
+     * learned from earlier queries of the same shape is.
      *
      * @param query  Query to test
      *
@@ -157,12 +204,105 @@ public class QueryWeightUtil {
         try {
             long worstCaseRows = WeightEvaluationQuery.getWorstCaseWeightEstimate(query);
             double skipThreshold = getQueryWeightThreshold(query.getGranularity()) / weightCheckBypassFactor;
-            return worstCaseRows <= skipThreshold;
+            if (worstCaseRows <= skipThreshold) {
+                return true;
+            }
         } catch (ArithmeticException ignored) {
-            // We got a really big estimate, so don't skip the check
+            // We got a really big estimate, so don't skip the check on it
             LOG.debug("worst case weight larger than {}", Long.MAX_VALUE);
+        }
+
+        OptionalLong estimate = weightEstimator.estimateWeight(query);
+        if (!estimate.isPresent()) {
             return false;
         }
+        boolean skip = isEstimateUnderThreshold(query, estimate.getAsLong());
+        (skip ? ESTIMATE_SKIPPED : ESTIMATE_NOT_SKIPPED).mark();
+        return skip;
+    }
+
+    /**
+     * Record the weight of a query measured by its weight check query, to learn the weights of later queries from.
+     *
+     * @param query  The query whose weight was measured
+     * @param weight  The measured weight
+     */
+    public void recordQueryWeight(DruidAggregationQuery<?> query, long weight) {
+        long threshold = getQueryWeightThreshold(query.getInnermostQuery().getGranularity());
+        if (weight > threshold) {
+            OptionalLong estimate = weightEstimator.estimateWeight(query);
+            if (estimate.isPresent() && isEstimateUnderThreshold(query, estimate.getAsLong())) {
+                // The weight check of this query would have been skipped, although it fails
+                ESTIMATE_MISPREDICTED.mark();
+            }
+        }
+        weightEstimator.recordWeight(query, weight);
+    }
+
+    /**
+     * Indicate if the weight of a query can be measured from its response, as the weight check query would.
+     * <p>
+     * Only plain group by queries, whose response rows are the rows the weight check counts, can be measured. A
+     * having clause or a limit drops rows the weight check counts, so their queries can't be.
+     *
+     * @param query  Query to test
+     *
+     * @return true if the weight of the query can be measured from its response
+     */
+    public boolean isResponseWeightMeasurable(DruidAggregationQuery<?> query) {
+        return query.getInnermostQuery() == query &&
+                query.getQueryType() == DefaultQueryType.GROUP_BY &&
+                ((GroupByQuery) query).getHaving() == null &&
+                !hasLimit((GroupByQuery) query) &&
+                getSketchWeight(query) > 0;
+    }
+
+    /**
+     * Indicate if a group by query limits the number of rows of its response.
+     *
+     * @param query  Query to test
+     *
+     * @return true if the query has a limit
+     */
+    private static boolean hasLimit(GroupByQuery query) {
+        LimitSpec limitSpec = query.getLimitSpec();
+        return limitSpec != null && limitSpec.getLimit().isPresent();
+    }
+
+    /**
+     * Record the weight of a query measured from its response, to learn the weights of later queries from.
+     *
+     * @param query  The query that was answered
+     * @param json  The response to the query
+     */
+    public void recordResponseWeight(DruidAggregationQuery<?> query, JsonNode json) {
+        if (json.isArray() && isResponseWeightMeasurable(query)) {
+            recordQueryWeight(query, (long) json.size() * getSketchWeight(query));
+        }
+    }
+
+    /**
+     * Indicate if the estimated weight of a query is safely below its weight threshold.
+     *
+     * @param query  The query estimated
+     * @param estimate  The estimated weight
+     *
+     * @return true if the estimate is low enough to skip the weight check query
+     */
+    private boolean isEstimateUnderThreshold(DruidAggregationQuery<?> query, long estimate) {
+        long threshold = getQueryWeightThreshold(query.getInnermostQuery().getGranularity());
+        return estimate <= threshold / weightEstimateSafetyFactor;
+    }
+
+    /**
+     * Get the weight the weight check query gives each response row of a query.
+     *
+     * @param query  The query
+     *
+     * @return the number of sketch aggregations of the innermost query
+     */
+    private static int getSketchWeight(DruidAggregationQuery<?> query) {
+        return Utils.getSubsetByType(query.getInnermostQuery().getAggregations(), SketchAggregation.class).size();
     }
 
     /**
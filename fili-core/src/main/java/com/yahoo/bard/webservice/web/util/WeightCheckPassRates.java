@@ -0,0 +1,122 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.util;
+
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks how often the weight checks of each table pass, to decide when the data query of a request can be sent
+ * before its weight check has finished.
+ * <p>
+ * The pass rate of a table is a moving average that weighs each of the most recent {@code minChecks} weight checks
+ * about equally, so a table that starts failing weight checks soon stops being speculated on.
+ */
+public class WeightCheckPassRates {
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * The pass rate above which the data queries of a table are sent along with their weight checks, above 1 disables
+     * speculation, which is the default.
+     */
+    public static final double DEFAULT_SPECULATION_PASS_RATE = SYSTEM_CONFIG.getDoubleProperty(
+            SYSTEM_CONFIG.getPackageVariableName("weight_check_speculation_pass_rate"),
+            2.0
+    );
+
+    /**
+     * The number of weight checks of a table to see before speculating on it.
+     */
+    public static final int DEFAULT_SPECULATION_MIN_CHECKS = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("weight_check_speculation_min_checks"),
+            100
+    );
+
+    private final double speculationPassRate;
+    private final int minChecks;
+    private final Map<String, PassRate> passRates = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param speculationPassRate  The pass rate above which the data queries of a table are speculated on
+     * @param minChecks  The number of weight checks of a table to see before speculating on it
+     */
+    public WeightCheckPassRates(double speculationPassRate, int minChecks) {
+        this.speculationPassRate = speculationPassRate;
+        this.minChecks = Math.max(minChecks, 1);
+    }
+
+    /**
+     * Constructor, using the configured pass rate and number of checks.
+     */
+    public WeightCheckPassRates() {
+        this(DEFAULT_SPECULATION_PASS_RATE, DEFAULT_SPECULATION_MIN_CHECKS);
+    }
+
+    /**
+     * Records the outcome of a weight check.
+     *
+     * @param table  The name of the table the request queried
+     * @param passed  True if the weight check passed
+     */
+    public void record(String table, boolean passed) {
+        passRates.computeIfAbsent(table, ignored -> new PassRate()).record(passed, minChecks);
+    }
+
+    /**
+     * Get the pass rate of the weight checks of a table.
+     *
+     * @param table  The name of the table
+     *
+     * @return the pass rate, or 0 if no weight check of the table has been recorded
+     */
+    public double getPassRate(String table) {
+        PassRate passRate = passRates.get(table);
+        return passRate == null ? 0 : passRate.getRate();
+    }
+
+    /**
+     * Determine if the data query of a request on a table should be sent along with its weight check.
+     *
+     * @param table  The name of the table the request queries
+     *
+     * @return true if enough of the weight checks of the table passed
+     */
+    public boolean shouldSpeculate(String table) {
+        PassRate passRate = passRates.get(table);
+        return passRate != null && passRate.getChecks() >= minChecks && passRate.getRate() >= speculationPassRate;
+    }
+
+    /**
+     * The moving pass rate of the weight checks of a single table.
+     */
+    protected static class PassRate {
+        private long checks;
+        private double rate;
+
+        /**
+         * Records the outcome of a weight check.
+         *
+         * @param passed  True if the weight check passed
+         * @param window  The number of recent checks that are weighed about equally
+         */
+        public synchronized void record(boolean passed, int window) {
+            checks++;
+            // Average the first checks evenly, then decay the older ones
+            double weight = 1.0 / Math.min(checks, window);
+            rate += weight * ((passed ? 1 : 0) - rate);
+        }
+
+        public synchronized long getChecks() {
+            return checks;
+        }
+
+        public synchronized double getRate() {
+            return rate;
+        }
+    }
+}
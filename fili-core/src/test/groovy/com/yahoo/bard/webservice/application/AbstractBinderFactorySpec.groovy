@@ -20,6 +20,9 @@ import com.yahoo.bard.webservice.application.healthchecks.AllDimensionsLoadedHea
 import com.yahoo.bard.webservice.application.healthchecks.DataSourceMetadataLoaderHealthCheck
 import com.yahoo.bard.webservice.application.healthchecks.DruidDimensionsLoaderHealthCheck
 import com.yahoo.bard.webservice.application.healthchecks.VersionHealthCheck
+import com.yahoo.bard.webservice.async.broadcastchannels.BatchingBroadcastChannel
+import com.yahoo.bard.webservice.async.broadcastchannels.BroadcastChannel
+import com.yahoo.bard.webservice.async.broadcastchannels.SimpleBroadcastChannel
 import com.yahoo.bard.webservice.config.SystemConfig
 import com.yahoo.bard.webservice.config.SystemConfigException
 import com.yahoo.bard.webservice.config.SystemConfigProvider
@@ -55,6 +58,7 @@ import org.glassfish.hk2.utilities.Binder
 import spock.lang.IgnoreIf
 import spock.lang.Shared
 import spock.lang.Specification
+import spock.lang.Unroll
 
 public class AbstractBinderFactorySpec extends Specification {
 
@@ -428,4 +432,25 @@ public class AbstractBinderFactorySpec extends Specification {
         true         | DruidInFilterBuilder
         false        | DruidOrFilterBuilder
     }
+
+    @Unroll
+    def "With broadcast batching #description the broadcast channel is a #channelType.simpleName"() {
+        setup:
+        systemConfig.setProperty(AbstractBinderFactory.BROADCAST_BATCHING_ENABLED_KEY, enabled)
+
+        when:
+        BroadcastChannel<String> channel = binderFactory.buildBroadcastChannel()
+
+        then:
+        channelType.isInstance(channel)
+
+        cleanup:
+        channel?.close()
+        systemConfig.clearProperty(AbstractBinderFactory.BROADCAST_BATCHING_ENABLED_KEY)
+
+        where:
+        enabled | description | channelType
+        "true"  | "enabled"   | BatchingBroadcastChannel
+        "false" | "disabled"  | SimpleBroadcastChannel
+    }
 }
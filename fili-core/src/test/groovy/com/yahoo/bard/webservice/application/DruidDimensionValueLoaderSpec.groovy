@@ -2,13 +2,23 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.application
 
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.DESC
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.ID
+
 import com.yahoo.bard.webservice.data.dimension.Dimension
 import com.yahoo.bard.webservice.data.dimension.DimensionDictionary
+import com.yahoo.bard.webservice.data.dimension.DimensionRow
 import com.yahoo.bard.webservice.druid.client.DruidWebService
+import com.yahoo.bard.webservice.druid.client.FailureCallback
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback
 import com.yahoo.bard.webservice.druid.model.datasource.DataSource
 import com.yahoo.bard.webservice.druid.model.query.DruidSearchQuery
 import com.yahoo.bard.webservice.table.PhysicalTableDictionary
 
+import com.codahale.metrics.Timer
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+
 import spock.lang.Specification
 
 import java.util.concurrent.Future
@@ -57,4 +67,196 @@ class DruidDimensionValueLoaderSpec extends Specification {
         searchQuery2.getIntervals().get(0).getStart() > searchQuery1.getIntervals().get(0).getStart()
 
     }
+
+    /**
+     * Build a druid search query response holding some dimension values.
+     *
+     * @param values  The values in the response
+     *
+     * @return the response
+     */
+    JsonNode searchResponse(List<String> values) {
+        new ObjectMapper().readTree(
+                """[{"timestamp": "2019-01-01T00:00:00.000Z", "result": [${
+                    values.collect { """{"dimension": "dim", "value": "$it"}""" }.join(",")
+                }]}]"""
+        )
+    }
+
+    /**
+     * Build a dimension with an id and a desc field.
+     *
+     * @param name  The name of the dimension
+     *
+     * @return the dimension
+     */
+    Dimension dimension(String name) {
+        Mock(Dimension) {
+            getApiName() >> name
+            getKey() >> ID
+            getDimensionFields() >> ([ID, DESC] as LinkedHashSet)
+        }
+    }
+
+    /**
+     * Build a loader over some dimensions, with two datasources having every dimension.
+     *
+     * @param dimensions  The dimensions to load
+     *
+     * @return the loader
+     */
+    DruidDimensionValueLoader loader(List<Dimension> dimensions) {
+        DruidDimensionValueLoader spy = Spy(
+                DruidDimensionValueLoader,
+                constructorArgs: [physicalTableDictionary, dimensionDictionary, [], druidWebService]
+        ) {
+            getDimensions() >> (dimensions as Set)
+            getDataSources() >> ([Mock(DataSource), Mock(DataSource)] as Set)
+            dimensionExistsInDataSource(_, _) >> true
+        }
+        spy.setErrorCallback(Mock(HttpErrorCallback))
+        spy.setFailureCallback(Mock(FailureCallback))
+        spy
+    }
+
+    def "The values of every datasource are diffed against the dimension in bulk and added together"() {
+        setup:
+        Dimension dimension = dimension("dim")
+        DruidDimensionValueLoader loader = loader([dimension])
+        List<List<String>> responses = [["a", "b"], ["b", "c"]]
+        druidWebService.postDruidQuery(*_) >> { arguments ->
+            arguments[1].invoke(searchResponse(responses.remove(0)))
+            return Mock(Future)
+        }
+
+        when:
+        loader.load()
+
+        then:
+        1 * dimension.findExistingKeyValues({ it as Set == ["a", "b", "c"] as Set }) >> (["a"] as Set)
+        1 * dimension.addAllDimensionRows({ Set<DimensionRow> rows ->
+            rows*.getKeyValue() as Set == ["b", "c"] as Set && rows.every { it.get(DESC) == "" }
+        })
+        1 * dimension.setLastUpdated(_)
+        0 * dimension.findDimensionRowByKeyValue(_)
+    }
+
+    def "A dimension is updated with the values of the queries that succeeded"() {
+        setup:
+        Dimension dimension = dimension("dim")
+        DruidDimensionValueLoader loader = loader([dimension])
+        int queries = 0
+        druidWebService.postDruidQuery(*_) >> { arguments ->
+            if (queries++ == 0) {
+                arguments[2].invoke(500, "Server Error", "")
+            } else {
+                arguments[1].invoke(searchResponse(["a"]))
+            }
+            return Mock(Future)
+        }
+
+        when:
+        loader.load()
+
+        then:
+        1 * dimension.findExistingKeyValues(_) >> ([] as Set)
+        1 * dimension.addAllDimensionRows({ it*.getKeyValue() == ["a"] })
+        1 * dimension.setLastUpdated(_)
+    }
+
+    def "A dimension whose queries all fail is not updated"() {
+        setup:
+        Dimension dimension = dimension("dim")
+        DruidDimensionValueLoader loader = loader([dimension])
+        druidWebService.postDruidQuery(*_) >> { arguments ->
+            arguments[3].invoke(new IOException("Connection refused"))
+            return Mock(Future)
+        }
+
+        when:
+        loader.load()
+
+        then:
+        0 * dimension.findExistingKeyValues(_)
+        0 * dimension.addAllDimensionRows(_)
+        0 * dimension.setLastUpdated(_)
+    }
+
+    def "Loading more dimensions than may be loaded at a time releases each dimension once it is updated"() {
+        setup:
+        List<Dimension> dimensions = (1..10).collect { dimension("dim$it") }
+        DruidDimensionValueLoader loader = loader(dimensions)
+        druidWebService.postDruidQuery(*_) >> { arguments ->
+            arguments[1].invoke(searchResponse(["a"]))
+            return Mock(Future)
+        }
+
+        when:
+        loader.load()
+
+        then:
+        dimensions.each {
+            1 * it.findExistingKeyValues(_) >> ([] as Set)
+            1 * it.addAllDimensionRows(_)
+            1 * it.setLastUpdated(_)
+        }
+    }
+
+    def "A dimension whose queries never answer gives up its permit after the druid timeout"() {
+        setup:
+        List<Dimension> dimensions = (1..6).collect { dimension("dim$it") }
+        DruidDimensionValueLoader loader = loader(dimensions)
+        druidWebService.getTimeout() >> 50
+
+        when:
+        loader.load()
+
+        then:
+        12 * druidWebService.postDruidQuery(*_) >> Mock(Future)
+        dimensions.each {
+            0 * it.setLastUpdated(_)
+        }
+    }
+
+    def "A dimension whose queries can't be sent gives up its permit right away"() {
+        setup:
+        List<Dimension> dimensions = (1..6).collect { dimension("dim$it") }
+        DruidDimensionValueLoader loader = loader(dimensions)
+
+        when:
+        loader.load()
+
+        then:
+        1 * druidWebService.postDruidQuery(*_) >> { throw new IllegalStateException("Closed") }
+        thrown(IllegalStateException)
+
+        when:
+        loader.load()
+
+        then:
+        12 * druidWebService.postDruidQuery(*_) >> { arguments ->
+            arguments[1].invoke(searchResponse(["a"]))
+            return Mock(Future)
+        }
+        dimensions.each {
+            1 * it.findExistingKeyValues(_) >> ([] as Set)
+            1 * it.setLastUpdated(_)
+        }
+    }
+
+    def "A load cycle cut short by an interrupt is still timed"() {
+        setup:
+        DruidDimensionValueLoader loader = loader([dimension("dim1"), dimension("dim2")])
+        Timer cycles = MetricRegistryFactory.getRegistry().timer("dimensions.druid.load.cycle")
+        long timedCycles = cycles.getCount()
+
+        when:
+        Thread.currentThread().interrupt()
+        loader.load()
+
+        then:
+        Thread.interrupted()
+        0 * druidWebService.postDruidQuery(*_)
+        cycles.getCount() == timedCycles + 1
+    }
 }
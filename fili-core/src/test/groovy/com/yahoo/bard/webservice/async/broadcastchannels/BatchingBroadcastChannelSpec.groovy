@@ -0,0 +1,118 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.async.broadcastchannels
+
+import rx.observers.TestSubscriber
+import rx.schedulers.Schedulers
+import rx.schedulers.TestScheduler
+import rx.subjects.PublishSubject
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Verifies that the BatchingBroadcastChannel satisfies the BroadcastChannel interface, and tests its batching and
+ * routing. The interface tests may be found in {@link BroadcastChannelSpec}.
+ */
+class BatchingBroadcastChannelSpec extends BroadcastChannelSpec {
+
+    PublishSubject<List<String>> crossBoxBatches = PublishSubject.create()
+    TestScheduler scheduler = new TestScheduler()
+
+    @Override
+    BroadcastChannel getBroadcastChannel() {
+        return new BatchingBroadcastChannel<String>(
+                new SimpleBroadcastChannel<List<String>>(crossBoxBatches),
+                10,
+                100,
+                Schedulers.computation()
+        )
+    }
+
+    BatchingBroadcastChannel<String> buildScheduledChannel(int maxBatchSize) {
+        new BatchingBroadcastChannel<String>(
+                new SimpleBroadcastChannel<List<String>>(crossBoxBatches),
+                50,
+                maxBatchSize,
+                scheduler
+        )
+    }
+
+    def "Messages published within a window are sent as one batch without duplicates"() {
+        setup:
+        BatchingBroadcastChannel<String> channel = buildScheduledChannel(100)
+        TestSubscriber<List<String>> batchListener = new TestSubscriber<>()
+        crossBoxBatches.subscribe(batchListener)
+
+        when:
+        ["ticket1", "ticket2", "ticket1"].each { channel.publish(it) }
+
+        then: "nothing is sent before the window ends"
+        batchListener.assertNoValues()
+
+        when:
+        scheduler.advanceTimeBy(50, TimeUnit.MILLISECONDS)
+
+        then:
+        batchListener.assertValue(["ticket1", "ticket2"])
+
+        cleanup:
+        channel.close()
+    }
+
+    def "A full batch is sent before its window ends"() {
+        setup:
+        BatchingBroadcastChannel<String> channel = buildScheduledChannel(2)
+        TestSubscriber<List<String>> batchListener = new TestSubscriber<>()
+        crossBoxBatches.subscribe(batchListener)
+
+        when:
+        ["ticket1", "ticket2", "ticket3"].each { channel.publish(it) }
+
+        then:
+        batchListener.assertValue(["ticket1", "ticket2"])
+
+        cleanup:
+        channel.close()
+    }
+
+    def "Closing the channel sends the messages of the current window"() {
+        setup:
+        BatchingBroadcastChannel<String> channel = buildScheduledChannel(100)
+        TestSubscriber<List<String>> batchListener = new TestSubscriber<>()
+        crossBoxBatches.subscribe(batchListener)
+
+        when:
+        channel.publish("ticket1")
+        channel.close()
+
+        then:
+        batchListener.assertValue(["ticket1"])
+    }
+
+    def "A waiter is only notified of its own message, and is removed once notified"() {
+        setup:
+        BatchingBroadcastChannel<String> channel = buildScheduledChannel(100)
+        TestSubscriber<String> waiter1 = new TestSubscriber<>()
+        TestSubscriber<String> waiter2 = new TestSubscriber<>()
+        channel.getNotification("ticket1").subscribe(waiter1)
+        channel.getNotification("ticket2").subscribe(waiter2)
+
+        when:
+        crossBoxBatches.onNext(["ticket1", "ticket3"])
+
+        then:
+        waiter1.assertValue("ticket1")
+        waiter1.assertCompleted()
+        waiter2.assertNoValues()
+        channel.waiters.keySet() == ["ticket2"] as Set
+
+        when: "the other waiter gives up"
+        waiter2.unsubscribe()
+
+        then:
+        channel.waiters.isEmpty()
+
+        cleanup:
+        channel.close()
+    }
+}
@@ -0,0 +1,215 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.async.jobs.stores
+
+import static com.yahoo.bard.webservice.async.jobs.jobrows.DefaultJobField.DATE_CREATED
+import static com.yahoo.bard.webservice.async.jobs.jobrows.DefaultJobField.DATE_UPDATED
+import static com.yahoo.bard.webservice.async.jobs.jobrows.DefaultJobField.JOB_TICKET
+import static com.yahoo.bard.webservice.async.jobs.jobrows.DefaultJobField.STATUS
+import static com.yahoo.bard.webservice.async.jobs.jobrows.DefaultJobField.USER_ID
+
+import com.yahoo.bard.webservice.async.jobs.JobTestUtils
+import com.yahoo.bard.webservice.async.jobs.jobrows.DefaultJobField
+import com.yahoo.bard.webservice.async.jobs.jobrows.DefaultJobStatus
+import com.yahoo.bard.webservice.async.jobs.jobrows.JobField
+import com.yahoo.bard.webservice.async.jobs.jobrows.JobRow
+import com.yahoo.bard.webservice.web.DefaultFilterOperation
+
+import org.apache.commons.io.FileUtils
+import org.apache.lucene.index.DirectoryReader
+import org.apache.lucene.store.FSDirectory
+import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
+
+import rx.observers.TestSubscriber
+import spock.lang.Unroll
+import spock.util.concurrent.PollingConditions
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Verifies that the LuceneJobStore satisfies the ApiJobStore interface, and tests its indexed filtering, durability
+ * and compaction. The interface tests may be found in {@link ApiJobStoreSpec}.
+ */
+class LuceneJobStoreSpec extends ApiJobStoreSpec {
+
+    Path indexPath
+    List<LuceneJobStore> openStores = []
+    // Referencing `store` in this spec would call getStore() and open a fresh store, so keep our own handle
+    LuceneJobStore luceneStore
+
+    JobRow userFooJobRow1 = JobTestUtils.buildJobRow([(JOB_TICKET): "1", (USER_ID): "Foo"])
+    JobRow userFooJobRow2 = JobTestUtils.buildJobRow([(JOB_TICKET): "2", (USER_ID): "Foo"])
+    JobRow userBarJobRow1 = JobTestUtils.buildJobRow([(JOB_TICKET): "3", (USER_ID): "Bar*"])
+
+    @Override
+    ApiJobStore getStore() {
+        indexPath = Files.createTempDirectory("luceneJobStore")
+        luceneStore = openStore()
+    }
+
+    LuceneJobStore openStore() {
+        LuceneJobStore jobStore = new LuceneJobStore(indexPath)
+        openStores.add(jobStore)
+        jobStore
+    }
+
+    def childCleanup() {
+        openStores.each { it.close() }
+        FileUtils.deleteDirectory(indexPath.toFile())
+    }
+
+    LuceneJobStore filterStore() {
+        [userFooJobRow1, userFooJobRow2, userBarJobRow1].each { luceneStore.save(it).toBlocking().first() }
+        luceneStore
+    }
+
+    @Unroll
+    def "getFilteredRows returns #expectedIds that satisfy #operation #values on #field"() {
+        setup:
+        TestSubscriber<JobRow> testSubscriber = new TestSubscriber<>()
+        JobRowFilter filter = new JobRowFilter(field, operation, values as Set)
+
+        when:
+        filterStore().getFilteredRows([filter] as Set).subscribe(testSubscriber)
+
+        then:
+        testSubscriber.assertNoErrors()
+        testSubscriber.getOnNextEvents()*.getId() == expectedIds
+
+        where:
+        field      | operation                          | values         | expectedIds
+        USER_ID    | DefaultFilterOperation.startswith  | ["Fo"]         | ["1", "2"]
+        USER_ID    | DefaultFilterOperation.notin       | ["Foo"]        | ["3"]
+        USER_ID    | DefaultFilterOperation.in          | ["Foo", "Baz"] | ["1", "2"]
+        USER_ID    | DefaultFilterOperation.eq          | ["Bar*"]       | ["3"]
+        USER_ID    | DefaultFilterOperation.contains    | ["oo"]         | ["1", "2"]
+        USER_ID    | DefaultFilterOperation.contains    | ["r*"]         | ["3"]
+        USER_ID    | DefaultFilterOperation.contains    | ["*"]          | ["3"]
+        JOB_TICKET | DefaultFilterOperation.eq          | ["1"]          | ["1"]
+    }
+
+    def "Filters on several fields must all be satisfied"() {
+        setup:
+        TestSubscriber<JobRow> testSubscriber = new TestSubscriber<>()
+        Set<JobRowFilter> filters = [
+                new JobRowFilter(USER_ID, DefaultFilterOperation.startswith, ["Fo"] as Set),
+                new JobRowFilter(JOB_TICKET, DefaultFilterOperation.eq, ["1"] as Set)
+        ] as Set
+
+        when:
+        filterStore().getFilteredRows(filters).subscribe(testSubscriber)
+
+        then:
+        testSubscriber.assertReceivedOnNext([userFooJobRow1])
+    }
+
+    @Unroll
+    def "Filtering with #operation on a field some row doesn't have is an error, as in the HashJobStore"() {
+        setup:
+        luceneStore.save(new JobRow(JOB_TICKET, [(JOB_TICKET): "4"])).subscribe()
+        TestSubscriber<JobRow> testSubscriber = new TestSubscriber<>()
+
+        when:
+        luceneStore.getFilteredRows([new JobRowFilter(USER_ID, operation, ["Foo"] as Set)] as Set)
+                .subscribe(testSubscriber)
+
+        then:
+        testSubscriber.assertError(IllegalArgumentException.class)
+        testSubscriber.getOnErrorEvents().get(0).getMessage() ==
+                "Filter field 'userId' does not exist. The possible fields to filter on are '[jobTicket]'"
+
+        where:
+        operation << [DefaultFilterOperation.notin, DefaultFilterOperation.eq]
+    }
+
+    def "Listings are read in pages, in creation order"() {
+        setup:
+        List<JobRow> rows = (0..<250).collect {
+            JobTestUtils.buildJobRow([
+                    (JOB_TICKET): "job$it".toString(),
+                    (DATE_CREATED): new DateTime(1000L * it, DateTimeZone.UTC).toString()
+            ])
+        }
+        rows.reverse().each { luceneStore.save(it).subscribe() }
+
+        expect: "the rows of the setup were created first"
+        luceneStore.getAllRows().toList().toBlocking().single()*.getId() == ["1", "2", "3"] + rows*.getId()
+        luceneStore.getAllRows().take(5).toList().toBlocking().single()*.getId() == ["1", "2", "3", "job0", "job1"]
+    }
+
+    def "Saves are committed to disk on a timer"() {
+        setup: "the store of the spec holds the write lock of the index"
+        luceneStore.close()
+        openStores.remove(luceneStore)
+        LuceneJobStore timedStore = new LuceneJobStore(
+                indexPath,
+                JOB_TICKET,
+                Arrays.asList(DefaultJobField.values()),
+                LuceneJobStore.DEFAULT_FINISHED_STATUSES,
+                10
+        )
+        openStores.add(timedStore)
+
+        int expectedDocs = ROW_DATA.size() + 1
+
+        when:
+        timedStore.save(JobTestUtils.buildJobRow([(JOB_TICKET): "4"])).subscribe()
+
+        then: "the new row is on disk while the store is still open"
+        new PollingConditions(timeout: 5).eventually {
+            FSDirectory.open(indexPath).withCloseable { DirectoryReader.open(it).withCloseable { it.numDocs() } } ==
+                    expectedDocs
+        }
+    }
+
+    def "Filtering on a field the store doesn't know is an error"() {
+        setup:
+        JobField unknown = Mock(JobField) {
+            getName() >> "unknown"
+            toString() >> "unknown"
+        }
+        TestSubscriber<JobRow> testSubscriber = new TestSubscriber<>()
+
+        when:
+        luceneStore.getFilteredRows([new JobRowFilter(unknown, DefaultFilterOperation.eq, ["1"] as Set)] as Set)
+                .subscribe(testSubscriber)
+
+        then:
+        testSubscriber.assertError(IllegalArgumentException.class)
+        testSubscriber.getOnErrorEvents().get(0).getMessage().startsWith("Filter field 'unknown' does not exist.")
+    }
+
+    def "Saved jobs survive reopening the store"() {
+        given:
+        JobRow updated = ROW_DATA["2"].withFieldValue(STATUS, DefaultJobStatus.SUCCESS.getName())
+        luceneStore.save(updated).subscribe()
+        luceneStore.close()
+        openStores.remove(luceneStore)
+
+        when:
+        LuceneJobStore reopened = openStore()
+
+        then:
+        reopened.get("2").toBlocking().single() == updated
+        reopened.getAllRows().toList().toBlocking().single() == [ROW_DATA["1"], updated, ROW_DATA["3"]]
+    }
+
+    def "Compaction deletes only finished jobs last updated before the cutoff"() {
+        given:
+        DateTime cutoff = new DateTime(2, 6, 1, 0, 0, DateTimeZone.UTC)
+        JobRow oldFinished = ROW_DATA["1"].withFieldValue(STATUS, DefaultJobStatus.FAILURE.getName())
+        JobRow newFinished = ROW_DATA["3"]
+                .withFieldValue(STATUS, DefaultJobStatus.SUCCESS.getName())
+                .withFieldValue(DATE_UPDATED, cutoff.plusDays(1).toString())
+        [oldFinished, newFinished].each { luceneStore.save(it).subscribe() }
+
+        when:
+        int deleted = luceneStore.compact(cutoff)
+
+        then: "the old pending job and the recently finished job are kept"
+        deleted == 1
+        luceneStore.getAllRows().toList().toBlocking().single()*.getId() == ["2", "3"]
+    }
+}
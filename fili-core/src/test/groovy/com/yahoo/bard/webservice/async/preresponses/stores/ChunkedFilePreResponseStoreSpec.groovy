@@ -0,0 +1,293 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.async.preresponses.stores
+
+import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.DAY
+
+import com.yahoo.bard.webservice.application.ObjectMappersSuite
+import com.yahoo.bard.webservice.data.PreResponseDeserializer
+import com.yahoo.bard.webservice.data.Result
+import com.yahoo.bard.webservice.data.ResultSet
+import com.yahoo.bard.webservice.data.ResultSetSchema
+import com.yahoo.bard.webservice.data.dimension.BardDimensionField
+import com.yahoo.bard.webservice.data.dimension.DimensionColumn
+import com.yahoo.bard.webservice.data.dimension.DimensionDictionary
+import com.yahoo.bard.webservice.data.dimension.MapStoreManager
+import com.yahoo.bard.webservice.data.dimension.impl.KeyValueStoreDimension
+import com.yahoo.bard.webservice.data.dimension.impl.ScanSearchProviderManager
+import com.yahoo.bard.webservice.data.metric.MetricColumn
+import com.yahoo.bard.webservice.data.time.StandardGranularityParser
+import com.yahoo.bard.webservice.util.Pagination
+import com.yahoo.bard.webservice.web.PageNotFoundException
+import com.yahoo.bard.webservice.web.PreResponse
+import com.yahoo.bard.webservice.web.responseprocessors.ResponseContext
+import com.yahoo.bard.webservice.web.responseprocessors.ResponseContextKeys
+import com.yahoo.bard.webservice.web.util.PaginationParameters
+
+import com.fasterxml.jackson.databind.DeserializationFeature
+import com.fasterxml.jackson.databind.ObjectMapper
+
+import org.apache.commons.io.FileUtils
+import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
+
+import rx.observers.TestSubscriber
+
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.Path
+import java.util.stream.Stream
+
+/**
+ * Verifies that the ChunkedFilePreResponseStore satisfies the PreResponseStore interface, and tests reading pages
+ * through its row offset index and cache.
+ * The interface tests may be found in {@link PreResponseStoreSpec}.
+ */
+class ChunkedFilePreResponseStoreSpec extends PreResponseStoreSpec {
+
+    static final MetricColumn PAGE_VIEWS = new MetricColumn("pageViews")
+
+    Path directory
+    DimensionDictionary dimensionDictionary
+    ChunkedFilePreResponseStore chunkedStore
+
+    @Override
+    PreResponseStore getStore() {
+        ObjectMapper responseContextMapper = new ObjectMappersSuite().getMapper()
+        responseContextMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL)
+        directory = Files.createTempDirectory("chunkedPreResponseStore")
+        dimensionDictionary = new DimensionDictionary()
+        chunkedStore = new ChunkedFilePreResponseStore(
+                directory,
+                new PreResponseDeserializer(
+                        dimensionDictionary,
+                        new ObjectMappersSuite().getMapper(),
+                        responseContextMapper,
+                        new StandardGranularityParser()
+                ),
+                10,
+                3,
+                10
+        )
+    }
+
+    def childCleanup() {
+        FileUtils.deleteDirectory(directory.toFile())
+    }
+
+    PreResponse buildPreResponse(int rows) {
+        List<Result> results = (0..<rows).collect {
+            new Result(
+                    [:],
+                    [(PAGE_VIEWS): new BigDecimal(it)],
+                    new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC).plusDays(it)
+            )
+        }
+        new PreResponse(
+                new ResultSet(new ResultSetSchema(DAY, [PAGE_VIEWS] as Set), results),
+                new ResponseContext()
+        )
+    }
+
+    /**
+     * Finds the chunk files of the ticket named "ticket".
+     *
+     * @return the chunk files, by name
+     */
+    Map<String, Path> getTicketChunks() {
+        // Tickets are stored in directories named by their url safe base 64 encoding
+        Stream<Path> paths = Files.walk(directory.resolve("dGlja2V0"))
+        try {
+            paths.iterator().findAll { it.fileName.toString().startsWith("chunk-") }
+                    .collectEntries { [(it.fileName.toString()): it] }
+        } finally {
+            paths.close()
+        }
+    }
+
+    def "A page spanning chunks holds only the rows of the page and describes the page"() {
+        setup:
+        chunkedStore.save("ticket", buildPreResponse(25)).toBlocking().first()
+
+        when:
+        PreResponse page = chunkedStore.getPage("ticket", new PaginationParameters(7, 2)).toBlocking().single()
+        Pagination<Result> pagination = page.responseContext.get(
+                ResponseContextKeys.PAGINATION_CONTEXT_KEY.getName()
+        ) as Pagination<Result>
+
+        then:
+        page.resultSet*.getMetricValueAsNumber(PAGE_VIEWS)*.intValue() == (7..13).toList()
+        pagination.getNumResults() == 25
+        pagination.getPage() == 2
+        pagination.getLastPage().getAsInt() == 4
+    }
+
+    def "The whole result can be read back"() {
+        setup:
+        PreResponse preResponse = buildPreResponse(25)
+        chunkedStore.save("ticket", preResponse).toBlocking().first()
+
+        when:
+        PreResponse read = chunkedStore.get("ticket").toBlocking().single()
+
+        then:
+        read.resultSet*.getMetricValueAsNumber(PAGE_VIEWS)*.intValue() == (0..24).toList()
+        read.resultSet*.timeStamp == preResponse.resultSet*.timeStamp
+    }
+
+    def "Reading a page only decompresses the chunks the page overlaps"() {
+        setup:
+        chunkedStore.save("ticket", buildPreResponse(25)).toBlocking().first()
+
+        when: "the last chunk is lost"
+        Files.delete(ticketChunks["chunk-000002.json.gz"])
+
+        then: "the first pages can still be read"
+        chunkedStore.getPage("ticket", new PaginationParameters(10, 2)).toBlocking().single().resultSet.size() == 10
+    }
+
+    def "Reading the whole result fails if one of its chunks is lost"() {
+        setup:
+        chunkedStore.save("ticket", buildPreResponse(25)).toBlocking().first()
+        Files.delete(ticketChunks["chunk-000002.json.gz"])
+        TestSubscriber<PreResponse> testSubscriber = new TestSubscriber<>()
+
+        when:
+        chunkedStore.get("ticket").subscribe(testSubscriber)
+
+        then:
+        testSubscriber.assertError(NoSuchFileException)
+    }
+
+    def "Requesting a page past the last page is an error"() {
+        setup:
+        chunkedStore.save("ticket", buildPreResponse(5)).toBlocking().first()
+        TestSubscriber<PreResponse> testSubscriber = new TestSubscriber<>()
+
+        when:
+        chunkedStore.getPage("ticket", new PaginationParameters(5, 2)).subscribe(testSubscriber)
+
+        then:
+        testSubscriber.assertError(PageNotFoundException)
+    }
+
+    def "Pages of unknown tickets are empty"() {
+        expect:
+        chunkedStore.getPage("missing", new PaginationParameters(5, 1)).isEmpty().toBlocking().single()
+    }
+
+    def "A page starting inside a later block is read from that block"() {
+        setup:
+        chunkedStore.save("ticket", buildPreResponse(25)).toBlocking().first()
+
+        expect: "rows 14 to 18 sit in the second and third blocks of the second chunk"
+        chunkedStore.getPage("ticket", new PaginationParameters(5, 3)).toBlocking().single()
+                .resultSet*.getMetricValueAsNumber(PAGE_VIEWS)*.intValue() == (10..14).toList()
+        chunkedStore.getPage("ticket", new PaginationParameters(4, 4)).toBlocking().single()
+                .resultSet*.getMetricValueAsNumber(PAGE_VIEWS)*.intValue() == (12..15).toList()
+    }
+
+    def "Dimension rows are looked up once per ticket across page reads"() {
+        setup:
+        KeyValueStoreDimension country = Spy(
+                KeyValueStoreDimension,
+                constructorArgs: [
+                        "country",
+                        "country",
+                        [BardDimensionField.ID, BardDimensionField.DESC] as LinkedHashSet,
+                        MapStoreManager.getInstance("chunkedStoreCountry"),
+                        ScanSearchProviderManager.getInstance("chunkedStoreCountry")
+                ]
+        )
+        country.addDimensionRow(BardDimensionField.makeDimensionRow(country, "us", "United States"))
+        dimensionDictionary.add(country)
+        DimensionColumn countryColumn = new DimensionColumn(country)
+        List<Result> results = (0..<6).collect {
+            new Result(
+                    [(countryColumn): country.findDimensionRowByKeyValue("us")],
+                    [(PAGE_VIEWS): new BigDecimal(it)],
+                    new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC).plusDays(it)
+            )
+        }
+        chunkedStore.save(
+                "ticket",
+                new PreResponse(
+                        new ResultSet(new ResultSetSchema(DAY, [countryColumn, PAGE_VIEWS] as Set), results),
+                        new ResponseContext()
+                )
+        ).toBlocking().first()
+
+        when:
+        List<PreResponse> pages = (1..2).collect {
+            chunkedStore.getPage("ticket", new PaginationParameters(3, it)).toBlocking().single()
+        }
+
+        then:
+        1 * country.findDimensionRowByKeyValue("us")
+        pages.every { page -> page.resultSet*.getDimensionRow(countryColumn)*.get(BardDimensionField.DESC).every {
+            it == "United States"
+        } }
+    }
+
+    def "Saving a ticket again replaces the cached result"() {
+        setup:
+        chunkedStore.save("ticket", buildPreResponse(25)).toBlocking().first()
+        chunkedStore.get("ticket").toBlocking().single()
+
+        when:
+        chunkedStore.save("ticket", buildPreResponse(5)).toBlocking().first()
+
+        then:
+        chunkedStore.get("ticket").toBlocking().single().resultSet.size() == 5
+    }
+
+    def "Saving a ticket again replaces its header atomically and removes the previous chunks"() {
+        setup:
+        chunkedStore.save("ticket", buildPreResponse(25)).toBlocking().first()
+        Collection<Path> previousChunks = ticketChunks.values()
+
+        when:
+        chunkedStore.save("ticket", buildPreResponse(5)).toBlocking().first()
+
+        then:
+        previousChunks.every { !Files.exists(it) }
+        ticketChunks.keySet() == ["chunk-000000.json.gz"] as Set
+        directory.resolve("dGlja2V0").toFile().list().size() == 2
+    }
+
+    def "A dimension value without a row is read back with an empty row"() {
+        setup:
+        KeyValueStoreDimension country = new KeyValueStoreDimension(
+                "country",
+                "country",
+                [BardDimensionField.ID, BardDimensionField.DESC] as LinkedHashSet,
+                MapStoreManager.getInstance("chunkedStoreMissingCountry"),
+                ScanSearchProviderManager.getInstance("chunkedStoreMissingCountry")
+        )
+        dimensionDictionary.add(country)
+        DimensionColumn countryColumn = new DimensionColumn(country)
+        Result result = new Result(
+                [(countryColumn): country.createEmptyDimensionRow("atlantis")],
+                [(PAGE_VIEWS): BigDecimal.ONE],
+                new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC)
+        )
+        chunkedStore.save(
+                "ticket",
+                new PreResponse(
+                        new ResultSet(new ResultSetSchema(DAY, [countryColumn, PAGE_VIEWS] as Set), [result]),
+                        new ResponseContext()
+                )
+        ).toBlocking().first()
+
+        when:
+        Result read = chunkedStore.get("ticket").toBlocking().single().resultSet.first()
+
+        then:
+        read.getDimensionRow(countryColumn) == country.createEmptyDimensionRow("atlantis")
+
+        cleanup:
+        MapStoreManager.removeInstance("chunkedStoreMissingCountry")
+        ScanSearchProviderManager.removeInstance("chunkedStoreMissingCountry")
+    }
+}
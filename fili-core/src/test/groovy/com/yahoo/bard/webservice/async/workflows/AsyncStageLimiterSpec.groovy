@@ -0,0 +1,133 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.async.workflows
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory
+
+import com.codahale.metrics.Gauge
+
+import rx.Observable
+import rx.observers.TestSubscriber
+import rx.subjects.PublishSubject
+import spock.lang.Specification
+
+class AsyncStageLimiterSpec extends Specification {
+
+    AsyncStageLimiter limiter = new AsyncStageLimiter("limiterSpec", 1, 1)
+
+    PublishSubject<String> first = PublishSubject.create()
+    PublishSubject<String> second = PublishSubject.create()
+
+    TestSubscriber<String> firstSubscriber = new TestSubscriber<>()
+    TestSubscriber<String> secondSubscriber = new TestSubscriber<>()
+    TestSubscriber<String> thirdSubscriber = new TestSubscriber<>()
+
+    def "Operations beyond the concurrency limit wait until a running operation terminates"() {
+        setup:
+        boolean secondStarted = false
+
+        when:
+        limiter.limit { first }.subscribe(firstSubscriber)
+        limiter.limit { secondStarted = true; second }.subscribe(secondSubscriber)
+
+        then:
+        !secondStarted
+        limiter.getRunning() == 1
+        limiter.getQueueDepth() == 1
+
+        when:
+        first.onNext("first")
+        first.onCompleted()
+
+        then:
+        firstSubscriber.assertValue("first")
+        secondStarted
+        limiter.getQueueDepth() == 0
+
+        when:
+        second.onNext("second")
+        second.onCompleted()
+
+        then:
+        secondSubscriber.assertValue("second")
+        limiter.getRunning() == 0
+    }
+
+    def "Operations beyond the queue limit are rejected"() {
+        when:
+        limiter.limit { first }.subscribe(firstSubscriber)
+        limiter.limit { second }.subscribe(secondSubscriber)
+
+        then:
+        limiter.isSaturated()
+
+        when:
+        limiter.limit { Observable.just("third") }.subscribe(thirdSubscriber)
+
+        then:
+        thirdSubscriber.assertError(AsyncWorkRejectedException)
+        thirdSubscriber.onErrorEvents[0].message.endsWith("with 1 of 1 operations running and 1 of 1 queued")
+        secondSubscriber.assertNoErrors()
+    }
+
+    def "A failed operation releases its slot"() {
+        when:
+        limiter.limit { Observable.<String>error(new IOException()) }.subscribe(firstSubscriber)
+        limiter.limit { Observable.just("second") }.subscribe(secondSubscriber)
+
+        then:
+        firstSubscriber.assertError(IOException)
+        secondSubscriber.assertValue("second")
+        limiter.getRunning() == 0
+    }
+
+    def "Unsubscribing from a running operation releases its slot"() {
+        when:
+        limiter.limit { first }.subscribe(firstSubscriber)
+        limiter.limit { Observable.just("second") }.subscribe(secondSubscriber)
+        firstSubscriber.unsubscribe()
+
+        then:
+        secondSubscriber.assertValue("second")
+        limiter.getRunning() == 0
+    }
+
+    def "Queued operations that finish synchronously are started one after another rather than recursively"() {
+        setup:
+        AsyncStageLimiter deepLimiter = new AsyncStageLimiter("deepLimiterSpec", 1, 100000)
+        List<TestSubscriber<Integer>> subscribers = (0..<100000).collect { new TestSubscriber<Integer>() }
+        deepLimiter.limit { first }.subscribe(firstSubscriber)
+        subscribers.eachWithIndex { subscriber, i -> deepLimiter.limit { Observable.just(i) }.subscribe(subscriber) }
+
+        when:
+        first.onCompleted()
+
+        then:
+        subscribers.every { it.onCompletedEvents.size() == 1 }
+        deepLimiter.getRunning() == 0
+        deepLimiter.getQueueDepth() == 0
+    }
+
+    def "A stage allowing no running operations is unbounded"() {
+        setup:
+        AsyncStageLimiter unbounded = new AsyncStageLimiter("unboundedLimiterSpec", 0, 0)
+
+        when:
+        unbounded.limit { first }.subscribe(firstSubscriber)
+        unbounded.limit { Observable.just("second") }.subscribe(secondSubscriber)
+
+        then:
+        !unbounded.isBounded()
+        !unbounded.isSaturated()
+        secondSubscriber.assertValue("second")
+    }
+
+    def "The queue depth is published as a gauge"() {
+        when:
+        limiter.limit { first }.subscribe(firstSubscriber)
+        limiter.limit { second }.subscribe(secondSubscriber)
+
+        then:
+        (MetricRegistryFactory.getRegistry().getGauges()["async.limiterSpec.queue.depth"] as Gauge).getValue() == 1
+    }
+}
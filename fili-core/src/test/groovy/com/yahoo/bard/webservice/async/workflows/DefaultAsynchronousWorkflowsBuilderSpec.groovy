@@ -235,4 +235,33 @@ class DefaultAsynchronousWorkflowsBuilderSpec extends Specification {
         preResponseStoredSubscriber.assertValue("greg0")
         jobRowUpdatedSubscriber.assertValue(expectedUpdatedJobRow)
     }
+
+    def "When the PreResponseStore is saturated, new asynchronous queries are rejected and nothing is stored"() {
+        given: "A builder whose PreResponseStore already has as many saves in flight as it allows"
+        AsyncStageLimiter preResponseSaves = new AsyncStageLimiter("saturatedPreResponseSaves", 1, 0)
+        preResponseSaves.limit { Observable.never() }.subscribe()
+        PublishSubject<Either<PreResponse, JobRow>> rejectedPayloadEmitter = PublishSubject.create()
+        PublishSubject<PreResponse> rejectedPreResponseEmitter = PublishSubject.create()
+        AsynchronousWorkflows workflows = new DefaultAsynchronousWorkflowsBuilder(
+                apiJobStore,
+                preResponseStore,
+                Clock.fixed(now, ZoneId.systemDefault()),
+                new AsyncStageLimiter("saturatedJobRowSaves", 1, 0),
+                preResponseSaves
+        ).buildAsynchronousWorkflows(rejectedPreResponseEmitter, rejectedPayloadEmitter, jobMetadata, jobRowSerializer)
+        TestSubscriber<String> rejectedMetadataChannel = new TestSubscriber<>()
+        workflows.asynchronousPayload.subscribe(rejectedMetadataChannel)
+
+        when: "The query becomes asynchronous"
+        rejectedPayloadEmitter.onNext(Either.right(jobMetadata))
+        rejectedPreResponseEmitter.onNext(preResponse)
+
+        then: "The user is told the query was rejected"
+        rejectedMetadataChannel.assertError(AsyncWorkRejectedException)
+        rejectedMetadataChannel.onErrorEvents[0].message.endsWith("with 1 of 1 operations running and 0 of 0 queued")
+
+        and: "Neither store is touched"
+        0 * apiJobStore.save(_)
+        0 * preResponseStore.save(_, _)
+    }
 }
@@ -5,10 +5,16 @@ package com.yahoo.bard.webservice.data.dimension
 import com.yahoo.bard.webservice.data.dimension.impl.KeyValueStoreDimension
 import com.yahoo.bard.webservice.data.dimension.impl.ScanSearchProviderManager
 
+import org.apache.avro.Schema
+import org.apache.avro.SchemaBuilder
+import org.apache.avro.file.DataFileWriter
+import org.apache.avro.generic.GenericData
+import org.apache.avro.generic.GenericDatumWriter
 import org.apache.avro.generic.GenericRecord
 
 import spock.lang.Specification
 
+import java.nio.file.Files
 import java.util.function.Consumer
 
 class AvroDimensionRowParserSpec extends Specification {
@@ -22,6 +28,39 @@ class AvroDimensionRowParserSpec extends Specification {
         avroDimensionRowParser = new AvroDimensionRowParser(DimensionFieldNameMapper.underscoreSeparatedConverter())
     }
 
+    def cleanup() {
+        MapStoreManager.removeInstance("foo")
+        ScanSearchProviderManager.removeInstance("foo")
+    }
+
+    /**
+     * Writes an avro file of rows with ids 0 to size - 1, in blocks of a few rows each.
+     *
+     * @param size  The number of rows to write
+     *
+     * @return the path of the file
+     */
+    String writeAvroFile(int size) {
+        Schema schema = SchemaBuilder.record("TUPLE_0").fields()
+                .optionalString("FOO_ID")
+                .optionalString("FOO_DESC")
+                .endRecord()
+        File file = Files.createTempFile("dimension", ".avro").toFile()
+        file.deleteOnExit()
+        new DataFileWriter<GenericRecord>(new GenericDatumWriter<GenericRecord>(schema)).with {
+            setSyncInterval(32)
+            create(schema, file)
+            (0..<size).each {
+                GenericRecord record = new GenericData.Record(schema)
+                record.put("FOO_ID", "id$it".toString())
+                record.put("FOO_DESC", "desc$it".toString())
+                append(record)
+            }
+            close()
+        }
+        file.path
+    }
+
     def "Schema file containing all the dimension fields and data parses to expected rows"() {
         given:
         DimensionRow dimensionRow1 = BardDimensionField.makeDimensionRow(dimension, "12345", "bar")
@@ -69,4 +108,77 @@ class AvroDimensionRowParserSpec extends Specification {
         expect:
         avroDimensionRowParser.resolveRecordValue(genericRecord, "random") == ""
     }
+
+    def "An avro file is loaded into the dimension in parallel, in batches"() {
+        given:
+        String path = writeAvroFile(300)
+        KeyValueStore checkpoints = new MapStore()
+
+        when:
+        long loaded = avroDimensionRowParser.loadAvroFileDimensionRows(dimension, path, checkpoints, 4, 20)
+
+        then:
+        loaded == 300
+        dimension.getCardinality() == 300
+        (0..<300).every { dimension.findDimensionRowByKeyValue("id$it").get(BardDimensionField.DESC) == "desc$it" }
+
+        and: "The checkpoints of a completed load are removed"
+        checkpoints.store.isEmpty()
+    }
+
+    def "A failed load resumes from the checkpoints of its ranges"() {
+        given: "A dimension whose store fails after a few batches"
+        String path = writeAvroFile(300)
+        KeyValueStore checkpoints = new MapStore()
+        int writes = 0
+        KeyValueStoreDimension failing = Spy(
+                KeyValueStoreDimension,
+                constructorArgs: [
+                        "foo",
+                        "desc-foo",
+                        dimensionFields,
+                        MapStoreManager.getInstance("foo"),
+                        ScanSearchProviderManager.getInstance("foo")
+                ]
+        ) {
+            addAllDimensionRows(_) >> { Set<DimensionRow> rows ->
+                if (++writes > 3) {
+                    throw new IllegalStateException("store is down")
+                }
+                callRealMethod()
+            }
+        }
+
+        when:
+        avroDimensionRowParser.loadAvroFileDimensionRows(failing, path, checkpoints, 2, 30)
+
+        then:
+        thrown(IllegalStateException)
+        int loadedBeforeFailure = dimension.getCardinality()
+        loadedBeforeFailure > 0
+        !checkpoints.store.isEmpty()
+
+        when: "The load is retried"
+        long loaded = avroDimensionRowParser.loadAvroFileDimensionRows(dimension, path, checkpoints, 2, 30)
+
+        then: "Only the rows after the checkpoints are loaded again"
+        loaded <= 300 - loadedBeforeFailure
+        dimension.getCardinality() == 300
+        checkpoints.store.isEmpty()
+    }
+
+    def "A range that was loaded is skipped"() {
+        given:
+        String path = writeAvroFile(100)
+        File file = new File(path)
+        KeyValueStore checkpoints = new MapStore()
+        checkpoints.put(
+                "${file.name}_${file.length()}_${file.lastModified()}_avro_checkpoint_0_of_1".toString(),
+                AvroDimensionRowParser.RANGE_LOADED
+        )
+
+        expect:
+        avroDimensionRowParser.loadAvroFileDimensionRows(dimension, path, checkpoints, 1, 10) == 0
+        dimension.getCardinality() == 0
+    }
 }
@@ -0,0 +1,87 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension
+
+import com.yahoo.bard.webservice.data.dimension.impl.KeyValueStoreDimension
+import com.yahoo.bard.webservice.data.dimension.impl.ScanSearchProviderManager
+
+import com.fasterxml.jackson.databind.JsonMappingException
+import com.fasterxml.jackson.databind.ObjectMapper
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class JsonDimensionRowLoaderSpec extends Specification {
+
+    Dimension dimension = Spy(
+            KeyValueStoreDimension,
+            constructorArgs: [
+                    "loaded",
+                    "loaded-description",
+                    [BardDimensionField.ID, BardDimensionField.DESC] as LinkedHashSet,
+                    MapStoreManager.getInstance("jsonDimensionRowLoader"),
+                    ScanSearchProviderManager.getInstance("jsonDimensionRowLoader")
+            ]
+    )
+    JsonDimensionRowLoader loader = new JsonDimensionRowLoader(new ObjectMapper(), 2)
+
+    String buildDocument(int rows) {
+        String rowsJson = (1..rows).collect { """{"id": "$it", "description": "row $it"}""" }.join(",")
+        """{"other": {"ignored": [1, 2]}, "dimensionRows": [$rowsJson]}"""
+    }
+
+    def "Rows are written to the dimension a chunk at a time"() {
+        when:
+        long loaded = loader.load(dimension, new StringReader(buildDocument(5)))
+
+        then:
+        3 * dimension.addAllDimensionRows({ it.size() <= 2 })
+
+        and:
+        loaded == 5
+        dimension.searchProvider.findAllDimensionRows().size() == 5
+        dimension.findDimensionRowByKeyValue("4").get(BardDimensionField.DESC) == "row 4"
+    }
+
+    def "Each row of the document can be rebuilt before it is written"() {
+        when:
+        loader.load(dimension, new StringReader(buildDocument(1))) {
+            dimension.parseDimensionRow(it + [description: it.description.toUpperCase()])
+        }
+
+        then:
+        dimension.findDimensionRowByKeyValue("1").get(BardDimensionField.DESC) == "ROW 1"
+    }
+
+    def "The rows of a chunk can be built together"() {
+        setup:
+        List<Integer> chunkSizes = []
+
+        when:
+        Reader document = new StringReader(buildDocument(5))
+        long loaded = loader.loadChunks(dimension, document) { List<Map<String, String>> rows ->
+            chunkSizes << rows.size()
+            rows.collect { dimension.parseDimensionRow(it) } as LinkedHashSet
+        }
+
+        then:
+        loaded == 5
+        chunkSizes == [2, 2, 1]
+        dimension.findDimensionRowByKeyValue("5").get(BardDimensionField.DESC) == "row 5"
+    }
+
+    @Unroll
+    def "A document #problem can't be loaded"() {
+        when:
+        loader.load(dimension, new StringReader(document))
+
+        then:
+        thrown(JsonMappingException)
+
+        where:
+        problem                       | document
+        "that isn't an object"        | '[{"id": "1"}]'
+        "without dimension rows"      | '{"rows": []}'
+        "with rows that aren't rows"  | '{"dimensionRows": ["1"]}'
+    }
+}
@@ -0,0 +1,183 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl
+
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.DESC
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.FIELD1
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.ID
+
+import com.yahoo.bard.webservice.data.dimension.Dimension
+import com.yahoo.bard.webservice.data.dimension.DimensionField
+import com.yahoo.bard.webservice.data.dimension.DimensionRow
+import com.yahoo.bard.webservice.web.ApiFilter
+import com.yahoo.bard.webservice.web.DefaultFilterOperation
+
+import spock.lang.Specification
+
+class ColumnarDimensionRowsSpec extends Specification {
+
+    Dimension dimension = Mock(Dimension)
+    ColumnarDimensionRows rows = new ColumnarDimensionRows(ID, [ID, DESC, FIELD1], false)
+
+    DimensionRow row(String id, String desc, String field1 = null) {
+        LinkedHashMap<DimensionField, String> values = [(ID): id, (DESC): desc]
+        if (field1 != null) {
+            values.put(FIELD1, field1)
+        }
+        new DimensionRow(ID, values)
+    }
+
+    CompiledDimensionRowFilter filter(String op, Set<String> values, field = DESC) {
+        CompiledDimensionRowFilter.compile(
+                [new ApiFilter(dimension, field, DefaultFilterOperation.valueOf(op), values)] as Set
+        )
+    }
+
+    def "Rows are read back as they were added"() {
+        given:
+        DimensionRow owl = row("owl", "a bird", "feathers")
+        DimensionRow ant = row("ant", "an insect")
+
+        when:
+        rows.putAll([owl, ant])
+
+        then:
+        rows.size() == 2
+        rows.get("owl") == owl
+        rows.get("ant") == ant
+        !rows.get("ant").containsKey(FIELD1)
+        rows.get("bee") == null
+    }
+
+    def "Adding a row with a stored key value replaces the row"() {
+        given:
+        rows.putAll([row("owl", "a bird"), row("ant", "an insect")])
+
+        when:
+        rows.putAll([row("owl", "a raptor")])
+
+        then:
+        rows.size() == 2
+        rows.get("owl") == row("owl", "a raptor")
+    }
+
+    def "Key values are looked up ignoring case unless keys are case sensitive"() {
+        given:
+        ColumnarDimensionRows sensitive = new ColumnarDimensionRows(ID, [ID, DESC], true)
+        rows.putAll([row("Owl", "a bird")])
+        sensitive.putAll([row("Owl", "a bird")])
+
+        expect:
+        rows.get("owl").getKeyValue() == "Owl"
+        sensitive.get("owl") == null
+        sensitive.get("Owl").getKeyValue() == "Owl"
+    }
+
+    def "Rows are paged in key value order as the columns grow"() {
+        given:
+        List<String> ids = (1..100).collect { String.format("row%03d", it) }
+        rows.putAll(ids.reverse().collect { row(it, "desc $it") })
+
+        expect:
+        rows.size() == 100
+        rows.getSorted(10, 5)*.getKeyValue() == ids[10..14]
+        rows.getSorted(98, 5)*.getKeyValue() == ids[98..99]
+        rows.getSorted(100, 5).isEmpty()
+        ids.every { rows.get(it).get(DESC) == "desc $it" as String }
+    }
+
+    def "Filters are matched through the field dictionaries"() {
+        given:
+        rows.putAll([
+                row("owl", "bird", "feathers"),
+                row("hawk", "bird", "feathers"),
+                row("ant", "insect"),
+                row("bee", "insect", "wings"),
+                row("cat", "mammal", "fur")
+        ])
+
+        when:
+        def found = rows.findSorted(filter(op, values as Set, field), { 0L }, Integer.MAX_VALUE)
+
+        then:
+        found.getKey()*.getKeyValue() == expected
+        found.getValue() == expected.size()
+
+        where:
+        op           | field  | values               || expected
+        "in"         | DESC   | ["bird", "mammal"]   || ["cat", "hawk", "owl"]
+        "notin"      | DESC   | ["bird"]             || ["ant", "bee", "cat"]
+        "startswith" | FIELD1 | ["fe", "w"]          || ["bee", "hawk", "owl"]
+        "contains"   | FIELD1 | ["u"]                || ["cat"]
+        "notin"      | FIELD1 | ["fur"]              || ["ant", "bee", "hawk", "owl"]
+        "in"         | ID     | ["owl", "ant", "yak"] || ["ant", "owl"]
+    }
+
+    def "A page of the matching rows is found along with the number of matches"() {
+        given:
+        rows.putAll((1..30).collect { row(String.format("row%02d", it), it % 3 == 0 ? "fizz" : "plain") })
+
+        when:
+        def found = rows.findSorted(filter("in", ["fizz"] as Set), { int matches -> matches - 4L }, 10)
+
+        then:
+        found.getValue() == 10
+        found.getKey()*.getKeyValue() == ["row21", "row24", "row27", "row30"]
+    }
+
+    def "Removed key values are dropped from the index and the sorted rows"() {
+        given:
+        List<String> ids = (1..40).collect { String.format("row%02d", it) }
+        rows.putAll(ids.collect { row(it, "desc $it") })
+        rows.getSorted(0, 1)
+
+        when:
+        rows.replaceAll([row("ROW05", "renamed"), row("new", "added")], ["row05", "row10", "missing"])
+
+        then:
+        rows.size() == 40
+        rows.get("row10") == null
+        rows.get("row05").getKeyValue() == "ROW05"
+        rows.get("new").get(DESC) == "added"
+        (ids - ["row05", "row10"]).every { rows.get(it).get(DESC) == "desc $it" as String }
+        rows.getSorted(0, 100)*.getKeyValue() == (ids - ["row05", "row10"] + ["ROW05", "new"]).sort()
+    }
+
+    def "Values no row holds any more are dropped from the field dictionaries and their codes reused"() {
+        given:
+        rows.putAll((1..10).collect { row("row$it", "desc $it") })
+
+        when: "every row is replaced with a new value, and half of the rows are removed"
+        rows.putAll((1..10).collect { row("row$it", "new desc $it") })
+        rows.replaceAll([], (1..5).collect { "row$it" as String })
+        int codes = rows.dictionaries[0].values.size()
+
+        then:
+        rows.dictionaries[0].size() == 5
+        codes < 20
+        rows.findSortedKeys(filter("startswith", ["desc"] as Set)).isEmpty()
+        rows.findSortedKeys(filter("startswith", ["new desc"] as Set)) == (6..10).collect { "row$it" as String }.sort()
+
+        when: "new values take the codes of the dropped ones"
+        rows.putAll((11..15).collect { row("row$it", "desc $it") })
+
+        then:
+        rows.dictionaries[0].size() == 10
+        rows.dictionaries[0].values.size() == codes
+        (11..15).every { rows.get("row$it").get(DESC) == "desc $it" as String }
+    }
+
+    def "Clearing the rows empties the store"() {
+        given:
+        rows.putAll([row("owl", "a bird")])
+
+        when:
+        rows.clear()
+        rows.putAll([row("ant", "an insect")])
+
+        then:
+        rows.size() == 1
+        rows.get("owl") == null
+        rows.getSorted(0, 10)*.getKeyValue() == ["ant"]
+    }
+}
@@ -0,0 +1,84 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl
+
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.DESC
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.ID
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.makeDimensionRow
+
+import com.yahoo.bard.webservice.data.cache.HashDataCache.Pair
+import com.yahoo.bard.webservice.data.dimension.Dimension
+import com.yahoo.bard.webservice.data.dimension.DimensionRow
+import com.yahoo.bard.webservice.data.dimension.KeyValueStore
+import com.yahoo.bard.webservice.data.dimension.metadata.StorageStrategy
+import com.yahoo.bard.webservice.util.DimensionStoreKeyUtils
+import com.yahoo.bard.webservice.web.util.PaginationParameters
+
+/**
+ * Specification for behavior specific to the ColumnarSearchProvider.
+ */
+class ColumnarSearchProviderSpec extends SearchProviderSpec<ColumnarSearchProvider> {
+
+    @Override
+    ColumnarSearchProvider getSearchProvider(String dimensionName) {
+        new ColumnarSearchProvider()
+    }
+
+    @Override
+    void cleanSearchProvider(String dimensionName) {
+        // Nothing to clean, each test uses a new provider
+    }
+
+    @Override
+    boolean indicesHaveBeenCleared() {
+        return searchProvider.getDimensionCardinality() == 0 &&
+                searchProvider.findAllOrderedDimensionRows().isEmpty() &&
+                searchProvider.keyValueStore.store.isEmpty()
+    }
+
+    def "Refreshing a row under a new key value removes the old key value"() {
+        given:
+        DimensionRow renamed = makeDimensionRow(keyValueStoreDimension, "snowyowl", "this is an owl")
+
+        when:
+        searchProvider.refreshIndex(["snowyowl": new Pair<>(renamed, dimensionRow1)])
+
+        then:
+        searchProvider.findAllDimensionRows().contains(renamed)
+        !searchProvider.findAllDimensionRows().contains(dimensionRow1)
+        searchProvider.findAllOrderedDimensionRows()*.getKeyValue() ==
+                (dimensionRows*.getKeyValue() - ["owl"] + ["snowyowl"]).sort()
+    }
+
+    def "Clearing the rows of a ColumnarDimension only removes its metadata from its store"() {
+        given:
+        KeyValueStore store = Mock(KeyValueStore)
+        ColumnarSearchProvider columnarProvider = new ColumnarSearchProvider()
+        ColumnarDimension columnar = new ColumnarDimension(
+                "columnar",
+                "columnar",
+                Dimension.DEFAULT_CATEGORY,
+                "columnar",
+                [ID, DESC] as LinkedHashSet,
+                store,
+                columnarProvider,
+                [] as LinkedHashSet,
+                true,
+                StorageStrategy.LOADED
+        )
+        columnar.addAllDimensionRows([makeDimensionRow(columnar, "owl", "this is an owl")] as Set)
+
+        when:
+        columnar.deleteAllDimensionRows()
+
+        then:
+        1 * store.putAll([(DimensionStoreKeyUtils.getLastUpdatedKey()): null])
+        columnarProvider.getDimensionCardinality() == 0
+    }
+
+    def "Pages of all rows are in key value order"() {
+        expect:
+        searchProvider.findAllDimensionRowsPaged(new PaginationParameters(3, 2)).pageOfData*.getKeyValue() ==
+                dimensionRows*.getKeyValue().sort()[3..5]
+    }
+}
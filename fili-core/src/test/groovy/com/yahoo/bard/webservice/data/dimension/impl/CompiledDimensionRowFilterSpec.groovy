@@ -0,0 +1,102 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl
+
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.DESC
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.ID
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.makeDimensionRow
+
+import com.yahoo.bard.webservice.data.dimension.DimensionRow
+import com.yahoo.bard.webservice.data.dimension.MapStoreManager
+import com.yahoo.bard.webservice.web.ApiFilter
+import com.yahoo.bard.webservice.web.DefaultFilterOperation
+import com.yahoo.bard.webservice.web.FilterOperation
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class CompiledDimensionRowFilterSpec extends Specification {
+
+    KeyValueStoreDimension dimension = new KeyValueStoreDimension(
+            "compiled",
+            "compiled",
+            [ID, DESC] as LinkedHashSet,
+            MapStoreManager.getInstance("compiled"),
+            ScanSearchProviderManager.getInstance("compiled")
+    )
+
+    List<DimensionRow> rows = [
+            makeDimensionRow(dimension, "a.b", "dots"),
+            makeDimensionRow(dimension, "axb", "no dots"),
+            makeDimensionRow(dimension, "ab(", "paren"),
+            makeDimensionRow(dimension, "abc", "letters"),
+            makeDimensionRow(dimension, "xyz", "letters")
+    ]
+
+    def cleanup() {
+        MapStoreManager.removeInstance("compiled")
+        ScanSearchProviderManager.removeInstance("compiled")
+    }
+
+    ApiFilter filter(DefaultFilterOperation operation, List<String> values) {
+        new ApiFilter(dimension, ID, operation, values as Set)
+    }
+
+    @Unroll
+    def "#operation #values matches #expected"() {
+        expect:
+        CompiledDimensionRowFilter.compile([filter(operation, values)] as Set).filter(rows)*.getKeyValue() == expected
+
+        where:
+        operation                          | values         | expected
+        DefaultFilterOperation.in          | ["abc", "xyz"] | ["abc", "xyz"]
+        DefaultFilterOperation.eq          | ["abc"]        | ["abc"]
+        DefaultFilterOperation.notin       | ["abc", "xyz"] | ["a.b", "ab(", "axb"]
+        DefaultFilterOperation.startswith  | ["a.", "xy"]   | ["a.b", "xyz"]
+        DefaultFilterOperation.startswith  | ["a", "ab"]    | ["a.b", "ab(", "abc", "axb"]
+        DefaultFilterOperation.startswith  | [""]           | ["a.b", "ab(", "abc", "axb", "xyz"]
+        DefaultFilterOperation.contains    | ["b("]         | ["ab("]
+        DefaultFilterOperation.contains    | [".", "y"]     | ["a.b", "xyz"]
+        DefaultFilterOperation.contains    | [""]           | ["a.b", "ab(", "abc", "axb", "xyz"]
+    }
+
+    def "Filters on several fields must all match"() {
+        setup:
+        Set<ApiFilter> filters = [
+                new ApiFilter(dimension, DESC, DefaultFilterOperation.in, ["letters", "dots"] as Set),
+                filter(DefaultFilterOperation.startswith, ["a"]),
+                filter(DefaultFilterOperation.notin, ["a.b"])
+        ]
+
+        expect:
+        CompiledDimensionRowFilter.compile(filters).filter(rows)*.getKeyValue() == ["abc"]
+    }
+
+    def "Large collections are filtered to the same sorted rows"() {
+        setup:
+        List<DimensionRow> manyRows = (0..<CompiledDimensionRowFilter.PARALLEL_FILTER_THRESHOLD).collect {
+            makeDimensionRow(dimension, "row$it", it % 2 == 0 ? "even" : "odd")
+        }
+        Set<ApiFilter> filters = [new ApiFilter(dimension, DESC, DefaultFilterOperation.eq, ["even"] as Set)]
+
+        when:
+        TreeSet<DimensionRow> filtered = CompiledDimensionRowFilter.compile(filters).filter(manyRows)
+
+        then:
+        filtered.size() == CompiledDimensionRowFilter.PARALLEL_FILTER_THRESHOLD / 2
+        filtered as List == manyRows.findAll { it.get(DESC) == "even" }.sort()
+    }
+
+    def "Filters without a default operation are rejected"() {
+        setup:
+        ApiFilter custom = Mock(ApiFilter) {
+            getOperation() >> Mock(FilterOperation)
+        }
+
+        when:
+        CompiledDimensionRowFilter.compile([custom] as Set)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
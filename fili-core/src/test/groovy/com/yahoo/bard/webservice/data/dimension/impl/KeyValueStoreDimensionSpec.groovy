@@ -2,11 +2,13 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.data.dimension.impl
 
+import com.yahoo.bard.webservice.config.SystemConfigProvider
 import com.yahoo.bard.webservice.data.config.dimension.DimensionBackend
 import com.yahoo.bard.webservice.data.dimension.BardDimensionField
 import com.yahoo.bard.webservice.data.dimension.DimensionField
 import com.yahoo.bard.webservice.data.dimension.DimensionRow
 import com.yahoo.bard.webservice.data.dimension.KeyValueStore
+import com.yahoo.bard.webservice.data.dimension.MapStore
 import com.yahoo.bard.webservice.data.dimension.MapStoreManager
 import com.yahoo.bard.webservice.data.dimension.RedisStoreManager
 import com.yahoo.bard.webservice.data.dimension.SearchProvider
@@ -118,6 +120,30 @@ class KeyValueStoreDimensionSpec extends Specification {
         searchProvider.findAllDimensionRows() == [dimensionRow1, dimensionRow2, dimensionRow3, dimensionRow4, dimensionRow5] as Set
     }
 
+    def "A non-positive update batch size falls back to the default rather than looping"() {
+        setup:
+        SystemConfigProvider.instance.setProperty(KeyValueStoreDimension.UPDATE_BATCH_SIZE_KEY, "0")
+
+        expect:
+        KeyValueStoreDimension.readUpdateBatchSize() == KeyValueStoreDimension.DEFAULT_UPDATE_BATCH_SIZE
+
+        cleanup:
+        SystemConfigProvider.instance.clearProperty(KeyValueStoreDimension.UPDATE_BATCH_SIZE_KEY)
+    }
+
+    def "findExistingKeyValues returns only the values with rows"() {
+        expect:
+        kvsDimension.findExistingKeyValues(["row1", "row3", "notARow"]) == ["row1", "row3"] as Set
+    }
+
+    def "findDimensionRowsByKeyValues returns the rows of the values with rows"() {
+        expect:
+        kvsDimension.findDimensionRowsByKeyValues(["row1", "row3", "notARow"]) == [
+                row1: dimensionRow1,
+                row3: dimensionRow3
+        ]
+    }
+
     def "Change DimensionRow desc"() {
         Set<ApiFilter> expectedFilters = [new ApiFilter(
                 kvsDimension,
@@ -138,6 +164,36 @@ class KeyValueStoreDimensionSpec extends Specification {
     }
 
 
+    def "Only changed rows are written to the store and the index"() {
+        setup:
+        KeyValueStore store = Spy(MapStore)
+        SearchProvider provider = Mock(SearchProvider)
+        KeyValueStoreDimension dimension = new KeyValueStoreDimension(
+                "diffed",
+                "diffed",
+                [BardDimensionField.ID, BardDimensionField.DESC] as LinkedHashSet,
+                store,
+                provider
+        )
+        dimension.addAllDimensionRows(
+                (1..3).collect { BardDimensionField.makeDimensionRow(dimension, "row$it", "desc$it") } as Set
+        )
+        DimensionRow changed = BardDimensionField.makeDimensionRow(dimension, "row2", "changed")
+
+        when:
+        dimension.addAllDimensionRows([
+                BardDimensionField.makeDimensionRow(dimension, "row1", "desc1"),
+                changed,
+                BardDimensionField.makeDimensionRow(dimension, "row3", "desc3")
+        ] as Set)
+
+        then: 'the stored rows are fetched together, and only the changed row is written'
+        1 * store.getAll(_)
+        1 * store.putAll({ it.keySet() == ["id_row2_row_key"] as Set })
+        1 * provider.refreshIndex({ it.keySet() == ["id_row2_row_key"] as Set && it.values()*.key == [changed] })
+        dimension.findDimensionRowByKeyValue("row2") == changed
+    }
+
     def "getLastUpdated is correct"() {
         expect:
         kvsDimension.getLastUpdated() == lastUpdated
@@ -0,0 +1,106 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl
+
+import com.yahoo.bard.webservice.config.SystemConfig
+import com.yahoo.bard.webservice.config.SystemConfigProvider
+
+import org.apache.commons.io.FileUtils
+import org.apache.lucene.analysis.standard.StandardAnalyzer
+import org.apache.lucene.document.Document
+import org.apache.lucene.document.Field
+import org.apache.lucene.document.StringField
+import org.apache.lucene.index.DirectoryReader
+import org.apache.lucene.index.IndexWriter
+import org.apache.lucene.index.IndexWriterConfig
+import org.apache.lucene.store.ByteBuffersDirectory
+import org.apache.lucene.store.Directory
+import org.apache.lucene.store.FSDirectory
+import org.apache.lucene.store.MMapDirectory
+import org.apache.lucene.store.NRTCachingDirectory
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class LuceneDirectoryStrategySpec extends Specification {
+
+    static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance()
+    static final String STRATEGY_KEY = SYSTEM_CONFIG.getPackageVariableName("lucene_directory_strategy")
+
+    Path indexPath
+
+    def setup() {
+        indexPath = Files.createTempDirectory("lucene_directory_strategy")
+        FSDirectory.open(indexPath).withCloseable { addDocument(it, "owl") }
+    }
+
+    def cleanup() {
+        FileUtils.deleteDirectory(indexPath.toFile())
+        SYSTEM_CONFIG.clearProperty(STRATEGY_KEY)
+    }
+
+    static void addDocument(Directory directory, String id) {
+        new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())).withCloseable {
+            Document document = new Document()
+            document.add(new StringField("id", id, Field.Store.YES))
+            it.addDocument(document)
+        }
+    }
+
+    static int countDocuments(Directory directory) {
+        return DirectoryReader.open(directory).withCloseable { it.numDocs() }
+    }
+
+    @Unroll
+    def "#strategy opens a #type holding the index at the path"() {
+        when:
+        Directory directory = strategy.open(indexPath)
+
+        then:
+        type.isInstance(directory)
+        countDocuments(directory) == 1
+
+        cleanup:
+        directory.close()
+
+        where:
+        strategy                                | type
+        LuceneDirectoryStrategy.MMAP            | MMapDirectory
+        LuceneDirectoryStrategy.NRT_CACHING     | NRTCachingDirectory
+        LuceneDirectoryStrategy.MEMORY          | ByteBuffersDirectory
+    }
+
+    def "Changes to an in-memory index aren't written back to disk"() {
+        given:
+        Directory directory = LuceneDirectoryStrategy.MEMORY.open(indexPath)
+
+        when:
+        addDocument(directory, "hawk")
+
+        then:
+        countDocuments(directory) == 2
+        FSDirectory.open(indexPath).withCloseable { countDocuments(it) } == 1
+
+        cleanup:
+        directory.close()
+    }
+
+    @Unroll
+    def "The configured strategy #configured is #expected"() {
+        given:
+        SYSTEM_CONFIG.setProperty(STRATEGY_KEY, configured)
+
+        expect:
+        LuceneDirectoryStrategy.getDefault() == expected
+
+        where:
+        configured     | expected
+        "memory"       | LuceneDirectoryStrategy.MEMORY
+        " nrt_caching" | LuceneDirectoryStrategy.NRT_CACHING
+        "MMAP"         | LuceneDirectoryStrategy.MMAP
+        "unknown"      | LuceneDirectoryStrategy.MMAP
+    }
+}
@@ -2,16 +2,27 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.data.dimension.impl
 
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.DESC
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.makeDimensionRow
+import static com.yahoo.bard.webservice.web.DefaultFilterOperation.eq
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory
 import com.yahoo.bard.webservice.data.dimension.BardDimensionField
 import com.yahoo.bard.webservice.data.dimension.DimensionRow
 import com.yahoo.bard.webservice.data.dimension.KeyValueStore
+import com.yahoo.bard.webservice.data.dimension.MapStoreManager
 import com.yahoo.bard.webservice.data.dimension.TimeoutException
 import com.yahoo.bard.webservice.util.DimensionStoreKeyUtils
+import com.yahoo.bard.webservice.web.ApiFilter
 import com.yahoo.bard.webservice.web.ErrorMessageFormat
 import com.yahoo.bard.webservice.web.RowLimitReachedException
 import com.yahoo.bard.webservice.web.util.PaginationParameters
 
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.Timer
+
 import org.apache.commons.io.FileUtils
+import org.apache.lucene.index.DirectoryReader
 import org.apache.lucene.store.FSDirectory
 
 import spock.lang.Ignore
@@ -130,6 +141,18 @@ class LuceneSearchProviderSpec extends SearchProviderSpec<LuceneSearchProvider>
         thrown RowLimitReachedException
     }
 
+    def "Key values whose row is no longer in the key value store are not found"() {
+        given: "a row removed from the key value store but not from the index"
+        Set<ApiFilter> filters = [buildFilter("animal|desc-startswith[this]")]
+        String keyName = keyValueStoreDimension.key.name
+        searchProvider.keyValueStore.remove(DimensionStoreKeyUtils.getRowKey(keyName, "hawk"))
+
+        expect: "the key values agree with the rows that are found"
+        !searchProvider.findFilteredKeyValues(filters).contains("hawk")
+        searchProvider.findFilteredKeyValues(filters) ==
+                searchProvider.findFilteredDimensionRows(filters)*.getKeyValue()
+    }
+
     def "refresh cardinality is called when assigining a new key value store"() {
         given: "a new key value store"
         KeyValueStore keyValueStore = Mock()
@@ -249,6 +272,154 @@ class LuceneSearchProviderSpec extends SearchProviderSpec<LuceneSearchProvider>
         )
     }
 
+    def "Deep pages are searched after the last hit of the deepest cached page"() {
+        given: "the pages found by walking the results from the first page"
+        List<List<DimensionRow>> walkedPages = (1..4).collect {
+            searchProvider.findAllDimensionRowsPaged(new PaginationParameters(3, it)).getPageOfData()
+        }
+        searchProvider.getSearchResultCache().clear()
+
+        when: "the pages are requested out of order"
+        List<DimensionRow> page2 = searchProvider.findAllDimensionRowsPaged(new PaginationParameters(3, 2)).pageOfData
+        List<DimensionRow> page4 = searchProvider.findAllDimensionRowsPaged(new PaginationParameters(3, 4)).pageOfData
+        LuceneSearchResultCache.CachedSearch search = searchProvider.getSearchResultCache().searches.values()[0]
+
+        then: "they hold the same rows, and every visited page left a cursor behind"
+        page2 == walkedPages[1]
+        page4 == walkedPages[3]
+        search.getCursorBefore(3, 4).key == 3
+        search.getCursorBefore(3, 5).key == 4
+    }
+
+    def "Cached pages are served until the index changes"() {
+        given:
+        Set<ApiFilter> raptors = [new ApiFilter(keyValueStoreDimension, DESC, eq, ["this is a raptor"] as Set)]
+        PaginationParameters firstPage = new PaginationParameters(10, 1)
+        List<DimensionRow> cached = searchProvider.findFilteredDimensionRowsPaged(raptors, firstPage).getPageOfData()
+
+        expect: "a repeated search returns the cached page"
+        searchProvider.findFilteredDimensionRowsPaged(raptors, firstPage).getPageOfData().is(cached)
+        cached == [dimensionRow2a, dimensionRow2]
+
+        when: "a matching row is added"
+        DimensionRow falcon = makeDimensionRow(keyValueStoreDimension, "falcon", "this is a raptor")
+        keyValueStoreDimension.addDimensionRow(falcon)
+
+        then: "the search sees it"
+        searchProvider.getSearchResultCache().size() == 0
+        searchProvider.findFilteredDimensionRowsPaged(raptors, firstPage).getPageOfData() ==
+                [dimensionRow2a, falcon, dimensionRow2]
+        searchProvider.countFilteredDimensionRows(raptors) == 3
+    }
+
+    def "Counting filtered rows doesn't load any rows"() {
+        given:
+        Set<ApiFilter> spiders = [new ApiFilter(keyValueStoreDimension, DESC, eq, ["Spiders have eight legs"] as Set)]
+
+        expect:
+        searchProvider.countFilteredDimensionRows(spiders) == 3
+        searchProvider.hasAnyRows(spiders)
+        searchProvider.getSearchResultCache().searches.values()*.pages*.isEmpty() == [true]
+        searchProvider.getSearchResultCache().searches.values()*.getHitCount() == [3]
+    }
+
+    def "A new searcher is warmed up with the recent searches before it replaces the current one"() {
+        given:
+        Set<ApiFilter> raptors = [new ApiFilter(keyValueStoreDimension, DESC, eq, ["this is a raptor"] as Set)]
+        searchProvider.findFilteredDimensionRowsPaged(raptors, new PaginationParameters(10, 1))
+        Timer warmUpTimer = MetricRegistryFactory.getRegistry().timer("dimensions.lucene.animal.warmup")
+        Timer queryTimer = MetricRegistryFactory.getRegistry().timer("dimensions.lucene.animal.query")
+        long warmUps = warmUpTimer.count
+        long queries = queryTimer.count
+        long indexSize = searchProvider.getIndexSizeBytes()
+
+        when:
+        keyValueStoreDimension.addDimensionRow(makeDimensionRow(keyValueStoreDimension, "falcon", "this is a raptor"))
+
+        then: "the new searcher was warmed up, and the index grew"
+        warmUpTimer.count == warmUps + 1
+        searchProvider.getIndexSizeBytes() > indexSize
+        MetricRegistryFactory.getRegistry().gauges["dimensions.lucene.animal.index.size"].value ==
+                searchProvider.getIndexSizeBytes()
+
+        when:
+        searchProvider.countFilteredDimensionRows(raptors)
+
+        then: "the search is timed, and the warm-up search didn't count as one"
+        queryTimer.count == queries + 1
+    }
+
+    def "The index size gauge is registered once and reports the dimension's latest search provider"() {
+        given:
+        Gauge gauge = MetricRegistryFactory.getRegistry().gauges["dimensions.lucene.animal.index.size"]
+        Path otherIndexPath = Files.createTempDirectory("lucene_search_provider_spec")
+        LuceneSearchProvider otherProvider = Spy(LuceneSearchProvider, constructorArgs: [
+                otherIndexPath.toString(),
+                searchProvider.maxResults
+        ]) {
+            getIndexSizeBytes() >> 42L
+        }
+
+        when:
+        otherProvider.setDimension(keyValueStoreDimension)
+
+        then:
+        MetricRegistryFactory.getRegistry().gauges["dimensions.lucene.animal.index.size"].is(gauge)
+        gauge.value == 42L
+
+        cleanup:
+        searchProvider.setDimension(keyValueStoreDimension)
+        FileUtils.deleteDirectory(otherIndexPath.toFile())
+    }
+
+    def "A searcher warmed up on an older version of the index than the current one is not swapped in"() {
+        given: "a reader opened before a row is added"
+        DirectoryReader older = DirectoryReader.open(searchProvider.luceneDirectory)
+        keyValueStoreDimension.addDimensionRow(makeDimensionRow(keyValueStoreDimension, "falcon", "this is a raptor"))
+        DirectoryReader newer = DirectoryReader.open(searchProvider.luceneDirectory)
+
+        expect:
+        searchProvider.isStale(older)
+        !searchProvider.isStale(newer)
+
+        cleanup:
+        older.close()
+        newer.close()
+    }
+
+    def "A search provider with an in-memory directory indexes and searches its rows"() {
+        given:
+        Path indexPath = Files.createTempDirectory("memory_animal")
+        LuceneSearchProvider memoryProvider = new LuceneSearchProvider(
+                indexPath.toString(),
+                rowLimit,
+                searchTimeout,
+                LuceneDirectoryStrategy.MEMORY
+        )
+        KeyValueStoreDimension dimension = new KeyValueStoreDimension(
+                "memory_animal",
+                "memory_animal",
+                [BardDimensionField.ID, DESC] as LinkedHashSet,
+                MapStoreManager.getInstance("memory_animal"),
+                memoryProvider
+        )
+        dimension.addAllDimensionRows(dimensionRows.collect {
+            makeDimensionRow(dimension, it.getKeyValue(), it.get(DESC))
+        } as Set)
+        Set<ApiFilter> raptors = [new ApiFilter(dimension, DESC, eq, ["this is a raptor"] as Set)]
+
+        expect:
+        memoryProvider.findFilteredDimensionRows(raptors)*.getKeyValue() == ["eagle", "hawk"]
+        memoryProvider.getDimensionCardinality() == dimensionRows.size()
+
+        and: "nothing was written to disk"
+        !indexPath.toFile().listFiles().any { it.name.startsWith("segments") }
+
+        cleanup:
+        MapStoreManager.removeInstance("memory_animal")
+        FileUtils.deleteDirectory(indexPath.toFile())
+    }
+
     @Ignore("This test is currently not valid because the replacement index is invalid.")
     def "replaceIndex hot-swaps Lucene indexes in place"() {
         given:
@@ -0,0 +1,96 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl
+
+import com.yahoo.bard.webservice.data.dimension.DimensionRow
+
+import org.apache.lucene.index.Term
+import org.apache.lucene.search.ScoreDoc
+import org.apache.lucene.search.TermQuery
+
+import spock.lang.Specification
+
+class LuceneSearchResultCacheSpec extends Specification {
+
+    LuceneSearchResultCache cache = new LuceneSearchResultCache(2)
+
+    static TermQuery query(String value) {
+        return new TermQuery(new Term("id_column_key", value))
+    }
+
+    def "Equal queries share their cached results"() {
+        when:
+        cache.get(query("owl")).setHitCount(3)
+
+        then:
+        cache.get(query("owl")).getHitCount() == 3
+        cache.get(query("hawk")).getHitCount() == null
+    }
+
+    def "The least recently used search is evicted"() {
+        given:
+        cache.get(query("owl")).setHitCount(1)
+        cache.get(query("hawk")).setHitCount(2)
+        cache.get(query("owl"))
+
+        when:
+        cache.get(query("eagle"))
+
+        then:
+        cache.size() == 2
+        cache.get(query("owl")).getHitCount() == 1
+        cache.get(query("hawk")).getHitCount() == null
+    }
+
+    def "The queries of the most recently used searches come first"() {
+        given:
+        cache.get(query("owl"))
+        cache.get(query("hawk"))
+        cache.get(query("owl"))
+
+        expect:
+        cache.getQueries(5) == [query("owl"), query("hawk")]
+        cache.getQueries(1) == [query("owl")]
+    }
+
+    def "The cursor before a page is the last hit of the deepest visited page before it"() {
+        given:
+        LuceneSearchResultCache.CachedSearch search = cache.get(query("owl"))
+        ScoreDoc endOfPage1 = new ScoreDoc(1, 1.0f)
+        ScoreDoc endOfPage3 = new ScoreDoc(3, 1.0f)
+        search.putCursor(10, 1, endOfPage1)
+        search.putCursor(10, 3, endOfPage3)
+
+        expect:
+        search.getCursorBefore(10, 1) == null
+        search.getCursorBefore(10, 3).value.is(endOfPage1)
+        search.getCursorBefore(10, 7).with { [key, value] } == [3, endOfPage3]
+        search.getCursorBefore(5, 7) == null
+    }
+
+    def "Only the most recently used pages of a search are kept"() {
+        given:
+        LuceneSearchResultCache.CachedSearch search = cache.get(query("owl"))
+        List<List<DimensionRow>> pages = (0..LuceneSearchResultCache.PAGES_PER_SEARCH).collect { [] }
+
+        when:
+        pages.eachWithIndex { List<DimensionRow> rows, int page -> search.putPage(10, page + 1, rows) }
+
+        then:
+        search.getPage(10, 1) == null
+        search.getPage(10, 2).is(pages[1])
+        search.getPage(5, 2) == null
+    }
+
+    def "Clearing the cache drops every search"() {
+        given:
+        cache.get(query("owl")).setHitCount(1)
+
+        when:
+        cache.clear()
+
+        then:
+        cache.size() == 0
+        cache.get(query("owl")).getHitCount() == null
+    }
+}
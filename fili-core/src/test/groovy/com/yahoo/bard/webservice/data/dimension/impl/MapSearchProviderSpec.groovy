@@ -112,4 +112,13 @@ class MapSearchProviderSpec extends Specification {
         cleanup:
         Files.delete(tempFile)
     }
+
+    def "Changing the ordered rows a search provider hands out doesn't change its rows"() {
+        when:
+        sp.getAllOrderedDimensionRows().clear()
+
+        then:
+        sp.getAllOrderedDimensionRows() == expectedRows
+        sp.findFilteredDimensionRows([] as Set) == expectedRows
+    }
 }
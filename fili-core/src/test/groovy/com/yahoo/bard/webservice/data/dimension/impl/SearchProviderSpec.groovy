@@ -105,6 +105,8 @@ abstract class SearchProviderSpec<T extends SearchProvider> extends Specificatio
     def cleanup() {
         MapStoreManager.removeInstance("animal")
         cleanSearchProvider("animal")
+        MapStoreManager.removeInstance("user_country")
+        cleanSearchProvider("user_country")
         childCleanup()
     }
 
@@ -244,6 +246,18 @@ abstract class SearchProviderSpec<T extends SearchProvider> extends Specificatio
         searchProvider.findFilteredDimensionRowsPaged(filters, new PaginationParameters(3, 1)).getPageOfData() == new ArrayList<>(expectedRows)
     }
 
+    def "The key values of the rows matching a filter query are found in key value order"() {
+        setup:
+        Set<ApiFilter> filters = [
+                buildFilter("animal|desc-startswith[this]"),
+                buildFilter("animal|desc-notin[this is an owl]")
+        ]
+
+        expect:
+        searchProvider.findFilteredKeyValues(filters) == ["eagle", "hawk", "kumquat"]
+        searchProvider.findFilteredKeyValues([buildFilter("animal|id-in[notAnAnimal]")] as Set) == []
+    }
+
     def "A filter query with 'startswith' and 'in' on the same field returns a non-empty subset"() {
         setup:
         Set<ApiFilter> filters = [
@@ -0,0 +1,96 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl
+
+import com.yahoo.bard.webservice.data.dimension.KeyValueStore
+import com.yahoo.bard.webservice.data.dimension.MapStore
+
+import com.fasterxml.jackson.databind.ObjectMapper
+
+import spock.lang.Specification
+
+class SegmentedKeyIndexSpec extends Specification {
+
+    KeyValueStore store = Spy(MapStore)
+    SegmentedKeyIndex index = new SegmentedKeyIndex(store, "index", 2, new ObjectMapper())
+
+    List<String> values(int from, int to) {
+        (from..to).collect { String.format("v%03d", it) }
+    }
+
+    def "An empty index has no values"() {
+        expect:
+        index.size() == 0
+        index.getAll() == []
+        index.get(0, 10) == []
+    }
+
+    def "Values are kept sorted and without duplicates across batches"() {
+        when:
+        index.update(values(10, 19).reverse(), [])
+        index.update(values(0, 9) + values(15, 24), [])
+
+        then:
+        index.size() == 25
+        index.getAll() == values(0, 24)
+    }
+
+    def "Segments are split once they grow past twice the segment size"() {
+        when:
+        index.update(values(0, 9), [])
+
+        then:
+        store.get("index_segment_0") == '["v000","v001"]'
+        store.get("index_segment_4") == '["v008","v009"]'
+    }
+
+    def "Removing values drops emptied segments"() {
+        setup:
+        index.update(values(0, 9), [])
+
+        when:
+        index.update([], values(2, 5) + ["missing"])
+
+        then:
+        index.size() == 6
+        index.getAll() == values(0, 1) + values(6, 9)
+        store.get("index_segment_1") == null
+        store.get("index_segment_2") == null
+    }
+
+    def "A range is read from the segments overlapping it only"() {
+        setup:
+        index.update(values(0, 9), [])
+
+        when:
+        List<String> range = index.get(3, 3)
+
+        then:
+        range == values(3, 5)
+        1 * store.getAll(["index_segment_1", "index_segment_2"])
+    }
+
+    def "An update only writes the segments the changed values fall into"() {
+        setup:
+        index.update(values(0, 9), [])
+
+        when:
+        index.update(["v004a"], [])
+
+        then:
+        1 * store.putAll({ it.keySet() == ["index_segment_2", "index"] as Set })
+        index.get(4, 3) == ["v004", "v004a", "v005"]
+    }
+
+    def "Clearing the index removes its directory and segments"() {
+        setup:
+        index.update(values(0, 9), [])
+
+        when:
+        index.clear()
+
+        then:
+        store.get("index") == null
+        (0..4).every { store.get("index_segment_$it") == null }
+    }
+}
@@ -0,0 +1,84 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl
+
+import static com.yahoo.bard.webservice.data.dimension.BardDimensionField.makeDimensionRow
+
+import com.yahoo.bard.webservice.data.dimension.DimensionRow
+import com.yahoo.bard.webservice.util.DimensionStoreKeyUtils
+import com.yahoo.bard.webservice.web.util.PaginationParameters
+
+import spock.lang.Unroll
+
+/**
+ * Specification for behavior specific to the SegmentedScanSearchProvider.
+ */
+class SegmentedScanSearchProviderSpec extends SearchProviderSpec<SegmentedScanSearchProvider> {
+
+    @Override
+    SegmentedScanSearchProvider getSearchProvider(String dimensionName) {
+        SegmentedScanSearchProviderManager.getInstance(dimensionName)
+    }
+
+    @Override
+    void cleanSearchProvider(String dimensionName) {
+        SegmentedScanSearchProviderManager.removeInstance(dimensionName)
+    }
+
+    @Override
+    boolean indicesHaveBeenCleared() {
+        return searchProvider.keyValueStore.store.size() == 2 &&
+                searchProvider.keyValueStore[DimensionStoreKeyUtils.getCardinalityKey()] == "0" &&
+                searchProvider.keyValueStore[DimensionStoreKeyUtils.getAllValuesKey()] == "[]"
+    }
+
+    def "Pages of all rows are in key value order"() {
+        expect:
+        searchProvider.findAllDimensionRowsPaged(new PaginationParameters(3, 2)).pageOfData*.getKeyValue() ==
+                dimensionRows*.getKeyValue().sort()[3..5]
+    }
+
+    def "A batch of rows is indexed together"() {
+        setup:
+        List<DimensionRow> rows = (1..20).collect {
+            makeDimensionRow(keyValueStoreDimension, "bird$it", "Birds have feathers")
+        }
+
+        when:
+        keyValueStoreDimension.addAllDimensionRows(rows as Set)
+
+        then:
+        searchProvider.getDimensionCardinality() == dimensionRows.size() + 20
+        searchProvider.keyValueStore[DimensionStoreKeyUtils.getRowKey("desc", "Birds have feathers")] == null
+        searchProvider.keyValueStore[
+                DimensionStoreKeyUtils.getRowKey("desc", "Birds have feathers") +
+                        SegmentedScanSearchProvider.FIELD_INDEX_SUFFIX
+        ] != null
+        searchProvider.findFilteredDimensionRows(
+                [buildFilter("animal|desc-in[Birds have feathers]")] as Set
+        ) == rows as TreeSet
+    }
+
+    def "Rows are looked up through the methods inherited from the ScanSearchProvider"() {
+        expect:
+        searchProvider.findDimensionRowByKeyValue("owl") == dimensionRow1
+        searchProvider.getDimensionCardinality(true) == dimensionRows.size()
+    }
+
+    @Unroll
+    def "A search with #filters only reads the rows the in filter can match"() {
+        setup: "a row the filters can't match can't be read either"
+        searchProvider.keyValueStore.put(DimensionStoreKeyUtils.getRowKey("id", "owl"), "not a row")
+
+        expect:
+        searchProvider.findFilteredDimensionRows(filters.collect { buildFilter(it) } as Set)*.getKeyValue() as Set ==
+                expected as Set
+
+        where:
+        filters                                                           | expected
+        ["animal|desc-in[Spiders have eight legs]"]                       | ["brownrecluse", "tarantula", "wolfspider"]
+        ["animal|id-in[hawk,eagle,dodo]"]                                 | ["hawk", "eagle"]
+        ["animal|desc-eq[this is a raptor]", "animal|id-startswith[ha]"]  | ["hawk"]
+        ["animal|desc-in[Monkeys have teeth]", "animal|id-notin[bonobo]"] | ["chimpanzee", "spidermonkey"]
+    }
+}
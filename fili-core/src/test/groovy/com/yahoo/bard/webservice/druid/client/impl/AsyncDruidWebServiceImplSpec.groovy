@@ -2,16 +2,41 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.druid.client.impl
 
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.REQUEST_WORKFLOW_TIMER
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.RESPONSE_WORKFLOW_TIMER
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory
 import com.yahoo.bard.webservice.application.ObjectMappersSuite
 import com.yahoo.bard.webservice.druid.client.DruidClientConfigHelper
+import com.yahoo.bard.webservice.druid.client.DruidServiceConfig
+import com.yahoo.bard.webservice.druid.client.FailureCallback
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback
+import com.yahoo.bard.webservice.druid.client.SuccessCallback
+import com.yahoo.bard.webservice.druid.model.query.DruidQuery
 import com.yahoo.bard.webservice.druid.model.query.QueryContext
 import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery
+import com.yahoo.bard.webservice.logging.RequestLog
+import com.yahoo.bard.webservice.web.handlers.RequestContext
 
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.smile.SmileFactory
+import com.sun.net.httpserver.HttpServer
+
+import org.asynchttpclient.DefaultAsyncHttpClient
+import org.asynchttpclient.DefaultAsyncHttpClientConfig
+import org.asynchttpclient.Response
 
 import io.netty.handler.codec.http.HttpHeaders
 import spock.lang.Specification
+import spock.lang.Unroll
 
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 import java.util.function.Supplier
 
 class AsyncDruidWebServiceImplSpec extends Specification {
@@ -71,4 +96,196 @@ class AsyncDruidWebServiceImplSpec extends Specification {
             assert actualHeaders.get(header.getKey()) == header.getValue()
         }
     }
+
+    @Unroll
+    def "The default json builder parses #contentType responses"() {
+        setup:
+        Map<String, Object> result = [version: "v1", event: [pageViews: 10]]
+        ObjectMapper mapper = contentType.startsWith(AsyncDruidWebServiceImpl.SMILE_CONTENT_TYPE) ?
+                new ObjectMapper(new SmileFactory()) :
+                MAPPER
+        Response response = Mock(Response)
+        response.getContentType() >> contentType
+        response.getResponseBodyAsStream() >> new ByteArrayInputStream(mapper.writeValueAsBytes([result]))
+
+        expect:
+        AsyncDruidWebServiceImpl.DEFAULT_JSON_NODE_BUILDER_STRATEGY.apply(response) == MAPPER.valueToTree([result])
+
+        where:
+        contentType << ["application/json", AsyncDruidWebServiceImpl.SMILE_CONTENT_TYPE]
+    }
+
+    /**
+     * Start a Druid broker which never answers queries, and records the queries it is asked to delete.
+     *
+     * @param deleted  The paths of the delete requests received
+     * @param answer  Released to let the pending queries be answered
+     *
+     * @return the server
+     */
+    HttpServer startSlowBroker(BlockingQueue<String> deleted, CountDownLatch answer) {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.setExecutor(Executors.newCachedThreadPool())
+        server.createContext("/druid/v2") { exchange ->
+            if (exchange.requestMethod == "DELETE") {
+                deleted.add(exchange.requestURI.path)
+            } else {
+                answer.await(10, TimeUnit.SECONDS)
+            }
+            exchange.sendResponseHeaders(202, -1)
+            exchange.close()
+        }
+        server.start()
+        return server
+    }
+
+    DruidQuery newQuery(String queryId) {
+        DruidQuery query = Mock(DruidQuery)
+        query.getContext() >> new QueryContext([:], null).withQueryId(queryId)
+        return query
+    }
+
+    AsyncDruidWebServiceImpl newWebService(HttpServer server, DefaultAsyncHttpClientConfig config) {
+        String url = "http://localhost:${server.address.port}/druid/v2"
+        return new AsyncDruidWebServiceImpl(
+                new DruidServiceConfig("broker", url, 10000, 1),
+                new DefaultAsyncHttpClient(config),
+                MAPPER
+        ) {
+            @Override
+            protected byte[] serialize(DruidQuery<?> druidQuery) {
+                return "{}".bytes
+            }
+        }
+    }
+
+    def "Cancelling a request cancels its queries in flight and deletes them from Druid"() {
+        setup:
+        BlockingQueue<String> deleted = new LinkedBlockingQueue<>()
+        CountDownLatch answer = new CountDownLatch(1)
+        HttpServer server = startSlowBroker(deleted, answer)
+        AsyncDruidWebServiceImpl webService = newWebService(server, new DefaultAsyncHttpClientConfig.Builder().build())
+        long cancelled = MetricRegistryFactory.registry.meter(AsyncDruidWebServiceImpl.CANCELLED_QUERIES).count
+        RequestContext context = new RequestContext(null, false)
+        FailureCallback failure = Mock(FailureCallback)
+
+        when:
+        webService.postDruidQuery(context, Mock(SuccessCallback), Mock(HttpErrorCallback), failure, newQuery("slow"))
+        int cancelledQueries = context.cancelDruidQueries()
+
+        then:
+        cancelledQueries == 1
+        1 * failure.invoke(_ as CancellationException)
+        deleted.poll(5, TimeUnit.SECONDS) == "/druid/v2/slow_1"
+        context.druidQueriesInFlight.isEmpty()
+        MetricRegistryFactory.registry.meter(AsyncDruidWebServiceImpl.CANCELLED_QUERIES).count == cancelled + 1
+
+        when: "a query is sent once the request was cancelled"
+        webService.postDruidQuery(context, Mock(SuccessCallback), Mock(HttpErrorCallback), failure, newQuery("late"))
+
+        then: "it is refused without reaching Druid"
+        1 * failure.invoke(_ as CancellationException)
+        context.druidQueriesInFlight.isEmpty()
+
+        cleanup:
+        answer.countDown()
+        server.stop(0)
+    }
+
+    def "A query refused because its request was cancelled is accounted for in the request workflow"() {
+        setup:
+        AsyncDruidWebServiceImpl webService = new AsyncDruidWebServiceImpl(
+                new DruidServiceConfig("broker", "http://localhost:1/druid/v2", 10000, 1),
+                MAPPER
+        )
+        RequestContext context = new RequestContext(null, false)
+        context.cancelDruidQueries()
+        RequestLog.startTiming(REQUEST_WORKFLOW_TIMER)
+        FailureCallback failure = Mock(FailureCallback)
+
+        when:
+        webService.postDruidQuery(context, Mock(SuccessCallback), Mock(HttpErrorCallback), failure, newQuery("late"))
+
+        then:
+        1 * failure.invoke(_ as CancellationException)
+        context.numberOfOutgoing.get() == 0
+        context.numberOfIncoming.get() == 0
+        !RequestLog.isRunning(REQUEST_WORKFLOW_TIMER)
+        RequestLog.isRunning(RESPONSE_WORKFLOW_TIMER)
+
+        cleanup:
+        RequestLog.dump()
+    }
+
+    def "A query which times out is deleted from Druid"() {
+        setup:
+        BlockingQueue<String> deleted = new LinkedBlockingQueue<>()
+        CountDownLatch answer = new CountDownLatch(1)
+        HttpServer server = startSlowBroker(deleted, answer)
+        AsyncDruidWebServiceImpl webService = newWebService(
+                server,
+                new DefaultAsyncHttpClientConfig.Builder().setRequestTimeout(200).build()
+        )
+        long timedOut = MetricRegistryFactory.registry.meter(AsyncDruidWebServiceImpl.TIMED_OUT_QUERIES).count
+        FailureCallback failure = Mock(FailureCallback)
+
+        when:
+        webService.postDruidQuery(
+                new RequestContext(null, false),
+                Mock(SuccessCallback),
+                Mock(HttpErrorCallback),
+                failure,
+                newQuery("timeout")
+        )
+        String deletedPath = deleted.poll(5, TimeUnit.SECONDS)
+
+        then:
+        deletedPath == "/druid/v2/timeout_1"
+        1 * failure.invoke(_ as TimeoutException)
+        MetricRegistryFactory.registry.meter(AsyncDruidWebServiceImpl.TIMED_OUT_QUERIES).count == timedOut + 1
+
+        cleanup:
+        answer.countDown()
+        server.stop(0)
+    }
+
+    @Unroll
+    def "The serialized query is dropped from the request context once #outcome"() {
+        setup:
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.createContext("/druid/v2") { exchange ->
+            exchange.sendResponseHeaders(500, -1)
+            exchange.close()
+        }
+        server.start()
+        AsyncDruidWebServiceImpl webService = newWebService(server, new DefaultAsyncHttpClientConfig.Builder().build())
+        if (refuseConnections) {
+            server.stop(0)
+        }
+        RequestContext context = new RequestContext(null, false)
+        DruidQuery query = newQuery("answered")
+        CountDownLatch answered = new CountDownLatch(1)
+
+        when:
+        webService.postDruidQuery(
+                context,
+                Mock(SuccessCallback),
+                { statusCode, reason, body -> answered.countDown() } as HttpErrorCallback,
+                { throwable -> answered.countDown() } as FailureCallback,
+                query
+        )
+        answered.await(5, TimeUnit.SECONDS)
+
+        then:
+        answered.count == 0
+        !context.serializedDruidQueries.containsKey(query)
+
+        cleanup:
+        server.stop(0)
+
+        where:
+        outcome                               | refuseConnections
+        "Druid answers with an error"         | false
+        "the query fails"                     | true
+    }
 }
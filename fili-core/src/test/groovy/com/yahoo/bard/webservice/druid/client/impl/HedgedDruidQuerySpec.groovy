@@ -0,0 +1,61 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl
+
+import com.yahoo.bard.webservice.druid.client.DruidWebService
+import com.yahoo.bard.webservice.druid.client.FailureCallback
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback
+import com.yahoo.bard.webservice.druid.client.SuccessCallback
+import com.yahoo.bard.webservice.web.handlers.RequestContext
+
+import spock.lang.Specification
+
+import java.util.concurrent.CancellationException
+
+class HedgedDruidQuerySpec extends Specification {
+
+    SuccessCallback success = Mock(SuccessCallback)
+    HttpErrorCallback error = Mock(HttpErrorCallback)
+    FailureCallback failure = Mock(FailureCallback)
+    DruidWebService broker1 = Mock(DruidWebService)
+    DruidWebService broker2 = Mock(DruidWebService)
+
+    HedgedDruidQuery hedgedQuery = new HedgedDruidQuery("query", success, error, failure)
+
+    def "An error is only passed on once every attempt has failed"() {
+        setup:
+        int first = hedgedQuery.addAttempt(broker1, Mock(RequestContext))
+        int second = hedgedQuery.addAttempt(broker2, Mock(RequestContext))
+
+        when:
+        hedgedQuery.getErrorCallback(first).invoke(500, "Internal Server Error", "")
+
+        then:
+        0 * error.invoke(*_)
+        !hedgedQuery.isAnswered()
+
+        when:
+        hedgedQuery.getFailureCallback(second).invoke(new IOException("broken"))
+
+        then:
+        1 * failure.invoke(_ as IOException)
+        0 * error.invoke(*_)
+        hedgedQuery.isAnswered()
+    }
+
+    def "A success after a failed attempt answers the query, and the cancellation of the losers is ignored"() {
+        setup:
+        int first = hedgedQuery.addAttempt(broker1, Mock(RequestContext))
+        int second = hedgedQuery.addAttempt(broker2, Mock(RequestContext))
+
+        when:
+        hedgedQuery.getSuccessCallback(second).invoke(null)
+        hedgedQuery.getFailureCallback(first).invoke(new CancellationException())
+
+        then:
+        1 * broker1.cancelDruidQuery(_, "query")
+        0 * broker2.cancelDruidQuery(*_)
+        1 * success.invoke(null)
+        0 * failure.invoke(_)
+    }
+}
@@ -0,0 +1,349 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl
+
+import static com.yahoo.bard.webservice.druid.client.impl.LoadBalancingDruidWebService.BrokerSelection.LEAST_OUTSTANDING
+import static com.yahoo.bard.webservice.druid.client.impl.LoadBalancingDruidWebService.BrokerSelection.LOWEST_LATENCY
+
+import com.yahoo.bard.webservice.application.ObjectMappersSuite
+import com.yahoo.bard.webservice.druid.client.DruidServiceConfig
+import com.yahoo.bard.webservice.druid.client.DruidWebService
+import com.yahoo.bard.webservice.druid.client.FailureCallback
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback
+import com.yahoo.bard.webservice.druid.client.SuccessCallback
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery
+import com.yahoo.bard.webservice.druid.model.query.DruidQuery
+import com.yahoo.bard.webservice.druid.model.query.QueryContext
+import com.yahoo.bard.webservice.logging.RequestLog
+import com.yahoo.bard.webservice.web.handlers.RequestContext
+
+import com.codahale.metrics.Histogram
+import com.codahale.metrics.SlidingWindowReservoir
+import com.fasterxml.jackson.databind.node.JsonNodeFactory
+import com.sun.net.httpserver.HttpServer
+
+import org.asynchttpclient.DefaultAsyncHttpClient
+import org.asynchttpclient.DefaultAsyncHttpClientConfig
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class LoadBalancingDruidWebServiceSpec extends Specification {
+
+    DruidServiceConfig serviceConfig = new DruidServiceConfig("Brokers", "http://broker1,http://broker2", 1000, 1)
+    DruidWebService broker1 = Mock(DruidWebService)
+    DruidWebService broker2 = Mock(DruidWebService)
+    ScheduledExecutorService scheduler = Mock(ScheduledExecutorService)
+    RequestContext context = Mock(RequestContext)
+
+    SuccessCallback success = Mock(SuccessCallback)
+    HttpErrorCallback error = Mock(HttpErrorCallback)
+    FailureCallback failure = Mock(FailureCallback)
+
+    DruidAggregationQuery query(String queryId) {
+        DruidAggregationQuery query = Mock(DruidAggregationQuery)
+        query.getContext() >> new QueryContext([:]).withQueryId(queryId)
+        return query
+    }
+
+    LoadBalancingDruidWebService buildService(double hedgePercentile) {
+        new LoadBalancingDruidWebService(
+                serviceConfig,
+                [broker1, broker2],
+                LEAST_OUTSTANDING,
+                2,
+                60000,
+                hedgePercentile,
+                scheduler
+        )
+    }
+
+    def "Queries go to the broker with the fewest outstanding requests"() {
+        setup:
+        LoadBalancingDruidWebService service = buildService(0)
+        List<DruidWebService> receivers = []
+        [broker1, broker2].each { broker ->
+            broker.postDruidQuery(*_) >> { receivers.add(broker); return null }
+        }
+
+        when: "two queries are left unanswered"
+        service.postDruidQuery(context, success, error, failure, query("q1"))
+        service.postDruidQuery(context, success, error, failure, query("q2"))
+
+        then: "each broker has one of them"
+        receivers as Set == [broker1, broker2] as Set
+        service.brokerHealth*.outstanding == [1, 1]
+    }
+
+    def "A broker that keeps failing is ejected until every other broker is ejected too"() {
+        setup:
+        LoadBalancingDruidWebService service = buildService(0)
+        broker1.postDruidQuery(*_) >> { arguments ->
+            (arguments[2] as HttpErrorCallback).invoke(503, "Service Unavailable", "")
+            return null
+        }
+        int broker2Queries = 0
+        broker2.postDruidQuery(*_) >> { broker2Queries++; return null }
+
+        when: "broker1 fails twice"
+        4.times { service.postDruidQuery(context, success, error, failure, query("q$it")) }
+
+        then: "it is ejected and the errors are passed on"
+        !service.brokerHealth[0].isHealthy(System.currentTimeMillis())
+        2 * error.invoke(503, "Service Unavailable", "")
+
+        when: "more queries are sent"
+        3.times { service.postDruidQuery(context, success, error, failure, query("r$it")) }
+
+        then: "they all go to the healthy broker"
+        broker2Queries == 5
+    }
+
+    def "A slow query is hedged to the other broker, and the answer of the first one cancels the other"() {
+        setup: "enough answered queries to know the latency of the table"
+        LoadBalancingDruidWebService service = buildService(0.5)
+        int attempts = 0
+        Map<DruidWebService, SuccessCallback> pending = [:]
+        [broker1, broker2].each { broker ->
+            broker.postDruidQuery(*_) >> { arguments ->
+                SuccessCallback callback = arguments[1]
+                if (attempts++ < 100) {
+                    callback.invoke(JsonNodeFactory.instance.arrayNode())
+                } else {
+                    pending.put(broker, callback)
+                }
+                return null
+            }
+        }
+        100.times { service.postDruidQuery(context, Mock(SuccessCallback), error, failure, query("w$it")) }
+        DruidWebService first = null
+        DruidWebService second = null
+        List<Runnable> hedges = []
+        scheduler.schedule(*_) >> { arguments -> hedges.add(arguments[0]); return null }
+
+        when: "a query is not answered in time"
+        service.postDruidQuery(context, success, error, failure, query("slow"))
+
+        then: "a hedge is scheduled"
+        pending.size() == 1
+        hedges.size() == 1
+
+        when: "the hedge is sent"
+        first = pending.keySet().first()
+        second = first == broker1 ? broker2 : broker1
+
+        hedges[0].run()
+
+        then: "the query goes to both brokers"
+        pending.size() == 2
+
+        when: "the hedged attempt answers first"
+        pending[second].invoke(JsonNodeFactory.instance.objectNode())
+
+        then: "its answer is used and the first attempt is cancelled"
+        1 * success.invoke(_)
+        1 * first.cancelDruidQuery(_, { it.startsWith("slow") })
+        0 * second.cancelDruidQuery(*_)
+    }
+
+    def "By latency, brokers are weighted by their outstanding requests, and no average latency doesn't win"() {
+        setup:
+        LoadBalancingDruidWebService service = new LoadBalancingDruidWebService(
+                serviceConfig,
+                [broker1, broker2],
+                LOWEST_LATENCY,
+                2,
+                60000,
+                0,
+                scheduler
+        )
+        DruidBrokerHealth slow = service.brokerHealth[0]
+        DruidBrokerHealth fast = service.brokerHealth[1]
+
+        when: "the faster broker has too many requests outstanding"
+        slow.requestSent()
+        slow.requestSucceeded(100)
+        fast.requestSent()
+        fast.requestSucceeded(30)
+        5.times { fast.requestSent() }
+
+        then: "the slower broker is expected to answer sooner"
+        service.isLessLoaded(0, 1)
+        !service.isLessLoaded(1, 0)
+
+        when: "the slower broker has no average latency yet"
+        LoadBalancingDruidWebService fresh = new LoadBalancingDruidWebService(
+                serviceConfig,
+                [broker1, broker2],
+                LOWEST_LATENCY,
+                2,
+                60000,
+                0,
+                scheduler
+        )
+        fresh.brokerHealth[0].requestSent()
+        fresh.brokerHealth[1].requestSent()
+        fresh.brokerHealth[1].requestSucceeded(30)
+
+        then: "it is compared by its outstanding requests alone"
+        !fresh.isLessLoaded(0, 1)
+        fresh.isLessLoaded(1, 0)
+    }
+
+    /**
+     * Start a local broker that answers queries with the given status, and records the paths of the deletes it gets.
+     *
+     * @param name  The name recorded with the paths of the deletes
+     * @param status  The status of the answers to the queries, given the number of queries received by every broker
+     * @param posts  The number of queries received by every broker
+     * @param deleted  The names and paths of the delete requests received
+     *
+     * @return the server
+     */
+    HttpServer startBroker(String name, Closure<Integer> status, AtomicInteger posts, BlockingQueue<String> deleted) {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.setExecutor(Executors.newCachedThreadPool())
+        server.createContext("/druid/v2") { exchange ->
+            if (exchange.requestMethod == "DELETE") {
+                deleted.add("$name:${exchange.requestURI.path}".toString())
+                exchange.sendResponseHeaders(202, -1)
+            } else {
+                int answer = status(posts.incrementAndGet())
+                byte[] body = "[]".bytes
+                exchange.responseHeaders.add("Content-Type", "application/json")
+                exchange.sendResponseHeaders(answer, body.length)
+                exchange.responseBody.write(body)
+            }
+            exchange.close()
+        }
+        server.start()
+        return server
+    }
+
+    AsyncDruidWebServiceImpl newWebService(int port) {
+        return new AsyncDruidWebServiceImpl(
+                new DruidServiceConfig("broker$port", "http://localhost:$port/druid/v2", 10000, 1),
+                new DefaultAsyncHttpClient(new DefaultAsyncHttpClientConfig.Builder().build()),
+                new ObjectMappersSuite().getMapper()
+        ) {
+            @Override
+            protected byte[] serialize(DruidQuery<?> druidQuery) {
+                return "{}".bytes
+            }
+        }
+    }
+
+    @Unroll
+    def "A broker whose #problem is ejected, and its queries go to the other broker"() {
+        setup:
+        AtomicInteger healthyPosts = new AtomicInteger()
+        AtomicInteger failingPosts = new AtomicInteger()
+        HttpServer healthy = startBroker("healthy", { 200 }, healthyPosts, new LinkedBlockingQueue<>())
+        HttpServer failing = startBroker("failing", { 503 }, failingPosts, new LinkedBlockingQueue<>())
+        int failingPort = failing.address.port
+        if (refuseConnections) {
+            failing.stop(0)
+        }
+        LoadBalancingDruidWebService service = new LoadBalancingDruidWebService(
+                serviceConfig,
+                [newWebService(failingPort), newWebService(healthy.address.port)],
+                LEAST_OUTSTANDING,
+                2,
+                60000,
+                0,
+                scheduler
+        )
+        BlockingQueue<String> outcomes = new LinkedBlockingQueue<>()
+
+        when: "queries are sent one after the other"
+        8.times {
+            service.postDruidQuery(
+                    new RequestContext(null, false),
+                    { outcomes.add("success") },
+                    { statusCode, reason, body -> outcomes.add("error") },
+                    { outcomes.add("failure") },
+                    query("q$it")
+            )
+            assert outcomes.poll(5, TimeUnit.SECONDS) != null
+        }
+
+        then: "the failing broker is ejected after two failures, and gets no more queries"
+        !service.brokerHealth[0].isHealthy(System.currentTimeMillis())
+        service.brokerHealth[1].isHealthy(System.currentTimeMillis())
+        failingPosts.get() == (refuseConnections ? 0 : 2)
+        healthyPosts.get() == 6
+
+        cleanup:
+        healthy.stop(0)
+        failing.stop(0)
+
+        where:
+        problem                               | refuseConnections
+        "queries fail with server errors"     | false
+        "connections are refused"             | true
+    }
+
+    def "The broker that loses a hedged query is asked to delete it, and the hedge thread drops the request log"() {
+        setup: "a broker that holds the first query it gets, and one that answers"
+        AtomicInteger posts = new AtomicInteger()
+        CountDownLatch release = new CountDownLatch(1)
+        Closure<Integer> status = { int post ->
+            if (post == 1) {
+                release.await(10, TimeUnit.SECONDS)
+            }
+            return 200
+        }
+        BlockingQueue<String> deleted = new LinkedBlockingQueue<>()
+        HttpServer first = startBroker("first", status, posts, deleted)
+        HttpServer second = startBroker("second", status, posts, deleted)
+        ScheduledExecutorService hedgeScheduler = Executors.newSingleThreadScheduledExecutor()
+        LoadBalancingDruidWebService service = new LoadBalancingDruidWebService(
+                serviceConfig,
+                [newWebService(first.address.port), newWebService(second.address.port)],
+                LEAST_OUTSTANDING,
+                2,
+                60000,
+                0.5,
+                hedgeScheduler
+        )
+
+        and: "enough latencies of the table to hedge its queries straight away"
+        Histogram latencies = new Histogram(new SlidingWindowReservoir(100))
+        100.times { latencies.update(1) }
+        service.tableLatencies.put("", latencies)
+
+        and: "a request log that the hedge takes to the scheduler thread"
+        RequestLog.startTiming("hedgeSpec")
+        SuccessCallback success = Mock(SuccessCallback)
+        CountDownLatch answered = new CountDownLatch(1)
+
+        when:
+        service.postDruidQuery(new RequestContext(null, false), success, error, failure, query("slow"))
+        answered.await(5, TimeUnit.SECONDS)
+        String deletedQuery = deleted.poll(5, TimeUnit.SECONDS)
+
+        then: "the hedge answers, and the held query is deleted from the broker that holds it"
+        1 * success.invoke(_) >> { answered.countDown() }
+        0 * failure.invoke(_)
+        deletedQuery != null
+        deletedQuery.contains(":/druid/v2/slow")
+        deleted.poll(500, TimeUnit.MILLISECONDS) == null
+        !hedgeScheduler.submit({ RequestLog.isRunning("hedgeSpec") } as Callable<Boolean>).get()
+
+        cleanup:
+        release.countDown()
+        hedgeScheduler.shutdownNow()
+        first.stop(0)
+        second.stop(0)
+        RequestLog.dump()
+    }
+}
@@ -0,0 +1,91 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl
+
+import static com.yahoo.bard.webservice.druid.client.impl.MeteredAsyncCompletionHandler.ACTIVE_CONNECTIONS
+import static com.yahoo.bard.webservice.druid.client.impl.MeteredAsyncCompletionHandler.BYTES_READ
+import static com.yahoo.bard.webservice.druid.client.impl.MeteredAsyncCompletionHandler.CONNECT_TIMER
+import static com.yahoo.bard.webservice.druid.client.impl.MeteredAsyncCompletionHandler.IDLE_CONNECTIONS
+import static com.yahoo.bard.webservice.druid.client.impl.MeteredAsyncCompletionHandler.PENDING_REQUESTS
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory
+
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import com.sun.net.httpserver.HttpServer
+
+import org.asynchttpclient.AsyncHttpClient
+import org.asynchttpclient.DefaultAsyncHttpClient
+import org.asynchttpclient.Response
+
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class MeteredAsyncCompletionHandlerSpec extends Specification {
+
+    static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry()
+    static final byte[] BODY = '{"status": "ok"}'.getBytes(StandardCharsets.UTF_8)
+
+    HttpServer server
+    AsyncHttpClient client
+
+    def setup() {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.createContext("/status") { exchange ->
+            exchange.sendResponseHeaders(200, BODY.length)
+            exchange.responseBody.withStream { it.write(BODY) }
+        }
+        server.start()
+        client = new DefaultAsyncHttpClient()
+        MeteredAsyncCompletionHandler.monitorConnections(client)
+    }
+
+    def cleanup() {
+        client.close()
+        server.stop(0)
+    }
+
+    MeteredAsyncCompletionHandler newHandler() {
+        return new MeteredAsyncCompletionHandler() {
+            @Override
+            Response onCompleted(Response response) {
+                return response
+            }
+        }
+    }
+
+    long gauge(String name) {
+        return (REGISTRY.getGauges()[name] as Gauge<Long>).getValue()
+    }
+
+    def "Requests meter their connections, and keep them in the pool once answered"() {
+        setup:
+        long bytesRead = REGISTRY.meter(BYTES_READ).count
+        long connects = REGISTRY.timer(CONNECT_TIMER).count
+        long pending = gauge(PENDING_REQUESTS)
+        String url = "http://localhost:${server.address.port}/status"
+
+        when:
+        List<Response> responses = (1..3).collect { newHandler().execute(client.prepareGet(url)) }*.get()
+
+        then:
+        responses*.statusCode == [200, 200, 200]
+        REGISTRY.meter(BYTES_READ).count - bytesRead == 3 * BODY.length
+        REGISTRY.timer(CONNECT_TIMER).count - connects >= 1
+        gauge(PENDING_REQUESTS) == pending
+        gauge(ACTIVE_CONNECTIONS) + gauge(IDLE_CONNECTIONS) >= 1
+    }
+
+    def "A request that cannot be sent is not left pending"() {
+        setup:
+        long pending = gauge(PENDING_REQUESTS)
+
+        when:
+        newHandler().execute(client.prepareGet("http://localhost:1/status")).get()
+
+        then:
+        thrown(Exception)
+        gauge(PENDING_REQUESTS) == pending
+    }
+}
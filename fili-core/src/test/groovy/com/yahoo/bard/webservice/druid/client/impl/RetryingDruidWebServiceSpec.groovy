@@ -0,0 +1,149 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl
+
+import com.yahoo.bard.webservice.druid.client.DruidWebService
+import com.yahoo.bard.webservice.druid.client.FailureCallback
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback
+import com.yahoo.bard.webservice.druid.client.SuccessCallback
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery
+import com.yahoo.bard.webservice.druid.model.query.QueryContext
+import com.yahoo.bard.webservice.web.handlers.RequestContext
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeoutException
+
+class RetryingDruidWebServiceSpec extends Specification {
+
+    DruidWebService delegate = Mock(DruidWebService)
+    ScheduledExecutorService scheduler = Mock(ScheduledExecutorService)
+    RequestContext context = new RequestContext(null, true)
+    DruidAggregationQuery query = Mock(DruidAggregationQuery)
+
+    SuccessCallback success = Mock(SuccessCallback)
+    HttpErrorCallback error = Mock(HttpErrorCallback)
+    FailureCallback failure = Mock(FailureCallback)
+
+    List<Closure> outcomes
+    List<RequestContext> attemptContexts = []
+    List<Runnable> retries = []
+
+    def setup() {
+        query.getContext() >> new QueryContext([:]).withQueryId("query")
+        delegate.postDruidQuery(*_) >> { arguments ->
+            attemptContexts.add(arguments[0])
+            outcomes.remove(0).call(arguments[1], arguments[2], arguments[3])
+            return null
+        }
+        scheduler.schedule(*_) >> { arguments -> retries.add(arguments[0]); return null }
+    }
+
+    RetryingDruidWebService buildService(double burst) {
+        new RetryingDruidWebService(
+                delegate,
+                2,
+                10,
+                100,
+                [502, 503, 504] as Set,
+                new RetryBudget(0.1, burst),
+                scheduler
+        )
+    }
+
+    def "A transient error is retried with a fork of the request context, until the query succeeds"() {
+        setup:
+        RetryingDruidWebService service = buildService(10)
+        long retried = RetryingDruidWebService.RETRIES.count
+        long succeeded = RetryingDruidWebService.RETRIES_SUCCEEDED.count
+        outcomes = [
+                { s, e, f -> e.invoke(503, "Service Unavailable", "") },
+                { s, e, f -> f.invoke(new IOException("Connection reset")) },
+                { s, e, f -> s.invoke(JsonNodeFactory.instance.arrayNode()) }
+        ]
+
+        when:
+        service.postDruidQuery(context, success, error, failure, query)
+
+        then: "the retry stands in for the query until it is sent"
+        retries.size() == 1
+        context.druidQueriesInFlight.size() == 1
+        context.druidQueriesInFlight.values()[0] instanceof RetriedDruidQuery
+
+        when:
+        retries[0].run()
+        retries[1].run()
+
+        then:
+        1 * success.invoke(_)
+        0 * error.invoke(*_)
+        0 * failure.invoke(_)
+        attemptContexts.size() == 3
+        attemptContexts[0].is(context)
+        !attemptContexts[1].is(context) && !attemptContexts[2].is(context)
+        RetryingDruidWebService.RETRIES.count - retried == 2
+        RetryingDruidWebService.RETRIES_SUCCEEDED.count - succeeded == 1
+        context.druidQueriesInFlight.isEmpty()
+    }
+
+    @Unroll
+    def "#outcome is not retried"() {
+        setup:
+        RetryingDruidWebService service = buildService(10)
+        outcomes = [respond]
+
+        when:
+        service.postDruidQuery(context, success, error, failure, query)
+
+        then:
+        retries.isEmpty()
+        errors * error.invoke(*_)
+        (1 - errors) * failure.invoke(_)
+
+        where:
+        outcome              | errors | respond
+        "A query error"      | 1      | { s, e, f -> e.invoke(500, "Internal Server Error", "") }
+        "A timeout"          | 0      | { s, e, f -> f.invoke(new TimeoutException()) }
+        "A cancellation"     | 0      | { s, e, f -> f.invoke(new CancellationException()) }
+    }
+
+    def "Retries beyond the budget are not made"() {
+        setup:
+        RetryingDruidWebService service = buildService(1)
+        long overBudget = RetryingDruidWebService.RETRIES_OVER_BUDGET.count
+        outcomes = (1..3).collect { { s, e, f -> e.invoke(503, "Service Unavailable", "") } }
+
+        when: "the only retry in the budget is spent"
+        service.postDruidQuery(context, success, error, failure, query)
+        retries[0].run()
+
+        then:
+        1 * error.invoke(503, _, _)
+        RetryingDruidWebService.RETRIES_OVER_BUDGET.count - overBudget == 1
+        retries.size() == 1
+
+        and: "the budget is left with less than a retry"
+        service.retryBudget.tokens < 1
+    }
+
+    def "Cancelling the queries of the request stops their retries"() {
+        setup:
+        RetryingDruidWebService service = buildService(10)
+        outcomes = [{ s, e, f -> e.invoke(503, "Service Unavailable", "") }]
+
+        when:
+        service.postDruidQuery(context, success, error, failure, query)
+        service.cancelDruidQueries(context)
+        retries[0].run()
+
+        then:
+        1 * failure.invoke(_ as CancellationException)
+        attemptContexts.size() == 1
+        context.druidQueriesInFlight.isEmpty()
+    }
+}
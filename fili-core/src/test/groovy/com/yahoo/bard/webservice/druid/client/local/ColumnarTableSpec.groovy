@@ -0,0 +1,69 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.local
+
+import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ColumnarTableSpec extends Specification {
+
+    def "Rows are sorted by time and missing values are filled in"() {
+        when:
+        ColumnarTable table = new ColumnarTable.Builder("table")
+                .addRow(new DateTime(30, DateTimeZone.UTC), [dim: "b"], [metric: 3L])
+                .addRow(new DateTime(10, DateTimeZone.UTC), [dim: "a"], [:])
+                .addRow(new DateTime(20, DateTimeZone.UTC), [:], [metric: 2.5d])
+                .build()
+        DictionaryEncodedColumn dim = table.getDimension("dim").get()
+        NumericColumn metric = table.getMetric("metric").get()
+
+        then:
+        (0..2).collect { table.getTimestamp(it) } == [10L, 20L, 30L]
+        (0..2).collect { dim.getValue(dim.getCode(it)) } == ["a", null, "b"]
+        metric.isFloatingPoint()
+        (0..2).collect { metric.getDouble(it) } == [0d, 2.5d, 3d]
+        !table.getDimension("metric").isPresent()
+    }
+
+    @Unroll
+    def "First row at or after #instant is #expected"() {
+        given:
+        ColumnarTable table = new ColumnarTable.Builder("table")
+                .addRow(new DateTime(10, DateTimeZone.UTC), [:], [:])
+                .addRow(new DateTime(20, DateTimeZone.UTC), [:], [:])
+                .addRow(new DateTime(20, DateTimeZone.UTC), [:], [:])
+                .build()
+
+        expect:
+        table.firstRowAtOrAfter(instant) == expected
+
+        where:
+        instant | expected
+        0       | 0
+        10      | 0
+        11      | 1
+        20      | 1
+        21      | 3
+    }
+
+    @Unroll
+    def "A column of #cardinality distinct values round trips its values"() {
+        given:
+        String[] values = (0..<cardinality).collect { String.format("%05d", it) } + [null, ""]
+
+        when:
+        DictionaryEncodedColumn column = new DictionaryEncodedColumn(values)
+
+        then:
+        column.getCardinality() == cardinality + 1
+        (0..<values.length).every { column.getValue(column.getCode(it)) == (values[it] ?: null) }
+        column.indexOf("missing") == -1
+        column.matching({ it == null }).cardinality() == 1
+
+        where:
+        cardinality << [1, 255, 256, 70000]
+    }
+}
@@ -0,0 +1,184 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.local
+
+import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.DAY
+
+import com.yahoo.bard.webservice.application.ObjectMappersSuite
+import com.yahoo.bard.webservice.data.config.names.DataSourceName
+import com.yahoo.bard.webservice.data.dimension.Dimension
+import com.yahoo.bard.webservice.data.time.AllGranularity
+import com.yahoo.bard.webservice.druid.client.DruidServiceConfig
+import com.yahoo.bard.webservice.druid.client.DruidWebService
+import com.yahoo.bard.webservice.druid.client.FailureCallback
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback
+import com.yahoo.bard.webservice.druid.client.SuccessCallback
+import com.yahoo.bard.webservice.druid.model.aggregation.LongSumAggregation
+import com.yahoo.bard.webservice.druid.model.aggregation.ThetaSketchAggregation
+import com.yahoo.bard.webservice.druid.model.datasource.TableDataSource
+import com.yahoo.bard.webservice.druid.model.query.GroupByQuery
+import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery
+import com.yahoo.bard.webservice.metadata.DataSourceMetadata
+import com.yahoo.bard.webservice.metadata.DataSourceMetadataService
+import com.yahoo.bard.webservice.table.TableTestUtils
+import com.yahoo.bard.webservice.util.DruidWebServiceSelector
+import com.yahoo.bard.webservice.web.handlers.RequestContext
+
+import com.fasterxml.jackson.databind.JsonNode
+
+import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
+import org.joda.time.Interval
+
+import spock.lang.Specification
+
+import javax.ws.rs.container.ContainerRequestContext
+import javax.ws.rs.core.MultivaluedHashMap
+
+class LocalDruidWebServiceSpec extends Specification {
+
+    static final Interval TWO_DAYS = new Interval(
+            new DateTime("2015-09-12T00:00:00.000Z", DateTimeZone.UTC),
+            new DateTime("2015-09-14T00:00:00.000Z", DateTimeZone.UTC)
+    )
+
+    LocalDruidWebService webService = new LocalDruidWebService(new DruidServiceConfig("local", null, null, null))
+    Dimension page
+    RequestContext context
+    SuccessCallback success = Mock(SuccessCallback)
+    HttpErrorCallback error = Mock(HttpErrorCallback)
+    FailureCallback failure = Mock(FailureCallback)
+
+    def setup() {
+        page = Mock(Dimension) { getApiName() >> "page" }
+        ContainerRequestContext containerRequestContext = Mock(ContainerRequestContext)
+        containerRequestContext.getHeaders() >> new MultivaluedHashMap<>()
+        context = new RequestContext(containerRequestContext, false)
+
+        webService.loadTable(new ColumnarTable.Builder("wikiticker")
+                .addRow(new DateTime("2015-09-12T01:00:00.000Z", DateTimeZone.UTC), [page: "A"], [added: 1L])
+                .addRow(new DateTime("2015-09-12T02:00:00.000Z", DateTimeZone.UTC), [page: "B"], [added: 2L])
+                .addRow(new DateTime("2015-09-13T02:00:00.000Z", DateTimeZone.UTC), [page: "A"], [added: 4L])
+                .build()
+        )
+    }
+
+    GroupByQuery query(String tableName, List aggregations = [new LongSumAggregation("added", "added")]) {
+        new GroupByQuery(
+                new TableDataSource(TableTestUtils.buildTable(
+                        tableName,
+                        DAY.buildZonedTimeGrain(DateTimeZone.UTC),
+                        [] as Set,
+                        [:],
+                        Mock(DataSourceMetadataService) { getAvailableIntervalsByDataSource(_ as DataSourceName) >> [:] }
+                )),
+                AllGranularity.INSTANCE,
+                [page],
+                null,
+                null,
+                aggregations,
+                [],
+                [TWO_DAYS],
+                null
+        )
+    }
+
+    def "Queries on loaded tables are answered with a Druid shaped response"() {
+        given:
+        JsonNode response
+
+        when:
+        webService.postDruidQuery(context, success, error, failure, query("wikiticker"))
+
+        then:
+        1 * success.invoke(_) >> { response = it[0] }
+        0 * failure.invoke(_)
+        response*.event.collect { [it.page.asText(), it.added.asLong()] } == [["A", 5], ["B", 2]]
+    }
+
+    def "Weight evaluation queries are answered from the weighed query"() {
+        given:
+        JsonNode response
+        def sketchQuery = query("wikiticker", [new ThetaSketchAggregation("users", "users", 16384)])
+
+        when:
+        webService.postDruidQuery(
+                context,
+                success,
+                error,
+                failure,
+                WeightEvaluationQuery.makeWeightEvaluationQuery(sketchQuery)
+        )
+
+        then: "two result rows weighed by one sketch each"
+        1 * success.invoke(_) >> { response = it[0] }
+        response[0].event.count.asLong() == 2
+    }
+
+    def "Queries the engine can't evaluate are reported to the failure callback"() {
+        when:
+        webService.postDruidQuery(
+                context,
+                success,
+                error,
+                failure,
+                query("wikiticker", [new ThetaSketchAggregation("users", "users", 16384)])
+        )
+
+        then:
+        1 * failure.invoke(_ as UnsupportedOperationException)
+        0 * success.invoke(_)
+    }
+
+    def "Only queries on loaded tables are queryable"() {
+        expect:
+        webService.isQueryable(query("wikiticker"))
+        !webService.isQueryable(query("other"))
+
+        when:
+        webService.removeTable("wikiticker")
+
+        then:
+        !webService.isQueryable(query("wikiticker"))
+    }
+
+    def "The selector routes loaded tables locally and everything else to the fallback"() {
+        given:
+        DruidWebService druid = Mock(DruidWebService)
+        DruidWebServiceSelector selector = new LocalTableWebServiceSelector(webService, druid)
+
+        expect:
+        selector.select(context, null, query("wikiticker")).is(webService)
+        selector.select(context, null, query("other")).is(druid)
+    }
+
+    def "Data source metadata has a segment for each day holding data"() {
+        given:
+        JsonNode response
+
+        when:
+        webService.getJsonObject(success, error, failure, "/datasources/wikiticker?full")
+
+        then:
+        1 * success.invoke(_) >> { response = it[0] }
+        DataSourceMetadata metadata = new ObjectMappersSuite().getMapper().treeToValue(
+                response,
+                DataSourceMetadata
+        )
+        metadata.name == "wikiticker"
+        metadata.segments*.interval*.toString() == [
+                "2015-09-12T00:00:00.000Z/2015-09-13T00:00:00.000Z",
+                "2015-09-13T00:00:00.000Z/2015-09-14T00:00:00.000Z"
+        ]
+        metadata.segments.every { it.dimensions == ["page"] && it.metrics == ["added"] }
+    }
+
+    def "Metadata of unknown tables is not found"() {
+        when:
+        webService.getJsonObject(success, error, failure, "/datasources/other?full")
+
+        then:
+        1 * error.invoke(404, _, _)
+        0 * success.invoke(_)
+    }
+}
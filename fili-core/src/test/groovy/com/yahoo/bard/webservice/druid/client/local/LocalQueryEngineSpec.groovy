@@ -0,0 +1,322 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.local
+
+import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.DAY
+import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.HOUR
+import static com.yahoo.bard.webservice.druid.model.filter.SearchFilter.QueryType.InsensitiveContains
+import static com.yahoo.bard.webservice.druid.model.postaggregation.ArithmeticPostAggregation.ArithmeticPostAggregationFunction.DIVIDE
+
+import com.yahoo.bard.webservice.data.config.names.DataSourceName
+import com.yahoo.bard.webservice.data.dimension.Dimension
+import com.yahoo.bard.webservice.data.time.AllGranularity
+import com.yahoo.bard.webservice.druid.model.Ordering
+import com.yahoo.bard.webservice.druid.model.aggregation.Aggregation
+import com.yahoo.bard.webservice.druid.model.aggregation.CountAggregation
+import com.yahoo.bard.webservice.druid.model.aggregation.DoubleMaxAggregation
+import com.yahoo.bard.webservice.druid.model.aggregation.DoubleSumAggregation
+import com.yahoo.bard.webservice.druid.model.aggregation.FilteredAggregation
+import com.yahoo.bard.webservice.druid.model.aggregation.LongMinAggregation
+import com.yahoo.bard.webservice.druid.model.aggregation.LongSumAggregation
+import com.yahoo.bard.webservice.druid.model.aggregation.ThetaSketchAggregation
+import com.yahoo.bard.webservice.druid.model.datasource.TableDataSource
+import com.yahoo.bard.webservice.druid.model.filter.AndFilter
+import com.yahoo.bard.webservice.druid.model.filter.BoundFilter
+import com.yahoo.bard.webservice.druid.model.filter.InFilter
+import com.yahoo.bard.webservice.druid.model.filter.NotFilter
+import com.yahoo.bard.webservice.druid.model.filter.OrFilter
+import com.yahoo.bard.webservice.druid.model.filter.RegularExpressionFilter
+import com.yahoo.bard.webservice.druid.model.filter.SearchFilter
+import com.yahoo.bard.webservice.druid.model.filter.SelectorFilter
+import com.yahoo.bard.webservice.druid.model.having.Having
+import com.yahoo.bard.webservice.druid.model.having.NumericHaving
+import com.yahoo.bard.webservice.druid.model.orderby.LimitSpec
+import com.yahoo.bard.webservice.druid.model.orderby.OrderByColumn
+import com.yahoo.bard.webservice.druid.model.orderby.SortDirection
+import com.yahoo.bard.webservice.druid.model.orderby.TopNMetric
+import com.yahoo.bard.webservice.druid.model.postaggregation.ArithmeticPostAggregation
+import com.yahoo.bard.webservice.druid.model.postaggregation.FieldAccessorPostAggregation
+import com.yahoo.bard.webservice.druid.model.query.GroupByQuery
+import com.yahoo.bard.webservice.druid.model.query.TimeSeriesQuery
+import com.yahoo.bard.webservice.druid.model.query.TopNQuery
+import com.yahoo.bard.webservice.metadata.DataSourceMetadataService
+import com.yahoo.bard.webservice.table.TableTestUtils
+
+import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
+import org.joda.time.Interval
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.regex.Pattern
+
+class LocalQueryEngineSpec extends Specification {
+
+    static final Interval DAY_ONE = new Interval(
+            new DateTime("2015-09-12T00:00:00.000Z", DateTimeZone.UTC),
+            new DateTime("2015-09-13T00:00:00.000Z", DateTimeZone.UTC)
+    )
+
+    LocalQueryEngine engine = new LocalQueryEngine()
+    ColumnarTable table
+    TableDataSource dataSource
+    Dimension page
+    Dimension country
+    Dimension absent
+    Aggregation added = new LongSumAggregation("added", "added")
+    Aggregation delta = new DoubleSumAggregation("delta", "delta")
+
+    def setup() {
+        page = Mock(Dimension) { getApiName() >> "page" }
+        country = Mock(Dimension) { getApiName() >> "country" }
+        absent = Mock(Dimension) { getApiName() >> "absent" }
+
+        // the api name "country" is stored under the physical name "country_code"
+        dataSource = new TableDataSource(TableTestUtils.buildTable(
+                "wikiticker",
+                DAY.buildZonedTimeGrain(DateTimeZone.UTC),
+                [] as Set,
+                ["country": "country_code"],
+                Mock(DataSourceMetadataService) { getAvailableIntervalsByDataSource(_ as DataSourceName) >> [:] }
+        ))
+
+        table = new ColumnarTable.Builder("wikiticker")
+                .addRow(time("2015-09-13T00:00"), [page: "A", country_code: "US"], [added: 100L, delta: 1.0d])
+                .addRow(time("2015-09-12T01:30"), [page: "C"], [added: 1L, delta: 4.0d])
+                .addRow(time("2015-09-12T00:10"), [page: "A", country_code: "US"], [added: 10L, delta: 1.5d])
+                .addRow(time("2015-09-12T01:05"), [page: "A", country_code: "CA"], [added: 7L, delta: 0.5d])
+                .addRow(time("2015-09-12T00:20"), [page: "B", country_code: "US"], [added: 5L, delta: -2.0d])
+                .build()
+    }
+
+    static DateTime time(String instant) {
+        new DateTime(instant, DateTimeZone.UTC)
+    }
+
+    static SelectorFilter eq(Dimension dimension, String value) {
+        new SelectorFilter(dimension, value)
+    }
+
+    GroupByQuery groupBy(Map vars) {
+        new GroupByQuery(
+                dataSource,
+                vars.granularity ?: AllGranularity.INSTANCE,
+                vars.dimensions ?: [page],
+                vars.filter,
+                vars.having,
+                vars.aggregations ?: [added],
+                vars.postAggregations ?: [],
+                [DAY_ONE],
+                vars.limitSpec
+        )
+    }
+
+    def "Group by buckets rows by time and dimension values keyed by api name"() {
+        when:
+        def response = engine.execute(groupBy(granularity: HOUR, dimensions: [page, country]), table)
+
+        then:
+        response*.timestamp*.asText() == [
+                "2015-09-12T00:00:00.000Z",
+                "2015-09-12T00:00:00.000Z",
+                "2015-09-12T01:00:00.000Z",
+                "2015-09-12T01:00:00.000Z"
+        ]
+        response*.event.collect { [it.page.asText(), it.country.isNull() ? null : it.country.asText(), it.added.asLong()] } == [
+                ["A", "US", 10],
+                ["B", "US", 5],
+                ["A", "CA", 7],
+                ["C", null, 1]
+        ]
+        response.every { it.version.asText() == "v1" }
+    }
+
+    def "All granularity reports a single bucket at the start of the query"() {
+        when:
+        def response = engine.execute(groupBy(aggregations: [added, delta, new CountAggregation("count")]), table)
+
+        then:
+        response*.timestamp*.asText().unique() == ["2015-09-12T00:00:00.000Z"]
+        response*.event.collect { [it.page.asText(), it.added.asLong(), it.delta.asDouble(), it.count.asLong()] } == [
+                ["A", 17, 2.0d, 2],
+                ["B", 5, -2.0d, 1],
+                ["C", 1, 4.0d, 1]
+        ]
+    }
+
+    @Unroll
+    def "#filterName filter selects pages #expected"() {
+        when:
+        def response = engine.execute(groupBy(filter: filter([page: page, country: country, absent: absent])), table)
+
+        then:
+        response*.event*.page*.asText() == expected
+
+        where:
+        filterName      | filter                                                                       | expected
+        "selector"      | { d -> new SelectorFilter(d.country, "US") }                                 | ["A", "B"]
+        "null selector" | { d -> new SelectorFilter(d.country, "") }                                   | ["C"]
+        "in"            | { d -> new InFilter(d.page, ["B", "C", "Z"]) }                               | ["B", "C"]
+        "not"           | { d -> new NotFilter(new SelectorFilter(d.page, "A")) }                      | ["B", "C"]
+        "and"           | { d -> new AndFilter([eq(d.country, "US"), eq(d.page, "B")]) }               | ["B"]
+        "or"            | { d -> new OrFilter([eq(d.country, "CA"), eq(d.page, "C")]) }                | ["A", "C"]
+        "bound"         | { d -> new BoundFilter(d.page, "B", "C", true, false, Ordering.LEXICOGRAPHIC) } | ["C"]
+        "regex"         | { d -> new RegularExpressionFilter(d.page, Pattern.compile("^[BC]")) }       | ["B", "C"]
+        "search"        | { d -> new SearchFilter(d.country, InsensitiveContains, "c") }               | ["A"]
+        "missing"       | { d -> new SelectorFilter(d.absent, "x") }                                   | []
+    }
+
+    def "Numeric bounds compare values as numbers and never match non numbers"() {
+        given:
+        ColumnarTable numbers = new ColumnarTable.Builder("wikiticker")
+                .addRow(time("2015-09-12T00:00"), [page: "9"], [added: 1L])
+                .addRow(time("2015-09-12T00:00"), [page: "10"], [added: 1L])
+                .addRow(time("2015-09-12T00:00"), [page: "x"], [added: 1L])
+                .build()
+
+        when:
+        def response = engine.execute(
+                groupBy(filter: new BoundFilter(page, "5", null, false, false, Ordering.NUMERIC)),
+                numbers
+        )
+
+        then:
+        response*.event*.page*.asText() == ["10", "9"]
+    }
+
+    def "Post aggregations, havings and limit specs are applied to group by results"() {
+        given:
+        def ratio = new ArithmeticPostAggregation(
+                "ratio",
+                DIVIDE,
+                [new FieldAccessorPostAggregation(delta), new FieldAccessorPostAggregation(added)]
+        )
+        def limitSpec = new LimitSpec(
+                [new OrderByColumn("ratio", SortDirection.DESC)] as LinkedHashSet,
+                OptionalInt.of(2)
+        )
+
+        when:
+        def response = engine.execute(
+                groupBy(
+                        aggregations: [added, delta],
+                        postAggregations: [ratio],
+                        having: new NumericHaving(Having.DefaultHavingType.GREATER_THAN, "added", 1),
+                        limitSpec: limitSpec
+                ),
+                table
+        )
+
+        then: "C is dropped by the having and the rest are ordered by ratio"
+        response*.event*.page*.asText() == ["A", "B"]
+        response[0].event.ratio.asDouble() == 2.0d / 17
+        response[1].event.ratio.asDouble() == -2.0d / 5
+    }
+
+    def "Division by zero in a post aggregation is zero"() {
+        given:
+        def ratio = new ArithmeticPostAggregation(
+                "ratio",
+                DIVIDE,
+                [new FieldAccessorPostAggregation(added), new FieldAccessorPostAggregation(delta)]
+        )
+        ColumnarTable zeroes = new ColumnarTable.Builder("wikiticker")
+                .addRow(time("2015-09-12T00:00"), [page: "A"], [added: 3L, delta: 0.0d])
+                .build()
+
+        expect:
+        engine.execute(groupBy(aggregations: [added, delta], postAggregations: [ratio]), zeroes)[0].event.ratio
+                .asDouble() == 0
+    }
+
+    def "Filtered aggregations only aggregate matching rows"() {
+        given:
+        def usAdded = new FilteredAggregation(
+                "usAdded",
+                new LongSumAggregation("usAdded", "added"),
+                new SelectorFilter(country, "US")
+        )
+
+        when:
+        def response = engine.execute(groupBy(aggregations: [added, usAdded]), table)
+
+        then:
+        response*.event.collect { [it.page.asText(), it.added.asLong(), it.usAdded.asLong()] } == [
+                ["A", 17, 10],
+                ["B", 5, 5],
+                ["C", 1, 0]
+        ]
+    }
+
+    @Unroll
+    def "TopN ranks each time bucket by #metric"() {
+        given:
+        def query = new TopNQuery(dataSource, HOUR, page, null, [added], [], [DAY_ONE], 1, metric)
+
+        when:
+        def response = engine.execute(query, table)
+
+        then:
+        response*.timestamp*.asText() == ["2015-09-12T00:00:00.000Z", "2015-09-12T01:00:00.000Z"]
+        response*.result.collect { it*.page*.asText() } == expected
+
+        where:
+        metric                                                                  | expected
+        new TopNMetric("added")                                                 | [["A"], ["A"]]
+        new TopNMetric("added", SortDirection.ASC)                              | [["B"], ["C"]]
+    }
+
+    def "TopN with all granularity applies the threshold to the whole interval"() {
+        given:
+        def query = new TopNQuery(
+                dataSource,
+                AllGranularity.INSTANCE,
+                page,
+                null,
+                [added, new LongMinAggregation("minAdded", "added")],
+                [],
+                [DAY_ONE],
+                2,
+                new TopNMetric("added")
+        )
+
+        when:
+        def response = engine.execute(query, table)
+
+        then:
+        response.size() == 1
+        response[0].result.collect { [it.page.asText(), it.added.asLong(), it.minAdded.asLong()] } == [
+                ["A", 17, 7],
+                ["B", 5, 5]
+        ]
+    }
+
+    def "Timeseries aggregates every row of a bucket"() {
+        given:
+        def query = new TimeSeriesQuery(
+                dataSource,
+                HOUR,
+                null,
+                [added, new DoubleMaxAggregation("maxDelta", "delta")],
+                [],
+                [DAY_ONE]
+        )
+
+        when:
+        def response = engine.execute(query, table)
+
+        then:
+        response*.timestamp*.asText() == ["2015-09-12T00:00:00.000Z", "2015-09-12T01:00:00.000Z"]
+        response*.result*.added*.asLong() == [15, 8]
+        response*.result*.maxDelta*.asDouble() == [1.5d, 4.0d]
+    }
+
+    def "Queries using features the engine can't evaluate are rejected"() {
+        when:
+        engine.execute(groupBy(aggregations: [new ThetaSketchAggregation("users", "users", 16384)]), table)
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+}
@@ -0,0 +1,88 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.model.filter
+
+import com.yahoo.bard.webservice.data.dimension.Dimension
+import com.yahoo.bard.webservice.druid.model.datasource.TableDataSource
+import com.yahoo.bard.webservice.druid.model.dimension.extractionfunction.RegisteredLookupExtractionFunction
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery
+import com.yahoo.bard.webservice.table.ConstrainedTable
+
+import com.fasterxml.jackson.databind.ObjectMapper
+
+import spock.lang.Specification
+
+/**
+ * Test in filter values and serialization.
+ */
+class InFilterSpec extends Specification {
+
+    ObjectMapper objectMapper = new ObjectMapper()
+    Dimension dimension = Mock(Dimension)
+    DruidAggregationQuery druidQuery = Mock(DruidAggregationQuery)
+
+    def setup() {
+        TableDataSource dataSource = Mock(TableDataSource)
+        ConstrainedTable physicalTable = Mock(ConstrainedTable)
+        dataSource.getPhysicalTable() >> physicalTable
+        dataSource.getQuery() >> Optional.empty()
+        physicalTable.getPhysicalColumnName(_) >> "foo"
+        druidQuery.getDataSource() >> dataSource
+    }
+
+    def "Values are sorted and deduplicated"() {
+        when:
+        InFilter filter = new InFilter(dimension, ["c", "a", "b", "a", "c"])
+
+        then:
+        filter.getValues() as List == ["a", "b", "c"]
+        filter == new InFilter(dimension, ["a", "b", "c"])
+        filter.hashCode() == new InFilter(dimension, ["b", "c", "a"]).hashCode()
+        filter != new InFilter(dimension, ["a", "b"])
+    }
+
+    def "Serialization writes the sorted values"() {
+        given:
+        druidQuery.getFilter() >> new InFilter(dimension, ["b", "a", "b"])
+
+        when:
+        String serializedFilter = objectMapper.writeValueAsString(druidQuery)
+
+        then:
+        objectMapper.readTree(serializedFilter).get("filter") == objectMapper.readTree(
+                """{ "type": "in", "dimension": "foo", "values": ["a", "b"] }"""
+        )
+    }
+
+    def "Serialization writes an explicit extraction function, which is kept when the dimension changes"() {
+        given:
+        InFilter filter = new InFilter(
+                dimension,
+                ["b"],
+                new RegisteredLookupExtractionFunction("lookup", false, "none", false, false)
+        )
+        druidQuery.getFilter() >> filter.withDimension(Mock(Dimension))
+
+        when:
+        String serializedFilter = objectMapper.writeValueAsString(druidQuery)
+
+        then:
+        objectMapper.readTree(serializedFilter).get("filter") == objectMapper.readTree(
+                """
+                    {
+                        "type": "in",
+                        "dimension": "foo",
+                        "values": ["b"],
+                        "extractionFn": {
+                            "type": "registeredLookup",
+                            "lookup": "lookup",
+                            "retainMissingValue": false,
+                            "replaceMissingValueWith": "none",
+                            "injective": false,
+                            "optimize": false
+                        }
+                    }
+                """
+        )
+    }
+}
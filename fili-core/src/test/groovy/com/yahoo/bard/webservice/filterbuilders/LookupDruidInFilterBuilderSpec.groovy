@@ -0,0 +1,94 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.filterbuilders
+
+import com.yahoo.bard.webservice.data.QueryBuildingTestingResources
+import com.yahoo.bard.webservice.data.dimension.DimensionRowNotFoundException
+import com.yahoo.bard.webservice.druid.model.builders.LookupDruidInFilterBuilder
+import com.yahoo.bard.webservice.druid.model.dimension.extractionfunction.RegisteredLookupExtractionFunction
+import com.yahoo.bard.webservice.druid.model.filter.AndFilter
+import com.yahoo.bard.webservice.druid.model.filter.Filter
+import com.yahoo.bard.webservice.druid.model.filter.InFilter
+import com.yahoo.bard.webservice.druid.model.filter.NotFilter
+import com.yahoo.bard.webservice.web.ApiFilter
+import com.yahoo.bard.webservice.web.apirequest.binders.FilterBinders
+
+import spock.lang.Shared
+import spock.lang.Specification
+
+class LookupDruidInFilterBuilderSpec extends Specification {
+
+    @Shared QueryBuildingTestingResources resources
+
+    Map<String, Map<String, String>> lookups = [ageBracket: [desc: "age_to_desc"]]
+    FilterBinders filterBinders = FilterBinders.instance
+
+    def setupSpec() {
+        resources = new QueryBuildingTestingResources()
+    }
+
+    Set<ApiFilter> apiFilters(String... filters) {
+        return filters.collect { filterBinders.generateApiFilter(it, resources.dimensionDictionary) } as Set
+    }
+
+    def "Filters matching more rows than the threshold are sent through the registered lookup"() {
+        given:
+        LookupDruidInFilterBuilder filterBuilder = new LookupDruidInFilterBuilder(lookups, 1)
+
+        expect:
+        filterBuilder.buildFilters([(resources.d3): apiFilters("ageBracket|desc-in[11-14,14-29]")]) == new InFilter(
+                resources.d3,
+                ["11-14", "14-29"],
+                new RegisteredLookupExtractionFunction("age_to_desc")
+        )
+    }
+
+    def "Filters matching no more rows than the threshold are resolved into key values"() {
+        given:
+        LookupDruidInFilterBuilder filterBuilder = new LookupDruidInFilterBuilder(lookups, 2)
+
+        expect:
+        filterBuilder.buildFilters([(resources.d3): apiFilters("ageBracket|desc-in[11-14,14-29]")]) ==
+                new InFilter(resources.d3, ["2", "3"])
+    }
+
+    def "Filters on fields without a registered lookup are resolved into key values"() {
+        given:
+        LookupDruidInFilterBuilder filterBuilder = new LookupDruidInFilterBuilder(lookups, 1)
+
+        expect:
+        filterBuilder.buildFilters([(resources.d3): apiFilters("ageBracket|id-in[2,3]")]) ==
+                new InFilter(resources.d3, ["2", "3"])
+        filterBuilder.buildFilters(
+                [(resources.d3): apiFilters("ageBracket|desc-in[11-14,14-29]", "ageBracket|id-in[2,3]")]
+        ) == new InFilter(resources.d3, ["2", "3"])
+    }
+
+    def "Negative filters are still resolved into key values next to the lookup filters"() {
+        given:
+        LookupDruidInFilterBuilder filterBuilder = new LookupDruidInFilterBuilder(lookups, 1)
+
+        when:
+        Filter filter = filterBuilder.buildFilters(
+                [(resources.d3): apiFilters("ageBracket|desc-in[11-14,14-29]", "ageBracket|id-notin[3]")]
+        )
+
+        then:
+        filter instanceof AndFilter
+        (filter as AndFilter).fields as Set == [
+                new InFilter(resources.d3, ["11-14", "14-29"], new RegisteredLookupExtractionFunction("age_to_desc")),
+                new NotFilter(new InFilter(resources.d3, ["3"]))
+        ] as Set
+    }
+
+    def "Filters matching no rows are rejected"() {
+        given:
+        LookupDruidInFilterBuilder filterBuilder = new LookupDruidInFilterBuilder(lookups, 1)
+
+        when:
+        filterBuilder.buildFilters([(resources.d3): apiFilters("ageBracket|desc-in[not-an-age]")])
+
+        then:
+        thrown(DimensionRowNotFoundException)
+    }
+}
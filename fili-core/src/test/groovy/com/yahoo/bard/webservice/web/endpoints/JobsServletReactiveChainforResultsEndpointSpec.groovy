@@ -8,6 +8,7 @@ import com.yahoo.bard.webservice.async.broadcastchannels.SimpleBroadcastChannel
 import com.yahoo.bard.webservice.async.jobs.payloads.JobPayloadBuilder
 import com.yahoo.bard.webservice.async.jobs.stores.ApiJobStore
 import com.yahoo.bard.webservice.async.preresponses.stores.HashPreResponseStore
+import com.yahoo.bard.webservice.async.preresponses.stores.PagedPreResponseStore
 import com.yahoo.bard.webservice.async.preresponses.stores.PreResponseStore
 import com.yahoo.bard.webservice.async.preresponses.stores.PreResponseTestingUtils
 import com.yahoo.bard.webservice.data.HttpResponseMaker
@@ -19,6 +20,7 @@ import com.yahoo.bard.webservice.web.RequestMapper
 import com.yahoo.bard.webservice.web.ResponseFormatResolver
 import com.yahoo.bard.webservice.web.ResponseWriter
 import com.yahoo.bard.webservice.web.apirequest.JobsApiRequestImpl
+import com.yahoo.bard.webservice.web.util.PaginationParameters
 
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.databind.ObjectWriter
@@ -309,4 +311,41 @@ class JobsServletReactiveChainforResultsEndpointSpec extends Specification {
         then: "then we go to the PreResponseStore twice to get the ticket"
         2 * mockPreResponseStore.get(_) >> Observable.empty()
     }
+
+    def "A paginated request reads only its page from a PagedPreResponseStore"() {
+        setup:
+        PagedPreResponseStore pagedPreResponseStore = Mock(PagedPreResponseStore)
+        JobsServlet pagedJobsServlet = new JobsServlet(
+                objectMappersSuite,
+                apiJobStore,
+                jobPayloadBuilder,
+                pagedPreResponseStore,
+                broadcastChannel,
+                requestMapper,
+                httpResponseMaker,
+                formatResolver,
+                new FiliJobsExceptionHandler(objectMappersSuite)
+        )
+        JobsApiRequestImpl apiRequest = new JobsApiRequestImpl(
+                null,
+                "0",
+                "2",
+                "3",
+                null,
+                uriInfo,
+                jobPayloadBuilder,
+                apiJobStore
+        )
+
+        when:
+        pagedJobsServlet.getResults(
+                "ticket5",
+                apiRequest.asyncAfter,
+                pagedJobsServlet.getStorePagination(apiRequest)
+        ).subscribe()
+
+        then:
+        1 * pagedPreResponseStore.getPage("ticket5", new PaginationParameters(2, 3)) >> Observable.empty()
+        0 * pagedPreResponseStore.get(_)
+    }
 }
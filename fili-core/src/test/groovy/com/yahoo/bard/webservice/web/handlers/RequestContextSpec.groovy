@@ -2,9 +2,14 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.web.handlers
 
+import com.yahoo.bard.webservice.druid.model.query.DruidQuery
+
 import spock.lang.Specification
 import spock.lang.Unroll
 
+import java.util.concurrent.Future
+import java.util.function.Function
+
 import javax.ws.rs.container.ContainerRequestContext
 import javax.ws.rs.core.MultivaluedHashMap
 
@@ -41,4 +46,54 @@ class RequestContextSpec extends Specification {
         "bard-testing" | "###BYPASS###"
         "clientid"     | "UI"
     }
+
+    def "A Druid query is serialized once for the request and its forks, until it is answered"() {
+        setup:
+        RequestContext context = new RequestContext(null, true)
+        DruidQuery query = Mock(DruidQuery)
+        int serializations = 0
+        Function<DruidQuery<?>, byte[]> serializer = { serializations++; return [1, 2, 3] as byte[] }
+
+        when:
+        byte[] first = context.getSerializedDruidQuery(query, serializer)
+        byte[] again = context.fork().getSerializedDruidQuery(query, serializer)
+
+        then:
+        serializations == 1
+        again.is(first)
+
+        when:
+        context.removeSerializedDruidQuery(query)
+        context.getSerializedDruidQuery(query, serializer)
+
+        then:
+        serializations == 2
+    }
+
+    def "Cancelling a request cancels its Druid queries in flight, those of its forks, and those sent afterwards"() {
+        setup:
+        RequestContext context = new RequestContext(null, true)
+        RequestContext fork = context.fork()
+        Future<?> query = Mock(Future)
+        Future<?> hedge = Mock(Future)
+        Future<?> late = Mock(Future)
+        context.addDruidQueryInFlight("query", query)
+        fork.addDruidQueryInFlight("query", hedge)
+
+        when:
+        int cancelled = context.cancelDruidQueries()
+
+        then:
+        1 * query.cancel(true) >> true
+        1 * hedge.cancel(true) >> true
+        cancelled == 2
+        context.isCancelled()
+        fork.isCancelled()
+
+        when:
+        context.fork().addDruidQueryInFlight("retry", late)
+
+        then:
+        1 * late.cancel(true)
+    }
 }
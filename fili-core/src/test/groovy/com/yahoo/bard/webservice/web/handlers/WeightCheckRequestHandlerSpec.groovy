@@ -14,10 +14,15 @@ import com.yahoo.bard.webservice.druid.model.query.GroupByQuery
 import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery
 import com.yahoo.bard.webservice.logging.blocks.BardQueryInfo
 import com.yahoo.bard.webservice.logging.blocks.BardQueryInfoUtils
+import com.yahoo.bard.webservice.table.LogicalTable
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest
+import com.yahoo.bard.webservice.web.responseprocessors.LoggingContext
 import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessor
+import com.yahoo.bard.webservice.web.responseprocessors.SpeculativeResponseProcessor
 import com.yahoo.bard.webservice.web.responseprocessors.WeightCheckResponseProcessor
+import com.yahoo.bard.webservice.web.responseprocessors.WeightRecordingResponseProcessor
 import com.yahoo.bard.webservice.web.util.QueryWeightUtil
+import com.yahoo.bard.webservice.web.util.WeightCheckPassRates
 
 import com.fasterxml.jackson.core.JsonFactory
 import com.fasterxml.jackson.core.JsonParser
@@ -28,6 +33,9 @@ import com.fasterxml.jackson.databind.ObjectWriter
 
 import spock.lang.Specification
 
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Future
+
 class WeightCheckRequestHandlerSpec extends Specification {
     private static final ObjectMapper MAPPER = new ObjectMappersSuite().getMapper()
 
@@ -97,6 +105,32 @@ class WeightCheckRequestHandlerSpec extends Specification {
         bardQueryInfo.queryCounter.get(BardQueryInfo.WEIGHT_CHECK).get() == 0
     }
 
+    def "Responses of requests skipping the weight check record the weight of their queries"() {
+        setup:
+        WeightCheckRequestHandler handler = new WeightCheckRequestHandler(
+                next,
+                webService,
+                queryWeightUtil,
+                mapper
+        )
+        JsonNode json = Mock(JsonNode)
+        ResponseProcessor recordingResponse = null
+        queryWeightUtil.skipWeightCheckQuery(groupByQuery) >> true
+        queryWeightUtil.isResponseWeightMeasurable(groupByQuery) >> true
+
+        when:
+        handler.handleRequest(context, request, groupByQuery, response)
+        recordingResponse.processResponse(json, groupByQuery, null)
+
+        then:
+        1 * next.handleRequest(context, request, groupByQuery, _ as WeightRecordingResponseProcessor) >> {
+            recordingResponse = it[3]
+            return true
+        }
+        1 * queryWeightUtil.recordResponseWeight(groupByQuery, json)
+        1 * response.processResponse(json, groupByQuery, null)
+    }
+
     def "Test handleRequest without building callback"() {
         setup:
         final SuccessCallback success = Mock(SuccessCallback)
@@ -212,6 +246,7 @@ class WeightCheckRequestHandlerSpec extends Specification {
         success.invoke(jsonResult)
 
         then:
+        1 * queryWeightUtil.recordQueryWeight(groupByQuery, expectedCount)
         1 * next.handleRequest(context, request, groupByQuery, response)
 
         and:
@@ -295,4 +330,143 @@ class WeightCheckRequestHandlerSpec extends Specification {
         and:
         bardQueryInfo.queryCounter.get(BardQueryInfo.WEIGHT_CHECK).get() == 0
     }
+
+    def "Data queries on tables whose weight checks pass are sent along with the weight check"() {
+        setup:
+        WeightCheckPassRates passRates = new WeightCheckPassRates(0.9, 1)
+        passRates.record("table", true)
+        WeightCheckRequestHandler handler = new WeightCheckRequestHandler(
+                next,
+                webService,
+                queryWeightUtil,
+                MAPPER,
+                passRates
+        )
+        WeightEvaluationQuery weightQuery = Mock(WeightEvaluationQuery)
+        LogicalTable table = Mock(LogicalTable)
+        table.getName() >> "table"
+        request.getTable() >> table
+        groupByQuery.getGranularity() >> DAY
+        queryWeightUtil.skipWeightCheckQuery(groupByQuery) >> false
+        queryWeightUtil.makeWeightEvaluationQuery(groupByQuery) >> weightQuery
+        queryWeightUtil.getQueryWeightThreshold(DAY) >> 100
+        SuccessCallback success = null
+        SpeculativeResponseProcessor speculativeResponse = null
+        JsonNode json = Mock(JsonNode)
+        LoggingContext metadata = Mock(LoggingContext)
+
+        when:
+        handler.handleRequest(context, request, groupByQuery, response)
+
+        then:
+        1 * webService.postDruidQuery(context, _, _, _, weightQuery) >> {
+            success = it[1]
+            return null
+        }
+        1 * next.handleRequest(context, request, groupByQuery, _ as SpeculativeResponseProcessor) >> {
+            speculativeResponse = it[3]
+            return true
+        }
+
+        when:
+        speculativeResponse.processResponse(json, groupByQuery, metadata)
+
+        then:
+        0 * response.processResponse(_, _, _)
+
+        when:
+        success.invoke(MAPPER.readTree("""[ { "event" : { "count" : 60 } } ]"""))
+
+        then:
+        1 * response.processResponse(json, groupByQuery, metadata)
+        0 * context.cancelDruidQueries()
+        passRates.getPassRate("table") == 1
+    }
+
+    def "Speculatively sent data queries are cancelled when the weight check fails"() {
+        setup:
+        WeightCheckPassRates passRates = new WeightCheckPassRates(0.9, 1)
+        passRates.record("table", true)
+        WeightCheckRequestHandler handler = new WeightCheckRequestHandler(
+                next,
+                webService,
+                queryWeightUtil,
+                MAPPER,
+                passRates
+        )
+        WeightEvaluationQuery weightQuery = Mock(WeightEvaluationQuery)
+        LogicalTable table = Mock(LogicalTable)
+        table.getName() >> "table"
+        request.getTable() >> table
+        groupByQuery.getGranularity() >> DAY
+        queryWeightUtil.skipWeightCheckQuery(groupByQuery) >> false
+        queryWeightUtil.makeWeightEvaluationQuery(groupByQuery) >> weightQuery
+        queryWeightUtil.getQueryWeightThreshold(DAY) >> 100
+        SuccessCallback success = null
+        SpeculativeResponseProcessor speculativeResponse = null
+        HttpErrorCallback ec = Mock(HttpErrorCallback)
+
+        when:
+        handler.handleRequest(context, request, groupByQuery, response)
+
+        then:
+        1 * webService.postDruidQuery(context, _, _, _, weightQuery) >> {
+            success = it[1]
+            return null
+        }
+        1 * next.handleRequest(context, request, groupByQuery, _ as SpeculativeResponseProcessor) >> {
+            speculativeResponse = it[3]
+            return true
+        }
+
+        when:
+        success.invoke(MAPPER.readTree("""[ { "event" : { "count" : 200 } } ]"""))
+        speculativeResponse.processResponse(Mock(JsonNode), groupByQuery, Mock(LoggingContext))
+
+        then:
+        1 * context.cancelDruidQueries()
+        1 * response.getErrorCallback(groupByQuery) >> ec
+        1 * ec.invoke(507, _, _)
+        0 * response.processResponse(_, _, _)
+        !passRates.shouldSpeculate("table")
+    }
+
+    def "A data query sent after the weight check already failed is cancelled when it is sent"() {
+        setup:
+        WeightCheckPassRates passRates = new WeightCheckPassRates(0.9, 1)
+        passRates.record("table", true)
+        WeightCheckRequestHandler handler = new WeightCheckRequestHandler(
+                next,
+                webService,
+                queryWeightUtil,
+                MAPPER,
+                passRates
+        )
+        RequestContext requestContext = new RequestContext(null, false)
+        WeightEvaluationQuery weightQuery = Mock(WeightEvaluationQuery)
+        LogicalTable table = Mock(LogicalTable)
+        table.getName() >> "table"
+        request.getTable() >> table
+        groupByQuery.getGranularity() >> DAY
+        queryWeightUtil.skipWeightCheckQuery(groupByQuery) >> false
+        queryWeightUtil.makeWeightEvaluationQuery(groupByQuery) >> weightQuery
+        queryWeightUtil.getQueryWeightThreshold(DAY) >> 100
+        response.getErrorCallback(groupByQuery) >> Mock(HttpErrorCallback)
+        Future<?> dataQuery = new CompletableFuture<>()
+
+        when: "the weight check fails before the data query is sent"
+        handler.handleRequest(requestContext, request, groupByQuery, response)
+
+        then:
+        1 * webService.postDruidQuery(requestContext, _, _, _, weightQuery) >> {
+            it[1].invoke(MAPPER.readTree("""[ { "event" : { "count" : 200 } } ]"""))
+            return null
+        }
+        1 * next.handleRequest(requestContext, request, groupByQuery, _) >> {
+            requestContext.addDruidQueryInFlight("data", dataQuery)
+            return true
+        }
+        requestContext.isCancelled()
+        dataQuery.isCancelled()
+    }
 }
@@ -0,0 +1,110 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.responseprocessors
+
+import static com.yahoo.bard.webservice.druid.client.impl.AsyncDruidWebServiceImpl.DRUID_WEIGHTED_QUERY_TIMER
+
+import com.yahoo.bard.webservice.druid.client.FailureCallback
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback
+import com.yahoo.bard.webservice.druid.model.query.GroupByQuery
+import com.yahoo.bard.webservice.logging.RequestLog
+
+import com.fasterxml.jackson.databind.JsonNode
+
+import spock.lang.Specification
+
+class SpeculativeResponseProcessorSpec extends Specification {
+
+    ResponseProcessor next = Mock(ResponseProcessor)
+    GroupByQuery groupByQuery = Mock(GroupByQuery)
+    JsonNode json = Mock(JsonNode)
+    LoggingContext metadata = Mock(LoggingContext)
+
+    SpeculativeResponseProcessor speculativeResponse = new SpeculativeResponseProcessor(next)
+
+    def "Responses are held back until the weight check passes"() {
+        when:
+        speculativeResponse.processResponse(json, groupByQuery, metadata)
+
+        then:
+        0 * next.processResponse(_, _, _)
+
+        when:
+        speculativeResponse.weightCheckPassed(RequestLog.copy())
+
+        then:
+        1 * next.processResponse(json, groupByQuery, metadata)
+
+        when:
+        speculativeResponse.processResponse(json, groupByQuery, metadata)
+
+        then:
+        1 * next.processResponse(json, groupByQuery, metadata)
+    }
+
+    def "Errors and failures are held back until the weight check passes"() {
+        given:
+        HttpErrorCallback ec = Mock(HttpErrorCallback)
+        FailureCallback fc = Mock(FailureCallback)
+        Throwable error = new RuntimeException()
+        next.getErrorCallback(groupByQuery) >> ec
+        next.getFailureCallback(groupByQuery) >> fc
+
+        when:
+        speculativeResponse.getErrorCallback(groupByQuery).invoke(500, "reason", "body")
+        speculativeResponse.getFailureCallback(groupByQuery).invoke(error)
+
+        then:
+        0 * ec.invoke(_, _, _)
+        0 * fc.invoke(_)
+
+        when:
+        speculativeResponse.weightCheckPassed(RequestLog.copy())
+
+        then:
+        1 * ec.invoke(500, "reason", "body")
+        1 * fc.invoke(error)
+    }
+
+    def "Responses are dropped once the weight check fails"() {
+        when:
+        speculativeResponse.processResponse(json, groupByQuery, metadata)
+
+        then:
+        !speculativeResponse.isWeightCheckFailed()
+
+        when:
+        boolean wasPending = speculativeResponse.weightCheckFailed()
+        speculativeResponse.processResponse(json, groupByQuery, metadata)
+        speculativeResponse.weightCheckPassed(RequestLog.copy())
+
+        then:
+        wasPending
+        speculativeResponse.isWeightCheckFailed()
+        !speculativeResponse.weightCheckFailed()
+        0 * next.processResponse(_, _, _)
+    }
+
+    def "The timings of the weight check are accumulated into the request log of the responses passed on"() {
+        given: "a data query sent with the request log from before the weight check query was timed"
+        RequestLog.startTiming("DataRequest")
+        RequestLog dataQueryLog = RequestLog.copy()
+        RequestLog.startTiming(DRUID_WEIGHTED_QUERY_TIMER + "1")
+        RequestLog.stopTiming(DRUID_WEIGHTED_QUERY_TIMER + "1")
+        RequestLog weightCheckLog = RequestLog.dump()
+        RequestLog.restore(dataQueryLog)
+        speculativeResponse.processResponse(json, groupByQuery, metadata)
+        RequestLog.dump()
+        Map<String, Long> durations = null
+
+        when:
+        speculativeResponse.weightCheckPassed(weightCheckLog)
+
+        then:
+        1 * next.processResponse(json, groupByQuery, metadata) >> { durations = RequestLog.getDurations() }
+        durations.containsKey(DRUID_WEIGHTED_QUERY_TIMER + "1")
+
+        cleanup:
+        RequestLog.dump()
+    }
+}
@@ -0,0 +1,90 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.util
+
+import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.DAY
+
+import com.yahoo.bard.webservice.data.dimension.Dimension
+import com.yahoo.bard.webservice.druid.model.datasource.DataSource
+import com.yahoo.bard.webservice.druid.model.filter.AndFilter
+import com.yahoo.bard.webservice.druid.model.filter.InFilter
+import com.yahoo.bard.webservice.druid.model.filter.NotFilter
+import com.yahoo.bard.webservice.druid.model.query.GroupByQuery
+
+import org.joda.time.Interval
+
+import spock.lang.Specification
+
+class QueryWeightEstimatorSpec extends Specification {
+
+    QueryWeightEstimator estimator = new QueryWeightEstimator(0.9, 10)
+
+    Dimension dimension = Mock(Dimension) { getApiName() >> "dimension" }
+    Dimension other = Mock(Dimension) { getApiName() >> "other" }
+
+    GroupByQuery query(int days, List<Dimension> dimensions = [dimension]) {
+        DataSource dataSource = Mock(DataSource) { getNames() >> (["table"] as Set) }
+        GroupByQuery query = Mock(GroupByQuery)
+        query.getInnermostQuery() >> query
+        query.getDataSource() >> dataSource
+        query.getGranularity() >> DAY
+        query.getDimensions() >> dimensions
+        query.getIntervals() >> [new Interval("2019-01-01/P${days}D".toString())]
+        return query
+    }
+
+    def "Weights are only estimated once enough queries of the same shape have been seen"() {
+        when:
+        9.times { estimator.recordWeight(query(10), 1000) }
+
+        then:
+        !estimator.estimateWeight(query(10)).isPresent()
+
+        when:
+        estimator.recordWeight(query(10), 1000)
+
+        then: "100 per day falls in the 64 to 127 bucket"
+        estimator.estimateWeight(query(10)).getAsLong() == 1270
+        estimator.estimateWeight(query(20)).getAsLong() == 2540
+        !estimator.estimateWeight(query(10, [dimension, other])).isPresent()
+    }
+
+    def "No weights are learned or estimated when the number of samples to see is 0"() {
+        given:
+        QueryWeightEstimator disabled = new QueryWeightEstimator(0.9, 0)
+
+        when:
+        100.times { disabled.recordWeight(query(10), 1000) }
+
+        then:
+        !disabled.estimateWeight(query(10)).isPresent()
+        disabled.histograms.isEmpty()
+    }
+
+    def "The estimate is a high quantile of the weights seen"() {
+        when:
+        9.times { estimator.recordWeight(query(1), 10) }
+        estimator.recordWeight(query(1), 1000)
+
+        then:
+        estimator.estimateWeight(query(1)).getAsLong() == 15
+
+        when:
+        estimator.recordWeight(query(1), 1000)
+
+        then:
+        estimator.estimateWeight(query(1)).getAsLong() == 1023
+    }
+
+    def "Filters have the same shape whatever their values, but not whatever their number of values"() {
+        expect:
+        estimator.getFilterShape(new InFilter(dimension, ["a", "b"])) ==
+                estimator.getFilterShape(new InFilter(dimension, ["c", "d"]))
+        estimator.getFilterShape(new InFilter(dimension, ["a", "b"])) !=
+                estimator.getFilterShape(new InFilter(dimension, ["a", "b", "c", "d"]))
+        estimator.getFilterShape(new AndFilter([new InFilter(dimension, ["a"]), new InFilter(other, ["b"])])) ==
+                estimator.getFilterShape(new AndFilter([new InFilter(other, ["c"]), new InFilter(dimension, ["d"])]))
+        estimator.getFilterShape(new NotFilter(new InFilter(dimension, ["a"]))) !=
+                estimator.getFilterShape(new InFilter(dimension, ["a"]))
+    }
+}
@@ -0,0 +1,56 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.util
+
+import spock.lang.Specification
+
+class WeightCheckPassRatesSpec extends Specification {
+
+    WeightCheckPassRates passRates = new WeightCheckPassRates(0.85, 10)
+
+    def "Tables are not speculated on before enough weight checks are seen"() {
+        when:
+        9.times { passRates.record("table", true) }
+
+        then:
+        passRates.getPassRate("table") == 1
+        !passRates.shouldSpeculate("table")
+
+        when:
+        passRates.record("table", true)
+
+        then:
+        passRates.shouldSpeculate("table")
+        !passRates.shouldSpeculate("other")
+        passRates.getPassRate("other") == 0
+    }
+
+    def "Tables stop being speculated on once their weight checks start failing"() {
+        given:
+        20.times { passRates.record("table", true) }
+
+        when:
+        passRates.record("table", false)
+
+        then:
+        Math.abs(passRates.getPassRate("table") - 0.9) < 1e-9
+        passRates.shouldSpeculate("table")
+
+        when:
+        passRates.record("table", false)
+
+        then:
+        !passRates.shouldSpeculate("table")
+    }
+
+    def "A pass rate above 1 disables speculation"() {
+        given:
+        WeightCheckPassRates disabled = new WeightCheckPassRates(1.1, 1)
+
+        when:
+        disabled.record("table", true)
+
+        then:
+        !disabled.shouldSpeculate("table")
+    }
+}
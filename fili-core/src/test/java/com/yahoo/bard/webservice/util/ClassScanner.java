@@ -192,6 +192,10 @@ public class ClassScanner {
 
         // Loop over constructor list until we succeed in creating object
         constructor: for (Constructor<T> constructor : constructors) {
+            // Accessors javac generates for private constructors of nested classes take an anonymous marker class
+            if (constructor.isSynthetic()) {
+                continue;
+            }
 
             // Loop over argument types to construct args
             Class<?>[] argClass = constructor.getParameterTypes();
@@ -3,21 +3,27 @@
 package com.yahoo.bard.webservice.sql;
 
 import static com.yahoo.bard.webservice.druid.model.DefaultQueryType.GROUP_BY;
+import static com.yahoo.bard.webservice.druid.model.DefaultQueryType.TOP_N;
 
 import com.yahoo.bard.webservice.data.dimension.Dimension;
+import com.yahoo.bard.webservice.data.time.AllGranularity;
 import com.yahoo.bard.webservice.druid.model.DefaultQueryType;
 import com.yahoo.bard.webservice.druid.model.QueryType;
 import com.yahoo.bard.webservice.druid.model.aggregation.Aggregation;
 import com.yahoo.bard.webservice.druid.model.having.Having;
 import com.yahoo.bard.webservice.druid.model.orderby.LimitSpec;
 import com.yahoo.bard.webservice.druid.model.orderby.SortDirection;
+import com.yahoo.bard.webservice.druid.model.orderby.TopNMetric;
+import com.yahoo.bard.webservice.druid.model.postaggregation.PostAggregation;
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
 import com.yahoo.bard.webservice.druid.model.query.DruidQuery;
 import com.yahoo.bard.webservice.druid.model.query.GroupByQuery;
+import com.yahoo.bard.webservice.druid.model.query.TopNQuery;
 import com.yahoo.bard.webservice.sql.aggregation.DruidSqlAggregationConverter;
 import com.yahoo.bard.webservice.sql.aggregation.SqlAggregation;
 import com.yahoo.bard.webservice.sql.evaluator.FilterEvaluator;
 import com.yahoo.bard.webservice.sql.evaluator.HavingEvaluator;
+import com.yahoo.bard.webservice.sql.evaluator.PostAggregationSqlEvaluator;
 import com.yahoo.bard.webservice.sql.helper.CalciteHelper;
 import com.yahoo.bard.webservice.sql.helper.SqlTimeConverter;
 import com.yahoo.bard.webservice.table.SqlPhysicalTable;
@@ -52,6 +58,7 @@ public class DruidQueryToSqlConverter {
     private final BiFunction<Aggregation, ApiToFieldMapper, Optional<SqlAggregation>> druidSqlAggregationConverter;
     private final HavingEvaluator havingEvaluator;
     private final FilterEvaluator filterEvaluator;
+    private final PostAggregationSqlEvaluator postAggregationSqlEvaluator;
     public static final int NO_OFFSET = -1;
     public static final int NO_LIMIT = -1;
 
@@ -70,6 +77,7 @@ public class DruidQueryToSqlConverter {
         this.druidSqlAggregationConverter = buildDruidSqlTypeConverter();
         this.havingEvaluator = new HavingEvaluator();
         this.filterEvaluator = new FilterEvaluator();
+        this.postAggregationSqlEvaluator = new PostAggregationSqlEvaluator();
     }
 
     /**
@@ -108,6 +116,7 @@ public class DruidQueryToSqlConverter {
             switch (defaultQueryType) {
                 case TIMESERIES:
                 case GROUP_BY:
+                case TOP_N:
                     return true;
             }
         }
@@ -170,6 +179,9 @@ public class DruidQueryToSqlConverter {
                         )),
                         getAllQueryAggregations(builder, druidQuery, apiToFieldMapper)
                 )
+                .project(
+                        getAllProjections(builder, druidQuery, apiToFieldMapper)
+                )
                 .filter(
                         getHavingFilter(builder, druidQuery, apiToFieldMapper)
                 )
@@ -182,7 +194,11 @@ public class DruidQueryToSqlConverter {
     }
 
     /**
-     * Gets the number of rows to limit results to for a Group by Query. Otherwise no limit is applied.
+     * Gets the number of rows to limit results to for a Group by Query, or for a TopN Query over a single time bucket.
+     * Otherwise no limit is applied.
+     * <p>
+     * A TopN Query with more than one time bucket needs the threshold applied per bucket, which can't be expressed
+     * with a {@code LIMIT}, so it is left to the {@link SqlResultSetProcessor}.
      *
      * @param druidQuery  The query to get the row limit from.
      *
@@ -195,6 +211,9 @@ public class DruidQueryToSqlConverter {
             if (limitSpec != null) {
                 return limitSpec.getLimit().orElse(NO_LIMIT);
             }
+        } else if (druidQuery.getQueryType().equals(TOP_N)
+                && AllGranularity.INSTANCE.equals(druidQuery.getGranularity())) {
+            return (int) Math.min(((TopNQuery) druidQuery).getThreshold(), Integer.MAX_VALUE);
         }
         return NO_LIMIT;
     }
@@ -240,6 +259,10 @@ public class DruidQueryToSqlConverter {
                         })
                         .forEach(limitSpecSorts::add);
             }
+        } else if (druidQuery.getQueryType().equals(TOP_N)) {
+            TopNQuery topNQuery = (TopNQuery) druidQuery;
+            getTopNSort(builder, topNQuery.getMetric(), topNQuery, apiToFieldMapper, false)
+                    .ifPresent(limitSpecSorts::add);
         }
 
         // add time group by
@@ -265,6 +288,43 @@ public class DruidQueryToSqlConverter {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Finds the sort matching a {@link TopNMetric}. Numeric metrics sort on the metric descending, while the
+     * lexicographic and alphanumeric metrics sort on the dimension ascending. Inverted metrics flip the ordering of
+     * their nested metric.
+     *
+     * @param builder  The RelBuilder created with Calcite.
+     * @param topNMetric  The metric describing the ordering of the TopN query.
+     * @param topNQuery  The TopN query being converted.
+     * @param apiToFieldMapper  The mapping from api to physical names.
+     * @param inverted  Whether or not the natural ordering of the metric should be reversed.
+     *
+     * @return the sort to apply, or empty if the metric can't be translated.
+     */
+    private Optional<RexNode> getTopNSort(
+            RelBuilder builder,
+            TopNMetric topNMetric,
+            TopNQuery topNQuery,
+            ApiToFieldMapper apiToFieldMapper,
+            boolean inverted
+    ) {
+        Object metric = topNMetric.getMetric();
+        switch (topNMetric.getType()) {
+            case NUMERIC:
+                RexNode numericSort = builder.field(apiToFieldMapper.apply((String) metric));
+                return Optional.of(inverted ? numericSort : builder.desc(numericSort));
+            case LEXICOGRAPHIC:
+            case ALPHA_NUMERIC:
+                RexNode dimensionSort = builder.field(apiToFieldMapper.apply(topNQuery.getDimension().getApiName()));
+                return Optional.of(inverted ? builder.desc(dimensionSort) : dimensionSort);
+            case INVERTED:
+                return metric instanceof TopNMetric
+                        ? getTopNSort(builder, (TopNMetric) metric, topNQuery, apiToFieldMapper, !inverted)
+                        : Optional.empty();
+        }
+        return Optional.empty();
+    }
+
     /**
      * Gets all the dimensions from a druid query as fields for calcite.
      *
@@ -346,6 +406,40 @@ public class DruidQueryToSqlConverter {
         return Collections.singletonList(filter);
     }
 
+    /**
+     * Builds the columns selected after aggregating, which are all the grouped and aggregated columns followed by
+     * the post aggregations computed by the database.
+     * <p>
+     * If any post aggregation can't be translated to sql then none are included, and they are all calculated in memory
+     * by the {@link SqlResultSetProcessor} instead.
+     *
+     * @param builder  The RelBuilder created with Calcite.
+     * @param druidQuery  The druid query to get the post aggregations of.
+     * @param apiToFieldMapper  The mapping from api to physical name.
+     *
+     * @return the list of columns to select.
+     */
+    protected List<RexNode> getAllProjections(
+            RelBuilder builder,
+            DruidAggregationQuery<?> druidQuery,
+            ApiToFieldMapper apiToFieldMapper
+    ) {
+        List<RexNode> projections = new ArrayList<>(builder.fields());
+        List<RexNode> postAggregations = new ArrayList<>();
+        try {
+            for (PostAggregation postAggregation : druidQuery.getPostAggregations()) {
+                postAggregations.add(
+                        postAggregationSqlEvaluator.evaluatePostAggregation(postAggregation, builder, apiToFieldMapper)
+                );
+            }
+        } catch (UnsupportedOperationException e) {
+            LOG.debug("Calculating post aggregations in memory, couldn't translate them to sql", e);
+            return projections;
+        }
+        projections.addAll(postAggregations);
+        return projections;
+    }
+
     /**
      * Find all druid aggregations and convert them to {@link org.apache.calcite.tools.RelBuilder.AggCall}.
      *
@@ -2,10 +2,12 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.sql;
 
+import com.yahoo.bard.webservice.druid.model.DefaultQueryType;
 import com.yahoo.bard.webservice.druid.model.aggregation.Aggregation;
 import com.yahoo.bard.webservice.druid.model.postaggregation.PostAggregation;
 import com.yahoo.bard.webservice.data.time.AllGranularity;
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.druid.model.query.TopNQuery;
 import com.yahoo.bard.webservice.sql.evaluator.PostAggregationEvaluator;
 import com.yahoo.bard.webservice.sql.helper.SqlTimeConverter;
 
@@ -82,10 +84,12 @@ public class SqlResultSetProcessor {
 
         try (TokenBuffer jsonWriter = new TokenBuffer(objectMapper, true)) {
 
+            long threshold = getThreshold(druidQuery);
+            DateTime currentBucket = null;
+            long rowsInBucket = 0;
+
             jsonWriter.writeStartArray();
             for (String[] row : sqlResults) {
-                jsonWriter.writeStartObject();
-
                 DateTime timestamp;
                 if (AllGranularity.INSTANCE.equals(druidQuery.getGranularity())) {
                     timestamp = druidQuery.getIntervals().get(0).getStart();
@@ -96,6 +100,17 @@ public class SqlResultSetProcessor {
                             druidQuery
                     );
                 }
+
+                // rows are sorted by time bucket so the threshold can be applied as each bucket is read
+                if (!timestamp.equals(currentBucket)) {
+                    currentBucket = timestamp;
+                    rowsInBucket = 0;
+                }
+                if (++rowsInBucket > threshold) {
+                    continue;
+                }
+
+                jsonWriter.writeStartObject();
                 // all druid results are returned in UTC timestamps
                 jsonWriter.writeStringField("timestamp", timestamp.toDateTime(DateTimeZone.UTC).toString());
 
@@ -130,13 +145,28 @@ public class SqlResultSetProcessor {
     ) throws IOException {
         int lastTimeIndex = sqlTimeConverter.timeGrainToDatePartFunctions(druidQuery.getGranularity()).size();
         int columnCount = columnToColumnName.size();
+        Map<String, PostAggregation> postAggregations = druidQuery.getPostAggregations()
+                .stream()
+                .collect(Collectors.toMap(PostAggregation::getName, Function.identity(), (first, second) -> first));
 
         for (int i = 0; i < columnCount; i++) {
             if (isTimeColumn(lastTimeIndex, i)) {
                 continue;
             }
             String columnName = columnToColumnName.get(i);
-            if (resultTypeMapper.containsKey(columnName)) {
+            if (postAggregations.containsKey(columnName)) {
+                // post aggregation which was computed by the database
+                if (row[i] != null) {
+                    Double postAggResult = Double.valueOf(row[i]);
+                    writeNumberField(
+                            jsonWriter,
+                            columnName,
+                            postAggregations.get(columnName).isFloatingPoint()
+                                    ? postAggResult
+                                    : (Number) postAggResult.longValue()
+                    );
+                }
+            } else if (resultTypeMapper.containsKey(columnName)) {
                 Number result = resultTypeMapper
                         .get(columnName)
                         .apply(row[i]);
@@ -149,6 +179,9 @@ public class SqlResultSetProcessor {
 
         PostAggregationEvaluator postAggregationEvaluator = new PostAggregationEvaluator();
         for (PostAggregation postAggregation : druidQuery.getPostAggregations()) {
+            if (columnToColumnName.containsValue(postAggregation.getName())) {
+                continue;
+            }
             Number postAggResult = postAggregationEvaluator.calculate(
                     postAggregation,
                     (String columnName) -> row[columnToColumnName.inverse().get(columnName)]
@@ -157,6 +190,21 @@ public class SqlResultSetProcessor {
         }
     }
 
+    /**
+     * Gets the maximum number of rows to return for each time bucket. This is the threshold of a TopN query,
+     * since it can only be pushed down to sql as a {@code LIMIT} when there is a single time bucket.
+     *
+     * @param druidQuery  The query to find the threshold of.
+     *
+     * @return the threshold of a TopN query, otherwise {@link Long#MAX_VALUE}.
+     */
+    private static long getThreshold(DruidAggregationQuery<?> druidQuery) {
+        if (druidQuery.getQueryType().equals(DefaultQueryType.TOP_N)) {
+            return ((TopNQuery) druidQuery).getThreshold();
+        }
+        return Long.MAX_VALUE;
+    }
+
     /**
      * Checks whether the current position in a row is a raw column or an exploded date time column.
      *
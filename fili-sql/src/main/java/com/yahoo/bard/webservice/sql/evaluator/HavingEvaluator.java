@@ -123,7 +123,7 @@ public class HavingEvaluator implements ReflectiveVisitor {
     public RexNode evaluate(NotHaving notHaving, RelBuilder builder, ApiToFieldMapper apiToFieldMapper) {
         return builder.call(
                 SqlStdOperatorTable.NOT,
-                dispatcher.invoke(notHaving.getHaving())
+                dispatcher.invoke(notHaving.getHaving(), builder, apiToFieldMapper)
         );
     }
 
@@ -0,0 +1,203 @@
+// Copyright 2019 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.sql.evaluator;
+
+import com.yahoo.bard.webservice.druid.model.postaggregation.ArithmeticPostAggregation;
+import com.yahoo.bard.webservice.druid.model.postaggregation.ConstantPostAggregation;
+import com.yahoo.bard.webservice.druid.model.postaggregation.FieldAccessorPostAggregation;
+import com.yahoo.bard.webservice.druid.model.postaggregation.PostAggregation;
+import com.yahoo.bard.webservice.sql.ApiToFieldMapper;
+
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlOperator;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ReflectUtil;
+import org.apache.calcite.util.ReflectiveVisitor;
+
+import java.util.List;
+
+/**
+ * Evaluates post aggregations to build an equivalent {@link RexNode} so that they can be computed by the
+ * database instead of in memory by the {@link PostAggregationEvaluator}. To use this call
+ * {@link #evaluatePostAggregation(PostAggregation, RelBuilder, ApiToFieldMapper)}.
+ *
+ * All arithmetic is done on doubles to match the behavior of io.druid.query.aggregation.post.ArithmeticPostAggregator.
+ */
+public class PostAggregationSqlEvaluator implements ReflectiveVisitor {
+    private final ReflectUtil.MethodDispatcher<RexNode> dispatcher;
+
+    /**
+     * Constructor.
+     */
+    public PostAggregationSqlEvaluator() {
+        /*
+        The method dispatcher dynamically calls the correct method in this class based on the polymorphic first
+        argument. All methods must have the same signature except for the first argument.
+         */
+        dispatcher = ReflectUtil.createMethodDispatcher(
+                RexNode.class,
+                this,
+                "evaluate",
+                PostAggregation.class,
+                RelBuilder.class,
+                ApiToFieldMapper.class
+        );
+    }
+
+    /**
+     * Creates a {@link RexNode} which computes the given {@link PostAggregation} and is aliased to its name.
+     *
+     * @param postAggregation  The post aggregation to evaluate.
+     * @param builder  The RelBuilder used with Calcite to make queries.
+     * @param apiToFieldMapper  A function to get the aliased aggregation's name from the metric name.
+     *
+     * @return the equivalent {@link RexNode} to be used in a sql query.
+     *
+     * @throws UnsupportedOperationException for post aggregations which couldn't be evaluated.
+     */
+    public RexNode evaluatePostAggregation(
+            PostAggregation postAggregation,
+            RelBuilder builder,
+            ApiToFieldMapper apiToFieldMapper
+    ) {
+        try {
+            return builder.alias(
+                    dispatcher.invoke(postAggregation, builder, apiToFieldMapper),
+                    apiToFieldMapper.apply(postAggregation.getName())
+            );
+        } catch (RuntimeException e) {
+            // the dispatcher wraps exceptions thrown by the evaluate methods, so unwrap them for callers
+            Throwable cause = e;
+            while (!(cause instanceof UnsupportedOperationException) && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof UnsupportedOperationException) {
+                throw (UnsupportedOperationException) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Top level evaluate function meant to capture {@link PostAggregation} which could not be mapped
+     * to a specific "evaluate" method.
+     *
+     * @param postAggregation  The post aggregation to evaluate.
+     * @param builder  The RelBuilder used with Calcite to make queries.
+     * @param apiToFieldMapper  A function to get the aliased aggregation's name from the metric name.
+     *
+     * @return only throws exception.
+     *
+     * @throws UnsupportedOperationException for post aggregations which couldn't be evaluated.
+     */
+    public RexNode evaluate(PostAggregation postAggregation, RelBuilder builder, ApiToFieldMapper apiToFieldMapper) {
+        throw new UnsupportedOperationException("Can't Process " + postAggregation);
+    }
+
+    /**
+     * Evaluates a {@link FieldAccessorPostAggregation} by reading the aggregated column as a double.
+     *
+     * @param fieldAccessorPostAggregation  Determines which aggregated field will be accessed.
+     * @param builder  The RelBuilder used with Calcite to make queries.
+     * @param apiToFieldMapper  A function to get the aliased aggregation's name from the metric name.
+     *
+     * @return the equivalent {@link RexNode} to be used in a sql query.
+     */
+    public RexNode evaluate(
+            FieldAccessorPostAggregation fieldAccessorPostAggregation,
+            RelBuilder builder,
+            ApiToFieldMapper apiToFieldMapper
+    ) {
+        return builder.cast(
+                builder.field(apiToFieldMapper.apply(fieldAccessorPostAggregation.getFieldName())),
+                SqlTypeName.DOUBLE
+        );
+    }
+
+    /**
+     * Evaluates a {@link ConstantPostAggregation} as a double literal.
+     *
+     * @param constantPostAggregation  Contains a constant which will be read.
+     * @param builder  The RelBuilder used with Calcite to make queries.
+     * @param apiToFieldMapper  A function to get the aliased aggregation's name from the metric name.
+     *
+     * @return the equivalent {@link RexNode} to be used in a sql query.
+     */
+    public RexNode evaluate(
+            ConstantPostAggregation constantPostAggregation,
+            RelBuilder builder,
+            ApiToFieldMapper apiToFieldMapper
+    ) {
+        return builder.cast(builder.literal(constantPostAggregation.getValue()), SqlTypeName.DOUBLE);
+    }
+
+    /**
+     * Evaluates an {@link ArithmeticPostAggregation} by folding its operation over its inner post aggregations.
+     *
+     * @param arithmeticPostAggregation  The post aggregation which performs an operation over other post aggregations.
+     * @param builder  The RelBuilder used with Calcite to make queries.
+     * @param apiToFieldMapper  A function to get the aliased aggregation's name from the metric name.
+     *
+     * @return the equivalent {@link RexNode} to be used in a sql query.
+     */
+    public RexNode evaluate(
+            ArithmeticPostAggregation arithmeticPostAggregation,
+            RelBuilder builder,
+            ApiToFieldMapper apiToFieldMapper
+    ) {
+        List<PostAggregation> fields = arithmeticPostAggregation.getFields();
+        switch (arithmeticPostAggregation.getFn()) {
+            case PLUS:
+                return fold(SqlStdOperatorTable.PLUS, fields, builder, apiToFieldMapper);
+            case MINUS:
+                return fold(SqlStdOperatorTable.MINUS, fields, builder, apiToFieldMapper);
+            case MULTIPLY:
+                return fold(SqlStdOperatorTable.MULTIPLY, fields, builder, apiToFieldMapper);
+            case DIVIDE:
+                RexNode div = dispatcher.invoke(fields.get(0), builder, apiToFieldMapper);
+                RexNode zero = builder.cast(builder.literal(0), SqlTypeName.DOUBLE);
+                for (int i = 1; i < fields.size(); i++) {
+                    RexNode divisor = dispatcher.invoke(fields.get(i), builder, apiToFieldMapper);
+                    // if divisor is zero then result is zero
+                    // from druid docs http://druid.io/docs/latest/querying/post-aggregations.html
+                    div = builder.call(
+                            SqlStdOperatorTable.CASE,
+                            builder.call(SqlStdOperatorTable.EQUALS, divisor, zero),
+                            zero,
+                            builder.call(SqlStdOperatorTable.DIVIDE, div, divisor)
+                    );
+                }
+                return div;
+        }
+        throw new UnsupportedOperationException("Can't do post aggregation " + arithmeticPostAggregation);
+    }
+
+    /**
+     * Applies a binary operator from left to right over a list of post aggregations.
+     *
+     * @param operator  The binary operator to apply.
+     * @param postAggregations  The operands of the operation.
+     * @param builder  The RelBuilder used with Calcite to make queries.
+     * @param apiToFieldMapper  A function to get the aliased aggregation's name from the metric name.
+     *
+     * @return the equivalent {@link RexNode} to be used in a sql query.
+     */
+    private RexNode fold(
+            SqlOperator operator,
+            List<PostAggregation> postAggregations,
+            RelBuilder builder,
+            ApiToFieldMapper apiToFieldMapper
+    ) {
+        RexNode result = dispatcher.invoke(postAggregations.get(0), builder, apiToFieldMapper);
+        for (int i = 1; i < postAggregations.size(); i++) {
+            result = builder.call(
+                    operator,
+                    result,
+                    dispatcher.invoke(postAggregations.get(i), builder, apiToFieldMapper)
+            );
+        }
+        return result;
+    }
+}
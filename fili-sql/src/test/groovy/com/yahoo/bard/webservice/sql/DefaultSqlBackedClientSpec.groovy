@@ -21,6 +21,9 @@ import static com.yahoo.bard.webservice.database.Database.REGION_ISO_CODE
 import static com.yahoo.bard.webservice.database.Database.USER
 import static com.yahoo.bard.webservice.database.Database.WIKITICKER
 import static com.yahoo.bard.webservice.druid.model.orderby.SortDirection.ASC
+import static com.yahoo.bard.webservice.druid.model.postaggregation.ArithmeticPostAggregation.ArithmeticPostAggregationFunction.DIVIDE
+import static com.yahoo.bard.webservice.druid.model.postaggregation.ArithmeticPostAggregation.ArithmeticPostAggregationFunction.MINUS
+import static com.yahoo.bard.webservice.druid.model.postaggregation.ArithmeticPostAggregation.ArithmeticPostAggregationFunction.PLUS
 import static com.yahoo.bard.webservice.druid.model.orderby.SortDirection.DESC
 import static com.yahoo.bard.webservice.data.time.AllGranularity.INSTANCE
 import static com.yahoo.bard.webservice.sql.builders.Aggregator.longMax
@@ -38,6 +41,8 @@ import static com.yahoo.bard.webservice.sql.builders.Havings.equal
 import static com.yahoo.bard.webservice.sql.builders.Havings.gt
 import static com.yahoo.bard.webservice.sql.builders.Havings.lt
 import static com.yahoo.bard.webservice.sql.builders.Intervals.interval
+import static com.yahoo.bard.webservice.sql.builders.PostAggregator.constant
+import static com.yahoo.bard.webservice.sql.builders.PostAggregator.field
 import static com.yahoo.bard.webservice.sql.builders.SimpleDruidQueryBuilder.END
 import static com.yahoo.bard.webservice.sql.builders.SimpleDruidQueryBuilder.START
 import static com.yahoo.bard.webservice.sql.builders.SimpleDruidQueryBuilder.dataSource
@@ -58,12 +63,19 @@ import com.yahoo.bard.webservice.druid.model.aggregation.Aggregation
 import com.yahoo.bard.webservice.druid.model.filter.Filter
 import com.yahoo.bard.webservice.druid.model.having.Having
 import com.yahoo.bard.webservice.druid.model.orderby.LimitSpec
+import com.yahoo.bard.webservice.druid.model.orderby.TopNMetric
+import com.yahoo.bard.webservice.druid.model.postaggregation.ArithmeticPostAggregation
+import com.yahoo.bard.webservice.druid.model.postaggregation.PostAggregation
+import com.yahoo.bard.webservice.druid.model.postaggregation.ThetaSketchEstimatePostAggregation
 import com.yahoo.bard.webservice.druid.model.query.AbstractDruidAggregationQuery
 import com.yahoo.bard.webservice.druid.model.query.DruidQuery
 import com.yahoo.bard.webservice.data.time.Granularity
 import com.yahoo.bard.webservice.druid.model.query.GroupByQuery
 import com.yahoo.bard.webservice.druid.model.query.TimeSeriesQuery
+import com.yahoo.bard.webservice.druid.model.query.TopNQuery
+import com.yahoo.bard.webservice.sql.builders.Havings
 import com.yahoo.bard.webservice.sql.builders.SimpleDruidQueryBuilder
+import com.yahoo.bard.webservice.sql.helper.CalciteHelper
 import com.yahoo.bard.webservice.table.Column
 
 import com.fasterxml.jackson.databind.JsonNode
@@ -321,4 +333,126 @@ class DefaultSqlBackedClientSpec extends Specification {
         MONTH    | [USER]                                  | []               | []               | OptionalInt.of(49)   | 49
         INSTANCE | [COUNTRY_ISO_CODE]                      | []               | []               | OptionalInt.of(25)   | 25
     }
+
+    @Unroll
+    def "Post aggregation #postAggName is computed by the database with having #having"() {
+        setup:
+        PostAggregation postAggregation = new ArithmeticPostAggregation(
+                postAggName,
+                fn,
+                [field(sum(ADDED)), field(sum(DELETED))]
+        )
+        GroupByQuery druidQuery = groupByQuery(
+                WIKITICKER,
+                null,
+                having,
+                getDimensions([IS_ROBOT]),
+                DAY,
+                [ADDED, DELETED],
+                [IS_ROBOT],
+                [sum(ADDED), sum(DELETED)],
+                [postAggregation],
+                [interval(START, END)],
+                SimpleDruidQueryBuilder.getSort([postAggName], [DESC], OptionalInt.of(1))
+        )
+        JsonNode jsonNode = sqlBackedClient.executeQuery(druidQuery, null, null).get()
+
+        expect:
+        jsonNode.size() == size
+        jsonNode.every {
+            it.get("event").get(postAggName).asDouble() == expectedFn(it.get("event"))
+        }
+
+        where:
+        postAggName | fn     | having                         | size | expectedFn
+        "net"       | MINUS  | null                           | 1    | { e -> e.get(ADDED).asDouble() - e.get(DELETED).asDouble() }
+        "total"     | PLUS   | gt("total", 1)                 | 1    | { e -> e.get(ADDED).asDouble() + e.get(DELETED).asDouble() }
+        "total"     | PLUS   | gt("total", 100000000)         | 0    | { e -> e.get(ADDED).asDouble() + e.get(DELETED).asDouble() }
+        "ratio"     | DIVIDE | Havings.not(lt("ratio", 0))    | 1    | { e -> e.get(ADDED).asDouble() / e.get(DELETED).asDouble() }
+    }
+
+    def "Division by zero in a post aggregation computed by the database is zero"() {
+        setup:
+        PostAggregation postAggregation = new ArithmeticPostAggregation(
+                "divideByZero",
+                DIVIDE,
+                [field(sum(ADDED)), constant(0)]
+        )
+        TimeSeriesQuery druidQuery = timeSeriesQuery(
+                WIKITICKER,
+                null,
+                DAY,
+                [ADDED],
+                [],
+                [sum(ADDED)],
+                [postAggregation],
+                [interval(START, END)]
+        )
+        JsonNode jsonNode = sqlBackedClient.executeQuery(druidQuery, null, null).get()
+
+        expect:
+        jsonNode.get(0).get("event").get("divideByZero").asDouble() == 0.0D
+    }
+
+    def "Post aggregations which can't be translated to sql are calculated in memory"() {
+        setup:
+        PostAggregation postAggregation = new ArithmeticPostAggregation(
+                "net",
+                MINUS,
+                [field(sum(ADDED)), field(sum(DELETED))]
+        )
+        TimeSeriesQuery druidQuery = timeSeriesQuery(
+                WIKITICKER,
+                null,
+                DAY,
+                [ADDED, DELETED],
+                [],
+                [sum(ADDED), sum(DELETED)],
+                [postAggregation],
+                [interval(START, END)]
+        )
+        DruidQueryToSqlConverter converter = new DruidQueryToSqlConverter(
+                new CalciteHelper(Database.getDataSource())
+        )
+        ApiToFieldMapper apiToFieldMapper = new ApiToFieldMapper(druidQuery.dataSource.physicalTable.schema)
+
+        when:
+        String pushedDownSql = converter.buildSqlQuery(druidQuery, apiToFieldMapper)
+        String inMemorySql = converter.buildSqlQuery(
+                druidQuery.withPostAggregations([new ThetaSketchEstimatePostAggregation("sketch", null)]),
+                apiToFieldMapper
+        )
+
+        then:
+        pushedDownSql.contains("AS \"net\"")
+        !inMemorySql.contains("sketch")
+    }
+
+    @Unroll
+    def "TopN on #timeGrain with threshold #threshold returns #size rows"() {
+        setup:
+        TopNQuery druidQuery = new TopNQuery(
+                dataSource(WIKITICKER, [ADDED], [PAGE]),
+                timeGrain,
+                getDimension(PAGE),
+                null,
+                [sum(ADDED)],
+                [],
+                [interval(START, END)],
+                threshold,
+                new TopNMetric(ADDED, direction)
+        )
+        JsonNode jsonNode = sqlBackedClient.executeQuery(druidQuery, null, null).get()
+        List<Double> added = jsonNode.collect { it.get("event").get(ADDED).asDouble() }
+
+        expect:
+        jsonNode.size() == size
+        added.subList(0, threshold) == added.subList(0, threshold).sort(false) { direction == ASC ? it : -it }
+
+        where:
+        timeGrain | threshold | direction | size
+        INSTANCE  | 5         | DESC      | 5
+        INSTANCE  | 5         | ASC       | 5
+        HOUR      | 3         | DESC      | 24 * 3
+    }
 }